@@ -0,0 +1,304 @@
+package org.dynmap.bench;
+
+import org.dynmap.DynmapCore;
+import org.dynmap.MapType;
+import org.dynmap.common.BiomeMap;
+import org.dynmap.common.chunk.GenericChunkCache;
+import org.dynmap.hdmap.HDMap;
+import org.dynmap.hdmap.HDMapTile;
+import org.dynmap.offline.OfflineServer;
+import org.dynmap.renderer.DynmapBlockState;
+import org.dynmap.utils.MapChunkCache;
+import org.dynmap.utils.TileFlags;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Core instance shared by the benchmarks in a JVM: a DynmapCore running against a {@link OfflineServer}, with
+ * file tree storage in a temporary data directory, one {@link SyntheticWorld}, and a generated test texture
+ * pack covering the blocks the world uses.  The world has two maps using the texture pack: 'surface'
+ * (iso_SE_30_hires) and 'flat' (iso_S_90_lowres).
+ * <p>
+ * Set -Ddynmap.bench.verbose=true to see the core's log output.
+ */
+public class BenchEnvironment {
+    public static final String WORLD_NAME = "bench";
+    public static final String MC_VERSION = "1.21.1";
+    public static final long SEED = 0x5EEDL;
+
+    private static BenchEnvironment env;
+
+    private final Path datadir;
+    private final OfflineServer server;
+    private final DynmapCore core;
+    private final SyntheticWorld world;
+
+    // Test texture pack - one 16x16 texture per file, generated from a base color
+    private static final Object[][] TEXTURES = {
+            {"stone", 0x7F7F7F}, {"dirt", 0x866043}, {"grass_block_top", 0x9D9D9D},
+            {"grass_block_side", 0x866043}, {"grass_block_side_overlay", 0x9D9D9D}, {"grass_block_snow", 0xF0F0F0},
+            {"sand", 0xDBCFA3}, {"water_still", 0x3F76E4}, {"water_flow", 0x3F76E4}, {"oak_log", 0x6D5532},
+            {"oak_log_top", 0xA2824E}, {"oak_leaves", 0x8A8A8A}, {"bedrock", 0x555555}
+    };
+
+    private static final String CONFIGURATION =
+            "storage:\n" +
+            "  type: filetree\n" +
+            "components: []\n" +
+            "disable-webserver: true\n" +
+            "image-format: png\n" +
+            "verbose: false\n" +
+            "initial-zoomout-validate: false\n" +
+            "saverestorepending: false\n" +
+            "zoomoutperiod: 86400\n" +
+            "persist-ids-by-ip: false\n" +
+            "ctm-support: false\n" +
+            "custom-colors-support: false\n" +
+            "templates:\n" +
+            "  bench:\n" +
+            "    enabled: true\n" +
+            "    extrazoomout: 0\n" +
+            "    maps:\n" +
+            "      - class: org.dynmap.hdmap.HDMap\n" +
+            "        name: surface\n" +
+            "        title: \"Surface\"\n" +
+            "        prefix: t\n" +
+            "        perspective: iso_SE_30_hires\n" +
+            "        shader: bench\n" +
+            "        lighting: shadows\n" +
+            "      - class: org.dynmap.hdmap.HDMap\n" +
+            "        name: flat\n" +
+            "        title: \"Flat\"\n" +
+            "        prefix: flat\n" +
+            "        perspective: iso_S_90_lowres\n" +
+            "        shader: bench\n" +
+            "        lighting: default\n";
+
+    private static final String WORLDS =
+            "worlds:\n" +
+            "  - name: " + WORLD_NAME + "\n" +
+            "    template: bench\n";
+
+    private static final String SHADERS =
+            "shaders:\n" +
+            "  - class: org.dynmap.hdmap.TexturePackHDShader\n" +
+            "    name: bench\n" +
+            "    texturepack: bench\n";
+
+    /**
+     * Get shared environment, starting it on first use
+     *
+     * @return environment
+     */
+    public static synchronized BenchEnvironment get() throws IOException {
+        if (env == null) {
+            env = new BenchEnvironment();
+            Runtime.getRuntime().addShutdownHook(new Thread(env::shutdown, "dynmap-bench-shutdown"));
+        }
+        return env;
+    }
+
+    private BenchEnvironment() throws IOException {
+        if (!Boolean.getBoolean("dynmap.bench.verbose")) {
+            Logger.getLogger("Dynmap").setLevel(Level.SEVERE);  // Test pack only has the textures we use
+        }
+        datadir = Files.createTempDirectory("dynmap-bench");
+        writeFile("configuration.txt", CONFIGURATION);
+        writeFile("worlds.txt", WORLDS);
+        writeFile("custom-shaders.txt", SHADERS);
+        writeTexturePack(datadir.resolve("texturepacks").resolve("bench"));
+
+        BiomeMap.loadWellKnownByVersion(MC_VERSION);
+        registerBlockStates();
+
+        server = new OfflineServer("bench");
+        core = new DynmapCore();
+        core.setServer(server);
+        core.setDataFolder(datadir.toFile());
+        core.setPluginVersion("bench", "bench");
+        core.setMinecraftVersion(MC_VERSION);
+        if (!core.initConfiguration(null)) {
+            throw new IllegalStateException("Core configuration failed");
+        }
+        if (!core.enableCore(null)) {
+            throw new IllegalStateException("Core failed to start");
+        }
+        GenericChunkCache sscache = new GenericChunkCache(core.getSnapShotCacheSize(), core.useSoftRefInSnapShotCache());
+        world = new SyntheticWorld(WORLD_NAME, SEED, sscache);
+        server.addWorld(world);
+        if (!core.processWorldLoad(world)) {
+            throw new IllegalStateException("World failed to activate");
+        }
+    }
+
+    private void writeFile(String name, String content) throws IOException {
+        Files.write(datadir.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Register block states for the blocks SyntheticTerrain generates, the same way the platforms do
+    private static void registerBlockStates() {
+        DynmapBlockState.Builder bld = new DynmapBlockState.Builder();
+        int id = 1;
+        id = addBlock(bld, id, "minecraft:stone", new String[]{""}, true, false, false);
+        id = addBlock(bld, id, "minecraft:grass_block", new String[]{"snowy=true", "snowy=false"}, true, false, false);
+        id = addBlock(bld, id, "minecraft:dirt", new String[]{""}, true, false, false);
+        id = addBlock(bld, id, "minecraft:bedrock", new String[]{""}, true, false, false);
+        String[] levels = new String[16];
+        for (int i = 0; i < levels.length; i++) levels[i] = "level=" + i;
+        id = addBlock(bld, id, "minecraft:water", levels, false, false, false);
+        id = addBlock(bld, id, "minecraft:sand", new String[]{""}, true, false, false);
+        id = addBlock(bld, id, "minecraft:oak_log", new String[]{"axis=x", "axis=y", "axis=z"}, true, true, false);
+        String[] leaves = new String[28];
+        int i = 0;
+        for (int d = 1; d <= 7; d++) {
+            for (String p : new String[]{"true", "false"}) {
+                for (String w : new String[]{"true", "false"}) {
+                    leaves[i++] = "distance=" + d + ",persistent=" + p + ",waterlogged=" + w;
+                }
+            }
+        }
+        addBlock(bld, id, "minecraft:oak_leaves", leaves, true, false, true);
+    }
+
+    private static int addBlock(DynmapBlockState.Builder bld, int id, String name, String[] states, boolean solid, boolean log, boolean leaves) {
+        DynmapBlockState base = null;
+        for (int i = 0; i < states.length; i++) {
+            bld.setBaseState(base).setStateIndex(i).setBlockName(name).setStateName(states[i]).setLegacyBlockID(id + i)
+                    .setAttenuatesLight(solid && !leaves ? 15 : 1).setMaterial("bench");
+            if (solid) bld.setSolid();
+            if (log) bld.setLog();
+            if (leaves) bld.setLeaves();
+            DynmapBlockState bs = bld.build();
+            if (base == null) base = bs;
+        }
+        return id + states.length;
+    }
+
+    private static void writeTexturePack(Path dir) throws IOException {
+        Path blocks = dir.resolve("assets/minecraft/textures/block");
+        Path colormap = dir.resolve("assets/minecraft/textures/colormap");
+        Files.createDirectories(blocks);
+        Files.createDirectories(colormap);
+        Files.write(dir.resolve("pack.mcmeta"),
+                "{\"pack\":{\"pack_format\":34,\"description\":\"Dynmap benchmark pack\"}}".getBytes(StandardCharsets.UTF_8));
+        Random rnd = new Random(SEED);
+        for (Object[] t : TEXTURES) {
+            String name = (String) t[0];
+            int rgb = (Integer) t[1];
+            BufferedImage img = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    int alpha = 0xFF;
+                    if (name.equals("water_still") || name.equals("water_flow")) {
+                        alpha = 0xB0;
+                    } else if (name.equals("oak_leaves") && (rnd.nextInt(4) == 0)) {
+                        alpha = 0;
+                    } else if (name.equals("grass_block_side_overlay") && (y > 3 + rnd.nextInt(3))) {
+                        alpha = 0;
+                    }
+                    img.setRGB(x, y, (alpha << 24) | vary(rgb, rnd.nextInt(25) - 12));
+                }
+            }
+            ImageIO.write(img, "png", blocks.resolve(name + ".png").toFile());
+        }
+        writeColormap(colormap.resolve("grass.png").toFile(), 0x91BD59, 0x4C763C);
+        writeColormap(colormap.resolve("foliage.png").toFile(), 0x77AB2F, 0x3E6A1C);
+    }
+
+    private static int vary(int rgb, int delta) {
+        int r = Math.max(0, Math.min(255, ((rgb >> 16) & 0xFF) + delta));
+        int g = Math.max(0, Math.min(255, ((rgb >> 8) & 0xFF) + delta));
+        int b = Math.max(0, Math.min(255, (rgb & 0xFF) + delta));
+        return (r << 16) | (g << 8) | b;
+    }
+
+    // Biome colormap: blend from 'hot' color (top left) to 'cold' color (bottom right)
+    private static void writeColormap(File f, int hot, int cold) throws IOException {
+        BufferedImage img = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 256; x++) {
+                int w = (x + y) / 2;
+                int c = 0xFF000000;
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int h = (hot >> shift) & 0xFF, k = (cold >> shift) & 0xFF;
+                    c |= ((h * (255 - w) + k * w) / 255) << shift;
+                }
+                img.setRGB(x, y, c);
+            }
+        }
+        ImageIO.write(img, "png", f);
+    }
+
+    private void shutdown() {
+        core.disableCore();
+        try (Stream<Path> s = Files.walk(datadir)) {
+            s.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException iox) {
+        }
+    }
+
+    public DynmapCore getCore() {
+        return core;
+    }
+
+    public OfflineServer getServer() {
+        return server;
+    }
+
+    public SyntheticWorld getWorld() {
+        return world;
+    }
+
+    /**
+     * Get map of benchmark world
+     *
+     * @param name - map name ('surface' or 'flat')
+     * @return map
+     */
+    public HDMap getMap(String name) {
+        for (MapType mt : world.maps) {
+            if ((mt instanceof HDMap) && mt.getName().equals(name)) {
+                return (HDMap) mt;
+            }
+        }
+        throw new IllegalArgumentException("No map " + name);
+    }
+
+    /**
+     * Get tile of given map containing given block
+     *
+     * @param map - map
+     * @param x   - block X
+     * @param z   - block Z
+     * @return tile
+     */
+    public HDMapTile getTile(HDMap map, int x, int z) {
+        int y = world.getHighestBlockYAt(x, z);
+        List<TileFlags.TileCoord> coords = map.getPerspective().getTileCoords(world, x, y, z, map.getTileScale());
+        TileFlags.TileCoord c = coords.get(0);
+        return new HDMapTile(world, map.getPerspective(), c.x, c.y, map.getBoostZoom(), map.getTileScale());
+    }
+
+    /**
+     * Load chunks needed to render a tile, as the map manager would
+     *
+     * @param tile - tile
+     * @return loaded chunk cache
+     */
+    public MapChunkCache loadChunks(HDMapTile tile) {
+        return server.createMapChunkCache(world, tile.getRequiredChunks(), tile.isBlockTypeDataNeeded(),
+                tile.isHightestBlockYDataNeeded(), tile.isBiomeDataNeeded(), tile.isRawBiomeDataNeeded());
+    }
+}
@@ -0,0 +1,125 @@
+package org.dynmap.bench;
+
+import org.dynmap.hdmap.HDPerspectiveState;
+import org.dynmap.renderer.DynmapBlockState;
+import org.dynmap.utils.BlockStep;
+import org.dynmap.utils.LightLevels;
+import org.dynmap.utils.MapIterator;
+import org.dynmap.utils.Vector3D;
+
+/**
+ * Perspective state for driving shaders directly, without a ray trace: reports a given block, entry step and
+ * subblock coordinate, with full sky light
+ */
+class BenchPerspectiveState implements HDPerspectiveState {
+    private final MapIterator mapiter;
+    private final double scale;
+    private final LightLevels[] llcache = {new LightLevels(), new LightLevels(), new LightLevels(), new LightLevels()};
+    private final Vector3D raystart = new Vector3D();
+    private final Vector3D rayend = new Vector3D();
+    private DynmapBlockState blk;
+    private BlockStep step;
+    private int[] subblock;
+
+    BenchPerspectiveState(MapIterator mapiter, int scale) {
+        this.mapiter = mapiter;
+        this.scale = scale;
+    }
+
+    void set(DynmapBlockState blk, BlockStep step, int[] subblock) {
+        this.blk = blk;
+        this.step = step;
+        this.subblock = subblock;
+    }
+
+    @Override
+    public void getLightLevels(LightLevels ll) {
+        ll.sky = 15;
+        ll.emitted = 0;
+    }
+
+    @Override
+    public void getLightLevelsAtStep(BlockStep step, LightLevels ll) {
+        getLightLevels(ll);
+    }
+
+    @Override
+    public DynmapBlockState getBlockState() {
+        return blk;
+    }
+
+    @Override
+    public BlockStep getLastBlockStep() {
+        return step;
+    }
+
+    @Override
+    public double getScale() {
+        return scale;
+    }
+
+    @Override
+    public Vector3D getRayStart() {
+        return raystart;
+    }
+
+    @Override
+    public Vector3D getRayEnd() {
+        return rayend;
+    }
+
+    @Override
+    public int getPixelX() {
+        return 0;
+    }
+
+    @Override
+    public int getPixelY() {
+        return 0;
+    }
+
+    @Override
+    public boolean getShade() {
+        return true;
+    }
+
+    @Override
+    public int getSubmodelAlpha() {
+        return -1;
+    }
+
+    @Override
+    public int[] getSubblockCoord() {
+        return subblock;
+    }
+
+    @Override
+    public boolean isOnFace() {
+        return true;
+    }
+
+    @Override
+    public MapIterator getMapIterator() {
+        return mapiter;
+    }
+
+    @Override
+    public int getTextureIndex() {
+        return -1;
+    }
+
+    @Override
+    public double getPatchU() {
+        return 0;
+    }
+
+    @Override
+    public double getPatchV() {
+        return 0;
+    }
+
+    @Override
+    public LightLevels getCachedLightLevels(int idx) {
+        return llcache[idx];
+    }
+}
@@ -0,0 +1,55 @@
+package org.dynmap.bench;
+
+import org.dynmap.DynmapChunk;
+import org.dynmap.offline.NBT.NBTCompound;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GenericMapChunkCache.parseChunkFromNBT - chunk NBT to GenericChunk, done for every chunk not found in the
+ * snapshot cache
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkParseBenchmark {
+    private static final int CHUNKS = 16;
+
+    private SyntheticChunkCache cache;
+    private NBTCompound[] nbt;
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticWorld world = BenchEnvironment.get().getWorld();
+        cache = (SyntheticChunkCache) world.getChunkCache(Collections.singletonList(new DynmapChunk(0, 0)));
+        nbt = new NBTCompound[CHUNKS];
+        for (int i = 0; i < CHUNKS; i++) {
+            nbt[i] = world.getTerrain().generateChunk(i & 3, i >> 2);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public void parse(Blackhole bh) {
+        for (NBTCompound c : nbt) {
+            bh.consume(cache.parseChunkFromNBT(c));
+        }
+    }
+}
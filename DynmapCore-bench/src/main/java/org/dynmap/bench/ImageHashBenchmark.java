@@ -0,0 +1,53 @@
+package org.dynmap.bench;
+
+import org.dynmap.storage.ImageHash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tile image hashing, done for every rendered tile to decide if it changed
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageHashBenchmark {
+    // Tile edge, in pixels (128 = normal tile, 256 = boosted)
+    @Param({"128", "256"})
+    public int size;
+
+    @Param({"crc32", "crc32c", "xxhash64"})
+    public String hash;
+
+    private ImageHash alg;
+    private int[] argb;
+
+    @Setup
+    public void setup() {
+        alg = ImageHash.fromID(hash);
+        Random rnd = new Random(BenchEnvironment.SEED);
+        argb = new int[size * size];
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = 0xFF000000 | rnd.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    public long hash() {
+        return alg.calculate(argb, 0, argb.length);
+    }
+}
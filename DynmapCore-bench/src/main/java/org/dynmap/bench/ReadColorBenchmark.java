@@ -0,0 +1,95 @@
+package org.dynmap.bench;
+
+import org.dynmap.DynmapChunk;
+import org.dynmap.hdmap.HDMap;
+import org.dynmap.hdmap.HDMapTile;
+import org.dynmap.hdmap.HDShaderState;
+import org.dynmap.renderer.DynmapBlockState;
+import org.dynmap.utils.BlockStep;
+import org.dynmap.utils.MapChunkCache;
+import org.dynmap.utils.MapIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TexturePack.readColor, through the texture pack shader's processBlock (the shader state is private to the
+ * hdmap package): texture lookup, biome tinting and face shading for surface blocks of the benchmark world.
+ * Light levels are fixed, so light propagation is not part of the cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadColorBenchmark {
+    private static final int SAMPLES = 1024;
+    private static final BlockStep[] STEPS = {BlockStep.Y_MINUS, BlockStep.X_MINUS, BlockStep.Z_PLUS};
+
+    private MapIterator mapiter;
+    private HDShaderState shaderstate;
+    private BenchPerspectiveState ps;
+    private int[] xyz;
+    private DynmapBlockState[] blks;
+    private BlockStep[] steps;
+    private int[][] subblocks;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchEnvironment env = BenchEnvironment.get();
+        SyntheticWorld world = env.getWorld();
+        HDMap map = env.getMap("surface");
+        HDMapTile tile = env.getTile(map, 0, 0);
+        MapChunkCache cache = env.loadChunks(tile);
+        int scale = map.getPerspective().getModelScale();
+        mapiter = cache.getIterator(0, 0, 0);
+        shaderstate = map.getShader().getStateInstance(map, cache, mapiter, scale);
+        ps = new BenchPerspectiveState(mapiter, scale);
+
+        // Pick random surface blocks in the tile's chunks
+        List<DynmapChunk> chunks = tile.getRequiredChunks();
+        Random rnd = new Random(BenchEnvironment.SEED);
+        xyz = new int[3 * SAMPLES];
+        blks = new DynmapBlockState[SAMPLES];
+        steps = new BlockStep[SAMPLES];
+        subblocks = new int[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            DynmapChunk c = chunks.get(rnd.nextInt(chunks.size()));
+            int x = (c.x << 4) + rnd.nextInt(16), z = (c.z << 4) + rnd.nextInt(16);
+            int y = world.getHighestBlockYAt(x, z) - 1;
+            xyz[3 * i] = x;
+            xyz[3 * i + 1] = y;
+            xyz[3 * i + 2] = z;
+            mapiter.initialize(x, y, z);
+            blks[i] = mapiter.getBlockType();
+            steps[i] = STEPS[rnd.nextInt(STEPS.length)];
+            subblocks[i] = new int[]{rnd.nextInt(scale), rnd.nextInt(scale), rnd.nextInt(scale)};
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public void readColor(Blackhole bh) {
+        for (int i = 0; i < SAMPLES; i++) {
+            mapiter.initialize(xyz[3 * i], xyz[3 * i + 1], xyz[3 * i + 2]);
+            ps.set(blks[i], steps[i], subblocks[i]);
+            shaderstate.reset(ps);
+            bh.consume(shaderstate.processBlock(ps));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.dynmap.bench;
+
+import org.dynmap.hdmap.HDMap;
+import org.dynmap.hdmap.HDMapTile;
+import org.dynmap.utils.MapChunkCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IsoHDPerspective.render of one tile of the benchmark world, with its chunks already loaded - ray tracing,
+ * shading and lighting, hashing, and (when the image changed) encoding and storing the tile.  Every tile
+ * after the first render is unchanged, so steady state measures the update render of an unchanged tile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RenderBenchmark {
+    // Map to render: 'surface' (iso_SE_30_hires) or 'flat' (iso_S_90_lowres)
+    @Param({"surface", "flat"})
+    public String map;
+
+    private HDMapTile tile;
+    private MapChunkCache cache;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchEnvironment env = BenchEnvironment.get();
+        HDMap m = env.getMap(map);
+        tile = env.getTile(m, 0, 0);
+        cache = env.loadChunks(tile);
+    }
+
+    @Benchmark
+    public boolean render() {
+        return tile.render(cache, map);
+    }
+}
@@ -0,0 +1,38 @@
+package org.dynmap.bench;
+
+import org.dynmap.DynmapChunk;
+import org.dynmap.DynmapWorld;
+import org.dynmap.common.chunk.GenericChunk;
+import org.dynmap.common.chunk.GenericChunkCache;
+import org.dynmap.common.chunk.GenericMapChunkCache;
+
+import java.util.List;
+
+/**
+ * Chunk cache for {@link SyntheticWorld} - chunks are generated as NBT and parsed, like an unloaded chunk read
+ * from a region file would be
+ */
+public class SyntheticChunkCache extends GenericMapChunkCache {
+    private SyntheticTerrain terrain;
+
+    public SyntheticChunkCache(GenericChunkCache sscache) {
+        super(sscache);
+    }
+
+    @Override
+    public void setChunks(DynmapWorld dw, List<DynmapChunk> chunks) {
+        this.terrain = ((SyntheticWorld) dw).getTerrain();
+        super.setChunks(dw, chunks);
+    }
+
+    // Nothing is ever loaded in the server - everything comes from loadChunk()
+    @Override
+    protected GenericChunk getLoadedChunk(DynmapChunk chunk) {
+        return null;
+    }
+
+    @Override
+    protected GenericChunk loadChunk(DynmapChunk chunk) {
+        return parseChunkFromNBT(terrain.generateChunk(chunk.x, chunk.z));
+    }
+}
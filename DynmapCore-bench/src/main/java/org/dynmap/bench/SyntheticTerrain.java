@@ -0,0 +1,195 @@
+package org.dynmap.bench;
+
+import org.dynmap.offline.NBT.NBTCompound;
+import org.dynmap.offline.NBT.NBTList;
+import org.dynmap.offline.NBT.OurBitStorage;
+
+import java.util.Arrays;
+
+/**
+ * Deterministic terrain generator for benchmark worlds: rolling hills of stone/dirt/grass, sand beaches and
+ * water below sea level, and scattered oak trees.  Chunks are produced as NBT in the 1.18+ chunk format,
+ * so they go through the same parsing as chunks read from a server.
+ */
+public class SyntheticTerrain {
+    public static final int MIN_Y = -64;
+    public static final int MAX_Y = 320;
+    public static final int SEA_LEVEL = 63;
+    public static final int DATA_VERSION = 3955;    // 1.21.1
+
+    // Block kinds used in generated chunks
+    static final int AIR = 0;
+    static final int STONE = 1;
+    static final int DIRT = 2;
+    static final int GRASS = 3;
+    static final int SAND = 4;
+    static final int WATER = 5;
+    static final int LOG = 6;
+    static final int LEAVES = 7;
+    static final int BEDROCK = 8;
+
+    static final String[] BLOCK_NAMES = {
+            "minecraft:air", "minecraft:stone", "minecraft:dirt", "minecraft:grass_block", "minecraft:sand",
+            "minecraft:water", "minecraft:oak_log", "minecraft:oak_leaves", "minecraft:bedrock"
+    };
+    // Block state properties of each kind, as name/value pairs (null = no properties)
+    static final String[][] BLOCK_PROPS = {
+            null, null, null, {"snowy", "false"}, null,
+            {"level", "0"}, {"axis", "y"}, {"distance", "1", "persistent", "false", "waterlogged", "false"}, null
+    };
+
+    private static final int HEIGHT = MAX_Y - MIN_Y;
+    private static final int TREE_HEIGHT = 5;
+
+    private final long seed;
+
+    public SyntheticTerrain(long seed) {
+        this.seed = seed;
+    }
+
+    private static long mix(long v) {
+        v ^= (v >>> 33);
+        v *= 0xff51afd7ed558ccdL;
+        v ^= (v >>> 33);
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= (v >>> 33);
+        return v;
+    }
+
+    private double lattice(int x, int z) {
+        long h = mix(seed ^ (x * 0x9E3779B97F4A7C15L) ^ (z * 0xC2B2AE3D27D4EB4FL));
+        return (h >>> 11) * (1.0 / (1L << 53));
+    }
+
+    // Smoothed value noise, in range 0-1
+    private double noise(double x, double z) {
+        int x0 = (int) Math.floor(x), z0 = (int) Math.floor(z);
+        double fx = x - x0, fz = z - z0;
+        fx = fx * fx * (3 - 2 * fx);
+        fz = fz * fz * (3 - 2 * fz);
+        double a = lattice(x0, z0) + fx * (lattice(x0 + 1, z0) - lattice(x0, z0));
+        double b = lattice(x0, z0 + 1) + fx * (lattice(x0 + 1, z0 + 1) - lattice(x0, z0 + 1));
+        return a + fz * (b - a);
+    }
+
+    /**
+     * Get surface height at given column
+     *
+     * @param x - world X
+     * @param z - world Z
+     * @return Y of top solid block
+     */
+    public int getSurfaceY(int x, int z) {
+        double n = 0.65 * noise(x / 48.0, z / 48.0) + 0.35 * noise(x / 12.0, z / 12.0);
+        return 40 + (int) (n * 48.0);
+    }
+
+    private boolean isTree(int x, int z) {
+        int lx = x & 0xF, lz = z & 0xF;
+        if ((lx < 2) || (lx > 13) || (lz < 2) || (lz > 13)) return false;  // Keep canopy inside chunk
+        if ((mix(seed + 17 + (x * 31L + z) * 0x9E3779B97F4A7C15L) & 0x3F) != 0) return false;
+        return getSurfaceY(x, z) > SEA_LEVEL;
+    }
+
+    /**
+     * Fill block kinds for chunk - indexed by ((y - MIN_Y) * 16 + z) * 16 + x
+     */
+    private byte[] generateBlocks(int cx, int cz) {
+        byte[] blocks = new byte[HEIGHT * 256];
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                int wx = (cx << 4) + x, wz = (cz << 4) + z;
+                int top = getSurfaceY(wx, wz);
+                boolean beach = (top >= SEA_LEVEL - 3) && (top <= SEA_LEVEL + 1);
+                for (int y = MIN_Y; y <= Math.max(top, SEA_LEVEL - 1); y++) {
+                    int kind;
+                    if (y == MIN_Y) kind = BEDROCK;
+                    else if (y > top) kind = WATER;
+                    else if (y < top - 3) kind = STONE;
+                    else if (beach) kind = SAND;
+                    else if (y < top) kind = DIRT;
+                    else kind = (top < SEA_LEVEL) ? DIRT : GRASS;
+                    blocks[(((y - MIN_Y) << 4) + z) * 16 + x] = (byte) kind;
+                }
+            }
+        }
+        // Add trees
+        for (int x = 2; x < 14; x++) {
+            for (int z = 2; z < 14; z++) {
+                int wx = (cx << 4) + x, wz = (cz << 4) + z;
+                if (!isTree(wx, wz)) continue;
+                int base = getSurfaceY(wx, wz) + 1;
+                int top = base + TREE_HEIGHT - 1;
+                for (int y = top - 2; y <= top + 1; y++) {
+                    int r = (y >= top) ? 1 : 2;
+                    for (int dx = -r; dx <= r; dx++) {
+                        for (int dz = -r; dz <= r; dz++) {
+                            int idx = (((y - MIN_Y) << 4) + z + dz) * 16 + x + dx;
+                            if (blocks[idx] == AIR) blocks[idx] = LEAVES;
+                        }
+                    }
+                }
+                for (int y = base; y <= top; y++) {
+                    blocks[(((y - MIN_Y) << 4) + z) * 16 + x] = LOG;
+                }
+            }
+        }
+        return blocks;
+    }
+
+    private static NBTCompound paletteEntry(int kind) {
+        NBTCompound c = new NBTCompound().put("Name", BLOCK_NAMES[kind]);
+        String[] props = BLOCK_PROPS[kind];
+        if (props != null) {
+            NBTCompound p = new NBTCompound();
+            for (int i = 0; i < props.length; i += 2) {
+                p.put(props[i], props[i + 1]);
+            }
+            c.put("Properties", p);
+        }
+        return c;
+    }
+
+    /**
+     * Generate chunk NBT for given chunk
+     *
+     * @param cx - chunk X
+     * @param cz - chunk Z
+     * @return chunk NBT
+     */
+    public NBTCompound generateChunk(int cx, int cz) {
+        byte[] blocks = generateBlocks(cx, cz);
+        NBTList sections = new NBTList();
+        int[] vals = new int[4096];
+        int[] palidx = new int[BLOCK_NAMES.length];
+        for (int sy = MIN_Y >> 4; sy < (MAX_Y >> 4); sy++) {
+            Arrays.fill(palidx, -1);
+            NBTList palette = new NBTList();
+            int off = ((sy << 4) - MIN_Y) * 256;
+            for (int j = 0; j < 4096; j++) {    // Section data is YZX ordered, same as our array
+                int kind = blocks[off + j];
+                if (palidx[kind] < 0) {
+                    palidx[kind] = palette.size();
+                    palette.add(paletteEntry(kind));
+                }
+                vals[j] = palidx[kind];
+            }
+            NBTCompound states = new NBTCompound().put("palette", palette);
+            if (palette.size() > 1) {
+                int bits = Math.max(4, 32 - Integer.numberOfLeadingZeros(palette.size() - 1));
+                states.put("data", OurBitStorage.pack(bits, vals));
+            }
+            NBTCompound biomes = new NBTCompound().put("palette", new NBTList().add("minecraft:plains"));
+            sections.add(new NBTCompound().put("Y", (byte) sy).put("block_states", states).put("biomes", biomes));
+        }
+        return new NBTCompound()
+                .put("DataVersion", DATA_VERSION)
+                .put("xPos", cx)
+                .put("zPos", cz)
+                .put("yPos", MIN_Y >> 4)
+                .put("Status", "minecraft:full")
+                .put("isLightOn", (byte) 1)
+                .put("InhabitedTime", 0L)
+                .put("sections", sections);
+    }
+}
@@ -0,0 +1,95 @@
+package org.dynmap.bench;
+
+import org.dynmap.DynmapChunk;
+import org.dynmap.DynmapLocation;
+import org.dynmap.DynmapWorld;
+import org.dynmap.common.chunk.GenericChunkCache;
+import org.dynmap.utils.MapChunkCache;
+
+import java.util.List;
+
+/**
+ * Overworld-like benchmark world, with chunks produced by a {@link SyntheticTerrain}
+ */
+public class SyntheticWorld extends DynmapWorld {
+    private final SyntheticTerrain terrain;
+    private final GenericChunkCache sscache;
+    private final DynmapLocation spawnloc;
+
+    public SyntheticWorld(String name, long seed, GenericChunkCache sscache) {
+        super(name, SyntheticTerrain.MAX_Y, SyntheticTerrain.SEA_LEVEL, SyntheticTerrain.MIN_Y);
+        this.terrain = new SyntheticTerrain(seed);
+        this.sscache = sscache;
+        this.spawnloc = new DynmapLocation(getName(), 0, terrain.getSurfaceY(0, 0) + 1, 0);
+    }
+
+    public SyntheticTerrain getTerrain() {
+        return terrain;
+    }
+
+    @Override
+    public boolean isNether() {
+        return false;
+    }
+
+    @Override
+    public DynmapLocation getSpawnLocation() {
+        return spawnloc;
+    }
+
+    @Override
+    public long getTime() {
+        return 6000;    // Noon
+    }
+
+    @Override
+    public boolean hasStorm() {
+        return false;
+    }
+
+    @Override
+    public boolean isThundering() {
+        return false;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return true;
+    }
+
+    @Override
+    public void setWorldUnloaded() {
+    }
+
+    @Override
+    public int getLightLevel(int x, int y, int z) {
+        return (y > terrain.getSurfaceY(x, z)) ? 15 : 0;
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z) {
+        return Math.max(terrain.getSurfaceY(x, z), SyntheticTerrain.SEA_LEVEL - 1) + 1;
+    }
+
+    @Override
+    public boolean canGetSkyLightLevel() {
+        return true;
+    }
+
+    @Override
+    public int getSkyLightLevel(int x, int y, int z) {
+        return getLightLevel(x, y, z);
+    }
+
+    @Override
+    public String getEnvironment() {
+        return "normal";
+    }
+
+    @Override
+    public MapChunkCache getChunkCache(List<DynmapChunk> chunks) {
+        SyntheticChunkCache c = new SyntheticChunkCache(sscache);
+        c.setChunks(this, chunks);
+        return c;
+    }
+}
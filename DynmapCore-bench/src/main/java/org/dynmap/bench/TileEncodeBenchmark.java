@@ -0,0 +1,74 @@
+package org.dynmap.bench;
+
+import org.dynmap.MapType;
+import org.dynmap.hdmap.HDMap;
+import org.dynmap.hdmap.HDMapTile;
+import org.dynmap.storage.MapStorageTile;
+import org.dynmap.utils.BufferOutputStream;
+import org.dynmap.utils.DynmapBufferedImage;
+import org.dynmap.utils.ImageIOManager;
+import org.dynmap.utils.PNGEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG encoding of a rendered tile, done for every tile written: the built-in encoder at a few compression levels,
+ * against the JDK's ImageIO writer it replaced
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileEncodeBenchmark {
+    // Map the tile comes from
+    @Param({"surface", "flat"})
+    public String map;
+
+    // PNG compression level of the built-in encoder
+    @Param({"1", "4", "9"})
+    public int level;
+
+    private DynmapBufferedImage img;
+
+    @Setup
+    public void setup() throws IOException {
+        BenchEnvironment env = BenchEnvironment.get();
+        HDMap m = env.getMap(map);
+        HDMapTile tile = env.getTile(m, 0, 0);
+        tile.render(env.loadChunks(tile), m.getName());
+        MapStorageTile st = env.getWorld().getMapStorage().getTile(env.getWorld(), m, tile.tx, tile.ty, 0, MapType.ImageVariant.STANDARD);
+        BufferedImage rendered = ImageIOManager.imageIODecode(st.read());
+        img = DynmapBufferedImage.allocateBufferedImage(rendered.getWidth(), rendered.getHeight());
+        rendered.getRGB(0, 0, img.width, img.height, img.argb_buf, 0, img.width);
+    }
+
+    @Benchmark
+    public BufferOutputStream builtin() throws IOException {
+        BufferOutputStream bos = new BufferOutputStream();
+        PNGEncoder.encode(img.buf_img, level, bos);
+        return bos;
+    }
+
+    @Benchmark
+    public BufferOutputStream imageIO() throws IOException {
+        BufferOutputStream bos = new BufferOutputStream();
+        ImageIO.write(img.buf_img, "png", bos);
+        return bos;
+    }
+}
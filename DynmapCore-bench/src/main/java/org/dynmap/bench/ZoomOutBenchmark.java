@@ -0,0 +1,68 @@
+package org.dynmap.bench;
+
+import org.dynmap.MapType;
+import org.dynmap.hdmap.HDMap;
+import org.dynmap.hdmap.HDMapTile;
+import org.dynmap.storage.MapStorageTile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zoom-out processing (DynmapWorld.processZoomFile, driven through freshenZoomOutFiles) after a 2 x 2 block
+ * of rendered tiles is updated: reading and scaling the tiles into the zoom-out tile, and on up through every
+ * zoom-out level of the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ZoomOutBenchmark {
+    private SyntheticWorld world;
+    private MapStorageTile[] tiles;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchEnvironment env = BenchEnvironment.get();
+        world = env.getWorld();
+        HDMap map = env.getMap("surface");
+        HDMapTile base = env.getTile(map, 0, 0);
+        int tx = base.tx & ~1, ty = base.ty & ~1;
+        MapType.ImageVariant[] vars = map.getVariants();
+        tiles = new MapStorageTile[4 * vars.length];
+        for (int i = 0; i < 4; i++) {
+            HDMapTile t = new HDMapTile(world, base.perspective, tx + (i & 1), ty + (i >> 1), base.boostzoom, base.tilescale);
+            t.render(env.loadChunks(t), map.getName());
+            for (int v = 0; v < vars.length; v++) {
+                tiles[i * vars.length + v] = world.getMapStorage().getTile(world, map, t.tx, t.ty, 0, vars[v]);
+            }
+        }
+        world.freshenZoomOutFiles();    // Process zoom-outs queued by the renders
+    }
+
+    // Mark the tiles as updated, as rendering them does
+    @Setup(Level.Invocation)
+    public void invalidate() {
+        for (MapStorageTile t : tiles) {
+            world.enqueueZoomOutUpdate(t);
+        }
+    }
+
+    @Benchmark
+    public void zoomOut() {
+        world.freshenZoomOutFiles();
+    }
+}
@@ -23,13 +23,19 @@ import org.dynmap.storage.filetree.FileTreeMapStorage;
 import org.dynmap.storage.mariadb.MariaDBMapStorage;
 import org.dynmap.storage.mssql.MicrosoftSQLMapStorage;
 import org.dynmap.storage.mysql.MySQLMapStorage;
+import org.dynmap.storage.packed.PackedMapStorage;
 import org.dynmap.storage.postgresql.PostgreSQLMapStorage;
 import org.dynmap.storage.sqllte.SQLiteMapStorage;
 import org.dynmap.utils.BlockStep;
 import org.dynmap.utils.BufferOutputStream;
 import org.dynmap.utils.ImageIOManager;
+import org.dynmap.utils.PNGEncoder;
 import org.dynmap.web.*;
+import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
 import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.NetworkTrafficServerConnector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AllowSymLinkAliasChecker;
@@ -39,6 +45,7 @@ import org.eclipse.jetty.server.session.DefaultSessionIdManager;
 import org.eclipse.jetty.server.session.SessionHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 import org.yaml.snakeyaml.Yaml;
 
 import javax.servlet.Filter;
@@ -74,6 +81,7 @@ public class DynmapCore implements DynmapCommonAPI {
     private String webhostname = null;
     private int webport = 0;
     private HandlerRouter router = null;
+    private ResponseCompression responseCompression = null;
     public MapManager mapManager = null;
     public PlayerList playerList;
     public ConfigurationNode configuration;
@@ -405,21 +413,8 @@ public class DynmapCore implements DynmapCommonAPI {
         }
         // Create default storage handler
         String storetype = configuration.getString("storage/type", "filetree");
-        if (storetype.equals("filetree")) {
-            defaultStorage = new FileTreeMapStorage();
-        } else if (storetype.equals("sqlite")) {
-            defaultStorage = new SQLiteMapStorage();
-        } else if (storetype.equals("mysql")) {
-            defaultStorage = new MySQLMapStorage();
-        } else if (storetype.equals("mariadb")) {
-            defaultStorage = new MariaDBMapStorage();
-        } else if (storetype.equals("postgres") || storetype.equals("postgresql")) {
-            defaultStorage = new PostgreSQLMapStorage();
-        } else if (storetype.equals("aws_s3")) {
-            defaultStorage = new AWSS3MapStorage();
-        } else if (storetype.equals("microsoftsql")) {
-            defaultStorage = new MicrosoftSQLMapStorage();
-        } else {
+        defaultStorage = createMapStorage(storetype);
+        if (defaultStorage == null) {
             Log.severe("Invalid storage type for map data: " + storetype);
             return false;
         }
@@ -548,6 +543,7 @@ public class DynmapCore implements DynmapCommonAPI {
         /* Load preupdate/postupdate commands */
         ImageIOManager.preUpdateCommand = configuration.getString("custom-commands/image-updates/preupdatecommand", "");
         ImageIOManager.postUpdateCommand = configuration.getString("custom-commands/image-updates/postupdatecommand", "");
+        ImageIOManager.pngCompressionLevel = Math.max(0, Math.min(9, configuration.getInteger("png-compression", PNGEncoder.DEFAULT_LEVEL)));
 
         /* Get block and item maps */
         blockmap = server.getBlockUniqueIDMap();
@@ -921,15 +917,39 @@ public class DynmapCore implements DynmapCommonAPI {
 
         int maxconnections = configuration.getInteger("max-sessions", 30);
         if (maxconnections < 2) maxconnections = 2;
-        LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(maxconnections);
-        ExecutorThreadPool pool = new ExecutorThreadPool(maxconnections, 2, queue);
+        ThreadPool pool = null;
+        // Limit on concurrent storage reads by web requests (0=no limit - thread pool limits them already)
+        int maxstoragereads = configuration.getInteger("webserver-max-storage-reads", 0);
+        if (configuration.getBoolean("webserver-virtual-threads", false)) {
+            pool = VirtualThreadPool.create();
+            if (pool != null) {
+                Log.info("Web server using virtual threads");
+                if (maxstoragereads <= 0) maxstoragereads = maxconnections;
+            } else {
+                Log.warning("webserver-virtual-threads requires Java 21 or later - using standard thread pool");
+            }
+        }
+        if (pool == null) {
+            LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(maxconnections);
+            pool = new ExecutorThreadPool(maxconnections, 2, queue);
+        }
+        final int storagereadlimit = maxstoragereads;
 
         webServer = new Server(pool);
         webServer.setSessionIdManager(new DefaultSessionIdManager(webServer));
 
-        NetworkTrafficServerConnector connector = new NetworkTrafficServerConnector(webServer);
-        connector.setIdleTimeout(5000);
-        connector.setAcceptQueueSize(50);
+        HttpConfiguration httpconfig = new HttpConfiguration();
+        NetworkTrafficServerConnector connector = new NetworkTrafficServerConnector(webServer, new HttpConnectionFactory(httpconfig));
+        if (configuration.getBoolean("webserver-http2", false)) {
+            // Cleartext HTTP/2 (prior knowledge or HTTP/1.1 upgrade), so tile bursts share one connection
+            HTTP2CServerConnectionFactory h2c = new HTTP2CServerConnectionFactory(httpconfig);
+            h2c.setMaxConcurrentStreams(configuration.getInteger("webserver-http2-max-streams", 128));
+            connector.addConnectionFactory(h2c);
+            Log.verboseinfo("Web server HTTP/2 (h2c) support enabled");
+        }
+        // Idle timeout is how long idle keep-alive connections are held open
+        connector.setIdleTimeout(configuration.getInteger("webserver-idle-timeout", 5000));
+        connector.setAcceptQueueSize(configuration.getInteger("webserver-accept-queue-size", 50));
         if (webhostname.equals("0.0.0.0") == false)
             connector.setHost(webhostname);
         connector.setPort(webport);
@@ -938,12 +958,17 @@ public class DynmapCore implements DynmapCommonAPI {
         webServer.setStopAtShutdown(true);
         //webServer.setGracefulShutdown(1000);
         final boolean allow_symlinks = configuration.getBoolean("allow-symlinks", false);
+        responseCompression = new ResponseCompression(configuration);
         router = new HandlerRouter() {{
             FileResourceHandler fileResourceHandler = new FileResourceHandler() {{
                 this.setWelcomeFiles(new String[]{"index.html"});
                 this.setRedirectWelcome(false);
                 this.setDirectoriesListed(true);
                 this.setBaseResource(createFileResource(getFile(dynmap_web_path).getAbsolutePath()));
+                if (responseCompression.isEnabled()) {
+                    this.setCompression(responseCompression);
+                    this.setPrecompressedFormats(new CompressedContentFormat[]{CompressedContentFormat.BR, CompressedContentFormat.GZIP});
+                }
             }};
             try {
                 fileResourceHandler.doStart();
@@ -970,6 +995,7 @@ public class DynmapCore implements DynmapCommonAPI {
             this.addHandler("/", fileResourceHandler);
             this.addHandler("/tiles/*", new MapStorageResourceHandler() {{
                 this.setCore(DynmapCore.this);
+                this.setStorageReadLimit(storagereadlimit);
             }});
         }};
 
@@ -1009,6 +1035,10 @@ public class DynmapCore implements DynmapCommonAPI {
         }
     }
 
+    public ResponseCompression getResponseCompression() {
+        return responseCompression;
+    }
+
     public boolean isLoginSupportEnabled() {
         return (authmgr != null);
     }
@@ -1186,6 +1216,7 @@ public class DynmapCore implements DynmapCommonAPI {
             "purgequeue",
             "purgemap",
             "purgeworld",
+            "storagemigrate",
             "quiet",
             "ids-for-ip",
             "ips-for-id",
@@ -1256,6 +1287,10 @@ public class DynmapCore implements DynmapCommonAPI {
             new CommandInfo("dynmap", "purgequeue", "<world>", "Empty all pending tile updates from update queue for world <world>."),
             new CommandInfo("dynmap", "purgemap", "<world> <map>", "Delete all existing tiles for map <map> on world <world>."),
             new CommandInfo("dynmap", "purgeworld", "<world>", "Delete all existing directories for world <world>."),
+            new CommandInfo("dynmap", "storagemigrate", "Copy all map tiles from the storage-migrate-from storage to the current storage."),
+            new CommandInfo("dynmap", "storagemigrate", "<world>[:<map>]", "Copy map tiles of world <world> (or just map <map>) to the current storage."),
+            new CommandInfo("dynmap", "storagemigrate", "[<world>[:<map>]] reset", "Copy map tiles again, including maps already migrated."),
+            new CommandInfo("dynmap", "storagemigrate", "cancel", "Stop storage migration in progress."),
             new CommandInfo("dynmap", "pause", "Show render pause state."),
             new CommandInfo("dynmap", "pause", "<all|none|full|update>", "Set render pause state."),
             new CommandInfo("dynmap", "quiet", "Stop output from active jobs."),
@@ -1762,6 +1797,8 @@ public class DynmapCore implements DynmapCommonAPI {
                 } else {
                     sender.sendMessage("World name and map name values are required");
                 }
+            } else if (c.equals("storagemigrate") && checkPlayerPermission(sender, "storagemigrate")) {
+                mapManager.migrateStorage(sender, args);
             } else if (c.equals("purgeworld") && checkPlayerPermission(sender, "purgeworld")) {
                 if (args.length > 1) {
                     mapManager.purgeWorld(sender, args[1]);
@@ -2305,6 +2342,33 @@ public class DynmapCore implements DynmapCommonAPI {
         return enabledTriggers.contains(s);
     }
 
+    /**
+     * Create (uninitialized) map storage of given type
+     *
+     * @param storetype - storage type (storage/type setting)
+     * @return storage, or null if invalid type
+     */
+    public static MapStorage createMapStorage(String storetype) {
+        if (storetype.equals("filetree")) {
+            return new FileTreeMapStorage();
+        } else if (storetype.equals("packed")) {
+            return new PackedMapStorage();
+        } else if (storetype.equals("sqlite")) {
+            return new SQLiteMapStorage();
+        } else if (storetype.equals("mysql")) {
+            return new MySQLMapStorage();
+        } else if (storetype.equals("mariadb")) {
+            return new MariaDBMapStorage();
+        } else if (storetype.equals("postgres") || storetype.equals("postgresql")) {
+            return new PostgreSQLMapStorage();
+        } else if (storetype.equals("aws_s3")) {
+            return new AWSS3MapStorage();
+        } else if (storetype.equals("microsoftsql")) {
+            return new MicrosoftSQLMapStorage();
+        }
+        return null;
+    }
+
     public DynmapWorld getWorld(String wid) {
         if (mapManager != null)
             return mapManager.getWorld(wid);
@@ -28,6 +28,8 @@ public abstract class DynmapWorld {
     public boolean showborder;
     private int extrazoomoutlevels;  /* Number of additional zoom out levels to generate */
     private boolean cancelled;
+    private volatile int zoomoutlimit = Integer.MAX_VALUE;  /* Zoom levels from here up are left pending by freshen passes */
+    private final Object zoomOutLock = new Object();    // One freshen pass at a time - passes share the per-map iterators
     private final String wname;
     private final int hashcode;
     private final String raw_wname;
@@ -100,18 +102,30 @@ public abstract class DynmapWorld {
         }
     }
 
+    /**
+     * Limit zoom out processing to tiles below the given zoom level: pending updates from that level up are kept
+     * until the limit is raised (used when other processes render the tiles the higher levels are made from)
+     *
+     * @param lvl - first zoom level not to process (Integer.MAX_VALUE for no limit)
+     */
+    public void setZoomOutLevelLimit(int lvl) {
+        zoomoutlimit = lvl;
+    }
+
     public void freshenZoomOutFiles() {
-        MapTypeState.ZoomOutCoord c = new MapTypeState.ZoomOutCoord();
-        for (MapTypeState mts : mapstate) {
-            if (cancelled) return;
-            MapType mt = mts.type;
-            MapType.ImageVariant var[] = mt.getVariants();
-            mts.startZoomOutIter(); // Start iterator
-            while (mts.nextZoomOutInv(c)) {
+        synchronized (zoomOutLock) {
+            MapTypeState.ZoomOutCoord c = new MapTypeState.ZoomOutCoord();
+            for (MapTypeState mts : mapstate) {
                 if (cancelled) return;
-                for (int varIdx = 0; varIdx < var.length; varIdx++) {
-                    MapStorageTile tile = storage.getTile(this, mt, c.x, c.y, c.zoomlevel, var[varIdx]);
-                    processZoomFile(mts, tile, varIdx == 0);
+                MapType mt = mts.type;
+                MapType.ImageVariant var[] = mt.getVariants();
+                mts.startZoomOutIter(zoomoutlimit); // Start iterator
+                while (mts.nextZoomOutInv(c)) {
+                    if (cancelled) return;
+                    for (int varIdx = 0; varIdx < var.length; varIdx++) {
+                        MapStorageTile tile = storage.getTile(this, mt, c.x, c.y, c.zoomlevel, var[varIdx]);
+                        processZoomFile(mts, tile, varIdx == 0);
+                    }
                 }
             }
         }
@@ -227,7 +241,7 @@ public abstract class DynmapWorld {
             MapManager mm = MapManager.mapman;
             if (mm == null)
                 return;
-            long crc = MapStorage.calculateImageHashCode(kzIm.argb_buf, 0, kzIm.argb_buf.length); /* Get hash of tile */
+            long crc = storage.calculateImageHashCode(kzIm.argb_buf, 0, kzIm.argb_buf.length); /* Get hash of tile */
             if (blank) {
                 if (ztile.exists()) {
                     ztile.delete();
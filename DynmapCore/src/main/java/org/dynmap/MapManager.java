@@ -14,6 +14,8 @@ import org.dynmap.storage.MapStorage;
 import org.dynmap.storage.MapStorageBaseTileEnumCB;
 import org.dynmap.storage.MapStorageTile;
 import org.dynmap.storage.MapStorageTileSearchEndCB;
+import org.dynmap.storage.StorageMigration;
+import org.dynmap.utils.DirtyRegion;
 import org.dynmap.utils.MapChunkCache;
 import org.dynmap.utils.Polygon;
 import org.dynmap.utils.TileFlags;
@@ -45,7 +47,11 @@ public class MapManager {
     private boolean hideores = false;
     private boolean useBrightnessTable = false;
     private boolean usenormalpriority = false;
+    private boolean partialupdates = true;
+    private int partialupdatemargin = 2;
     private HashMap<String, String> blockalias = new HashMap<String, String>();
+    private StorageMigration storageMigration;  // Storage migration in progress
+    private static final int MIGRATE_THREADS = 8;
 
     private boolean pausefullrenders = false;
 
@@ -1049,7 +1055,11 @@ public class MapManager {
 
                     if (mts.getNextInvalidTileCoord(coord)) {
                         mts.type.addMapTiles(tiles, w, coord.x, coord.y);
-                        mts.validateTile(coord.x, coord.y);
+                        if (partialupdates) {
+                            mts.validateQueuedTile(coord.x, coord.y);
+                        } else {
+                            mts.validateTile(coord.x, coord.y);
+                        }
                     }
                 }
             }
@@ -1057,6 +1067,7 @@ public class MapManager {
                 return;
             }
             for (MapTile mt : tiles) {
+                mt.setUpdateRender(partialupdates);
                 tileQueue.push(mt);
                 cnt--;
             }
@@ -1124,6 +1135,9 @@ public class MapManager {
         if (progressinterval < 100) progressinterval = 100;
         saverestorepending = configuration.getBoolean("saverestorepending", true);
         tileupdatedelay = configuration.getInteger("tileupdatedelay", 30);
+        partialupdates = configuration.getBoolean("partial-update-renders", true);
+        partialupdatemargin = configuration.getInteger("partial-update-margin", 2);
+        if (partialupdatemargin < 0) partialupdatemargin = 0;
         defaulttilescale = configuration.getInteger("defaulttilescale", 0);
         if (defaulttilescale < 0) defaulttilescale = 0;
         if (defaulttilescale > 4) defaulttilescale = 4;
@@ -1317,6 +1331,66 @@ public class MapManager {
         sender.sendMessage("Map tile purge starting on map '" + mapname + "' for world '" + worldname + "'...");
     }
 
+    synchronized void migrateStorage(final DynmapCommandSender sender, String[] args) {
+        String worldname = null;
+        String mapname = null;
+        boolean reset = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("cancel")) {
+                if (storageMigration != null) {
+                    storageMigration.cancel();
+                    sender.sendMessage("Storage migration cancelling...");
+                } else {
+                    sender.sendMessage("No storage migration active");
+                }
+                return;
+            } else if (args[i].equals("reset")) {
+                reset = true;
+            } else {
+                String[] tok = args[i].split(":");
+                worldname = tok[0];
+                if (tok.length > 1) {
+                    mapname = tok[1];
+                }
+            }
+        }
+        if (storageMigration != null) {
+            sender.sendMessage("Storage migration already active");
+            return;
+        }
+        final Collection<DynmapWorld> wlist;
+        if (worldname != null) {
+            DynmapWorld world = getWorld(worldname);
+            if (world == null) {
+                sender.sendMessage("Could not migrate storage: world '" + worldname + "' not defined in configuration.");
+                return;
+            }
+            wlist = Collections.singletonList(world);
+        } else {
+            wlist = new ArrayList<DynmapWorld>(worlds);
+        }
+        final StorageMigration migration = new StorageMigration(core, core.getDefaultMapStorage(), MIGRATE_THREADS, sender);
+        if (reset) {
+            migration.resetCheckpoint();
+        }
+        storageMigration = migration;
+        final String mname = mapname;
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    migration.migrate(wlist, mname);
+                } finally {
+                    synchronized (MapManager.this) {
+                        storageMigration = null;
+                    }
+                }
+            }
+        }, "Dynmap storage migration");
+        t.setDaemon(true);
+        t.start();
+        sender.sendMessage("Storage migration starting...");
+    }
+
     void purgeWorld(final DynmapCommandSender sender, final String worldname) {
         final DynmapWorld world = getWorld(worldname);
         if (world == null) {
@@ -1722,6 +1796,8 @@ public class MapManager {
             long ts = chunks_read_times[cs.ordinal()].get();
             sender.sendMessage(String.format("  Chunks processed: %s: count=%d, %.2f msec/chunk", cs.getLabel(), cnt, 0.000001 * (ts / cnt)));
         }
+        sender.sendMessage("Tile Lock Statistics:");
+        sender.sendMessage("  " + MapStorage.getTileLocks().getStats());
     }
 
     /**
@@ -1769,6 +1845,7 @@ public class MapManager {
             }
         }
         core.getServer().resetCacheStats();
+        MapStorage.getTileLocks().resetStats();
         sender.sendMessage("Tile Render Statistics reset");
     }
 
@@ -1784,6 +1861,11 @@ public class MapManager {
         return hideores;
     }
 
+    /* Blocks around a changed block that are redrawn by a partial update render (shading, connected textures) */
+    public int getPartialUpdateMargin() {
+        return partialupdatemargin;
+    }
+
     /* Map block ID to aliased ID - used to hide ores */
     public String getBlockAlias(String blockname) {
         String v = blockalias.get(blockname);
@@ -1886,13 +1968,14 @@ public class MapManager {
                     world = getWorld(wname);
                 }
                 if (world == null) continue;
+                DirtyRegion rgn = new DirtyRegion(evt.x, evt.y, evt.z, evt.x, evt.y, evt.z);
                 for (MapTypeState mts : world.mapstate) {
                     if (mts.type.isReadOnly()) {
                         continue;
                     }
 
                     List<TileFlags.TileCoord> tiles = mts.type.getTileCoords(world, evt.x, evt.y, evt.z);
-                    invalidates += mts.invalidateTiles(tiles);
+                    invalidates += mts.invalidateTiles(tiles, rgn);
                 }
                 if (evt.reason != null) {
                     synchronized (lock) {
@@ -1922,13 +2005,14 @@ public class MapManager {
                 }
                 if (world == null) continue;
                 int invalidates = 0;
+                DirtyRegion rgn = new DirtyRegion(evt.xmin, evt.ymin, evt.zmin, evt.xmax, evt.ymax, evt.zmax);
                 for (MapTypeState mts : world.mapstate) {
                     if (mts.type.isReadOnly()) {
                         continue;
                     }
 
                     List<TileFlags.TileCoord> tiles = mts.type.getTileCoords(world, evt.xmin, evt.ymin, evt.zmin, evt.xmax, evt.ymax, evt.zmax);
-                    invalidates += mts.invalidateTiles(tiles);
+                    invalidates += mts.invalidateTiles(tiles, rgn);
                 }
                 if (evt.reason != null) {
                     synchronized (lock) {
@@ -8,6 +8,8 @@ import java.util.List;
 
 public abstract class MapTile {
     protected DynmapWorld world;
+    /* Queued for update render of invalidated tile (versus a full or radius render) */
+    private boolean updateRender;
 
     public abstract boolean render(MapChunkCache cache, String mapname);
 
@@ -25,6 +27,14 @@ public abstract class MapTile {
         this.world = world;
     }
 
+    public boolean isUpdateRender() {
+        return updateRender;
+    }
+
+    public void setUpdateRender(boolean upd) {
+        updateRender = upd;
+    }
+
     @Override
     public abstract int hashCode();
 
@@ -186,6 +186,11 @@ public abstract class MapType {
         return ImageFormat.FORMAT_PNG;
     }
 
+    /* PNG compression level for tiles (0-9), or -1 for the default */
+    public int getPNGCompressionLevel() {
+        return -1;
+    }
+
     public int getBackgroundARGBNight() {
         return 0;
     }
@@ -1,9 +1,11 @@
 package org.dynmap;
 
+import org.dynmap.utils.DirtyRegion;
 import org.dynmap.utils.TileFlags;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 
 public class MapTypeState {
@@ -23,6 +25,11 @@ public class MapTypeState {
     private int zoomOutInvIterLevel = -1;
     private final int zoomOutLevels;
     public final int tileSize;
+    /* Changed block volume for invalid tiles that only need updating for block changes (no entry = full render) */
+    private HashMap<Long, DirtyRegion> dirtyRegions = new HashMap<Long, DirtyRegion>();
+    /* Changed block volume for tiles queued for update render (no entry = full render) */
+    private HashMap<Long, DirtyRegion> queuedRegions = new HashMap<Long, DirtyRegion>();
+    private static final int MAX_DIRTY_REGIONS = 65536;
 
     public MapTypeState(DynmapWorld world, MapType mt) {
         type = mt;
@@ -40,9 +47,20 @@ public class MapTypeState {
         invTSPeriod = inv_per_in_secs * NANOS_PER_SECOND;
     }
 
+    private static long tileKey(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+    }
+
+    private boolean isPendingInvalid(int tx, int ty) {
+        return pendingInvTiles.getFlag(tx, ty) || pendingInvTilesAlt.getFlag(tx, ty) || invTiles.getFlag(tx, ty);
+    }
+
     public boolean invalidateTile(int tx, int ty) {
         boolean done;
         synchronized (invTileLock) {
+            Long key = tileKey(tx, ty);
+            dirtyRegions.remove(key);
+            queuedRegions.remove(key);
             done = !pendingInvTiles.setFlag(tx, ty, true);
         }
         return done;
@@ -52,6 +70,36 @@ public class MapTypeState {
         int cnt = 0;
         synchronized (invTileLock) {
             for (TileFlags.TileCoord c : coords) {
+                Long key = tileKey(c.x, c.y);
+                dirtyRegions.remove(key);
+                queuedRegions.remove(key);
+                if (!pendingInvTiles.setFlag(c.x, c.y, true)) {
+                    cnt++;
+                }
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Invalidate tiles due to changes to the given block volume.  Tiles that aren't already invalid for some
+     * other reason remember the volume, so that update renders only need to redraw that part of them.
+     *
+     * @param coords - tiles to invalidate
+     * @param rgn    - changed block volume
+     * @return number of tiles newly invalidated
+     */
+    public int invalidateTiles(List<TileFlags.TileCoord> coords, DirtyRegion rgn) {
+        int cnt = 0;
+        synchronized (invTileLock) {
+            for (TileFlags.TileCoord c : coords) {
+                Long key = tileKey(c.x, c.y);
+                DirtyRegion r = dirtyRegions.get(key);
+                if (r != null) {
+                    r.union(rgn);
+                } else if ((!isPendingInvalid(c.x, c.y)) && (dirtyRegions.size() < MAX_DIRTY_REGIONS)) {
+                    dirtyRegions.put(key, new DirtyRegion(rgn));
+                }
                 if (!pendingInvTiles.setFlag(c.x, c.y, true)) {
                     cnt++;
                 }
@@ -60,6 +108,51 @@ public class MapTypeState {
         return cnt;
     }
 
+    /**
+     * Validate tile that has been queued for an update render, keeping its changed block volume (if any) for the render
+     *
+     * @param tx - tile X
+     * @param ty - tile Y
+     */
+    public void validateQueuedTile(int tx, int ty) {
+        synchronized (invTileLock) {
+            Long key = tileKey(tx, ty);
+            DirtyRegion r = dirtyRegions.get(key);
+            DirtyRegion q = queuedRegions.get(key);
+            if (r == null) {
+                queuedRegions.remove(key);
+            } else if (q != null) {
+                q.union(r);
+            } else if (queuedRegions.size() < MAX_DIRTY_REGIONS) {
+                queuedRegions.put(key, r);
+            }
+            validateTile(tx, ty);
+        }
+    }
+
+    /**
+     * Collect changed block volume for a tile about to be rendered by an update render, including changes made since
+     * it was queued, and clear it.
+     *
+     * @param tx  - tile X
+     * @param ty  - tile Y
+     * @param rgn - volume to add tile's changes to
+     * @return false if the tile needs a full render (including when no volume was kept for it)
+     */
+    public boolean takeDirtyRegion(int tx, int ty, DirtyRegion rgn) {
+        synchronized (invTileLock) {
+            Long key = tileKey(tx, ty);
+            DirtyRegion q = queuedRegions.remove(key);
+            DirtyRegion r = dirtyRegions.get(key);
+            if ((q == null) || ((r == null) && isPendingInvalid(tx, ty))) {
+                return false;
+            }
+            rgn.union(q);
+            if (r != null) rgn.union(r);
+            return true;
+        }
+    }
+
     public void tickMapTypeState(long now_nano) {
         if (nextInvTS < now_nano) {
             synchronized (invTileLock) {
@@ -83,6 +176,7 @@ public class MapTypeState {
 
     public void validateTile(int tx, int ty) {
         synchronized (invTileLock) {
+            dirtyRegions.remove(tileKey(tx, ty));
             invTiles.setFlag(tx, ty, false);
             pendingInvTiles.setFlag(tx, ty, false);
             pendingInvTilesAlt.setFlag(tx, ty, false);
@@ -228,17 +322,39 @@ public class MapTypeState {
         }
     }
 
+    // Clear flag in both active and accumulated zoom out flags (tile's zoomed out tile is known to be current)
+    public void discardZoomOutInv(int x, int y, int zoomlevel) {
+        if (zoomlevel >= zoomOutLevels) {
+            return;
+        }
+        synchronized (invTileLock) {
+            TileFlags tf = zoomOutInv.get(zoomlevel);
+            if (tf != null) {
+                tf.setFlag(x >> zoomlevel, y >> zoomlevel, false);
+            }
+            tf = zoomOutInvAccum.get(zoomlevel);
+            if (tf != null) {
+                tf.setFlag(x >> zoomlevel, y >> zoomlevel, false);
+            }
+        }
+    }
+
     public static class ZoomOutCoord extends TileFlags.TileCoord {
         public int zoomlevel;
     }
 
-    // Start zoom out iteration (stash and reset accumulator)
-    public void startZoomOutIter() {
+    // Start zoom out iteration of levels below maxlevel (stash and reset accumulator for those, keep the rest accumulated)
+    public void startZoomOutIter(int maxlevel) {
         synchronized (invTileLock) {
             ArrayList<TileFlags> tmplist = zoomOutInv;
             zoomOutInv = zoomOutInvAccum;
             for (int i = 0; i < tmplist.size(); i++) {
-                tmplist.set(i, null);
+                if (i < maxlevel) {
+                    tmplist.set(i, null);
+                } else {
+                    tmplist.set(i, zoomOutInv.get(i));
+                    zoomOutInv.set(i, null);
+                }
             }
             zoomOutInvAccum = tmplist;
             zoomOutInvIter = null;
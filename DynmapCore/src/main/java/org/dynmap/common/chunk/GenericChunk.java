@@ -81,6 +81,11 @@ public class GenericChunk {
         return getSection(cy << 4).isEmpty;
     }
 
+    // Test if 4 x 4 x 4 brick containing given block is all air
+    public final boolean isBrickEmpty(int x, int y, int z) {
+        return getSection(y).isBrickEmpty(x, y, z);
+    }
+
     public final long getInhabitedTicks() {
         return inhabitedTicks;
     }
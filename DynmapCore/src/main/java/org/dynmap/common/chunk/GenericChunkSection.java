@@ -12,6 +12,8 @@ public class GenericChunkSection {
     public final LightingAccess sky;    // Access for sky light data
     public final LightingAccess emitted;    // Access for emitted light data
     public final boolean isEmpty;    // if true, section is all air with default sky and emitted light
+    private volatile long brickOccupancy;    // Bit set for each 4 x 4 x 4 brick with any non-air blocks (computed on first use)
+    private volatile boolean brickOccupancyValid;
 
     // Block state access interface
     public interface BlockStateAccess {
@@ -197,6 +199,54 @@ public class GenericChunkSection {
         isEmpty = empty;
     }
 
+    // Get index of occupancy bit for the 4 x 4 x 4 brick containing the given block: YZX order
+    public static final int getBrickIndex(int x, int y, int z) {
+        return ((y & 0xC) << 2) | (z & 0xC) | ((x & 0xC) >> 2);
+    }
+
+    // Get occupancy bits for the 64 bricks (4 x 4 x 4 blocks each) of the section: bit set if any block in brick is not air
+    public final long getBrickOccupancy() {
+        if (!brickOccupancyValid) {
+            brickOccupancy = computeBrickOccupancy();
+            brickOccupancyValid = true;
+        }
+        return brickOccupancy;
+    }
+
+    // Test if the brick containing the given block is all air
+    public final boolean isBrickEmpty(int x, int y, int z) {
+        return isEmpty || ((getBrickOccupancy() & (1L << getBrickIndex(x, y, z))) == 0);
+    }
+
+    private long computeBrickOccupancy() {
+        if (isEmpty) return 0L;
+        if (blocks instanceof BlockStateAccessSingle) {
+            return blocks.getBlock(0, 0, 0).isAir() ? 0L : -1L;
+        }
+        if (blocks instanceof BlockStateAccess3DPalette) {    // If palette is all air, so is section
+            boolean allair = true;
+            for (DynmapBlockState bs : ((BlockStateAccess3DPalette) blocks).palette) {
+                if (!bs.isAir()) {
+                    allair = false;
+                    break;
+                }
+            }
+            if (allair) return 0L;
+        }
+        long occ = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    long bit = 1L << getBrickIndex(x, y, z);
+                    if (((occ & bit) == 0) && blocks.getBlock(x, y, z).isNotAir()) {
+                        occ |= bit;
+                    }
+                }
+            }
+        }
+        return occ;
+    }
+
     public String toString() {
         return String.format("sect(bip:%s)", biomes);
     }
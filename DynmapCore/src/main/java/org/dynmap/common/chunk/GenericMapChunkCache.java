@@ -1094,6 +1094,18 @@ public abstract class GenericMapChunkCache extends MapChunkCache {
         return !flags[sy + sectoff];
     }
 
+    @Override
+    public boolean isEmptyBrick(int x, int y, int z) {
+        if ((y < dw.minY) || (y >= dw.worldheight)) {    // Outside world is air
+            return true;
+        }
+        int idx = ((x >> 4) - x_min) + (((z >> 4) - z_min) * x_dim);
+        if ((idx >= snapcnt) || (idx < 0)) {    // Same as iterator - missing chunk is empty
+            return true;
+        }
+        return snaparray[idx].isBrickEmpty(x, y, z);
+    }
+
     /**
      * Get cache iterator
      */
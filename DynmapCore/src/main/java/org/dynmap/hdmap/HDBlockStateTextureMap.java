@@ -13,6 +13,7 @@ import java.util.Map;
 public class HDBlockStateTextureMap {
 
     private static HDBlockStateTextureMap[] texmaps = new HDBlockStateTextureMap[DynmapBlockState.getGlobalIndexMax()];   // List of texture maps, indexed by global state index
+    private static volatile int generation = 0;   // Bumped on any change to texture mappings (for flattened copies)
 
     int faces[];  /* texture index of image for each face (indexed by BlockStep.ordinal() OR patch index) */
     final byte[] layers;  /* If layered, each index corresponds to faces index, and value is index of next layer */
@@ -78,6 +79,7 @@ public class HDBlockStateTextureMap {
             newfaces[i] = TexturePack.TILEINDEX_BLANK;
         }
         faces = newfaces;
+        tableChanged();
     }
 
     // Add block state to table, with given block IDs and state indexes
@@ -109,11 +111,28 @@ public class HDBlockStateTextureMap {
         System.arraycopy(texmaps, 0, newm, 0, texmaps.length);
         Arrays.fill(newm, texmaps.length, newm.length, HDBlockStateTextureMap.BLANK);
         texmaps = newm;
+        tableChanged();
     }
 
     // Initialize/reset block texture table
     public static void initializeTable() {
         Arrays.fill(texmaps, HDBlockStateTextureMap.BLANK);
+        tableChanged();
+    }
+
+    // Note change to texture mappings or colorizing data
+    static void tableChanged() {
+        generation++;
+    }
+
+    // Get current generation of texture mappings - changes whenever they do
+    static int getGeneration() {
+        return generation;
+    }
+
+    // Get size of table (one more than highest global state index)
+    static int getTableSize() {
+        return texmaps.length;
     }
 
     // Lookup records by block state
@@ -138,6 +157,7 @@ public class HDBlockStateTextureMap {
             trans = TexturePack.BlockTransparency.SEMITRANSPARENT;
         }
         texmaps[blk.globalStateIndex] = new HDBlockStateTextureMap(map, trans);
+        tableChanged();
     }
 
     // Copy textures from source block ID to destination
@@ -150,6 +170,7 @@ public class HDBlockStateTextureMap {
             int sidx = sblk.getState(i % scnt).globalStateIndex;
             texmaps[didx] = new HDBlockStateTextureMap(texmaps[sidx], null);
         }
+        tableChanged();
     }
 
     // Get by global state index
@@ -24,6 +24,7 @@ public class HDMap extends MapType {
     private int mapzoomout;
     private String imgfmtstring;
     private MapType.ImageFormat imgformat;
+    private int pngcompression;
     private int bgcolornight;
     private int bgcolorday;
     private int tilescale;
@@ -104,6 +105,8 @@ public class HDMap extends MapType {
             Log.severe("HDMap '" + name + "' set invalid image-format: " + imgfmtstring);
             imgformat = ImageFormat.FORMAT_PNG;
         }
+        pngcompression = configuration.getInteger("png-compression", -1);
+        if (pngcompression > 9) pngcompression = 9;
         /* Get color info */
         String c = configuration.getString("background");
         if (c != null) {
@@ -157,6 +160,8 @@ public class HDMap extends MapType {
         if (lighting != null)
             cn.put("lighting", lighting.getName());
         cn.put("image-format", imgfmtstring);
+        if (pngcompression >= 0)
+            cn.put("png-compression", pngcompression);
         cn.put("mapzoomin", mapzoomin);
         cn.put("mapzoomout", mapzoomout);
         cn.put("boostzoom", boostzoom);
@@ -272,6 +277,11 @@ public class HDMap extends MapType {
         return imgformat;
     }
 
+    @Override
+    public int getPNGCompressionLevel() {
+        return pngcompression;
+    }
+
     @Override
     public void buildClientConfiguration(JSONObject worldObject, DynmapWorld world) {
         JSONObject o = new JSONObject();
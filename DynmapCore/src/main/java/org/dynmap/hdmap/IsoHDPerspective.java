@@ -11,10 +11,13 @@ import org.dynmap.storage.MapStorageTile;
 import org.dynmap.utils.*;
 import org.json.simple.JSONObject;
 
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.dynmap.JSONUtils.s;
 
@@ -57,6 +60,135 @@ public class IsoHDPerspective implements HDPerspective {
     // Cache for custom meshes by state (shared, reusable)
     private static RenderPatch[][] custom_meshes_by_globalstateindex = null;
 
+    /**
+     * Ray geometry shared by all tiles with the same size, scale and height range.  With an isometric view, every
+     * ray has the same direction, and each pixel's ray starts at a fixed offset from the tile origin, so these
+     * only need to be computed once, rather than for every pixel of every tile.
+     */
+    private static class RayGeometry {
+        final int pixels;   // Width and height of tile, in pixels
+        final double[] startx, starty, startz;  // Ray start for each pixel (x * pixels + y), relative to tile origin
+        final Vector3D direction;
+        final double dx, dy, dz;
+        final double dt_dx, dt_dy, dt_dz;
+        final double sdt_dx, sdt_dy, sdt_dz;
+        final int x_inc, y_inc, z_inc;
+        final BlockStep stepx, stepy, stepz;
+
+        RayGeometry(Matrix3D map_to_world, int pixels, int sizescale, double height, double miny) {
+            this.pixels = pixels;
+            int cnt = pixels * pixels;
+            startx = new double[cnt];
+            starty = new double[cnt];
+            startz = new double[cnt];
+            Vector3D v = new Vector3D();
+            for (int x = 0; x < pixels; x++) {
+                for (int y = 0; y < pixels; y++) {
+                    v.x = (x + 0.5) / sizescale;    /* Start at center of pixel at Y=height+0.5 */
+                    v.y = (y + 0.5) / sizescale;
+                    v.z = height + 0.5;
+                    map_to_world.transform(v);
+                    int idx = x * pixels + y;
+                    startx[idx] = v.x;
+                    starty[idx] = v.y;
+                    startz[idx] = v.z;
+                }
+            }
+            /* Ray runs down to Y=-0.5 */
+            direction = new Vector3D(0, 0, (miny - 0.5) - (height + 0.5));
+            map_to_world.transform(direction);
+            /* Compute total delta on each axis */
+            dx = Math.abs(direction.x);
+            dy = Math.abs(direction.y);
+            dz = Math.abs(direction.z);
+            /* Compute parametric step (dt) per block and per section on each axis */
+            dt_dx = 1.0 / dx;
+            dt_dy = 1.0 / dy;
+            dt_dz = 1.0 / dz;
+            sdt_dx = 16.0 / dx;
+            sdt_dy = 16.0 / dy;
+            sdt_dz = 16.0 / dz;
+            x_inc = (dx == 0) ? 0 : ((direction.x > 0) ? 1 : -1);
+            y_inc = (dy == 0) ? 0 : ((direction.y > 0) ? 1 : -1);
+            z_inc = (dz == 0) ? 0 : ((direction.z > 0) ? 1 : -1);
+            stepx = (x_inc < 0) ? BlockStep.X_MINUS : BlockStep.X_PLUS;
+            stepy = (y_inc < 0) ? BlockStep.Y_MINUS : BlockStep.Y_PLUS;
+            stepz = (z_inc < 0) ? BlockStep.Z_MINUS : BlockStep.Z_PLUS;
+        }
+    }
+
+    // Ray geometry by tile size, scale and height range
+    private final ConcurrentHashMap<String, RayGeometry> raygeometry = new ConcurrentHashMap<String, RayGeometry>();
+    // Don't keep geometry for very large (boosted zoom) tiles around
+    private static final int MAX_CACHED_RAY_PIXELS = 512;
+    // Farthest a block change can change light levels, in blocks
+    private static final int LIGHT_SPREAD = 15;
+
+    private RayGeometry getRayGeometry(int pixels, int sizescale, double height, double miny) {
+        String key = pixels + ":" + sizescale + ":" + height + ":" + miny;
+        RayGeometry rg = raygeometry.get(key);
+        if (rg == null) {
+            rg = new RayGeometry(map_to_world, pixels, sizescale, height, miny);
+            if (pixels <= MAX_CACHED_RAY_PIXELS) {
+                raygeometry.putIfAbsent(key, rg);
+            }
+        }
+        return rg;
+    }
+
+    /**
+     * Per render thread working storage, reused from tile to tile instead of being reallocated for each one:
+     * a perspective state for each boost scale, and the per-shader arrays used to assemble the tile images.
+     */
+    private class RenderContext {
+        OurPerspectiveState[] states = new OurPerspectiveState[1];
+        final Color rslt = new Color();
+        final Vector3D origin = new Vector3D();
+        DynmapBufferedImage im[] = new DynmapBufferedImage[0];
+        DynmapBufferedImage dayim[] = new DynmapBufferedImage[0];
+        int[][] argb_buf = new int[0][];
+        int[][] day_argb_buf = new int[0][];
+        boolean isOpaque[] = new boolean[0];
+        int bgday[] = new int[0];
+        int bgnight[] = new int[0];
+        boolean shaderdone[] = new boolean[0];
+        boolean rendered[] = new boolean[0];
+
+        OurPerspectiveState getState(int scaled) {
+            if (scaled >= states.length) {
+                OurPerspectiveState[] ns = new OurPerspectiveState[scaled + 1];
+                System.arraycopy(states, 0, ns, 0, states.length);
+                states = ns;
+            }
+            if (states[scaled] == null) {
+                states[scaled] = new OurPerspectiveState(scaled);
+            }
+            return states[scaled];
+        }
+
+        /* Make sure shader arrays are big enough, and reset them for a new tile */
+        void initShaders(int numshaders) {
+            if (numshaders > im.length) {
+                im = new DynmapBufferedImage[numshaders];
+                dayim = new DynmapBufferedImage[numshaders];
+                argb_buf = new int[numshaders][];
+                day_argb_buf = new int[numshaders][];
+                isOpaque = new boolean[numshaders];
+                bgday = new int[numshaders];
+                bgnight = new int[numshaders];
+                shaderdone = new boolean[numshaders];
+                rendered = new boolean[numshaders];
+            }
+            for (int i = 0; i < numshaders; i++) {
+                im[i] = dayim[i] = null;
+                argb_buf[i] = day_argb_buf[i] = null;
+                shaderdone[i] = rendered[i] = false;
+            }
+        }
+    }
+
+    private final ThreadLocal<RenderContext> rendercontext = ThreadLocal.withInitial(() -> new RenderContext());
+
     private class OurPerspectiveState implements HDPerspectiveState {
         DynmapBlockState blocktype = DynmapBlockState.AIR;
         DynmapBlockState lastblocktype = DynmapBlockState.AIR;
@@ -112,20 +244,20 @@ public class IsoHDPerspective implements HDPerspective {
         boolean cur_shade;
 
         int[] subblock_xyz = new int[3];
-        final MapIterator mapiter;
-        final boolean isnether;
+        MapIterator mapiter;
+        boolean isnether;
         boolean skiptoair;
-        final int worldheight;
+        int worldheight;
         final LightLevels llcache[];
 
         /* Cache for custom model patch lists */
         private final DynLongHashMap custom_meshes;
         private final DynLongHashMap custom_fluid_meshes;
 
-        public OurPerspectiveState(MapIterator mi, boolean isnether, int scaled) {
-            mapiter = mi;
-            this.isnether = isnether;
-            worldheight = mapiter.getWorldHeight();
+        public OurPerspectiveState(int scaled) {
+            top = new Vector3D();
+            bottom = new Vector3D();
+            direction = new Vector3D();
             llcache = new LightLevels[4];
             for (int i = 0; i < llcache.length; i++)
                 llcache[i] = new LightLevels();
@@ -135,6 +267,30 @@ public class IsoHDPerspective implements HDPerspective {
             scalemodels = HDBlockModels.getModelsForScale(basemodscale << scaled);
         }
 
+        /**
+         * Bind state to the chunk cache iterator for a new tile.  Position keyed custom meshes were built from
+         * the previous tile's chunk snapshot, so they are dropped (the tables themselves are kept for reuse).
+         */
+        private void bind(MapIterator mi, boolean isnether) {
+            mapiter = mi;
+            this.isnether = isnether;
+            worldheight = mapiter.getWorldHeight();
+            blocktype = lastblocktype = DynmapBlockState.AIR;
+            laststep = BlockStep.Y_MINUS;
+            cur_patch = -1;
+            custom_meshes.clear();
+            custom_fluid_meshes.clear();
+        }
+
+        /**
+         * Drop references to tile's chunk data once tile is done
+         */
+        private void unbind() {
+            mapiter = null;
+            custom_meshes.clear();
+            custom_fluid_meshes.clear();
+        }
+
         private final void updateSemitransparentLight(LightLevels ll) {
             int emitted = 0, sky = 0;
             for (int i = 0; i < semi_steps.length; i++) {
@@ -272,100 +428,65 @@ public class IsoHDPerspective implements HDPerspective {
             return subalpha;
         }
 
+        /**
+         * Set direction dependent raytrace constants - the same for every ray of the tile
+         */
+        private void initRayGeometry(RayGeometry rg) {
+            direction.set(rg.direction);
+            dx = rg.dx;
+            dy = rg.dy;
+            dz = rg.dz;
+            dt_dx = rg.dt_dx;
+            dt_dy = rg.dt_dy;
+            dt_dz = rg.dt_dz;
+            sdt_dx = rg.sdt_dx;
+            sdt_dy = rg.sdt_dy;
+            sdt_dz = rg.sdt_dz;
+            x_inc = rg.x_inc;
+            y_inc = rg.y_inc;
+            z_inc = rg.z_inc;
+            stepx = rg.stepx;
+            stepy = rg.stepy;
+            stepz = rg.stepz;
+            mxout = (x_inc < 0) ? -1 : modscale;
+            myout = (y_inc < 0) ? -1 : modscale;
+            mzout = (z_inc < 0) ? -1 : modscale;
+        }
+
         /**
          * Initialize raytrace state variables
          */
         private void raytrace_init() {
-            /* Compute total delta on each axis */
-            dx = Math.abs(direction.x);
-            dy = Math.abs(direction.y);
-            dz = Math.abs(direction.z);
-            /* Compute parametric step (dt) per step on each axis */
-            dt_dx = 1.0 / dx;
-            dt_dy = 1.0 / dy;
-            dt_dz = 1.0 / dz;
             /* Initialize parametric value to 0 (and we're stepping towards 1) */
             t = 0;
-            /* Compute number of steps and increments for each */
-            n = 1;
-
             /* Initial section coord */
-            sx = fastFloor(top.x / 16.0);
-            sy = fastFloor(top.y / 16.0);
-            sz = fastFloor(top.z / 16.0);
-            /* Compute parametric step (dt) per step on each axis */
-            sdt_dx = 16.0 / dx;
-            sdt_dy = 16.0 / dy;
-            sdt_dz = 16.0 / dz;
-
-            /* If perpendicular to X axis */
-            if (dx == 0) {
-                x_inc = 0;
+            double tsx = top.x / 16.0;
+            double tsy = top.y / 16.0;
+            double tsz = top.z / 16.0;
+            sx = fastFloor(tsx);
+            sy = fastFloor(tsy);
+            sz = fastFloor(tsz);
+            /* Parametric value of first section boundary on each axis */
+            if (x_inc == 0) {   /* If perpendicular to X axis */
                 st_next_x = Double.MAX_VALUE;
-                stepx = BlockStep.X_PLUS;
-                mxout = modscale;
+            } else if (x_inc > 0) {   /* If bottom is right of top */
+                st_next_x = (sx + 1 - tsx) * sdt_dx;
+            } else {    /* Top is right of bottom */
+                st_next_x = (tsx - sx) * sdt_dx;
             }
-            /* If bottom is right of top */
-            else if (bottom.x > top.x) {
-                x_inc = 1;
-                n += fastFloor(bottom.x) - x;
-                st_next_x = (fastFloor(top.x / 16.0) + 1 - (top.x / 16.0)) * sdt_dx;
-                stepx = BlockStep.X_PLUS;
-                mxout = modscale;
-            }
-            /* Top is right of bottom */
-            else {
-                x_inc = -1;
-                n += x - fastFloor(bottom.x);
-                st_next_x = ((top.x / 16.0) - fastFloor(top.x / 16.0)) * sdt_dx;
-                stepx = BlockStep.X_MINUS;
-                mxout = -1;
-            }
-            /* If perpendicular to Y axis */
-            if (dy == 0) {
-                y_inc = 0;
+            if (y_inc == 0) {   /* If perpendicular to Y axis */
                 st_next_y = Double.MAX_VALUE;
-                stepy = BlockStep.Y_PLUS;
-                myout = modscale;
-            }
-            /* If bottom is above top */
-            else if (bottom.y > top.y) {
-                y_inc = 1;
-                n += fastFloor(bottom.y) - y;
-                st_next_y = (fastFloor(top.y / 16.0) + 1 - (top.y / 16.0)) * sdt_dy;
-                stepy = BlockStep.Y_PLUS;
-                myout = modscale;
+            } else if (y_inc > 0) {   /* If bottom is above top */
+                st_next_y = (sy + 1 - tsy) * sdt_dy;
+            } else {    /* If top is above bottom */
+                st_next_y = (tsy - sy) * sdt_dy;
             }
-            /* If top is above bottom */
-            else {
-                y_inc = -1;
-                n += y - fastFloor(bottom.y);
-                st_next_y = ((top.y / 16.0) - fastFloor(top.y / 16.0)) * sdt_dy;
-                stepy = BlockStep.Y_MINUS;
-                myout = -1;
-            }
-            /* If perpendicular to Z axis */
-            if (dz == 0) {
-                z_inc = 0;
+            if (z_inc == 0) {   /* If perpendicular to Z axis */
                 st_next_z = Double.MAX_VALUE;
-                stepz = BlockStep.Z_PLUS;
-                mzout = modscale;
-            }
-            /* If bottom right of top */
-            else if (bottom.z > top.z) {
-                z_inc = 1;
-                n += fastFloor(bottom.z) - z;
-                st_next_z = (fastFloor(top.z / 16.0) + 1 - (top.z / 16.0)) * sdt_dz;
-                stepz = BlockStep.Z_PLUS;
-                mzout = modscale;
-            }
-            /* If bottom left of top */
-            else {
-                z_inc = -1;
-                n += z - fastFloor(bottom.z);
-                st_next_z = ((top.z / 16.0) - fastFloor(top.z / 16.0)) * sdt_dz;
-                stepz = BlockStep.Z_MINUS;
-                mzout = -1;
+            } else if (z_inc > 0) {   /* If bottom right of top */
+                st_next_z = (sz + 1 - tsz) * sdt_dz;
+            } else {    /* If bottom left of top */
+                st_next_z = (tsz - sz) * sdt_dz;
             }
             /* Walk through scene */
             laststep = BlockStep.Y_MINUS; /* Last step is down into map */
@@ -667,6 +788,81 @@ public class IsoHDPerspective implements HDPerspective {
             return true;
         }
 
+        /**
+         * Jump over empty (all air) 4x4x4 bricks, without stepping through each block: false if done
+         */
+        private final boolean raytraceSkipEmptyBricks(MapChunkCache cache, int miny, int maxy) {
+            boolean moved = false;
+            while (cache.isEmptyBrick(x, y, z)) {
+                /* Blocks to step on each axis to leave the brick */
+                int kx = (x_inc > 0) ? (4 - (x & 3)) : ((x & 3) + 1);
+                int ky = (y_inc > 0) ? (4 - (y & 3)) : ((y & 3) + 1);
+                int kz = (z_inc > 0) ? (4 - (z & 3)) : ((z & 3) + 1);
+                /* Parametric value where ray leaves the brick on each axis */
+                double ex = (x_inc != 0) ? (t_next_x + (kx - 1) * dt_dx) : Double.MAX_VALUE;
+                double ey = (y_inc != 0) ? (t_next_y + (ky - 1) * dt_dy) : Double.MAX_VALUE;
+                double ez = (z_inc != 0) ? (t_next_z + (kz - 1) * dt_dz) : Double.MAX_VALUE;
+                int mx, my, mz;
+                /* Exit on first axis to leave, with same tie order as raytraceStepIterator (Y, then X, then Z) */
+                if ((ey <= ex) && (ey <= ez)) {
+                    t = ey;
+                    my = ky;
+                    mx = stepsBefore(t_next_x, dt_dx, ey, false, kx);
+                    mz = stepsBefore(t_next_z, dt_dz, ey, false, kz);
+                    laststep = stepy;
+                } else if ((ex <= ey) && (ex <= ez)) {
+                    t = ex;
+                    mx = kx;
+                    my = stepsBefore(t_next_y, dt_dy, ex, true, ky);
+                    mz = stepsBefore(t_next_z, dt_dz, ex, false, kz);
+                    laststep = stepx;
+                } else {
+                    t = ez;
+                    mz = kz;
+                    mx = stepsBefore(t_next_x, dt_dx, ez, true, kx);
+                    my = stepsBefore(t_next_y, dt_dy, ez, true, ky);
+                    laststep = stepz;
+                }
+                int steps = mx + my + mz;
+                /* Same result as visiting the air blocks passed through */
+                lastblocktype = (steps > 1) ? DynmapBlockState.AIR : blocktype;
+                blocktype = DynmapBlockState.AIR;
+                n -= steps;
+                if (n <= 0) {
+                    return false;
+                }
+                x += mx * x_inc;
+                y += my * y_inc;
+                z += mz * z_inc;
+                t_next_x += mx * dt_dx;
+                t_next_y += my * dt_dy;
+                t_next_z += mz * dt_dz;
+                /* If outside 0-(height-1) range */
+                if ((y < miny) || (y > maxy)) {
+                    return false;
+                }
+                moved = true;
+            }
+            if (moved) {
+                mapiter.initialize(x, y, z);
+            }
+            return true;
+        }
+
+        /**
+         * Number of boundary crossings on an axis before the ray leaves the brick at texit (less than max)
+         */
+        private final int stepsBefore(double t_next, double dt, double texit, boolean first, int max) {
+            if ((t_next > texit) || ((t_next == texit) && (!first))) {
+                return 0;
+            }
+            int m = (int) ((texit - t_next) / dt) + 1;
+            if ((!first) && ((t_next + (m - 1) * dt) == texit)) {  /* Crossing at exit goes after it */
+                m--;
+            }
+            return Math.min(m, max - 1);
+        }
+
         /**
          * Step block iterator: false if done
          */
@@ -724,6 +920,10 @@ public class IsoHDPerspective implements HDPerspective {
             mapiter.initialize(x, y, z);
 
             for (; n > 0; --n) {
+                /* Until we hit something, step through empty bricks without visiting each block */
+                if ((!nonairhit) && (!skiptoair) && (!raytraceSkipEmptyBricks(cache, minY, height))) {
+                    return;
+                }
                 if (visit_block(shaderstate, shaderdone)) {
                     return;
                 }
@@ -1224,10 +1424,99 @@ public class IsoHDPerspective implements HDPerspective {
         return chunks;
     }
 
+    /**
+     * Get changed block volume for an update render of a tile, and clear it for all the maps being rendered
+     *
+     * @param tile        - tile being rendered
+     * @param world       - world
+     * @param shaderstate - shader states for maps being rendered
+     * @return volume (possibly empty), or null if full render is needed
+     */
+    private DirtyRegion getUpdateRegion(HDMapTile tile, DynmapWorld world, HDShaderState[] shaderstate) {
+        boolean partial = tile.isUpdateRender();
+        DirtyRegion rgn = new DirtyRegion();
+        for (HDShaderState ss : shaderstate) {
+            MapType.ImageFormat fmt = ss.getMap().getImageFormat();
+            /* Drawing over a decoded lossy image would degrade it more with each update */
+            if ((fmt != MapType.ImageFormat.FORMAT_PNG) && (fmt != MapType.ImageFormat.FORMAT_WEBPL)) {
+                partial = false;
+            }
+            MapTypeState mts = world.getMapState(ss.getMap());
+            if ((mts == null) || (!mts.takeDirtyRegion(tile.tx, tile.ty, rgn))) {
+                partial = false;
+            }
+        }
+        return partial ? rgn : null;
+    }
+
+    /**
+     * Read stored image for tile into buffer, to be drawn over by partial render
+     *
+     * @return true if read, false if missing, unreadable, or the wrong size
+     */
+    private static boolean loadTileImage(DynmapWorld world, HDShaderState ss, HDMapTile tile, MapType.ImageVariant var, int[] argb, int size) {
+        MapStorageTile mtile = world.getMapStorage().getTile(world, ss.getMap(), tile.tx, tile.ty, 0, var);
+        if (mtile == null) {
+            return false;
+        }
+        MapStorageTile.TileRead tr;
+        if (!mtile.getReadLock(5000)) {
+            return false;
+        }
+        try {
+            tr = mtile.read();
+        } finally {
+            mtile.releaseReadLock();
+        }
+        if ((tr == null) || (tr.format != ss.getMap().getImageFormat().getEncoding())) {
+            return false;
+        }
+        BufferedImage im;
+        try {
+            im = ImageIOManager.imageIODecode(tr);
+        } catch (IOException iox) {
+            return false;
+        }
+        if ((im == null) || (im.getWidth() != size) || (im.getHeight() != size)) {
+            return false;
+        }
+        im.getRGB(0, 0, size, size, argb, 0, size);
+        im.flush();
+        return true;
+    }
+
+    /* Test if ray from top along dir (t=0 to 1) passes through box (xmin, ymin, zmin, xmax, ymax, zmax) */
+    private static boolean rayHitsBox(Vector3D top, Vector3D dir, double[] box) {
+        double tmin = 0.0, tmax = 1.0;
+        if (dir.x != 0.0) {
+            double t0 = (box[0] - top.x) / dir.x, t1 = (box[3] - top.x) / dir.x;
+            tmin = Math.max(tmin, Math.min(t0, t1));
+            tmax = Math.min(tmax, Math.max(t0, t1));
+        } else if ((top.x < box[0]) || (top.x > box[3])) {
+            return false;
+        }
+        if (dir.y != 0.0) {
+            double t0 = (box[1] - top.y) / dir.y, t1 = (box[4] - top.y) / dir.y;
+            tmin = Math.max(tmin, Math.min(t0, t1));
+            tmax = Math.min(tmax, Math.max(t0, t1));
+        } else if ((top.y < box[1]) || (top.y > box[4])) {
+            return false;
+        }
+        if (dir.z != 0.0) {
+            double t0 = (box[2] - top.z) / dir.z, t1 = (box[5] - top.z) / dir.z;
+            tmin = Math.max(tmin, Math.min(t0, t1));
+            tmax = Math.min(tmax, Math.max(t0, t1));
+        } else if ((top.z < box[2]) || (top.z > box[5])) {
+            return false;
+        }
+        return tmin <= tmax;
+    }
+
     @Override
     public boolean render(MapChunkCache cache, HDMapTile tile, String mapname) {
         final long startTimestamp = System.currentTimeMillis();
-        Color rslt = new Color();
+        RenderContext ctx = rendercontext.get();
+        Color rslt = ctx.rslt;
         MapIterator mapiter = cache.getIterator(0, 0, 0);
         DynmapWorld world = tile.getDynmapWorld();
         int tileSize = tile.getTileSize();
@@ -1245,13 +1534,14 @@ public class IsoHDPerspective implements HDPerspective {
         /* Check if nether world */
         boolean isnether = world.isNether();
         /* Create buffered image for each */
-        DynmapBufferedImage im[] = new DynmapBufferedImage[numshaders];
-        DynmapBufferedImage dayim[] = new DynmapBufferedImage[numshaders];
-        int[][] argb_buf = new int[numshaders][];
-        int[][] day_argb_buf = new int[numshaders][];
-        boolean isOpaque[] = new boolean[numshaders];
-        int bgday[] = new int[numshaders];
-        int bgnight[] = new int[numshaders];
+        ctx.initShaders(numshaders);
+        DynmapBufferedImage im[] = ctx.im;
+        DynmapBufferedImage dayim[] = ctx.dayim;
+        int[][] argb_buf = ctx.argb_buf;
+        int[][] day_argb_buf = ctx.day_argb_buf;
+        boolean isOpaque[] = ctx.isOpaque;
+        int bgday[] = ctx.bgday;
+        int bgnight[] = ctx.bgnight;
 
         for (int i = 0; i < numshaders; i++) {
             HDLighting lighting = shaderstate[i].getLighting();
@@ -1265,6 +1555,32 @@ public class IsoHDPerspective implements HDPerspective {
             bgday[i] = shaderstate[i].getMap().getBackgroundARGBDay();
             bgnight[i] = shaderstate[i].getMap().getBackgroundARGBNight();
         }
+        /* If update render for block changes only, draw just the changed part over the stored tile images */
+        DirtyRegion dirty = getUpdateRegion(tile, world, shaderstate);
+        if ((dirty != null) && dirty.isEmpty()) {  /* Nothing changed since queued (already rendered) - stored tiles are current */
+            for (int i = 0; i < numshaders; i++) {
+                MapTypeState mts = world.getMapState(shaderstate[i].getMap());
+                if (mts != null && mts.type.isReadOnly() == false) {
+                    mts.validateTile(tile.tx, tile.ty);
+                }
+                String prefix = shaderstate[i].getMap().getPrefix();
+                DynmapBufferedImage.freeBufferedImage(im[i]);
+                MapManager.mapman.updateStatistics(tile, prefix, true, false, false);
+                if (dayim[i] != null) {
+                    DynmapBufferedImage.freeBufferedImage(dayim[i]);
+                    MapManager.mapman.updateStatistics(tile, prefix + "_day", true, false, false);
+                }
+            }
+            return false;
+        }
+        if (dirty != null) {
+            for (int i = 0; (dirty != null) && (i < numshaders); i++) {
+                if ((!loadTileImage(world, shaderstate[i], tile, MapType.ImageVariant.STANDARD, argb_buf[i], tileSize * sizescale)) ||
+                        ((day_argb_buf[i] != null) && (!loadTileImage(world, shaderstate[i], tile, MapType.ImageVariant.DAY, day_argb_buf[i], tileSize * sizescale)))) {
+                    dirty = null;   /* Missing or unreadable - render all of it */
+                }
+            }
+        }
         // Mark the tiles we're going to render as validated
         for (int i = 0; i < numshaders; i++) {
             MapTypeState mts = world.getMapState(shaderstate[i].getMap());
@@ -1272,16 +1588,13 @@ public class IsoHDPerspective implements HDPerspective {
                 mts.validateTile(tile.tx, tile.ty);
             }
         }
-        /* Create perspective state object */
-        OurPerspectiveState ps = new OurPerspectiveState(mapiter, isnether, scaled);
+        /* Get this thread's perspective state object */
+        OurPerspectiveState ps = ctx.getState(scaled);
 
-        ps.top = new Vector3D();
-        ps.bottom = new Vector3D();
-        ps.direction = new Vector3D();
         double xbase = tile.tx * tileSize;
         double ybase = tile.ty * tileSize;
-        boolean shaderdone[] = new boolean[numshaders];
-        boolean rendered[] = new boolean[numshaders];
+        boolean shaderdone[] = ctx.shaderdone;
+        boolean rendered[] = ctx.rendered;
         double height = maxheight;
         if (height == Integer.MIN_VALUE) {    /* Not set - assume world height - 1 */
             if (isnether)
@@ -1294,60 +1607,120 @@ public class IsoHDPerspective implements HDPerspective {
             miny = tile.getDynmapWorld().minY;
         }
 
-        for (int x = 0; x < tileSize * sizescale; x++) {
-            ps.px = x;
-            for (int y = 0; y < tileSize * sizescale; y++) {
-                ps.top.x = ps.bottom.x = xbase + (x + 0.5) / sizescale;    /* Start at center of pixel at Y=height+0.5, bottom at Y=-0.5 */
-                ps.top.y = ps.bottom.y = ybase + (y + 0.5) / sizescale;
-                ps.top.z = height + 0.5;
-                ps.bottom.z = miny - 0.5;
-                map_to_world.transform(ps.top);            /* Transform to world coordinates */
-                map_to_world.transform(ps.bottom);
-                ps.direction.set(ps.bottom);
-                ps.direction.subtract(ps.top);
-                ps.py = y / sizescale;
-                for (int i = 0; i < numshaders; i++) {
-                    shaderstate[i].reset(ps);
+        /* Get shared ray geometry, and tile origin in world coordinates */
+        RayGeometry rg = getRayGeometry(tileSize * sizescale, sizescale, height, miny);
+        ps.initRayGeometry(rg);
+        Vector3D origin = ctx.origin;
+        origin.x = xbase;
+        origin.y = ybase;
+        origin.z = 0;
+        map_to_world.transform(origin);
+        Vector3D dir = rg.direction;
+
+        int xmin = 0, ymin = 0;
+        int xmax = tileSize * sizescale - 1, ymax = tileSize * sizescale - 1;
+        double[] box = null;
+        if (dirty != null) {
+            int margin = MapManager.mapman.getPartialUpdateMargin();
+            int lightmargin = margin;
+            boolean skylight = false;
+            for (int i = 0; i < numshaders; i++) {
+                HDLighting lighting = shaderstate[i].getLighting();
+                /* Light from changed blocks spreads up to 15 blocks */
+                if (lighting.isEmittedLightLevelNeeded() || lighting.isSkyLightLevelNeeded()) {
+                    lightmargin = Math.max(margin, LIGHT_SPREAD);
                 }
-                try {
-                    ps.raytrace(cache, shaderstate, shaderdone);
-                } catch (Exception ex) {
-                    Log.severe("Error while raytracing tile: perspective=" + this.name + ", coord=" + mapiter.getX() + "," + mapiter.getY() + "," + mapiter.getZ() + ", blockid=" + mapiter.getBlockType() + ", lighting=" + mapiter.getBlockSkyLight() + ":" + mapiter.getBlockEmittedLight() + ", biome=" + mapiter.getBiome().toString(), ex);
-                    ex.printStackTrace();
+                /* And changed blocks change skylight all the way down their columns */
+                if (lighting.isSkyLightLevelNeeded()) {
+                    skylight = true;
                 }
-                for (int i = 0; i < numshaders; i++) {
-                    if (shaderdone[i] == false) {
-                        shaderstate[i].rayFinished(ps);
-                    } else {
-                        shaderdone[i] = false;
-                        rendered[i] = true;
+            }
+            box = new double[]{dirty.xmin - lightmargin, skylight ? Math.min(miny, dirty.ymin - lightmargin) : (dirty.ymin - lightmargin),
+                    dirty.zmin - lightmargin, dirty.xmax + 1 + lightmargin, dirty.ymax + 1 + lightmargin, dirty.zmax + 1 + lightmargin};
+            /* Limit to bounds of box's corners on the map, in pixels relative to tile */
+            double mxmin = Double.MAX_VALUE, mxmax = -Double.MAX_VALUE, mymin = Double.MAX_VALUE, mymax = -Double.MAX_VALUE;
+            Vector3D corner = new Vector3D();
+            for (int i = 0; i < 8; i++) {
+                corner.x = box[((i & 1) == 0) ? 0 : 3];
+                corner.y = box[((i & 2) == 0) ? 1 : 4];
+                corner.z = box[((i & 4) == 0) ? 2 : 5];
+                world_to_map.transform(corner);
+                mxmin = Math.min(mxmin, corner.x);
+                mxmax = Math.max(mxmax, corner.x);
+                mymin = Math.min(mymin, corner.y);
+                mymax = Math.max(mymax, corner.y);
+            }
+            xmin = Math.max(xmin, fastFloor((mxmin - xbase) * sizescale - 0.5));
+            xmax = Math.min(xmax, (int) Math.ceil((mxmax - xbase) * sizescale - 0.5));
+            ymin = Math.max(ymin, fastFloor((mymin - ybase) * sizescale - 0.5));
+            ymax = Math.min(ymax, (int) Math.ceil((mymax - ybase) * sizescale - 0.5));
+            for (int i = 0; i < numshaders; i++) {
+                rendered[i] = true;     /* Stored tile wasn't empty */
+            }
+        }
+
+        /* Bind state to the tile's chunk data for tracing - always unbound after, so the thread doesn't keep it */
+        ps.bind(mapiter, isnether);
+        try {
+            for (int x = xmin; x <= xmax; x++) {
+                ps.px = x;
+                int idx = x * rg.pixels + ymin;
+                for (int y = ymin; y <= ymax; y++, idx++) {
+                    ps.top.x = origin.x + rg.startx[idx];
+                    ps.top.y = origin.y + rg.starty[idx];
+                    ps.top.z = origin.z + rg.startz[idx];
+                    if ((box != null) && (!rayHitsBox(ps.top, dir, box))) {
+                        continue;
                     }
-                    shaderstate[i].getRayColor(rslt, 0);
-                    int c_argb = rslt.getARGB();
-                    if (c_argb != 0) rendered[i] = true;
-                    if (isOpaque[i] && (c_argb == 0)) {
-                        argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = bgnight[i];
-                    } else {
-                        argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = c_argb;
+                    ps.bottom.x = ps.top.x + dir.x;
+                    ps.bottom.y = ps.top.y + dir.y;
+                    ps.bottom.z = ps.top.z + dir.z;
+                    ps.py = y / sizescale;
+                    for (int i = 0; i < numshaders; i++) {
+                        shaderstate[i].reset(ps);
                     }
-                    if (day_argb_buf[i] != null) {
-                        shaderstate[i].getRayColor(rslt, 1);
-                        c_argb = rslt.getARGB();
+                    try {
+                        ps.raytrace(cache, shaderstate, shaderdone);
+                    } catch (Exception ex) {
+                        Log.severe("Error while raytracing tile: perspective=" + this.name + ", coord=" + mapiter.getX() + "," + mapiter.getY() + "," + mapiter.getZ() + ", blockid=" + mapiter.getBlockType() + ", lighting=" + mapiter.getBlockSkyLight() + ":" + mapiter.getBlockEmittedLight() + ", biome=" + mapiter.getBiome().toString(), ex);
+                        ex.printStackTrace();
+                    }
+                    for (int i = 0; i < numshaders; i++) {
+                        if (shaderdone[i] == false) {
+                            shaderstate[i].rayFinished(ps);
+                        } else {
+                            shaderdone[i] = false;
+                            rendered[i] = true;
+                        }
+                        shaderstate[i].getRayColor(rslt, 0);
+                        int c_argb = rslt.getARGB();
+                        if (c_argb != 0) rendered[i] = true;
                         if (isOpaque[i] && (c_argb == 0)) {
-                            day_argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = bgday[i];
+                            argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = bgnight[i];
                         } else {
-                            day_argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = c_argb;
+                            argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = c_argb;
+                        }
+                        if (day_argb_buf[i] != null) {
+                            shaderstate[i].getRayColor(rslt, 1);
+                            c_argb = rslt.getARGB();
+                            if (isOpaque[i] && (c_argb == 0)) {
+                                day_argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = bgday[i];
+                            } else {
+                                day_argb_buf[i][(tileSize * sizescale - y - 1) * tileSize * sizescale + x] = c_argb;
+                            }
                         }
                     }
                 }
             }
+        } finally {
+            ps.unbind();
         }
 
         boolean renderone = false;
         /* Test to see if we're unchanged from older tile */
         MapStorage storage = world.getMapStorage();
         for (int i = 0; i < numshaders; i++) {
-            long crc = MapStorage.calculateImageHashCode(argb_buf[i], 0, argb_buf[i].length);
+            long crc = storage.calculateImageHashCode(argb_buf[i], 0, argb_buf[i].length);
             boolean tile_update = false;
             String prefix = shaderstate[i].getMap().getPrefix();
 
@@ -1377,7 +1750,7 @@ public class IsoHDPerspective implements HDPerspective {
             MapManager.mapman.updateStatistics(tile, prefix, true, tile_update, !rendered[i]);
             /* Handle day image, if needed */
             if (dayim[i] != null) {
-                crc = MapStorage.calculateImageHashCode(day_argb_buf[i], 0, day_argb_buf[i].length);
+                crc = storage.calculateImageHashCode(day_argb_buf[i], 0, day_argb_buf[i].length);
 
                 mtile = storage.getTile(world, shaderstate[i].getMap(), tile.tx, tile.ty, 0, MapType.ImageVariant.DAY);
 
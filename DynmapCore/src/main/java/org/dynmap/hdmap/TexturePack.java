@@ -3,6 +3,7 @@ package org.dynmap.hdmap;
 import org.dynmap.*;
 import org.dynmap.common.BiomeMap;
 import org.dynmap.common.DynmapCommandSender;
+import org.dynmap.common.DynmapServerInterface;
 import org.dynmap.exporter.OBJExport;
 import org.dynmap.renderer.CustomColorMultiplier;
 import org.dynmap.renderer.DynmapBlockState;
@@ -11,6 +12,18 @@ import org.dynmap.utils.*;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
@@ -398,6 +411,10 @@ public class TexturePack {
     private int[] blank;
     private int native_scale;
     private CTMTexturePack ctm;
+    /* Scaled packs used for rendering keep their textures flattened into one atlas (and not in tile_argb) */
+    private int[] atlas;    // ARGB for each texture index (native_scale * native_scale values each), then a blank one
+    private int atlas_count;    // Number of textures in atlas (index of blank texture)
+    private volatile FlatTextureMap flatmap;
     //    private static BitSet hasBaseBlockColoring = new BitSet(); // Quick lookup - (blockID << 4) + blockMeta - set if custom colorizer
 //    private static DynIntHashMap baseBlockColoring = new DynIntHashMap();   // Base block coloring (RP independent)
     // Need copy, since RP can change this....
@@ -423,6 +440,13 @@ public class TexturePack {
     /* 0-(IMG_CNT-1) are fixed, IMG_CNT+x is dynamic file x */
     private LoadedImage[] imgs;
 
+    /* Snapshots of processed textures, in texturepacks/cache */
+    private static final String SNAPSHOT_DIR = "cache";
+    private static final String SNAPSHOT_EXT = ".snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x44545053;   // "DTPS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_KEYLEN = 32;  // SHA-256
+
     private HashMap<Integer, TexturePack> scaled_textures;
     private Object scaledlock = new Object();
 
@@ -443,6 +467,7 @@ public class TexturePack {
             } else {
                 map.put(idx, mapidx);
             }
+            HDBlockStateTextureMap.tableChanged();
         }
 
         public Integer getBlkStateValue(DynmapBlockState blk) {
@@ -458,6 +483,13 @@ public class TexturePack {
             for (Integer v : badvals) {
                 map.remove(v);
             }
+            HDBlockStateTextureMap.tableChanged();
+        }
+
+        // Get image index for given global state index, or -1 if none
+        int getIndex(int globalStateIndex) {
+            Integer v = (Integer) map.get(globalStateIndex);
+            return (v != null) ? v.intValue() : -1;
         }
     }
 
@@ -493,6 +525,9 @@ public class TexturePack {
      * @param buf - buffer to be set
      */
     public final void setTileARGB(int idx, int[] buf) {
+        if (atlas != null) {
+            throw new IllegalStateException("Texture pack textures are flattened");
+        }
         if (idx >= tile_argb.length) {
             tile_argb = Arrays.copyOf(tile_argb, 3 * idx / 2);
         }
@@ -505,7 +540,7 @@ public class TexturePack {
      * @return length of tile list
      */
     public final int getTileARGBCount() {
-        return tile_argb.length;
+        return (atlas != null) ? atlas_count : tile_argb.length;
     }
 
     /**
@@ -515,6 +550,10 @@ public class TexturePack {
      * @return ARGB array for tile, or blank array if not found
      */
     public final int[] getTileARGB(int idx) {
+        if (atlas != null) {    /* Flattened: return copy */
+            int size = native_scale * native_scale;
+            return Arrays.copyOfRange(atlas, atlasOffset(idx), atlasOffset(idx) + size);
+        }
         int[] rslt = blank;
         if (idx < tile_argb.length) {
             rslt = tile_argb[idx];
@@ -672,6 +711,17 @@ public class TexturePack {
                     processCustomColors(p);
                 }
             }
+            /* Use processed textures saved by last load, if nothing they come from has changed */
+            File snapfile = null;
+            byte[] snapkey = null;
+            if (core.configuration.getBoolean("texture-snapshot-cache", true)) {
+                snapfile = new File(new File(texturedir, SNAPSHOT_DIR), tpname + SNAPSHOT_EXT);
+                snapkey = getSnapshotKey(core, f, tpname, is_rp);
+                if ((snapkey != null) && loadSnapshot(snapfile, snapkey)) {
+                    Log.info("Loaded processed textures of " + tpname + " from snapshot");
+                    return;
+                }
+            }
             /* Loop through dynamic files */
             for (int i = 0; i < addonfiles.size(); i++) {
                 DynamicTileFile dtf = addonfiles.get(i);
@@ -780,6 +830,9 @@ public class TexturePack {
                 DynamicTileFile dtf = addonfiles.get(i);
                 processDynamicImage(i, dtf.format);
             }
+            if (snapkey != null) {
+                saveSnapshot(snapfile, snapkey);
+            }
         } catch (IOException iox) {
             Log.severe("Error loadling texture pack", iox);
         } finally {
@@ -1356,6 +1409,11 @@ public class TexturePack {
             default:
                 break;
         }
+        processTileMaterials(dtf);
+    }
+
+    /* Record material and material ID of tiles of dynamic texture file */
+    private void processTileMaterials(DynamicTileFile dtf) {
         if (dtf.tile_to_dyntile != null) {
             for (int i = 0; i < dtf.tile_to_dyntile.length; i++) {
                 if (dtf.tile_to_dyntile[i] >= 0) {
@@ -1416,6 +1474,367 @@ public class TexturePack {
         return new File(core.getDataFolder(), "texturepacks");
     }
 
+    /* Test if image is biome shading image - the only images used once textures are processed */
+    private static boolean isBiomeShadingImage(int idx) {
+        switch (idx) {
+            case IMG_GRASSCOLOR:
+            case IMG_FOLIAGECOLOR:
+            case IMG_WATERCOLORX:
+            case IMG_SWAMPGRASSCOLOR:
+            case IMG_SWAMPFOLIAGECOLOR:
+            case IMG_PINECOLOR:
+            case IMG_BIRCHCOLOR:
+                return true;
+            default:
+                return (idx >= IMG_CNT) && (idx < (IMG_CNT + addonfiles.size())) &&
+                        (addonfiles.get(idx - IMG_CNT).format == TileFileFormat.BIOME);
+        }
+    }
+
+    /**
+     * Get key of texture snapshot: digest of everything processed textures depend on - Dynmap and Minecraft versions,
+     * size and timestamp of texture pack and mod files, and the dynamic texture files defined by texture and CTM files
+     */
+    private static byte[] getSnapshotKey(DynmapCore core, File tpfile, String tpname, boolean is_rp) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), md));
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeUTF(String.valueOf(core.getDynmapCoreVersion()));
+            out.writeUTF(String.valueOf(core.getDynmapPluginVersion()));
+            out.writeUTF(String.valueOf(core.getDynmapPluginPlatformVersion()));
+            out.writeUTF(tpname);
+            out.writeBoolean(is_rp);
+            addFileStamps(out, tpfile, "");
+            // Our jar supplies the standard pack
+            try {
+                CodeSource cs = TexturePack.class.getProtectionDomain().getCodeSource();
+                if ((cs != null) && (cs.getLocation() != null)) {
+                    addFileStamps(out, new File(cs.getLocation().toURI()), "");
+                }
+            } catch (Exception x) { // Not a file: Dynmap version has to do
+            }
+            DynmapServerInterface dsi = core.getServer();
+            List<String> mods = new ArrayList<String>(dsi.getModList());
+            Collections.sort(mods);
+            for (String mod : mods) {
+                out.writeUTF(mod);
+                File mf = dsi.getModContainerFile(mod);
+                if (mf != null) {
+                    addFileStamps(out, mf, "");
+                }
+            }
+            out.writeInt(addonfiles.size());
+            for (DynamicTileFile dtf : addonfiles) {
+                out.writeUTF(dtf.filename);
+                out.writeUTF((dtf.modname != null) ? dtf.modname : "");
+                out.writeUTF(dtf.format.name());
+                out.writeInt(dtf.tilecnt_x);
+                out.writeInt(dtf.tilecnt_y);
+                out.writeBoolean(dtf.used);
+                out.writeUTF((dtf.material != null) ? dtf.material.name() : "");
+                if (dtf.tile_to_dyntile != null) {
+                    out.writeInt(dtf.tile_to_dyntile.length);
+                    for (int v : dtf.tile_to_dyntile) {
+                        out.writeInt(v);
+                    }
+                }
+                if (dtf.cust != null) {
+                    out.writeInt(dtf.cust.size());
+                    for (CustomTileRec r : dtf.cust) {
+                        out.writeInt(r.srcx);
+                        out.writeInt(r.srcy);
+                        out.writeInt(r.width);
+                        out.writeInt(r.height);
+                        out.writeInt(r.targetx);
+                        out.writeInt(r.targety);
+                    }
+                }
+            }
+            out.flush();
+            return md.digest();
+        } catch (NoSuchAlgorithmException | IOException x) {
+            Log.warning("Error building texture snapshot key - " + x.getMessage());
+            return null;
+        }
+    }
+
+    /* Add size and timestamp of file, or of files in directory, to snapshot key */
+    private static void addFileStamps(DataOutputStream out, File f, String path) throws IOException {
+        out.writeUTF(path);
+        if (f.isDirectory()) {
+            String[] names = f.list();
+            if (names == null) return;
+            Arrays.sort(names);
+            for (String n : names) {
+                addFileStamps(out, new File(f, n), path + "/" + n);
+            }
+        } else {
+            out.writeLong(f.length());
+            out.writeLong(f.lastModified());
+        }
+    }
+
+    /**
+     * Load processed textures from snapshot
+     *
+     * @param snapfile - snapshot file
+     * @param key      - snapshot key for current inputs
+     * @return true if loaded, false if no snapshot or it is stale or unreadable
+     */
+    private boolean loadSnapshot(File snapfile, byte[] key) {
+        if (!snapfile.isFile()) return false;
+        try (FileChannel fc = FileChannel.open(snapfile.toPath(), StandardOpenOption.READ)) {
+            // Check header before mapping: a mapped file can't be replaced on some platforms
+            ByteBuffer hdr = ByteBuffer.allocate(8 + SNAPSHOT_KEYLEN);
+            while (hdr.hasRemaining() && (fc.read(hdr) >= 0)) {
+            }
+            hdr.flip();
+            if ((hdr.remaining() < hdr.capacity()) || (hdr.getInt() != SNAPSHOT_MAGIC) || (hdr.getInt() != SNAPSHOT_VERSION)) {
+                return false;
+            }
+            byte[] k = new byte[SNAPSHOT_KEYLEN];
+            hdr.get(k);
+            if (!Arrays.equals(k, key)) {
+                return false;
+            }
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                return false;
+            }
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.position(hdr.capacity());
+            int scale = buf.getInt();
+            int[] blk = readSnapshotInts(buf);
+            int[][] tiles = new int[buf.getInt()][];
+            for (int i = 0; i < tiles.length; i++) {
+                int len = buf.getInt();
+                if (len >= 0) {
+                    tiles[i] = readSnapshotInts(buf, len);
+                } else if (len == -2) {
+                    tiles[i] = blk;
+                } else if (len <= -3) {   // Same as earlier tile
+                    if ((-3 - len) >= i) throw new IOException("bad tile reference");
+                    tiles[i] = tiles[-3 - len];
+                }
+            }
+            LoadedImage[] newimgs = new LoadedImage[buf.getInt()];
+            for (int i = 0; i < newimgs.length; i++) {
+                if (buf.get() == 0) continue;
+                LoadedImage li = new LoadedImage();
+                li.isLoaded = (buf.get() != 0);
+                li.width = buf.getInt();
+                li.height = buf.getInt();
+                li.trivial_color = buf.getInt();
+                li.fname = readSnapshotString(buf);
+                li.modid = readSnapshotString(buf);
+                li.argb = readSnapshotInts(buf);
+                newimgs[i] = li;
+            }
+            native_scale = scale;
+            blank = blk;
+            tile_argb = tiles;
+            imgs = newimgs;
+            for (int i = 0; i < imgs.length; i++) {
+                // Don't use color lookup for biome shading images that failed to load
+                if ((imgs[i] != null) && (!imgs[i].isLoaded) && isBiomeShadingImage(i)) {
+                    this.blockColoring.scrubValues(i);
+                }
+            }
+            for (int i = 0; i < addonfiles.size(); i++) {
+                if (((i + IMG_CNT) < imgs.length) && (imgs[i + IMG_CNT] != null)) {
+                    processTileMaterials(addonfiles.get(i));
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException x) {
+            Log.warning("Error reading texture snapshot " + snapfile.getPath() + " - " + x);
+            return false;
+        }
+    }
+
+    /**
+     * Save processed textures to snapshot, for loading on next start
+     *
+     * @param snapfile - snapshot file
+     * @param key      - snapshot key
+     */
+    private void saveSnapshot(File snapfile, byte[] key) {
+        File dir = snapfile.getParentFile();
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+        }
+        File tmp = new File(snapfile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+                ByteBuffer wbuf = ByteBuffer.allocate(65536);
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.write(key);
+                out.writeInt(native_scale);
+                writeSnapshotInts(out, blank, wbuf);
+                // Tiles sharing an array stay shared
+                IdentityHashMap<int[], Integer> written = new IdentityHashMap<int[], Integer>();
+                out.writeInt(tile_argb.length);
+                for (int i = 0; i < tile_argb.length; i++) {
+                    int[] t = tile_argb[i];
+                    Integer prev = (t != null) ? written.putIfAbsent(t, i) : null;
+                    if (t == null) {
+                        out.writeInt(-1);
+                    } else if (t == blank) {
+                        out.writeInt(-2);
+                    } else if (prev != null) {
+                        out.writeInt(-3 - prev);
+                    } else {
+                        writeSnapshotInts(out, t, wbuf);
+                    }
+                }
+                out.writeInt(imgs.length);
+                for (int i = 0; i < imgs.length; i++) {
+                    LoadedImage li = imgs[i];
+                    out.writeBoolean(li != null);
+                    if (li == null) continue;
+                    out.writeBoolean(li.isLoaded);
+                    out.writeInt(li.width);
+                    out.writeInt(li.height);
+                    out.writeInt(li.trivial_color);
+                    writeSnapshotString(out, li.fname);
+                    writeSnapshotString(out, li.modid);
+                    writeSnapshotInts(out, isBiomeShadingImage(i) ? li.argb : null, wbuf);
+                }
+            }
+            Files.move(tmp.toPath(), snapfile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException iox) {
+            Log.warning("Error saving texture snapshot " + snapfile.getPath() + " - " + iox.getMessage());
+            tmp.delete();
+        }
+    }
+
+    private static void writeSnapshotInts(DataOutputStream out, int[] v, ByteBuffer wbuf) throws IOException {
+        if (v == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(v.length);
+        IntBuffer ib = wbuf.asIntBuffer();
+        for (int off = 0; off < v.length; off += ib.capacity()) {
+            int cnt = Math.min(ib.capacity(), v.length - off);
+            ib.clear();
+            ib.put(v, off, cnt);
+            out.write(wbuf.array(), 0, 4 * cnt);
+        }
+    }
+
+    private static int[] readSnapshotInts(ByteBuffer buf) {
+        int len = buf.getInt();
+        return (len >= 0) ? readSnapshotInts(buf, len) : null;
+    }
+
+    private static int[] readSnapshotInts(ByteBuffer buf, int len) {
+        int[] v = new int[len];
+        buf.asIntBuffer().get(v);
+        buf.position(buf.position() + 4 * len);
+        return v;
+    }
+
+    private static void writeSnapshotString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readSnapshotString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0) return null;
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copy textures into a single atlas array, and drop the per-texture arrays
+     */
+    private void buildAtlas() {
+        int size = native_scale * native_scale;
+        int cnt = tile_argb.length;
+        int[] a = new int[(cnt + 1) * size];
+        for (int i = 0; i < cnt; i++) {
+            int[] t = tile_argb[i];
+            if (t != null) {
+                System.arraycopy(t, 0, a, i * size, Math.min(size, t.length));
+            }
+        }
+        atlas_count = cnt;
+        atlas = a;
+        tile_argb = null;
+    }
+
+    // Offset of texture in atlas - blank texture if not defined
+    private final int atlasOffset(int textid) {
+        return ((textid >= 0) && (textid < atlas_count)) ? (textid * native_scale * native_scale) : (atlas_count * native_scale * native_scale);
+    }
+
+    /**
+     * Primitive copy of the block state texture mappings and colorizing indexes used by readColor, indexed directly
+     * by global state index, so that the render loop doesn't need hashing, boxing or exception based bounds checks.
+     */
+    private static final class FlatTextureMap {
+        final int generation;   // Generation of texture mappings this was built from
+        final HDBlockStateTextureMap[] maps;    // Texture map for each state
+        final int[] faceoff;    // Offset of each state's face texture indexes in facetex
+        final int[] facecnt;    // Number of face texture indexes for each state
+        final int[] facetex;    // Texture index for each face (or patch) of each state
+        final int[] blkcolor;   // Custom colorizing image index for each state, or -1 if none
+
+        FlatTextureMap(int generation, ColorizingData coloring) {
+            this.generation = generation;
+            int cnt = HDBlockStateTextureMap.getTableSize();
+            maps = new HDBlockStateTextureMap[cnt];
+            faceoff = new int[cnt];
+            facecnt = new int[cnt];
+            blkcolor = new int[cnt];
+            IdentityHashMap<int[], Integer> offsets = new IdentityHashMap<int[], Integer>();  // Face arrays are often shared
+            int[] tex = new int[4 * cnt];
+            int texcnt = 0;
+            for (int i = 0; i < cnt; i++) {
+                HDBlockStateTextureMap m = HDBlockStateTextureMap.getByGlobalIndex(i);
+                if (m == null) m = HDBlockStateTextureMap.BLANK;
+                maps[i] = m;
+                int[] f = m.faces;
+                if (f != null) {
+                    Integer off = offsets.get(f);
+                    if (off == null) {
+                        if ((texcnt + f.length) > tex.length) {
+                            tex = Arrays.copyOf(tex, Math.max(2 * tex.length, texcnt + f.length));
+                        }
+                        System.arraycopy(f, 0, tex, texcnt, f.length);
+                        off = texcnt;
+                        texcnt += f.length;
+                        offsets.put(f, off);
+                    }
+                    faceoff[i] = off;
+                    facecnt[i] = f.length;
+                }
+                blkcolor[i] = coloring.getIndex(i);
+            }
+            facetex = Arrays.copyOf(tex, texcnt);
+        }
+    }
+
+    // Get flattened texture mappings, rebuilding them if the mappings have changed
+    private final FlatTextureMap getFlatTextureMap() {
+        FlatTextureMap fm = flatmap;
+        int gen = HDBlockStateTextureMap.getGeneration();
+        if ((fm == null) || (fm.generation != gen)) {
+            fm = flatmap = new FlatTextureMap(gen, blockColoring);
+        }
+        return fm;
+    }
+
     /**
      * Resample terrain pack for given scale, and return copy using that scale
      *
@@ -1434,6 +1853,8 @@ public class TexturePack {
                 stp.native_scale = scale;
                 scaleTerrainPNG(stp);
             }
+            /* Flatten textures for use by readColor */
+            stp.buildAtlas();
             /* Remember it */
             scaled_textures.put(scale, stp);
             return stp;
@@ -2524,20 +2945,31 @@ public class TexturePack {
      */
     public final void readColor(final HDPerspectiveState ps, final MapIterator mapiter, final Color rslt, final DynmapBlockState blk, final DynmapBlockState lastblocktype,
                                 final TexturePackHDShader.ShaderState ss) {
-        HDBlockStateTextureMap map = HDBlockStateTextureMap.getByBlockState(blk);
+        FlatTextureMap fm = getFlatTextureMap();
+        HDBlockStateTextureMap map;
         BlockStep laststep = ps.getLastBlockStep();
         int patchid = ps.getTextureIndex();   /* See if patch index */
-        int textid;
+        int textid = -1;
         int faceindex;
+        int blkclr;
         if (patchid >= 0) {
             faceindex = patchid;
         } else {
             faceindex = laststep.ordinal();
         }
-        try {
-            textid = map.faces[faceindex];
-        } catch (ArrayIndexOutOfBoundsException aioob) {
-            textid = -1;
+        int gidx = blk.globalStateIndex;
+        if (gidx < fm.maps.length) {
+            map = fm.maps[gidx];
+            if (faceindex < fm.facecnt[gidx]) {
+                textid = fm.facetex[fm.faceoff[gidx] + faceindex];
+            }
+            blkclr = fm.blkcolor[gidx];
+        } else {    /* State added since mappings were flattened */
+            map = HDBlockStateTextureMap.getByBlockState(blk);
+            if (faceindex < map.faces.length) {
+                textid = map.faces[faceindex];
+            }
+            blkclr = blockColoring.getIndex(gidx);
         }
         if (ctm != null) {
             int mod = 0;
@@ -2547,13 +2979,13 @@ public class TexturePack {
             }
             textid = mod + ctm.mapTexture(mapiter, blk, laststep, textid, ss);
         }
-        readColor(ps, mapiter, rslt, blk, lastblocktype, ss, map, laststep, patchid, textid, map.stdrotate);
+        readColor(ps, mapiter, rslt, blk, lastblocktype, ss, map, laststep, patchid, textid, map.stdrotate, blkclr);
         if (map.layers != null) {    /* If layered */
             /* While transparent and more layers */
             while (rslt.isTransparent() && (map.layers[faceindex] >= 0)) {
                 faceindex = map.layers[faceindex];
                 textid = map.faces[faceindex];
-                readColor(ps, mapiter, rslt, blk, lastblocktype, ss, map, laststep, patchid, textid, map.stdrotate);
+                readColor(ps, mapiter, rslt, blk, lastblocktype, ss, map, laststep, patchid, textid, map.stdrotate, blkclr);
             }
         }
     }
@@ -2562,18 +2994,20 @@ public class TexturePack {
      * Read color for given subblock coordinate, with given block id and data and face
      */
     private final void readColor(final HDPerspectiveState ps, final MapIterator mapiter, final Color rslt, final DynmapBlockState blk, final DynmapBlockState lastblocktype,
-                                 final TexturePackHDShader.ShaderState ss, HDBlockStateTextureMap map, BlockStep laststep, int patchid, int textid, boolean stdrot) {
+                                 final TexturePackHDShader.ShaderState ss, HDBlockStateTextureMap map, BlockStep laststep, int patchid, int textid, boolean stdrot,
+                                 int blkclr) {
         if (textid < 0) {
             rslt.setTransparent();
             return;
         }
-        boolean hasblockcoloring = ss.do_biome_shading && this.blockColoring.hasBlkStateValue(blk);
+        final int[] atlas = this.atlas;
+        boolean hasblockcoloring = ss.do_biome_shading && (blkclr >= 0);
         // Test if we have no texture modifications
         boolean simplemap = (textid < COLORMOD_MULT_INTERNAL) && (!hasblockcoloring);
         int[] xyz = null;
 
         if (simplemap) {    /* If simple mapping */
-            int[] texture = getTileARGB(textid);
+            int texture = atlasOffset(textid);
             /* Get texture coordinates (U=horizontal(left=0),V=vertical(top=0)) */
             int u = 0, v = 0;
             /* If not patch, compute U and V */
@@ -2621,16 +3055,9 @@ public class TexturePack {
                 v = native_scale - fastFloor(ps.getPatchV() * native_scale) - 1;
             }
             /* Read color from texture */
-            try {
-                rslt.setARGB(texture[v * native_scale + u]);
-            } catch (ArrayIndexOutOfBoundsException aoobx) {
-                u = ((u < 0) ? 0 : ((u >= native_scale) ? (native_scale - 1) : u));
-                v = ((v < 0) ? 0 : ((v >= native_scale) ? (native_scale - 1) : v));
-                try {
-                    rslt.setARGB(texture[v * native_scale + u]);
-                } catch (ArrayIndexOutOfBoundsException oob2) {
-                }
-            }
+            u = ((u < 0) ? 0 : ((u >= native_scale) ? (native_scale - 1) : u));
+            v = ((v < 0) ? 0 : ((v >= native_scale) ? (native_scale - 1) : v));
+            rslt.setARGB(atlas[texture + v * native_scale + u]);
 
             return;
         }
@@ -2655,7 +3082,7 @@ public class TexturePack {
             }
         }
 
-        int[] texture = getTileARGB(textid);
+        int texture = atlasOffset(textid);
         /* Get texture coordinates (U=horizontal(left=0),V=vertical(top=0)) */
         int u = 0, v = 0, tmp;
 
@@ -2762,22 +3189,23 @@ public class TexturePack {
                 /* Check if snow above block */
                 if (mapiter.getBlockTypeAt(BlockStep.Y_PLUS).isSnow()) {
                     if (do_snow_side) {
-                        texture = getTileARGB(TILEINDEX_SNOW); /* Snow full side block */
+                        texture = atlasOffset(TILEINDEX_SNOW); /* Snow full side block */
                         textid = TILEINDEX_SNOW;
                     } else {
-                        texture = getTileARGB(TILEINDEX_SNOWSIDE); /* Snow block */
+                        texture = atlasOffset(TILEINDEX_SNOWSIDE); /* Snow block */
                         textid = TILEINDEX_SNOWSIDE;
                     }
                     textop = 0;
                 } else {  /* Else, check the grass color overlay */
                     if (do_grass_side) {
-                        texture = getTileARGB(TILEINDEX_GRASS); /* Grass block */
+                        texture = atlasOffset(TILEINDEX_GRASS); /* Grass block */
                         textid = TILEINDEX_GRASS;
                         textop = COLORMOD_GRASSTONED;   /* Force grass toning */
                     } else {
-                        int ovclr = getTileARGB(TILEINDEX_GRASSMASK)[v * native_scale + u];
+                        int ovclr = ((u >= 0) && (u < native_scale) && (v >= 0) && (v < native_scale)) ?
+                                atlas[atlasOffset(TILEINDEX_GRASSMASK) + v * native_scale + u] : 0;
                         if ((ovclr & 0xFF000000) != 0) { /* Hit? */
-                            texture = getTileARGB(TILEINDEX_GRASSMASK); /* Use it */
+                            texture = atlasOffset(TILEINDEX_GRASSMASK); /* Use it */
                             textop = COLORMOD_GRASSTONED;   /* Force grass toning */
                         }
                     }
@@ -2809,9 +3237,9 @@ public class TexturePack {
                 break;
         }
         /* Read color from texture */
-        try {
-            rslt.setARGB(texture[v * native_scale + u]);
-        } catch (ArrayIndexOutOfBoundsException aioobx) {
+        if ((u >= 0) && (u < native_scale) && (v >= 0) && (v < native_scale)) {
+            rslt.setARGB(atlas[texture + v * native_scale + u]);
+        } else {
             rslt.setARGB(0);
         }
 
@@ -2820,8 +3248,7 @@ public class TexturePack {
         int custclrmult = -1;
         // If block has custom coloring
         if (hasblockcoloring) {
-            Integer idx = this.blockColoring.getBlkStateValue(blk);
-            LoadedImage img = imgs[idx.intValue()];
+            LoadedImage img = imgs[blkclr];
             if (img.argb != null) {
                 custclrmult = mapiter.getSmoothWaterColorMultiplier(img.argb);
             } else {
@@ -0,0 +1,154 @@
+package org.dynmap.offline;
+
+import org.dynmap.hdmap.HDBlockStateTextureMap;
+import org.dynmap.hdmap.TexturePack.BlockTransparency;
+import org.dynmap.renderer.DynmapBlockState;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registers block states from the block report of the server's data generator
+ * ("java -DbundlerMainClass=net.minecraft.data.Main -jar server.jar --reports", which writes
+ * generated/reports/blocks.json), in place of the block registry the platforms read.  States get the same IDs
+ * and names ("attrib=value,..." in property name order) as on the server.
+ * <p>
+ * The report has no block attributes, so air, logs, leaves and waterlogging are recognized by name and state, and
+ * solidity and light attenuation are set from the texture mappings once they are loaded
+ * ({@link #updateFromTextureMappings()}).
+ */
+public class BlockStateReport {
+    private static final HashSet<String> AIR_BLOCKS = new HashSet<String>(Arrays.asList(
+            "minecraft:cave_air", "minecraft:void_air"));
+    // Blocks that are always in water (fluid state, but not a fluid block)
+    private static final HashSet<String> WATER_PLANTS = new HashSet<String>(Arrays.asList(
+            "minecraft:kelp", "minecraft:kelp_plant", "minecraft:seagrass", "minecraft:tall_seagrass",
+            "minecraft:bubble_column"));
+
+    private static class ReportState {
+        int id;
+        String name;
+        boolean waterlogged;
+    }
+
+    private BlockStateReport() {
+    }
+
+    /**
+     * Register block states from report - must be done before the core is enabled
+     *
+     * @param f - blocks.json
+     * @return number of states registered
+     * @throws IOException if report cannot be read or parsed
+     */
+    public static int register(File f) throws IOException {
+        JSONObject report;
+        try (Reader rdr = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+            report = (JSONObject) new JSONParser().parse(rdr);
+        } catch (ParseException | ClassCastException x) {
+            throw new IOException("Invalid block report " + f + ": " + x.getMessage());
+        }
+        // Collect states of each block, in ID order
+        TreeMap<Integer, String> blocksByFirstID = new TreeMap<Integer, String>();
+        TreeMap<String, List<ReportState>> statesByBlock = new TreeMap<String, List<ReportState>>();
+        for (Object k : report.keySet()) {
+            String bn = (String) k;
+            JSONArray states = (JSONArray) ((JSONObject) report.get(bn)).get("states");
+            if (states == null) continue;
+            ArrayList<ReportState> lst = new ArrayList<ReportState>();
+            for (Object so : states) {
+                JSONObject s = (JSONObject) so;
+                ReportState rs = new ReportState();
+                rs.id = ((Number) s.get("id")).intValue();
+                rs.name = "";
+                JSONObject props = (JSONObject) s.get("properties");
+                if (props != null) {
+                    StringBuilder sb = new StringBuilder();
+                    for (Map.Entry<?, ?> p : new TreeMap<Object, Object>(props).entrySet()) {
+                        if (sb.length() > 0) sb.append(',');
+                        sb.append(p.getKey()).append('=').append(p.getValue());
+                    }
+                    rs.name = sb.toString();
+                    rs.waterlogged = "true".equals(props.get("waterlogged"));
+                }
+                lst.add(rs);
+            }
+            if (lst.isEmpty()) continue;
+            lst.sort(Comparator.comparingInt(rs -> rs.id));
+            blocksByFirstID.put(lst.get(0).id, bn);
+            statesByBlock.put(bn, lst);
+        }
+        int cnt = 0;
+        DynmapBlockState.Builder bld = new DynmapBlockState.Builder();
+        for (String bn : blocksByFirstID.values()) {
+            if (bn.equals(DynmapBlockState.AIR_BLOCK)) {
+                continue;
+            }
+            List<ReportState> states = statesByBlock.get(bn);
+            int baseidx = states.get(0).id;
+            boolean air = AIR_BLOCKS.contains(bn);
+            boolean log = bn.endsWith("_log") || bn.endsWith("_wood") || bn.endsWith("_hyphae") ||
+                    bn.endsWith("crimson_stem") || bn.endsWith("warped_stem");
+            boolean leaves = bn.endsWith("_leaves");
+            DynmapBlockState basebs = null;
+            for (ReportState rs : states) {
+                boolean wl = rs.waterlogged || WATER_PLANTS.contains(bn);
+                int lightAtten = air ? 0 : ((wl || leaves || bn.equals("minecraft:water")) ? 1 : 15);
+                bld.setBaseState(basebs).setStateIndex(rs.id - baseidx).setBlockName(bn).setStateName(rs.name)
+                        .setLegacyBlockID(rs.id).setAttenuatesLight(lightAtten);
+                if (air) bld.setAir();
+                if (log) bld.setLog();
+                if (leaves) bld.setLeaves();
+                if (wl) bld.setWaterlogged();
+                DynmapBlockState bs = bld.build();
+                if (basebs == null) {
+                    basebs = bs;
+                }
+                cnt++;
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Set solidity and light attenuation of registered states from the loaded texture mappings: opaque and
+     * semi-transparent (slab, stair) blocks are solid, and light passes through everything that is not opaque
+     */
+    public static void updateFromTextureMappings() {
+        for (int i = 0; i < DynmapBlockState.getGlobalIndexMax(); i++) {
+            DynmapBlockState bs = DynmapBlockState.getStateByGlobalIndex(i);
+            if (bs.isAir()) continue;
+            BlockTransparency trans = HDBlockStateTextureMap.getTransparency(bs);
+            switch (trans) {
+                case OPAQUE:
+                    bs.setSolid();
+                    bs.lightAttenuation = 15;
+                    break;
+                case SEMITRANSPARENT:
+                    bs.setSolid();
+                    bs.lightAttenuation = 1;
+                    break;
+                case LEAVES:
+                    bs.lightAttenuation = 1;
+                    break;
+                default:
+                    bs.lightAttenuation = (bs.isWater() || bs.isWaterlogged()) ? 1 : 0;
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.dynmap.offline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoder for LZ4 block streams, as written by lz4-java's LZ4BlockOutputStream - the format of region chunks
+ * saved with region-file-compression=lz4 (1.20.5+).  Each block is the "LZ4Block" magic, a token (method and
+ * level), little endian compressed length, original length and checksum, then the raw or LZ4 compressed data.
+ * An empty block ends the stream.  Checksums are not verified.
+ */
+class LZ4Block {
+    private static final byte[] MAGIC = "LZ4Block".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_LENGTH = MAGIC.length + 13;
+    private static final int METHOD_RAW = 0x10;
+    private static final int METHOD_LZ4 = 0x20;
+    private static final int MIN_MATCH = 4;
+
+    private LZ4Block() {
+    }
+
+    static byte[] decompress(byte[] src) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(src.length * 4);
+        int off = 0;
+        while ((off + HEADER_LENGTH) <= src.length) {
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (src[off + i] != MAGIC[i]) {
+                    throw new IOException("Bad LZ4 block magic");
+                }
+            }
+            int method = src[off + MAGIC.length] & 0xF0;
+            int clen = readIntLE(src, off + MAGIC.length + 1);
+            int olen = readIntLE(src, off + MAGIC.length + 5);
+            off += HEADER_LENGTH;
+            if (olen == 0) {    // End of stream
+                break;
+            }
+            if ((clen < 0) || (olen < 0) || ((off + clen) > src.length)) {
+                throw new IOException("Bad LZ4 block lengths");
+            }
+            byte[] blk;
+            if (method == METHOD_RAW) {
+                if (clen != olen) {
+                    throw new IOException("Bad LZ4 raw block length");
+                }
+                blk = new byte[olen];
+                System.arraycopy(src, off, blk, 0, olen);
+            } else if (method == METHOD_LZ4) {
+                blk = decompressBlock(src, off, clen, olen);
+            } else {
+                throw new IOException("Unknown LZ4 block method " + method);
+            }
+            out.write(blk, 0, blk.length);
+            off += clen;
+        }
+        return out.toByteArray();
+    }
+
+    // Decode one raw LZ4 block of known decompressed size
+    private static byte[] decompressBlock(byte[] src, int off, int len, int olen) throws IOException {
+        byte[] dst = new byte[olen];
+        int ip = off, iend = off + len, op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int litlen = token >>> 4;
+                if (litlen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        litlen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litlen);
+                ip += litlen;
+                op += litlen;
+                if (ip >= iend) {   // Last sequence is literals only
+                    break;
+                }
+                int moff = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+                int mlen = token & 0xF;
+                if (mlen == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        mlen += b;
+                    } while (b == 255);
+                }
+                mlen += MIN_MATCH;
+                int mp = op - moff;
+                if ((moff == 0) || (mp < 0)) {
+                    throw new IOException("Bad LZ4 match offset");
+                }
+                // Byte by byte - matches may overlap the bytes being written
+                for (int i = 0; i < mlen; i++) {
+                    dst[op++] = dst[mp++];
+                }
+            }
+        } catch (IndexOutOfBoundsException x) {
+            throw new IOException("Corrupt LZ4 block");
+        }
+        if (op != olen) {
+            throw new IOException("LZ4 block decoded to " + op + " bytes, expected " + olen);
+        }
+        return dst;
+    }
+
+    private static int readIntLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,360 @@
+package org.dynmap.offline;
+
+import org.dynmap.common.chunk.GenericBitStorage;
+import org.dynmap.common.chunk.GenericNBTCompound;
+import org.dynmap.common.chunk.GenericNBTList;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * In-memory NBT tree, read from the binary NBT format used in region files and level.dat (or built directly).
+ * Same semantics as the server NBT classes the platforms wrap: missing values read as 0/empty, and key order is
+ * preserved.
+ */
+public class NBT {
+    private static final int MAX_DEPTH = 512;   // Same nesting limit as the server
+
+    public static class NBTCompound implements GenericNBTCompound {
+        private final LinkedHashMap<String, Object> obj = new LinkedHashMap<String, Object>();
+
+        public NBTCompound put(String key, Object val) {
+            obj.put(key, val);
+            return this;
+        }
+
+        @Override
+        public Set<String> getAllKeys() {
+            return obj.keySet();
+        }
+
+        @Override
+        public boolean contains(String s) {
+            return obj.containsKey(s);
+        }
+
+        @Override
+        public boolean contains(String s, int i) {
+            Object v = obj.get(s);
+            if (v == null) return false;
+            int t = tagType(v);
+            if (i == TAG_ANY_NUMERIC) {
+                return (t >= TAG_BYTE) && (t <= TAG_DOUBLE);
+            }
+            return t == i;
+        }
+
+        private Number getNumber(String s) {
+            Object v = obj.get(s);
+            return (v instanceof Number) ? (Number) v : 0;
+        }
+
+        @Override
+        public byte getByte(String s) {
+            return getNumber(s).byteValue();
+        }
+
+        @Override
+        public short getShort(String s) {
+            return getNumber(s).shortValue();
+        }
+
+        @Override
+        public int getInt(String s) {
+            return getNumber(s).intValue();
+        }
+
+        @Override
+        public long getLong(String s) {
+            return getNumber(s).longValue();
+        }
+
+        @Override
+        public float getFloat(String s) {
+            return getNumber(s).floatValue();
+        }
+
+        @Override
+        public double getDouble(String s) {
+            return getNumber(s).doubleValue();
+        }
+
+        @Override
+        public String getString(String s) {
+            Object v = obj.get(s);
+            return (v instanceof String) ? (String) v : "";
+        }
+
+        @Override
+        public byte[] getByteArray(String s) {
+            Object v = obj.get(s);
+            return (v instanceof byte[]) ? (byte[]) v : new byte[0];
+        }
+
+        @Override
+        public int[] getIntArray(String s) {
+            Object v = obj.get(s);
+            return (v instanceof int[]) ? (int[]) v : new int[0];
+        }
+
+        @Override
+        public long[] getLongArray(String s) {
+            Object v = obj.get(s);
+            return (v instanceof long[]) ? (long[]) v : new long[0];
+        }
+
+        @Override
+        public NBTCompound getCompound(String s) {
+            Object v = obj.get(s);
+            return (v instanceof NBTCompound) ? (NBTCompound) v : new NBTCompound();
+        }
+
+        @Override
+        public NBTList getList(String s, int i) {
+            Object v = obj.get(s);
+            if (v instanceof NBTList) {
+                NBTList l = (NBTList) v;
+                if ((l.size() == 0) || (l.getElementType() == i)) {
+                    return l;
+                }
+            }
+            return new NBTList();
+        }
+
+        @Override
+        public boolean getBoolean(String s) {
+            return getByte(s) != 0;
+        }
+
+        @Override
+        public String getAsString(String s) {
+            Object v = obj.get(s);
+            return (v != null) ? v.toString() : "";
+        }
+
+        @Override
+        public GenericBitStorage makeBitStorage(int bits, int count, long[] data) {
+            return new OurBitStorage(bits, count, data);
+        }
+
+        public String toString() {
+            return obj.toString();
+        }
+    }
+
+    public static class NBTList implements GenericNBTList {
+        private final List<Object> vals = new ArrayList<Object>();
+
+        public NBTList add(Object val) {
+            vals.add(val);
+            return this;
+        }
+
+        @Override
+        public int size() {
+            return vals.size();
+        }
+
+        /**
+         * Get tag type of list elements
+         *
+         * @return tag type (TAG_END if empty)
+         */
+        public int getElementType() {
+            return vals.isEmpty() ? GenericNBTCompound.TAG_END : tagType(vals.get(0));
+        }
+
+        @Override
+        public String getString(int idx) {
+            Object v = vals.get(idx);
+            return (v instanceof String) ? (String) v : "";
+        }
+
+        @Override
+        public NBTCompound getCompound(int idx) {
+            Object v = vals.get(idx);
+            return (v instanceof NBTCompound) ? (NBTCompound) v : new NBTCompound();
+        }
+
+        public String toString() {
+            return vals.toString();
+        }
+    }
+
+    /**
+     * Packed values, laid out as in chunk data since 1.16: values never span two longs
+     */
+    public static class OurBitStorage implements GenericBitStorage {
+        private final long[] data;
+        private final int bits;
+        private final int valsperlong;
+        private final long mask;
+
+        public OurBitStorage(int bits, int count, long[] data) {
+            this.bits = bits;
+            this.valsperlong = 64 / bits;
+            this.mask = (1L << bits) - 1L;
+            if (data.length != ((count + valsperlong - 1) / valsperlong)) {
+                throw new IllegalArgumentException("Invalid length given for storage, got: " + data.length);
+            }
+            this.data = data;
+        }
+
+        @Override
+        public int get(int idx) {
+            int li = idx / valsperlong;
+            int off = (idx - (li * valsperlong)) * bits;
+            return (int) ((data[li] >> off) & mask);
+        }
+
+        /**
+         * Pack values in the same layout
+         *
+         * @param bits - bits per value
+         * @param vals - values
+         * @return packed data
+         */
+        public static long[] pack(int bits, int[] vals) {
+            int vpl = 64 / bits;
+            long[] d = new long[(vals.length + vpl - 1) / vpl];
+            for (int i = 0; i < vals.length; i++) {
+                int li = i / vpl;
+                d[li] |= ((long) vals[i]) << ((i - (li * vpl)) * bits);
+            }
+            return d;
+        }
+    }
+
+    /**
+     * Read uncompressed NBT (named root compound)
+     *
+     * @param in - input stream
+     * @return root compound
+     * @throws IOException if read fails or data is not a compound
+     */
+    public static NBTCompound read(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        int type = din.readByte();
+        if (type != GenericNBTCompound.TAG_COMPOUND) {
+            throw new IOException("Root tag is not a compound (type " + type + ")");
+        }
+        din.readUTF();  // Root name - always empty in practice
+        return readCompound(din, 0);
+    }
+
+    /**
+     * Read gzip compressed NBT file (level.dat and the like)
+     *
+     * @param f - file
+     * @return root compound
+     * @throws IOException if read fails
+     */
+    public static NBTCompound readCompressed(File f) throws IOException {
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            return read(in);
+        }
+    }
+
+    private static NBTCompound readCompound(DataInput in, int depth) throws IOException {
+        NBTCompound c = new NBTCompound();
+        while (true) {
+            int type = in.readByte();
+            if (type == GenericNBTCompound.TAG_END) {
+                return c;
+            }
+            String name = in.readUTF();
+            c.put(name, readPayload(in, type, depth + 1));
+        }
+    }
+
+    private static Object readPayload(DataInput in, int type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("NBT nested too deeply");
+        }
+        switch (type) {
+            case GenericNBTCompound.TAG_BYTE:
+                return in.readByte();
+            case GenericNBTCompound.TAG_SHORT:
+                return in.readShort();
+            case GenericNBTCompound.TAG_INT:
+                return in.readInt();
+            case GenericNBTCompound.TAG_LONG:
+                return in.readLong();
+            case GenericNBTCompound.TAG_FLOAT:
+                return in.readFloat();
+            case GenericNBTCompound.TAG_DOUBLE:
+                return in.readDouble();
+            case GenericNBTCompound.TAG_BYTE_ARRAY: {
+                byte[] v = new byte[readLength(in)];
+                in.readFully(v);
+                return v;
+            }
+            case GenericNBTCompound.TAG_STRING:
+                return in.readUTF();
+            case GenericNBTCompound.TAG_LIST: {
+                int etype = in.readByte();
+                int len = in.readInt();
+                NBTList l = new NBTList();
+                if ((etype == GenericNBTCompound.TAG_END) && (len > 0)) {
+                    throw new IOException("List of TAG_END with non-zero length");
+                }
+                for (int i = 0; i < len; i++) {
+                    l.add(readPayload(in, etype, depth + 1));
+                }
+                return l;
+            }
+            case GenericNBTCompound.TAG_COMPOUND:
+                return readCompound(in, depth);
+            case GenericNBTCompound.TAG_INT_ARRAY: {
+                int[] v = new int[readLength(in)];
+                for (int i = 0; i < v.length; i++) {
+                    v[i] = in.readInt();
+                }
+                return v;
+            }
+            case GenericNBTCompound.TAG_LONG_ARRAY: {
+                long[] v = new long[readLength(in)];
+                for (int i = 0; i < v.length; i++) {
+                    v[i] = in.readLong();
+                }
+                return v;
+            }
+            default:
+                throw new IOException("Invalid NBT tag type " + type);
+        }
+    }
+
+    private static int readLength(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            throw new IOException("Negative NBT array length");
+        }
+        return len;
+    }
+
+    private static int tagType(Object v) {
+        if (v instanceof Byte) return GenericNBTCompound.TAG_BYTE;
+        if (v instanceof Short) return GenericNBTCompound.TAG_SHORT;
+        if (v instanceof Integer) return GenericNBTCompound.TAG_INT;
+        if (v instanceof Long) return GenericNBTCompound.TAG_LONG;
+        if (v instanceof Float) return GenericNBTCompound.TAG_FLOAT;
+        if (v instanceof Double) return GenericNBTCompound.TAG_DOUBLE;
+        if (v instanceof byte[]) return GenericNBTCompound.TAG_BYTE_ARRAY;
+        if (v instanceof String) return GenericNBTCompound.TAG_STRING;
+        if (v instanceof NBTList) return GenericNBTCompound.TAG_LIST;
+        if (v instanceof NBTCompound) return GenericNBTCompound.TAG_COMPOUND;
+        if (v instanceof int[]) return GenericNBTCompound.TAG_INT_ARRAY;
+        if (v instanceof long[]) return GenericNBTCompound.TAG_LONG_ARRAY;
+        return GenericNBTCompound.TAG_END;
+    }
+}
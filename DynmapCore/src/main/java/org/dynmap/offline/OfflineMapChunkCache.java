@@ -0,0 +1,47 @@
+package org.dynmap.offline;
+
+import org.dynmap.DynmapChunk;
+import org.dynmap.DynmapWorld;
+import org.dynmap.Log;
+import org.dynmap.common.chunk.GenericChunk;
+import org.dynmap.common.chunk.GenericChunkCache;
+import org.dynmap.common.chunk.GenericMapChunkCache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Chunk cache for {@link OfflineWorld} - nothing is loaded, so every chunk is read from its region file and parsed
+ */
+public class OfflineMapChunkCache extends GenericMapChunkCache {
+    private OfflineWorld ow;
+
+    public OfflineMapChunkCache(GenericChunkCache sscache) {
+        super(sscache);
+    }
+
+    @Override
+    public void setChunks(DynmapWorld dw, List<DynmapChunk> chunks) {
+        this.ow = (OfflineWorld) dw;
+        super.setChunks(dw, chunks);
+    }
+
+    @Override
+    protected GenericChunk getLoadedChunk(DynmapChunk chunk) {
+        return null;
+    }
+
+    @Override
+    protected GenericChunk loadChunk(DynmapChunk chunk) {
+        GenericChunk gc = null;
+        try {
+            NBT.NBTCompound nbt = ow.readChunk(chunk.x, chunk.z);
+            if (nbt != null) {
+                gc = parseChunkFromNBT(nbt);
+            }
+        } catch (IOException iox) {
+            Log.severe(String.format("Error reading chunk: %s,%d,%d", ow.getName(), chunk.x, chunk.z), iox);
+        }
+        return gc;
+    }
+}
@@ -0,0 +1,564 @@
+package org.dynmap.offline;
+
+import org.dynmap.DynmapCore;
+import org.dynmap.Log;
+import org.dynmap.MapType;
+import org.dynmap.common.BiomeMap;
+import org.dynmap.common.chunk.GenericChunkCache;
+import org.dynmap.hdmap.HDMap;
+import org.dynmap.hdmap.HDMapTile;
+import org.dynmap.hdmap.HDPerspective;
+import org.dynmap.storage.MapStorage;
+import org.dynmap.storage.MapStorageTile;
+import org.dynmap.storage.RenderLeases;
+import org.dynmap.utils.MapChunkCache;
+import org.dynmap.utils.TileFlags;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless renderer: renders a copy of a world save into the map storage of a Dynmap data directory, without a
+ * running server.  Chunks are read straight from the region files and parsed the same way the platforms parse
+ * unloaded chunks, and every tile touched by a saved chunk is rendered on all cores, followed by the zoomed out
+ * tiles.  Maps, templates, shaders, texture packs and storage all come from the data directory's configuration
+ * (a copy of the server's dynmap directory works); the internal web server and components are not started.
+ * <p>
+ * Without a server there is no block registry, so block states are registered from the data generator's block
+ * report - see {@link BlockStateReport}.  Only vanilla blocks are supported.
+ * <p>
+ * Usage: java -cp Dynmap.jar org.dynmap.offline.OfflineRenderer dynmap-dir world-dir [options]
+ * <ul>
+ * <li>--blocks file : block report, blocks.json (default: blocks.json in dynmap-dir)</li>
+ * <li>--client-jar file : Minecraft client jar, for the standard texture pack</li>
+ * <li>--dimension overworld|nether|end : only render given dimension (default: all in the save)</li>
+ * <li>--map name : only render given map (default: all maps)</li>
+ * <li>--threads n : number of render threads (default: number of cores)</li>
+ * <li>--mcversion version : Minecraft version of the save (default: from level.dat)</li>
+ * <li>--no-zoomout : do not update zoomed out tiles</li>
+ * <li>--worker : distributed render - see below</li>
+ * <li>--coordinator : distributed render, and update the zoomed out tiles above the partitions once all are done</li>
+ * <li>--reset : with --coordinator, start the distributed render over (default: resume it)</li>
+ * <li>--partition-size n : partition size in tiles, a power of 2 (default: 32)</li>
+ * <li>--lease-time secs : partition lease time (default: 300)</li>
+ * <li>--worker-id id : worker ID (default: host:pid)</li>
+ * </ul>
+ * <p>
+ * A distributed render splits the tiles into square partitions that are leased to any number of worker processes,
+ * on this or other hosts, sharing the map storage (and each with a copy of the world save).  Leases and progress are
+ * kept by the storage (see {@link RenderLeases}), so the partitions of a crashed worker are picked up by others
+ * once its lease expires.  Workers render the zoomed out tiles within their partitions; the coordinator - which
+ * renders partitions too - waits until all partitions are done, then renders the zoom levels above them.
+ */
+public class OfflineRenderer {
+    private static final int DATA_VERSION_1_18 = 2860;  // First version with -64 to 320 overworld
+    private static final long COORDINATOR_POLL_MS = 10000;
+
+    private File datadir;
+    private File worlddir;
+    private File blocksfile;
+    private File clientjar;
+    private String dimension;
+    private String mapname;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String mcver;
+    private boolean zoomout = true;
+    private boolean distributed;
+    private boolean coordinator;
+    private boolean reset;
+    private int partitionbits = 5;
+    private long leasetime = 300000;
+    private String workerid;
+
+    private NBT.NBTCompound leveldata = new NBT.NBTCompound();
+    private DynmapCore core;
+    private OfflineServer server;
+    private int progressinterval;
+
+    // Tiles to render for maps sharing a perspective and scale - these render together
+    private static class TileGroup {
+        HDPerspective perspective;
+        int boostzoom;
+        int tilescale;
+        String job;
+        List<HDMap> maps = new ArrayList<HDMap>();
+        TileFlags tiles = new TileFlags();
+    }
+
+    // Leased partition of a distributed render
+    private class Lease {
+        RenderLeases leases;
+        String world;
+        String job;
+        TileFlags.TileCoord part;
+
+        boolean renew() {
+            return leases.renew(world, job, part, workerid, System.currentTimeMillis() + leasetime);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: OfflineRenderer dynmap-dir world-dir [--blocks file] [--client-jar file] [--dimension overworld|nether|end] [--map name] [--threads n] [--mcversion version] [--no-zoomout] [--worker|--coordinator [--reset]] [--partition-size n] [--lease-time secs] [--worker-id id]");
+            System.exit(1);
+        }
+        OfflineRenderer r = new OfflineRenderer();
+        r.datadir = new File(args[0]);
+        r.worlddir = new File(args[1]);
+        r.blocksfile = new File(r.datadir, "blocks.json");
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--blocks":
+                    r.blocksfile = new File(args[++i]);
+                    break;
+                case "--client-jar":
+                    r.clientjar = new File(args[++i]);
+                    break;
+                case "--dimension":
+                    r.dimension = args[++i];
+                    break;
+                case "--map":
+                    r.mapname = args[++i];
+                    break;
+                case "--threads":
+                    r.threads = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--mcversion":
+                    r.mcver = args[++i];
+                    break;
+                case "--no-zoomout":
+                    r.zoomout = false;
+                    break;
+                case "--worker":
+                    r.distributed = true;
+                    break;
+                case "--coordinator":
+                    r.distributed = r.coordinator = true;
+                    break;
+                case "--reset":
+                    r.reset = true;
+                    break;
+                case "--partition-size":
+                    int sz = Integer.parseInt(args[++i]);
+                    if ((sz < 1) || (Integer.bitCount(sz) != 1)) {
+                        System.err.println("Partition size must be a power of 2");
+                        System.exit(1);
+                    }
+                    r.partitionbits = Integer.numberOfTrailingZeros(sz);
+                    break;
+                case "--lease-time":
+                    r.leasetime = Math.max(10, Long.parseLong(args[++i])) * 1000;
+                    break;
+                case "--worker-id":
+                    r.workerid = args[++i];
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (r.workerid == null) {
+            r.workerid = InetAddress.getLocalHost().getHostName() + ":" + ProcessHandle.current().pid();
+        }
+        System.exit(r.run() ? 0 : 1);
+    }
+
+    private boolean run() throws IOException {
+        if (!new File(datadir, "configuration.txt").isFile()) {
+            Log.severe("No configuration.txt in " + datadir);
+            return false;
+        }
+        File leveldat = new File(worlddir, "level.dat");
+        if (leveldat.isFile()) {
+            leveldata = NBT.readCompressed(leveldat).getCompound("Data");
+        }
+        if (mcver == null) {
+            mcver = leveldata.getCompound("Version").getString("Name");
+            if (mcver.isEmpty()) {
+                Log.severe("Minecraft version not found in " + leveldat + " - use --mcversion");
+                return false;
+            }
+        }
+        if (!blocksfile.isFile()) {
+            Log.severe("Block report " + blocksfile + " not found - generate it with the server's data generator (--reports)");
+            return false;
+        }
+        BiomeMap.loadWellKnownByVersion(mcver);
+        Log.info("Registered " + BlockStateReport.register(blocksfile) + " block states from " + blocksfile);
+
+        server = new OfflineServer("offline");
+        if (clientjar != null) {
+            server.setModContainerFile("minecraft", clientjar);
+        }
+        core = new DynmapCore();
+        core.setServer(server);
+        core.setDataFolder(datadir);
+        String ver = OfflineRenderer.class.getPackage().getImplementationVersion();
+        core.setPluginVersion((ver != null) ? ver : "offline", "offline");
+        core.setMinecraftVersion(mcver);
+        if (!core.initConfiguration(null)) {
+            return false;
+        }
+        // Tiles only: no web server or components, and zoom out is done here once tiles are rendered
+        core.isInternalWebServerDisabled = true;
+        core.configuration.put("components", new ArrayList<Object>());
+        core.configuration.put("saverestorepending", false);
+        core.configuration.put("initial-zoomout-validate", false);
+        progressinterval = Math.max(1, core.configuration.getInteger("progressloginterval", 100));
+        if (!core.enableCore(null)) {
+            return false;
+        }
+        BlockStateReport.updateFromTextureMappings();
+        GenericChunkCache sscache = new GenericChunkCache(core.getSnapShotCacheSize(), core.useSoftRefInSnapShotCache());
+
+        boolean ok = true;
+        try {
+            boolean modern = leveldata.getInt("DataVersion") >= DATA_VERSION_1_18;
+            String levelname = leveldata.getString("LevelName");
+            if (levelname.isEmpty()) {
+                levelname = worlddir.getName();
+            }
+            if (isDimensionSelected("overworld")) {
+                OfflineWorld w = new OfflineWorld(levelname, worlddir, "normal", modern ? 384 : 256, 63, modern ? -64 : 0, sscache);
+                w.setSpawnLocation(leveldata.getInt("SpawnX"), leveldata.getInt("SpawnY"), leveldata.getInt("SpawnZ"));
+                w.setTime(leveldata.getLong("DayTime"));
+                w.setWeather(leveldata.getBoolean("raining"), leveldata.getBoolean("thundering"));
+                ok &= renderWorld(w);
+            }
+            if (isDimensionSelected("nether")) {
+                ok &= renderWorld(new OfflineWorld("DIM-1", new File(worlddir, "DIM-1"), "nether", 256, 32, 0, sscache));
+            }
+            if (isDimensionSelected("end")) {
+                ok &= renderWorld(new OfflineWorld("DIM1", new File(worlddir, "DIM1"), "the_end", 256, 0, 0, sscache));
+            }
+        } finally {
+            core.disableCore();
+        }
+        return ok;
+    }
+
+    private boolean isDimensionSelected(String dim) {
+        return (dimension == null) || dimension.equals(dim);
+    }
+
+    private boolean renderWorld(OfflineWorld w) throws IOException {
+        List<File> regions = w.getRegionFiles();
+        if (regions.isEmpty()) {
+            if (dimension != null) {
+                Log.severe("No region files for world '" + w.getName() + "'");
+                return false;
+            }
+            return true;
+        }
+        server.addWorld(w);
+        if (!core.processWorldLoad(w)) {
+            Log.info("World '" + w.getName() + "' is disabled - skipped");
+            return true;
+        }
+        try {
+            // Group maps that render together, and find the tiles covering each saved chunk
+            LinkedHashMap<String, TileGroup> groups = new LinkedHashMap<String, TileGroup>();
+            for (MapType mt : w.maps) {
+                if (!(mt instanceof HDMap) || mt.isReadOnly()) continue;
+                if ((mapname != null) && !mt.getName().equals(mapname)) continue;
+                HDMap map = (HDMap) mt;
+                String key = map.getPerspective().getName() + ":" + map.getBoostZoom() + ":" + map.getTileScale();
+                TileGroup g = groups.get(key);
+                if (g == null) {
+                    g = new TileGroup();
+                    g.perspective = map.getPerspective();
+                    g.boostzoom = map.getBoostZoom();
+                    g.tilescale = map.getTileScale();
+                    g.job = (mapname != null) ? (key + ":" + mapname) : key;
+                    groups.put(key, g);
+                }
+                g.maps.add(map);
+            }
+            if (groups.isEmpty()) {
+                Log.info("No maps to render for world '" + w.getName() + "'");
+                return true;
+            }
+            int chunks = 0;
+            for (File f : regions) {
+                int[] rc = RegionFile.parseRegionCoords(f.getName());
+                try (RegionFile rf = new RegionFile(f)) {
+                    for (int i = 0; i < 1024; i++) {
+                        int cx = (rc[0] << 5) + (i & 0x1F), cz = (rc[1] << 5) + (i >> 5);
+                        if (!rf.hasChunk(cx, cz)) continue;
+                        chunks++;
+                        for (TileGroup g : groups.values()) {
+                            for (TileFlags.TileCoord c : g.perspective.getTileCoords(w, cx << 4, w.minY, cz << 4,
+                                    (cx << 4) + 15, w.worldheight - 1, (cz << 4) + 15, g.tilescale)) {
+                                g.tiles.setFlag(c.x, c.y, true);
+                            }
+                        }
+                    }
+                }
+            }
+            if (distributed) {
+                Log.info(String.format("World '%s': %d chunks, rendering distributed as worker '%s'", w.getName(), chunks, workerid));
+                // Levels above the partitions are made from tiles of other workers: only the coordinator's final pass
+                // updates them
+                w.setZoomOutLevelLimit(partitionbits);
+                return renderDistributed(w, groups);
+            }
+            List<HDMapTile> tiles = new ArrayList<HDMapTile>();
+            TileFlags.TileCoord c = new TileFlags.TileCoord();
+            for (TileGroup g : groups.values()) {
+                TileFlags.Iterator iter = g.tiles.getIterator();
+                while (iter.next(c)) {
+                    tiles.add(new HDMapTile(w, g.perspective, c.x, c.y, g.boostzoom, g.tilescale));
+                }
+            }
+            Log.info(String.format("World '%s': %d chunks, %d tiles to render on %d threads", w.getName(), chunks, tiles.size(), threads));
+            renderTiles(w, tiles, null);
+
+            if (zoomout) {
+                Log.info("World '" + w.getName() + "': updating zoomed out tiles");
+                // Each pass updates one zoom level from the level below
+                for (int i = 0; i < getZoomOutLevels(w); i++) {
+                    w.freshenZoomOutFiles();
+                }
+            }
+        } finally {
+            core.processWorldUnload(w);
+            w.closeRegions();
+        }
+        return true;
+    }
+
+    private int getZoomOutLevels(OfflineWorld w) {
+        int levels = 0;
+        for (MapType mt : w.maps) {
+            levels = Math.max(levels, mt.getMapZoomOutLevels() + w.getExtraZoomOutLevels());
+        }
+        return levels;
+    }
+
+    // Partition of a tile: partitions are aligned like zoomed out tiles, so each is covered by one tile partitionbits
+    // levels up
+    private TileFlags.TileCoord getPartition(int x, int y) {
+        return new TileFlags.TileCoord(x >> partitionbits, (-y) >> partitionbits);
+    }
+
+    private boolean renderDistributed(OfflineWorld w, LinkedHashMap<String, TileGroup> groups) {
+        RenderLeases leases = w.getMapStorage().getRenderLeases();
+        if (leases == null) {
+            Log.severe("Map storage of world '" + w.getName() + "' does not support distributed rendering");
+            return false;
+        }
+        // Tiles of each partition, for each group
+        LinkedHashMap<TileGroup, LinkedHashMap<TileFlags.TileCoord, List<HDMapTile>>> partsByGroup =
+                new LinkedHashMap<TileGroup, LinkedHashMap<TileFlags.TileCoord, List<HDMapTile>>>();
+        for (TileGroup g : groups.values()) {
+            LinkedHashMap<TileFlags.TileCoord, List<HDMapTile>> parts = new LinkedHashMap<TileFlags.TileCoord, List<HDMapTile>>();
+            TileFlags.Iterator iter = g.tiles.getIterator();
+            TileFlags.TileCoord c = new TileFlags.TileCoord();
+            while (iter.next(c)) {
+                parts.computeIfAbsent(getPartition(c.x, c.y), k -> new ArrayList<HDMapTile>())
+                        .add(new HDMapTile(w, g.perspective, c.x, c.y, g.boostzoom, g.tilescale));
+            }
+            if (coordinator && reset && !leases.clear(w.getName(), g.job)) {
+                return false;
+            }
+            // Every worker adds the partitions it finds: whoever starts first sets up the job
+            if (!leases.addPartitions(w.getName(), g.job, new ArrayList<TileFlags.TileCoord>(parts.keySet()))) {
+                return false;
+            }
+            partsByGroup.put(g, parts);
+        }
+        renderLeasedPartitions(w, leases, partsByGroup);
+        if (!coordinator) {
+            Log.info("World '" + w.getName() + "': no partitions left to lease");
+            return true;
+        }
+        // Wait for the other workers to finish
+        for (TileGroup g : groups.values()) {
+            while (true) {
+                int[] prog = leases.getProgress(w.getName(), g.job);
+                if (prog == null) {
+                    return false;
+                }
+                if (prog[0] >= prog[1]) break;
+                Log.info(String.format("World '%s': waiting for workers - %d of %d partitions of %s done", w.getName(), prog[0], prog[1], g.job));
+                // Take over partitions of workers that died
+                if (renderLeasedPartitions(w, leases, partsByGroup)) continue;
+                try {
+                    Thread.sleep(COORDINATOR_POLL_MS);
+                } catch (InterruptedException ix) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        if (zoomout) {
+            // Queue top tile of each partition, and update the levels above
+            Log.info("World '" + w.getName() + "': updating zoomed out tiles above partitions");
+            MapStorage ms = w.getMapStorage();
+            for (TileGroup g : groups.values()) {
+                for (List<HDMapTile> tiles : partsByGroup.get(g).values()) {
+                    HDMapTile t = tiles.get(0);
+                    for (HDMap map : g.maps) {
+                        for (MapType.ImageVariant var : map.getVariants()) {
+                            MapStorageTile mtile = ms.getTile(w, map, t.tx, t.ty, 0, var);
+                            for (int i = 0; i < partitionbits; i++) {
+                                mtile = mtile.getZoomOutTile();
+                            }
+                            w.enqueueZoomOutUpdate(mtile);
+                        }
+                    }
+                }
+            }
+            w.setZoomOutLevelLimit(Integer.MAX_VALUE);
+            for (int i = partitionbits; i < getZoomOutLevels(w); i++) {
+                w.freshenZoomOutFiles();
+            }
+        }
+        Log.info("World '" + w.getName() + "': distributed render complete");
+        return true;
+    }
+
+    // Lease and render partitions until none are left - returns true if any were leased
+    private boolean renderLeasedPartitions(OfflineWorld w, RenderLeases leases,
+                                           LinkedHashMap<TileGroup, LinkedHashMap<TileFlags.TileCoord, List<HDMapTile>>> partsByGroup) {
+        boolean any = false;
+        boolean leased = true;
+        while (leased) {
+            leased = false;
+            for (TileGroup g : partsByGroup.keySet()) {
+                Lease lease = new Lease();
+                lease.leases = leases;
+                lease.world = w.getName();
+                lease.job = g.job;
+                lease.part = leases.acquire(w.getName(), g.job, workerid, System.currentTimeMillis() + leasetime);
+                if (lease.part == null) continue;
+                leased = any = true;
+                List<HDMapTile> tiles = partsByGroup.get(g).get(lease.part);
+                if (tiles == null) {    // Partition only another worker's copy of the world has
+                    Log.warning(String.format("World '%s': no tiles for partition %d,%d of %s in this copy of the world", w.getName(), lease.part.x, lease.part.y, g.job));
+                    tiles = new ArrayList<HDMapTile>();
+                }
+                Log.info(String.format("World '%s': rendering partition %d,%d of %s (%d tiles)", w.getName(), lease.part.x, lease.part.y, g.job, tiles.size()));
+                if (!renderTiles(w, tiles, lease)) {
+                    Log.warning(String.format("World '%s': lost lease on partition %d,%d of %s - left to other workers", w.getName(), lease.part.x, lease.part.y, g.job));
+                    continue;
+                }
+                if (zoomout && !freshenPartitionZoomOut(w, lease)) {
+                    Log.warning(String.format("World '%s': lost lease on partition %d,%d of %s while updating zoomed out tiles - left to other workers", w.getName(), lease.part.x, lease.part.y, g.job));
+                    continue;
+                }
+                if (leases.complete(w.getName(), g.job, lease.part, workerid)) {
+                    int[] prog = leases.getProgress(w.getName(), g.job);
+                    if (prog != null) {
+                        Log.info(String.format("World '%s': %d of %d partitions of %s done", w.getName(), prog[0], prog[1], g.job));
+                    }
+                } else {
+                    Log.warning(String.format("World '%s': lost lease on partition %d,%d of %s before completing it", w.getName(), lease.part.x, lease.part.y, g.job));
+                }
+            }
+        }
+        return any;
+    }
+
+    // Render tiles on all threads - if leased, renew lease while rendering, and stop if it is lost
+    private boolean renderTiles(final OfflineWorld w, final List<HDMapTile> tiles, Lease lease) {
+        final AtomicBoolean abort = new AtomicBoolean();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger rendered = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread(new Runnable() {
+                public void run() {
+                    int i;
+                    while (!abort.get() && ((i = next.getAndIncrement()) < tiles.size())) {
+                        HDMapTile tile = tiles.get(i);
+                        try {
+                            MapChunkCache cache = server.createMapChunkCache(w, tile.getRequiredChunks(), tile.isBlockTypeDataNeeded(),
+                                    tile.isHightestBlockYDataNeeded(), tile.isBiomeDataNeeded(), tile.isRawBiomeDataNeeded());
+                            if ((cache != null) && !cache.isEmpty()) {
+                                tile.render(cache, mapname);  // null = all maps sharing the perspective
+                                rendered.incrementAndGet();
+                            }
+                            if (cache != null) {
+                                cache.unloadChunks();
+                            }
+                        } catch (Exception x) {
+                            Log.severe("Error rendering tile " + tile, x);
+                        }
+                        int done = i + 1;
+                        if ((done % progressinterval) == 0) {
+                            double secs = (System.currentTimeMillis() - start) / 1000.0;
+                            Log.info(String.format("World '%s': %d of %d tiles processed (%.1f tiles/sec)", w.getName(), done, tiles.size(), done / secs));
+                        }
+                    }
+                }
+            }, "Dynmap Offline Render " + t);
+            workers[t].start();
+        }
+        if (!joinRenewing(workers, lease, abort, null)) {
+            return false;
+        }
+        Log.info(String.format("World '%s': %d tiles rendered in %.1f sec", w.getName(), rendered.get(), (System.currentTimeMillis() - start) / 1000.0));
+        return true;
+    }
+
+    // Update zoom levels inside leased partition (the world's zoom out limit stops at the partition's top tile),
+    // renewing lease meanwhile - returns false if it is lost
+    private boolean freshenPartitionZoomOut(final OfflineWorld w, Lease lease) {
+        final AtomicBoolean abort = new AtomicBoolean();
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                // Each pass updates one zoom level from the level below
+                for (int i = 0; (i < partitionbits) && !abort.get(); i++) {
+                    w.freshenZoomOutFiles();
+                }
+            }
+        }, "Dynmap Offline Zoom Out");
+        t.start();
+        boolean ok = joinRenewing(new Thread[]{t}, lease, abort, new Runnable() {
+            public void run() {
+                w.cancelZoomOutFreshen();   // Stop the pass in progress
+            }
+        });
+        w.activateZoomOutFreshen();
+        return ok;
+    }
+
+    // Wait for threads to finish - if leased, renew lease meanwhile, and if it is lost set abort and run onlost;
+    // returns false if lease was lost or interrupted
+    private boolean joinRenewing(Thread[] threads, Lease lease, AtomicBoolean abort, Runnable onlost) {
+        long renewinterval = leasetime / 3;
+        long nextrenew = System.currentTimeMillis() + renewinterval;
+        for (Thread t : threads) {
+            try {
+                while (t.isAlive()) {
+                    t.join((lease != null) ? Math.max(1, nextrenew - System.currentTimeMillis()) : 0);
+                    if ((lease != null) && (System.currentTimeMillis() >= nextrenew)) {
+                        if (!abort.get() && !lease.renew()) {
+                            abort.set(true);
+                            if (onlost != null) {
+                                onlost.run();
+                            }
+                        }
+                        nextrenew += renewinterval;
+                    }
+                }
+            } catch (InterruptedException ix) {
+                abort.set(true);
+                if (onlost != null) {
+                    onlost.run();
+                }
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !abort.get();
+    }
+}
@@ -0,0 +1,205 @@
+package org.dynmap.offline;
+
+import org.dynmap.DynmapChunk;
+import org.dynmap.DynmapWorld;
+import org.dynmap.common.DynmapListenerManager.EventType;
+import org.dynmap.common.DynmapPlayer;
+import org.dynmap.common.DynmapServerInterface;
+import org.dynmap.utils.MapChunkCache;
+import org.dynmap.utils.VisibilityLimit;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Server interface for running the core without a server (offline rendering, benchmarks): no players, no server
+ * thread, and worlds and mod resources are registered directly
+ */
+public class OfflineServer extends DynmapServerInterface {
+    private final String name;
+    private final HashMap<String, DynmapWorld> worlds = new HashMap<String, DynmapWorld>();
+    private final HashMap<String, File> modfiles = new HashMap<String, File>();
+
+    public OfflineServer(String name) {
+        this.name = name;
+    }
+
+    public void addWorld(DynmapWorld w) {
+        worlds.put(w.getName(), w);
+    }
+
+    /**
+     * Set jar or directory to load a mod's resources from (e.g. the client jar for "minecraft", for the standard
+     * texture pack)
+     *
+     * @param mod - mod ID
+     * @param f   - jar file or directory
+     */
+    public void setModContainerFile(String mod, File f) {
+        modfiles.put(mod, f);
+    }
+
+    @Override
+    public File getModContainerFile(String mod) {
+        return modfiles.get(mod);
+    }
+
+    @Override
+    public List<String> getModList() {
+        return new ArrayList<String>(modfiles.keySet());
+    }
+
+    // There is no server tick loop, so scheduled tasks (player updates and the like) never run
+    @Override
+    public void scheduleServerTask(Runnable run, long delay) {
+    }
+
+    @Override
+    public <T> Future<T> callSyncMethod(Callable<T> task) {
+        FutureTask<T> ft = new FutureTask<T>(task);
+        ft.run();
+        return ft;
+    }
+
+    @Override
+    public DynmapPlayer[] getOnlinePlayers() {
+        return new DynmapPlayer[0];
+    }
+
+    @Override
+    public void reload() {
+    }
+
+    @Override
+    public DynmapPlayer getPlayer(String name) {
+        return null;
+    }
+
+    @Override
+    public DynmapPlayer getOfflinePlayer(String name) {
+        return null;
+    }
+
+    @Override
+    public Set<String> getIPBans() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public String getServerName() {
+        return name;
+    }
+
+    @Override
+    public boolean isPlayerBanned(String pid) {
+        return false;
+    }
+
+    @Override
+    public String stripChatColor(String s) {
+        return s;
+    }
+
+    @Override
+    public boolean requestEventNotification(EventType type) {
+        return false;
+    }
+
+    @Override
+    public boolean sendWebChatEvent(String source, String name, String msg) {
+        return false;
+    }
+
+    @Override
+    public void broadcastMessage(String msg) {
+    }
+
+    @Override
+    public String[] getBiomeIDs() {
+        return new String[0];
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        return 0;
+    }
+
+    @Override
+    public void resetCacheStats() {
+    }
+
+    @Override
+    public DynmapWorld getWorldByName(String wname) {
+        return worlds.get(wname);
+    }
+
+    @Override
+    public Set<String> checkPlayerPermissions(String player, Set<String> perms) {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public boolean checkPlayerPermission(String player, String perm) {
+        return false;
+    }
+
+    @Override
+    public MapChunkCache createMapChunkCache(DynmapWorld w, List<DynmapChunk> chunks, boolean blockdata, boolean highesty, boolean biome, boolean rawbiome) {
+        MapChunkCache c = w.getChunkCache(chunks);
+        if (c == null) {
+            return null;
+        }
+        if (w.visibility_limits != null) {
+            for (VisibilityLimit limit : w.visibility_limits) {
+                c.setVisibleRange(limit);
+            }
+            c.setHiddenFillStyle(w.hiddenchunkstyle);
+        }
+        if (w.hidden_limits != null) {
+            for (VisibilityLimit limit : w.hidden_limits) {
+                c.setHiddenRange(limit);
+            }
+            c.setHiddenFillStyle(w.hiddenchunkstyle);
+        }
+        c.setChunkDataTypes(blockdata, biome, highesty, rawbiome);
+        c.loadChunks(Integer.MAX_VALUE);
+        return c;
+    }
+
+    @Override
+    public int getMaxPlayers() {
+        return 0;
+    }
+
+    @Override
+    public int getCurrentPlayers() {
+        return 0;
+    }
+
+    @Override
+    public int getBlockIDAt(String wname, int x, int y, int z) {
+        return -1;
+    }
+
+    @Override
+    public int isSignAt(String wname, int x, int y, int z) {
+        return -1;
+    }
+
+    @Override
+    public double getServerTPS() {
+        return 20.0;
+    }
+
+    @Override
+    public String getServerIP() {
+        return null;
+    }
+}
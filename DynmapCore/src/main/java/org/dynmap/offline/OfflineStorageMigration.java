@@ -0,0 +1,109 @@
+package org.dynmap.offline;
+
+import org.dynmap.DynmapCore;
+import org.dynmap.DynmapWorld;
+import org.dynmap.Log;
+import org.dynmap.storage.StorageMigration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage migration without a running server: copies the map tiles of a Dynmap data directory from the
+ * storage-migrate-from storage to the storage configured in configuration.txt - see {@link StorageMigration}.
+ * <p>
+ * Maps come from the world configuration, so the worlds to migrate are given by name, with their environment when
+ * not an overworld (world-name:nether, world-name:the_end).  The world saves are not needed.
+ * <p>
+ * Usage: java -cp Dynmap.jar org.dynmap.offline.OfflineStorageMigration dynmap-dir world[:environment]... [options]
+ * <ul>
+ * <li>--map name : only migrate given map (default: all maps)</li>
+ * <li>--threads n : number of copy threads (default: 8)</li>
+ * <li>--reset : copy maps already migrated again</li>
+ * <li>--mcversion version : Minecraft version, for the block models (default: 1.21.1)</li>
+ * </ul>
+ */
+public class OfflineStorageMigration {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: OfflineStorageMigration dynmap-dir world[:environment]... [--map name] [--threads n] [--reset] [--mcversion version]");
+            System.exit(1);
+        }
+        File datadir = new File(args[0]);
+        List<String> worldnames = new ArrayList<String>();
+        String mapname = null;
+        int threads = 8;
+        boolean reset = false;
+        String mcver = "1.21.1";
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--map":
+                    mapname = args[++i];
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(args[++i]));
+                    break;
+                case "--reset":
+                    reset = true;
+                    break;
+                case "--mcversion":
+                    mcver = args[++i];
+                    break;
+                default:
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Unknown option: " + args[i]);
+                        System.exit(1);
+                    }
+                    worldnames.add(args[i]);
+            }
+        }
+        if (!new File(datadir, "configuration.txt").isFile()) {
+            Log.severe("No configuration.txt in " + datadir);
+            System.exit(1);
+        }
+        OfflineServer server = new OfflineServer("offline");
+        DynmapCore core = new DynmapCore();
+        core.setServer(server);
+        core.setDataFolder(datadir);
+        String ver = OfflineStorageMigration.class.getPackage().getImplementationVersion();
+        core.setPluginVersion((ver != null) ? ver : "offline", "offline");
+        core.setMinecraftVersion(mcver);
+        if (!core.initConfiguration(null)) {
+            System.exit(1);
+        }
+        // Tiles only: no web server or components, and no zoom out or pending render state
+        core.isInternalWebServerDisabled = true;
+        core.configuration.put("components", new ArrayList<Object>());
+        core.configuration.put("saverestorepending", false);
+        core.configuration.put("initial-zoomout-validate", false);
+        if (!core.enableCore(null)) {
+            System.exit(1);
+        }
+        boolean ok;
+        List<DynmapWorld> worlds = new ArrayList<DynmapWorld>();
+        try {
+            for (String wn : worldnames) {
+                String[] tok = wn.split(":");
+                OfflineWorld w = new OfflineWorld(tok[0], new File(tok[0]), (tok.length > 1) ? tok[1] : "normal", 256, 63, 0, null);
+                server.addWorld(w);
+                if (core.processWorldLoad(w)) {
+                    worlds.add(w);
+                } else {
+                    Log.info("World '" + w.getName() + "' is disabled - skipped");
+                }
+            }
+            StorageMigration migration = new StorageMigration(core, core.getDefaultMapStorage(), threads, null);
+            if (reset) {
+                migration.resetCheckpoint();
+            }
+            ok = migration.migrate(worlds, mapname);
+        } finally {
+            for (DynmapWorld w : worlds) {
+                core.processWorldUnload(w);
+            }
+            core.disableCore();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
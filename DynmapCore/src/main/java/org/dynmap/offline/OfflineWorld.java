@@ -0,0 +1,221 @@
+package org.dynmap.offline;
+
+import org.dynmap.DynmapChunk;
+import org.dynmap.DynmapLocation;
+import org.dynmap.DynmapWorld;
+import org.dynmap.Log;
+import org.dynmap.common.chunk.GenericChunkCache;
+import org.dynmap.utils.MapChunkCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * World read from a copy of a world save: one dimension's region directory, plus what level.dat says about spawn,
+ * time and weather.  Chunks come from the region files through {@link OfflineMapChunkCache}.
+ */
+public class OfflineWorld extends DynmapWorld {
+    private static final int MAX_OPEN_REGIONS = 256;
+
+    private final File regiondir;
+    private final String env;
+    private final GenericChunkCache sscache;
+    private DynmapLocation spawnloc;
+    private long time = 6000;
+    private boolean storm;
+    private boolean thunder;
+
+    // Open region files, most recently used last (null value = no region file)
+    private final LinkedHashMap<Long, RegionFile> regions = new LinkedHashMap<Long, RegionFile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RegionFile> e) {
+            if (size() <= MAX_OPEN_REGIONS) {
+                return false;
+            }
+            if (e.getValue() != null) {
+                try {
+                    e.getValue().close();
+                } catch (IOException iox) {
+                }
+            }
+            return true;
+        }
+    };
+
+    /**
+     * Create world
+     *
+     * @param name      - world name (as used in worlds.txt)
+     * @param dimdir    - dimension directory (containing 'region')
+     * @param env       - environment ("normal", "nether", "the_end")
+     * @param height    - world height
+     * @param sealevel  - sea level
+     * @param miny      - minimum Y
+     * @param sscache   - chunk snapshot cache
+     */
+    public OfflineWorld(String name, File dimdir, String env, int height, int sealevel, int miny, GenericChunkCache sscache) {
+        super(name, height, sealevel, miny);
+        this.regiondir = new File(dimdir, "region");
+        this.env = env;
+        this.sscache = sscache;
+        this.spawnloc = new DynmapLocation(name, 0, sealevel + 1, 0);
+    }
+
+    public void setSpawnLocation(int x, int y, int z) {
+        spawnloc = new DynmapLocation(getName(), x, y, z);
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public void setWeather(boolean storm, boolean thunder) {
+        this.storm = storm;
+        this.thunder = thunder;
+    }
+
+    /**
+     * Get region files of this world
+     *
+     * @return region files (r.X.Z.mca)
+     */
+    public List<File> getRegionFiles() {
+        ArrayList<File> lst = new ArrayList<File>();
+        File[] files = regiondir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && (RegionFile.parseRegionCoords(f.getName()) != null)) {
+                    lst.add(f);
+                }
+            }
+        }
+        return lst;
+    }
+
+    private synchronized RegionFile getRegion(int rx, int rz) {
+        Long key = (((long) rx) << 32) | (rz & 0xFFFFFFFFL);
+        if (regions.containsKey(key)) {
+            return regions.get(key);
+        }
+        RegionFile rf = null;
+        File f = new File(regiondir, "r." + rx + "." + rz + ".mca");
+        if (f.isFile()) {
+            try {
+                rf = new RegionFile(f);
+            } catch (IOException iox) {
+                Log.severe("Error opening region file " + f, iox);
+            }
+        }
+        regions.put(key, rf);
+        return rf;
+    }
+
+    /**
+     * Read chunk NBT from region file
+     *
+     * @param cx - chunk X
+     * @param cz - chunk Z
+     * @return chunk NBT, or null if not generated
+     * @throws IOException if chunk could not be read
+     */
+    public NBT.NBTCompound readChunk(int cx, int cz) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            RegionFile rf = getRegion(cx >> 5, cz >> 5);
+            if (rf == null) {
+                return null;
+            }
+            try {
+                return rf.readChunk(cx, cz);
+            } catch (ClosedChannelException x) {
+                if (attempt > 0) throw x;   // Region was evicted under us - reopen once
+            }
+        }
+    }
+
+    /**
+     * Close all open region files
+     */
+    public synchronized void closeRegions() {
+        for (RegionFile rf : regions.values()) {
+            if (rf != null) {
+                try {
+                    rf.close();
+                } catch (IOException iox) {
+                }
+            }
+        }
+        regions.clear();
+    }
+
+    @Override
+    public boolean isNether() {
+        return env.equals("nether");
+    }
+
+    @Override
+    public DynmapLocation getSpawnLocation() {
+        return spawnloc;
+    }
+
+    @Override
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public boolean hasStorm() {
+        return storm;
+    }
+
+    @Override
+    public boolean isThundering() {
+        return thunder;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return true;
+    }
+
+    @Override
+    public void setWorldUnloaded() {
+    }
+
+    // No live block access - light and height are only known from loaded chunk data
+    @Override
+    public int getLightLevel(int x, int y, int z) {
+        return 15;
+    }
+
+    @Override
+    public int getHighestBlockYAt(int x, int z) {
+        return sealevel + 1;
+    }
+
+    @Override
+    public boolean canGetSkyLightLevel() {
+        return false;
+    }
+
+    @Override
+    public int getSkyLightLevel(int x, int y, int z) {
+        return 15;
+    }
+
+    @Override
+    public String getEnvironment() {
+        return env;
+    }
+
+    @Override
+    public MapChunkCache getChunkCache(List<DynmapChunk> chunks) {
+        OfflineMapChunkCache c = new OfflineMapChunkCache(sscache);
+        c.setChunks(this, chunks);
+        return c;
+    }
+}
@@ -0,0 +1,156 @@
+package org.dynmap.offline;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read-only access to an Anvil region file (r.X.Z.mca): a 4KiB header of chunk locations (3 byte sector offset,
+ * 1 byte sector count) followed by the 4KiB aligned chunk payloads.  Each payload is a 4 byte length, a 1 byte
+ * compression type, and the compressed NBT - or just the header, with the data in an external c.X.Z.mcc file,
+ * for oversized chunks.
+ * <p>
+ * Reads use positional channel I/O, so one instance can be shared by any number of render threads.
+ */
+public class RegionFile implements Closeable {
+    private static final int SECTOR_BYTES = 4096;
+    private static final int COMPRESSION_GZIP = 1;
+    private static final int COMPRESSION_ZLIB = 2;
+    private static final int COMPRESSION_NONE = 3;
+    private static final int COMPRESSION_LZ4 = 4;
+    private static final int EXTERNAL_FLAG = 128;
+
+    private final File file;
+    private final FileChannel channel;
+    private final int[] locations = new int[1024];
+
+    public RegionFile(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer hdr = ByteBuffer.allocate(SECTOR_BYTES);
+        readFully(hdr, 0);
+        hdr.flip();
+        if (hdr.remaining() == SECTOR_BYTES) {  // Empty or truncated file = no chunks
+            hdr.asIntBuffer().get(locations);
+        }
+    }
+
+    /**
+     * Parse region coordinates from region file name
+     *
+     * @param name - file name (r.X.Z.mca)
+     * @return {X, Z}, or null if not a region file name
+     */
+    public static int[] parseRegionCoords(String name) {
+        String[] tok = name.split("\\.");
+        if ((tok.length != 4) || !tok[0].equals("r") || !tok[3].equals("mca")) {
+            return null;
+        }
+        try {
+            return new int[]{Integer.parseInt(tok[1]), Integer.parseInt(tok[2])};
+        } catch (NumberFormatException nfx) {
+            return null;
+        }
+    }
+
+    private static int index(int cx, int cz) {
+        return (cx & 0x1F) + ((cz & 0x1F) << 5);
+    }
+
+    /**
+     * Test if chunk has been saved in this region
+     *
+     * @param cx - chunk X (world chunk coordinate, or 0-31 within region)
+     * @param cz - chunk Z
+     * @return true if chunk is present
+     */
+    public boolean hasChunk(int cx, int cz) {
+        return locations[index(cx, cz)] != 0;
+    }
+
+    /**
+     * Read chunk NBT
+     *
+     * @param cx - chunk X
+     * @param cz - chunk Z
+     * @return chunk NBT, or null if chunk is not present
+     * @throws IOException if chunk data is unreadable
+     */
+    public NBT.NBTCompound readChunk(int cx, int cz) throws IOException {
+        int loc = locations[index(cx, cz)];
+        if (loc == 0) {
+            return null;
+        }
+        long offset = (long) (loc >>> 8) * SECTOR_BYTES;
+        int sectors = loc & 0xFF;
+        ByteBuffer hdr = ByteBuffer.allocate(5);
+        readFully(hdr, offset);
+        if (hdr.hasRemaining()) {
+            throw new EOFException("Chunk " + cx + "," + cz + " past end of " + file);
+        }
+        hdr.flip();
+        int len = hdr.getInt();     // Includes compression type byte
+        int type = hdr.get() & 0xFF;
+        if ((len < 1) || (len > (sectors * SECTOR_BYTES) - 4)) {
+            throw new IOException("Bad length " + len + " for chunk " + cx + "," + cz + " in " + file);
+        }
+        byte[] data;
+        if ((type & EXTERNAL_FLAG) != 0) {
+            data = Files.readAllBytes(new File(file.getParentFile(), "c." + cx + "." + cz + ".mcc").toPath());
+            type &= ~EXTERNAL_FLAG;
+        } else {
+            ByteBuffer buf = ByteBuffer.allocate(len - 1);
+            readFully(buf, offset + 5);
+            if (buf.hasRemaining()) {
+                throw new EOFException("Chunk " + cx + "," + cz + " truncated in " + file);
+            }
+            data = buf.array();
+        }
+        try (InputStream in = decompress(type, data)) {
+            return NBT.read(in);
+        }
+    }
+
+    private InputStream decompress(int type, byte[] data) throws IOException {
+        InputStream in = new ByteArrayInputStream(data);
+        switch (type) {
+            case COMPRESSION_GZIP:
+                return new GZIPInputStream(in);
+            case COMPRESSION_ZLIB:
+                return new InflaterInputStream(in);
+            case COMPRESSION_NONE:
+                return in;
+            case COMPRESSION_LZ4:
+                return new ByteArrayInputStream(LZ4Block.decompress(data));
+            default:
+                throw new IOException("Unsupported chunk compression type " + type + " in " + file);
+        }
+    }
+
+    // Positional read until buffer is full or end of file
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) break;
+            pos += n;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -3,6 +3,7 @@ package org.dynmap.servlet;
 import org.dynmap.DynmapCore;
 import org.dynmap.DynmapWorld;
 import org.dynmap.InternalClientUpdateComponent;
+import org.dynmap.web.ResponseCompression;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -99,7 +100,12 @@ public class ClientConfigurationServlet extends HttpServlet {
         res.setContentType("text/plain; charset=utf-8");
         res.addHeader("Expires", "Thu, 01 Dec 1994 16:00:00 GMT");
         res.addHeader("Last-modified", dateStr);
-        res.setContentLength(outputBytes.length);
-        res.getOutputStream().write(outputBytes);
+        ResponseCompression rc = core.getResponseCompression();
+        if (rc != null) {
+            rc.writeBody(req, res, outputBytes);
+        } else {
+            res.setContentLength(outputBytes.length);
+            res.getOutputStream().write(outputBytes);
+        }
     }
 }
@@ -5,6 +5,7 @@ import org.dynmap.DynmapCore;
 import org.dynmap.DynmapWorld;
 import org.dynmap.InternalClientUpdateComponent;
 import org.dynmap.web.HttpField;
+import org.dynmap.web.ResponseCompression;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
@@ -132,8 +133,13 @@ public class ClientUpdateServlet extends HttpServlet {
         resp.addHeader(HttpField.ContentType, "text/plain; charset=utf-8");
         resp.addHeader(HttpField.Expires, "Thu, 01 Dec 1994 16:00:00 GMT");
         resp.addHeader(HttpField.LastModified, dateStr);
-        resp.addHeader(HttpField.ContentLength, Integer.toString(bytes.length));
 
-        resp.getOutputStream().write(bytes);
+        ResponseCompression rc = core.getResponseCompression();
+        if (rc != null) {
+            rc.writeBody(req, resp, bytes);
+        } else {
+            resp.addHeader(HttpField.ContentLength, Integer.toString(bytes.length));
+            resp.getOutputStream().write(bytes);
+        }
     }
 }
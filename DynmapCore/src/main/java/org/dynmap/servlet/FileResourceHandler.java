@@ -1,5 +1,6 @@
 package org.dynmap.servlet;
 
+import org.dynmap.web.ResponseCompression;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.util.resource.Resource;
@@ -12,6 +13,12 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 
 public class FileResourceHandler extends ResourceHandler {
+    private ResponseCompression compression;
+
+    public void setCompression(ResponseCompression compression) {
+        this.compression = compression;
+    }
+
     private static String getNormalizedPath(String p) {
         p = p.replace('\\', '/');
         String[] tok = p.split("/");
@@ -68,6 +75,10 @@ public class FileResourceHandler extends ResourceHandler {
                 return;
             }
         }
+        // Refresh pre-compressed variant, if client can use it
+        if ((compression != null) && ResponseCompression.acceptsGzip(request) && file.isFile()) {
+            compression.updatePrecompressed(file);
+        }
         super.handle(normalizedTarget, baseRequest, request, response);
     }
 }
@@ -5,8 +5,10 @@ import org.dynmap.DynmapWorld;
 import org.dynmap.PlayerFaces;
 import org.dynmap.storage.MapStorage;
 import org.dynmap.storage.MapStorageTile;
+import org.dynmap.storage.MapStorageTile.TileMetadata;
 import org.dynmap.storage.MapStorageTile.TileRead;
 import org.dynmap.utils.BufferInputStream;
+import org.dynmap.web.ResponseCompression;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
@@ -21,12 +23,27 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
 
 public class MapStorageResourceHandler extends AbstractHandler {
 
     private DynmapCore core;
     private byte[] blankpng;
     private long blankpnghash = 0x12345678;
+    private Semaphore storageReads;    // If set, limits concurrent storage reads
+    // Tile reads in progress, by world and URI
+    private final ConcurrentHashMap<String, CompletableFuture<TileRead>> inflightReads = new ConcurrentHashMap<String, CompletableFuture<TileRead>>();
+    private static final long READ_SHARE_TIMEOUT = 15000;
+
+    private static class StorageBusyException extends Exception {
+        private static final long serialVersionUID = 5387136592416710218L;
+    }
 
     public MapStorageResourceHandler() {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -65,7 +82,7 @@ public class MapStorageResourceHandler extends AbstractHandler {
         }
         // If markers directory, handle markers
         if (world.equals("_markers_")) {
-            handleMarkers(response, uri);
+            handleMarkers(request, response, uri);
             return;
         }
 
@@ -89,25 +106,36 @@ public class MapStorageResourceHandler extends AbstractHandler {
             os.write(blankpng);
             return;
         }
-        // Read tile
-        TileRead tr = null;
-        if (tile.getReadLock(5000)) {
-            tr = tile.read();
-            tile.releaseReadLock();
-        }
         response.setHeader("Cache-Control", "max-age=0,must-revalidate");
-        String etag;
-        if (tr == null) {
-            etag = "\"" + blankpnghash + "\"";
-        } else {
-            etag = "\"" + tr.hashCode + "\"";
-        }
-        response.setHeader("ETag", etag);
         String ifnullmatch = request.getHeader("If-None-Match");
-        if ((ifnullmatch != null) && ifnullmatch.equals(etag)) {
-            response.sendError(HttpStatus.NOT_MODIFIED_304);
+        TileRead tr = null;
+        try {
+            boolean needread = true;
+            if (ifnullmatch != null) {
+                // Revalidation - check hash code before reading the image itself
+                TileMetadata md = readTileMetadata(tile);
+                String etag = getETag(md);
+                if (ifnullmatch.equals(etag)) {
+                    response.setHeader("ETag", etag);
+                    response.sendError(HttpStatus.NOT_MODIFIED_304);
+                    return;
+                }
+                if (md == null) {  // No tile
+                    needread = false;
+                } else if (md instanceof TileRead) {   // Storage read whole tile anyway
+                    tr = (TileRead) md;
+                    needread = false;
+                }
+            }
+            // Read tile (sharing any read of the same tile already in progress)
+            if (needread) {
+                tr = readTile(w.getName() + "/" + uri, tile);
+            }
+        } catch (StorageBusyException x) {
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE_503);
             return;
         }
+        response.setHeader("ETag", getETag(tr));
         if (tr == null) {
             response.setContentType("image/png");
             response.setIntHeader("Content-Length", blankpng.length);
@@ -125,6 +153,84 @@ public class MapStorageResourceHandler extends AbstractHandler {
 
     }
 
+    private String getETag(TileMetadata md) {
+        return "\"" + ((md != null) ? md.hashCode : blankpnghash) + "\"";
+    }
+
+    /**
+     * Read tile hash code and last modified time, without the image if the storage supports it
+     *
+     * @param tile - tile to check
+     * @return tile metadata, or null if not found
+     * @throws StorageBusyException if storage read could not be started
+     */
+    private TileMetadata readTileMetadata(MapStorageTile tile) throws StorageBusyException {
+        if (!beginStorageRead()) {
+            throw new StorageBusyException();
+        }
+        try {
+            if (tile.getReadLock(5000)) {
+                try {
+                    return tile.readMetadata();
+                } finally {
+                    tile.releaseReadLock();
+                }
+            }
+            return null;
+        } finally {
+            endStorageRead();
+        }
+    }
+
+    /**
+     * Read tile, coalescing concurrent requests for the same tile: the first request does the storage read,
+     * and any others arriving while it is in progress wait for and share its result.
+     *
+     * @param key  - key for tile (world and URI)
+     * @param tile - tile to read
+     * @return tile read, or null if not found
+     * @throws StorageBusyException if storage read could not be started
+     */
+    private TileRead readTile(String key, MapStorageTile tile) throws StorageBusyException {
+        CompletableFuture<TileRead> f = new CompletableFuture<TileRead>();
+        CompletableFuture<TileRead> inprogress = inflightReads.putIfAbsent(key, f);
+        if (inprogress != null) {
+            try {
+                return inprogress.get(READ_SHARE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ix) {
+                Thread.currentThread().interrupt();
+                throw new StorageBusyException();
+            } catch (ExecutionException | TimeoutException x) {
+                throw new StorageBusyException();
+            }
+        }
+        TileRead tr = null;
+        try {
+            if (!beginStorageRead()) {
+                throw new StorageBusyException();
+            }
+            try {
+                if (tile.getReadLock(5000)) {
+                    try {
+                        tr = tile.read();
+                    } finally {
+                        tile.releaseReadLock();
+                    }
+                }
+            } finally {
+                endStorageRead();
+            }
+        } catch (StorageBusyException | RuntimeException x) {
+            inflightReads.remove(key, f);
+            f.completeExceptionally(x);
+            throw x;
+        }
+        // Remove before completing, so later requests see a fresh read
+        inflightReads.remove(key, f);
+        f.complete(tr);
+        return tr;
+    }
+
     private void handleFace(HttpServletResponse response, String uri) throws IOException, ServletException {
         String[] suri = uri.split("[/\\.]");
         if (suri.length < 3) {  // 3 parts : face ID, player name, png
@@ -139,7 +245,15 @@ public class MapStorageResourceHandler extends AbstractHandler {
         }
         BufferInputStream bis = null;
         if (core.playerfacemgr != null) {
-            bis = core.playerfacemgr.storage.getPlayerFaceImage(suri[1], ft);
+            if (!beginStorageRead()) {
+                response.sendError(HttpStatus.SERVICE_UNAVAILABLE_503);
+                return;
+            }
+            try {
+                bis = core.playerfacemgr.storage.getPlayerFaceImage(suri[1], ft);
+            } finally {
+                endStorageRead();
+            }
         }
         if (bis == null) {
             response.sendError(HttpStatus.NOT_FOUND_404);
@@ -153,15 +267,24 @@ public class MapStorageResourceHandler extends AbstractHandler {
         out.flush();
     }
 
-    private void handleMarkers(HttpServletResponse response, String uri) throws IOException, ServletException {
+    private void handleMarkers(HttpServletRequest request, HttpServletResponse response, String uri) throws IOException, ServletException {
         String[] suri = uri.split("/");
         // If json file in last part
         if ((suri.length == 1) && suri[0].startsWith("marker_") && suri[0].endsWith(".json")) {
-            String content = core.getDefaultMapStorage().getMarkerFile(suri[0].substring(7, suri[0].length() - 5));
+            String markerworld = suri[0].substring(7, suri[0].length() - 5);
+            MapStorage storage = core.getDefaultMapStorage();
+            long version = storage.getMarkerFileVersion(markerworld);   // Before content: see writeBody
+            String content = storage.getMarkerFile(markerworld);
             response.setContentType("application/json");
-            PrintWriter pw = response.getWriter();
-            pw.print(content);
-            pw.flush();
+            ResponseCompression rc = core.getResponseCompression();
+            if ((rc != null) && (content != null)) {
+                // Marker files rarely change, so keep compressed copy until they do
+                rc.writeBody(request, response, content.getBytes(StandardCharsets.UTF_8), "marker_" + markerworld, version);
+            } else {
+                PrintWriter pw = response.getWriter();
+                pw.print(content);
+                pw.flush();
+            }
             return;
         }
         // If png, make marker ID
@@ -181,4 +304,29 @@ public class MapStorageResourceHandler extends AbstractHandler {
     public void setCore(DynmapCore core) {
         this.core = core;
     }
+
+    /**
+     * Set limit on concurrent storage reads from web requests
+     *
+     * @param limit - maximum concurrent reads (0 = unlimited)
+     */
+    public void setStorageReadLimit(int limit) {
+        storageReads = (limit > 0) ? new Semaphore(limit, true) : null;
+    }
+
+    private boolean beginStorageRead() {
+        if (storageReads == null) return true;
+        try {
+            return storageReads.tryAcquire(5000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void endStorageRead() {
+        if (storageReads != null) {
+            storageReads.release();
+        }
+    }
 }
@@ -0,0 +1,172 @@
+package org.dynmap.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Hash algorithms for raw tile images, used to skip writing tiles whose content has not changed.  All hash the
+ * ARGB values as little endian bytes, and yield values greater than or equal to 0 (-1 means "unknown" to the
+ * storages).
+ * <p>
+ * Hash codes of different algorithms never match, so after a change of algorithm each tile is written once more the
+ * next time it renders, storing the new code in place of the old one.
+ */
+public enum ImageHash {
+    /**
+     * CRC32 - the original algorithm, 32 bits (default)
+     */
+    CRC32("crc32", 4) {
+        @Override
+        public long calculate(int[] buf, int off, int len) {
+            return checksum(new CRC32(), buf, off, len);
+        }
+    },
+    /**
+     * CRC32C - 32 bits, computed with CPU instructions on most JVMs
+     */
+    CRC32C("crc32c", 4) {
+        @Override
+        public long calculate(int[] buf, int off, int len) {
+            return checksum(new CRC32C(), buf, off, len);
+        }
+    },
+    /**
+     * XXH64, masked to 63 bits - far fewer collisions (tiles wrongly seen as unchanged) than the 32 bit hashes, but
+     * slower than the CRCs where those use CPU instructions
+     */
+    XXHASH64("xxhash64", 8) {
+        @Override
+        public long calculate(int[] buf, int off, int len) {
+            return xxHash64(buf, off, len) & Long.MAX_VALUE;
+        }
+    };
+
+    private static final int WORKBUF_INTS = 4096;
+    private static final ThreadLocal<ByteBuffer> workbuf = ThreadLocal.withInitial(() ->
+            ByteBuffer.allocateDirect(4 * WORKBUF_INTS).order(ByteOrder.LITTLE_ENDIAN));
+
+    private final String id;
+    private final int size;
+
+    ImageHash(String id, int size) {
+        this.id = id;
+        this.size = size;
+    }
+
+    /**
+     * Calculate hash code for raw image buffer
+     *
+     * @param buf - ARGB array
+     * @param off - offset of start in array
+     * @param len - length of image data
+     * @return hash code (greater than or equal to 0)
+     */
+    public abstract long calculate(int[] buf, int off, int len);
+
+    /**
+     * Get configuration ID of algorithm
+     *
+     * @return ID
+     */
+    public String getID() {
+        return id;
+    }
+
+    /**
+     * Get number of bytes needed to store hash codes
+     *
+     * @return size in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Find algorithm by configuration ID
+     *
+     * @param id - ID
+     * @return algorithm, or null if not found
+     */
+    public static ImageHash fromID(String id) {
+        for (ImageHash h : values()) {
+            if (h.id.equalsIgnoreCase(id)) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    // Checksum ints in bulk through a little endian view of a per-thread buffer
+    private static long checksum(Checksum ck, int[] buf, int off, int len) {
+        ByteBuffer bb = workbuf.get();
+        while (len > 0) {
+            int cnt = Math.min(len, WORKBUF_INTS);
+            bb.clear();
+            bb.asIntBuffer().put(buf, off, cnt);
+            bb.limit(4 * cnt);
+            ck.update(bb);
+            off += cnt;
+            len -= cnt;
+        }
+        return ck.getValue();
+    }
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static long round(long acc, long lane) {
+        return Long.rotateLeft(acc + lane * P2, 31) * P1;
+    }
+
+    private static long mergeRound(long h, long v) {
+        return ((h ^ round(0, v)) * P1) + P4;
+    }
+
+    private static long lane(int[] buf, int i) {
+        return (buf[i] & 0xFFFFFFFFL) | ((long) buf[i + 1] << 32);
+    }
+
+    // XXH64 (seed 0) of the ints as little endian bytes
+    static long xxHash64(int[] buf, int off, int len) {
+        int end = off + len;
+        int i = off;
+        long h;
+        if (len >= 8) {   // 32 byte stripes
+            long v1 = P1 + P2, v2 = P2, v3 = 0, v4 = -P1;
+            for (; i + 8 <= end; i += 8) {
+                v1 = round(v1, lane(buf, i));
+                v2 = round(v2, lane(buf, i + 2));
+                v3 = round(v3, lane(buf, i + 4));
+                v4 = round(v4, lane(buf, i + 6));
+            }
+            h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            h = mergeRound(h, v1);
+            h = mergeRound(h, v2);
+            h = mergeRound(h, v3);
+            h = mergeRound(h, v4);
+        } else {
+            h = P5;
+        }
+        h += 4L * len;
+        for (; i + 2 <= end; i += 2) {
+            h ^= round(0, lane(buf, i));
+            h = (Long.rotateLeft(h, 27) * P1) + P4;
+        }
+        if (i < end) {
+            h ^= (buf[i] & 0xFFFFFFFFL) * P1;
+            h = (Long.rotateLeft(h, 23) * P2) + P3;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+}
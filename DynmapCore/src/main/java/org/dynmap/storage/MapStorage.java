@@ -8,20 +8,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.file.Paths;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
-import java.util.zip.CRC32;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Generic interface for map data storage (image tiles, and associated hash codes)
  */
 public abstract class MapStorage {
     protected String connectionString;
-    private static Object lock = new Object();
-    private static HashMap<String, Integer> filelocks = new HashMap<String, Integer>();
-    private static final Integer WRITELOCK = (-1);
+    private static final TileLockManager tileLocks = new TileLockManager(10);  // 1024 lock stripes
+    private volatile ImageHash imageHash = ImageHash.CRC32;
     protected File baseStandaloneDir;
+    protected ConfigurationNode config;    // Storage settings (storage section of configuration.txt, unless set)
     protected boolean isShutdown;
+    private final ConcurrentHashMap<String, Long> markerFileVersions = new ConcurrentHashMap<String, Long>();
 
     protected long serverID;
 
@@ -34,6 +35,15 @@ public abstract class MapStorage {
         this.isShutdown = true;
     }
 
+    /**
+     * Set storage settings, used instead of the storage section of configuration.txt - call before init
+     *
+     * @param config - storage settings
+     */
+    public void setConfiguration(ConfigurationNode config) {
+        this.config = config;
+    }
+
     /**
      * Initialize with core
      *
@@ -41,10 +51,23 @@ public abstract class MapStorage {
      * @return true if success
      */
     public boolean init(DynmapCore core) {
+        if (config == null) {
+            config = core.configuration.getNode("storage");
+            if (config == null) {
+                config = new ConfigurationNode();
+            }
+        }
         baseStandaloneDir = new File(core.configuration.getString("dynmap_web", "web"), "standalone");
         if (!baseStandaloneDir.isAbsolute()) {
             baseStandaloneDir = new File(core.getDataFolder(), baseStandaloneDir.toString());
         }
+        String hashid = config.getString("image-hash", ImageHash.CRC32.getID());
+        ImageHash hash = ImageHash.fromID(hashid);
+        if (hash == null) {
+            Log.severe("Invalid image hash for map storage: " + hashid);
+            return false;
+        }
+        imageHash = hash;
         return true;
     }
 
@@ -159,6 +182,26 @@ public abstract class MapStorage {
      */
     public abstract String getMarkerFile(String world);
 
+    /**
+     * Get version of marker file for world: changes each time the marker file is set through this storage
+     *
+     * @param world - world ID
+     * @return version
+     */
+    public long getMarkerFileVersion(String world) {
+        Long v = markerFileVersions.get(world);
+        return (v != null) ? v.longValue() : 0L;
+    }
+
+    /**
+     * Note that marker file for world has been set (called by setMarkerFile, once content is written)
+     *
+     * @param world - world ID
+     */
+    protected void markerFileChanged(String world) {
+        markerFileVersions.merge(world, 1L, Long::sum);
+    }
+
     /**
      * Calculate hashcode for raw image buffer
      *
@@ -167,27 +210,17 @@ public abstract class MapStorage {
      * @param len - length of image data
      * @return hashcode (greater than or equals to 0)
      */
-    public static long calculateImageHashCode(int[] buf, int off, int len) {
-        CRC32 crc32 = new CRC32();
-        final int perCall = 256;
-        int accum = 0;
-        byte[] crcworkbuf = new byte[4 * perCall];
-        for (int i = 0; i < len; i++) {
-            int v = buf[i + off];
-            crcworkbuf[accum++] = (byte) v;
-            crcworkbuf[accum++] = (byte) (v >> 8);
-            crcworkbuf[accum++] = (byte) (v >> 16);
-            crcworkbuf[accum++] = (byte) (v >> 24);
-            if (accum == crcworkbuf.length) {
-                crc32.update(crcworkbuf, 0, accum);
-                accum = 0;
-            }
-        }
-        if (accum > 0) {    // Remainder?
-            crc32.update(crcworkbuf, 0, accum);
-            accum = 0;
-        }
-        return crc32.getValue();
+    public long calculateImageHashCode(int[] buf, int off, int len) {
+        return imageHash.calculate(buf, off, len);
+    }
+
+    /**
+     * Get hash algorithm used for image hash codes
+     *
+     * @return algorithm
+     */
+    public ImageHash getImageHash() {
+        return imageHash;
     }
 
     /**
@@ -377,89 +410,44 @@ public abstract class MapStorage {
 
 
     protected void releaseWriteLock(String baseFilename) {
-        synchronized (lock) {
-            Integer lockcnt = filelocks.get(baseFilename);    /* Get lock count */
-            if (lockcnt == null)
-                Log.severe("releaseWriteLock(" + baseFilename + ") on unlocked file");
-            else if (lockcnt.equals(WRITELOCK)) {
-                filelocks.remove(baseFilename);   /* Remove lock */
-                lock.notifyAll();   /* Wake up folks waiting for locks */
-            } else
-                Log.severe("releaseWriteLock(" + baseFilename + ") on read-locked file");
-        }
+        tileLocks.releaseWriteLock(TileLockManager.getKey(baseFilename));
     }
 
     protected boolean getWriteLock(String baseFilename) {
-        synchronized (lock) {
-            boolean got_lock = false;
-            while (!got_lock) {
-                Integer lockcnt = filelocks.get(baseFilename);    /* Get lock count */
-                if (lockcnt != null) {   /* If any locks, can't get write lock */
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException ix) {
-                        Log.severe("getWriteLock(" + baseFilename + ") interrupted");
-                        return false;
-                    }
-                } else {
-                    filelocks.put(baseFilename, WRITELOCK);
-                    got_lock = true;
-                }
-            }
-        }
-        return true;
+        return tileLocks.getWriteLock(TileLockManager.getKey(baseFilename));
     }
 
     protected boolean getReadLock(String baseFilename, long timeout) {
-        synchronized (lock) {
-            boolean got_lock = false;
-            long starttime = 0;
-            if (timeout > 0)
-                starttime = System.currentTimeMillis();
-            while (!got_lock) {
-                Integer lockcnt = filelocks.get(baseFilename);    /* Get lock count */
-                if (lockcnt == null) {
-                    filelocks.put(baseFilename, Integer.valueOf(1));  /* First lock */
-                    got_lock = true;
-                } else if (!lockcnt.equals(WRITELOCK)) {   /* Other read locks */
-                    filelocks.put(baseFilename, Integer.valueOf(lockcnt + 1));
-                    got_lock = true;
-                } else {  /* Write lock in place */
-                    try {
-                        if (timeout < 0) {
-                            lock.wait();
-                        } else {
-                            long now = System.currentTimeMillis();
-                            long elapsed = now - starttime;
-                            if (elapsed > timeout) {   /* Give up on timeout */
-                                return false;
-                            }
-                            lock.wait(timeout - elapsed);
-                        }
-                    } catch (InterruptedException ix) {
-                        Log.severe("getReadLock(" + baseFilename + ") interrupted");
-                        return false;
-                    }
-                }
-            }
-        }
-        return true;
+        return tileLocks.getReadLock(TileLockManager.getKey(baseFilename), timeout);
     }
 
     protected void releaseReadLock(String baseFilename) {
-        synchronized (lock) {
-            Integer lockcnt = filelocks.get(baseFilename);    /* Get lock count */
-            if (lockcnt == null)
-                Log.severe("releaseReadLock(" + baseFilename + ") on unlocked file");
-            else if (lockcnt.equals(WRITELOCK))
-                Log.severe("releaseReadLock(" + baseFilename + ") on write-locked file");
-            else if (lockcnt > 1) {
-                filelocks.put(baseFilename, Integer.valueOf(lockcnt - 1));
-            } else {
-                filelocks.remove(baseFilename);   /* Remove lock */
-                lock.notifyAll();   /* Wake up folks waiting for locks */
-            }
-        }
+        tileLocks.releaseReadLock(TileLockManager.getKey(baseFilename));
+    }
+
+    protected void releaseWriteLock(MapStorageTile tile) {
+        tileLocks.releaseWriteLock(TileLockManager.getKey(tile));
+    }
+
+    protected boolean getWriteLock(MapStorageTile tile) {
+        return tileLocks.getWriteLock(TileLockManager.getKey(tile));
+    }
+
+    protected boolean getReadLock(MapStorageTile tile, long timeout) {
+        return tileLocks.getReadLock(TileLockManager.getKey(tile), timeout);
+    }
+
+    protected void releaseReadLock(MapStorageTile tile) {
+        tileLocks.releaseReadLock(TileLockManager.getKey(tile));
+    }
+
+    /**
+     * Get tile lock manager (shared by all storages)
+     *
+     * @return lock manager
+     */
+    public static TileLockManager getTileLocks() {
+        return tileLocks;
     }
 
     public boolean wrapStandalonePHP() {
@@ -496,6 +484,46 @@ public abstract class MapStorage {
         return false;
     }
 
+    /**
+     * Get lease table for splitting full renders between processes sharing this storage
+     *
+     * @return leases, or null if not supported by storage
+     */
+    public RenderLeases getRenderLeases() {
+        return null;
+    }
+
+    /**
+     * Get query for metadata of tile, for SQL storages
+     *
+     * @param table  - tile table name
+     * @param mapkey - map key
+     * @param x      - tile X
+     * @param y      - tile Y
+     * @param zoom   - zoom level
+     * @return SQL query
+     */
+    protected static String getTileMetadataQuery(String table, int mapkey, int x, int y, int zoom) {
+        return "SELECT HashCode,LastUpdate FROM " + table + " WHERE MapID=" + mapkey + " AND x=" + x + " AND y=" + y + " AND zoom=" + zoom + ";";
+    }
+
+    /**
+     * Read tile metadata from result of tile metadata query, for SQL storages
+     *
+     * @param rs - result set of query from getTileMetadataQuery()
+     * @return metadata, or null if tile not found
+     * @throws SQLException if error reading result
+     */
+    protected static MapStorageTile.TileMetadata readTileMetadata(ResultSet rs) throws SQLException {
+        if (!rs.next()) {
+            return null;
+        }
+        MapStorageTile.TileMetadata rslt = new MapStorageTile.TileMetadata();
+        rslt.hashCode = rs.getLong("HashCode");
+        rslt.lastModified = rs.getLong("LastUpdate");
+        return rslt;
+    }
+
     public void logSQLException(String opmsg, SQLException x) {
         if (isShutdown) return;
         Log.severe("SQLException: " + opmsg);
@@ -18,13 +18,16 @@ public abstract class MapStorageTile {
     public final int zoom;
     public final MapType.ImageVariant var;
 
-    public static class TileRead {
-        public BufferInputStream image;    // Image bytes
-        public MapType.ImageEncoding format; // Image format
+    public static class TileMetadata {
         public long hashCode;              // Image hashcode (-1 = unknown)
         public long lastModified;          // Last modified timestamp (-1 = unknown)
     }
 
+    public static class TileRead extends TileMetadata {
+        public BufferInputStream image;    // Image bytes
+        public MapType.ImageEncoding format; // Image format
+    }
+
     protected MapStorageTile(DynmapWorld world, MapType map, int x, int y, int zoom, MapType.ImageVariant var) {
         this.world = world;
         this.map = map;
@@ -56,6 +59,16 @@ public abstract class MapStorageTile {
      */
     public abstract TileRead read();
 
+    /**
+     * Read tile hash code and last modified time, without reading the image, if the storage supports it.
+     * Default implementation reads the whole tile, and returns the TileRead.
+     *
+     * @return tile metadata, or null if tile does not exist
+     */
+    public TileMetadata readMetadata() {
+        return read();
+    }
+
     /**
      * Write tile
      *
@@ -65,6 +78,9 @@ public abstract class MapStorageTile {
      */
     public abstract boolean write(long hash, BufferOutputStream encImage, long timestamp);
 
+    // Encoding buffer of each thread writing tiles, reused since write(hash, encImage) is done with it on return
+    private static final ThreadLocal<BufferOutputStream> encodebuf = ThreadLocal.withInitial(BufferOutputStream::new);
+
     /**
      * Write tile from image
      *
@@ -73,7 +89,7 @@ public abstract class MapStorageTile {
      * @return true if write succeeded
      */
     public boolean write(long hash, BufferedImage image, long timestamp) {
-        BufferOutputStream bos = ImageIOManager.imageIOEncode(image, map.getImageFormat());
+        BufferOutputStream bos = ImageIOManager.imageIOEncode(image, map.getImageFormat(), map.getPNGCompressionLevel(), encodebuf.get());
         if (bos != null) {
             return write(hash, bos, timestamp);
         }
@@ -0,0 +1,76 @@
+package org.dynmap.storage;
+
+import org.dynmap.utils.TileFlags;
+
+import java.util.List;
+
+/**
+ * Lease table for splitting a full render between processes that share a map storage.  A render job (maps of a
+ * world sharing a perspective) is split into partitions - square blocks of tiles - that workers lease, render and
+ * mark done.  Leases carry an expiry time and are renewed while the partition is being rendered, so partitions
+ * of crashed workers are handed out again once their lease runs out.  Expiry times are wall clock milliseconds,
+ * so hosts sharing a lease table need reasonably synchronized clocks.
+ */
+public abstract class RenderLeases {
+    /**
+     * Add partitions to job - partitions already in the job are left as they are
+     *
+     * @param world - world name
+     * @param job   - job ID
+     * @param parts - partition coordinates
+     * @return true if successful
+     */
+    public abstract boolean addPartitions(String world, String job, List<TileFlags.TileCoord> parts);
+
+    /**
+     * Lease a partition that is not done, and not leased by anyone else (or whose lease has expired)
+     *
+     * @param world   - world name
+     * @param job     - job ID
+     * @param owner   - worker ID
+     * @param expires - lease expiry time (ms)
+     * @return leased partition, or null if none available
+     */
+    public abstract TileFlags.TileCoord acquire(String world, String job, String owner, long expires);
+
+    /**
+     * Extend lease on partition
+     *
+     * @param world   - world name
+     * @param job     - job ID
+     * @param part    - partition
+     * @param owner   - worker ID
+     * @param expires - new expiry time (ms)
+     * @return true if still leased by owner, false if lease has been lost
+     */
+    public abstract boolean renew(String world, String job, TileFlags.TileCoord part, String owner, long expires);
+
+    /**
+     * Mark leased partition done
+     *
+     * @param world - world name
+     * @param job   - job ID
+     * @param part  - partition
+     * @param owner - worker ID
+     * @return true if marked, false if lease has been lost
+     */
+    public abstract boolean complete(String world, String job, TileFlags.TileCoord part, String owner);
+
+    /**
+     * Get progress of job
+     *
+     * @param world - world name
+     * @param job   - job ID
+     * @return {done partitions, total partitions}, or null if error
+     */
+    public abstract int[] getProgress(String world, String job);
+
+    /**
+     * Remove all partitions of job (to start a new render)
+     *
+     * @param world - world name
+     * @param job   - job ID
+     * @return true if successful
+     */
+    public abstract boolean clear(String world, String job);
+}
@@ -0,0 +1,234 @@
+package org.dynmap.storage;
+
+import org.dynmap.utils.TileFlags;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Render leases kept in a table of a SQL map storage.  Only plain SQL is used (no upserts or row limits), so the
+ * same code serves every SQL backend: a lease is taken with a conditional UPDATE, which only one worker can win.
+ */
+public class SQLRenderLeases extends RenderLeases {
+    /**
+     * Connections from the storage's pool
+     */
+    public interface ConnectionSource {
+        Connection getConnection() throws SQLException, MapStorage.StorageShutdownException;
+
+        void releaseConnection(Connection c, boolean err);
+    }
+
+    private static final int ACQUIRE_CANDIDATES = 16;
+
+    private final MapStorage storage;
+    private final String table;
+    private final ConnectionSource src;
+    private boolean tableChecked = false;
+
+    public SQLRenderLeases(MapStorage storage, String table, ConnectionSource src) {
+        this.storage = storage;
+        this.table = table;
+        this.src = src;
+    }
+
+    // Create lease table on first use
+    private synchronized void checkTable(Connection c) throws SQLException {
+        if (tableChecked) return;
+        Statement stmt = c.createStatement();
+        try {
+            stmt.executeQuery("SELECT COUNT(*) FROM " + table + " WHERE 1=0").close();
+        } catch (SQLException x) {
+            stmt.executeUpdate("CREATE TABLE " + table + " (WorldID VARCHAR(64) NOT NULL, JobID VARCHAR(128) NOT NULL, PartX INT NOT NULL, PartY INT NOT NULL, Owner VARCHAR(128), Expires BIGINT NOT NULL, Done INT NOT NULL, PRIMARY KEY (WorldID, JobID, PartX, PartY))");
+        } finally {
+            stmt.close();
+        }
+        tableChecked = true;
+    }
+
+    @Override
+    public boolean addPartitions(String world, String job, List<TileFlags.TileCoord> parts) {
+        Connection c = null;
+        boolean err = false;
+        try {
+            c = src.getConnection();
+            checkTable(c);
+            HashSet<TileFlags.TileCoord> existing = new HashSet<TileFlags.TileCoord>();
+            PreparedStatement stmt = c.prepareStatement("SELECT PartX, PartY FROM " + table + " WHERE WorldID=? AND JobID=?");
+            stmt.setString(1, world);
+            stmt.setString(2, job);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                existing.add(new TileFlags.TileCoord(rs.getInt(1), rs.getInt(2)));
+            }
+            rs.close();
+            stmt.close();
+            stmt = c.prepareStatement("INSERT INTO " + table + " (WorldID, JobID, PartX, PartY, Owner, Expires, Done) VALUES (?, ?, ?, ?, NULL, 0, 0)");
+            for (TileFlags.TileCoord p : parts) {
+                if (existing.contains(p)) continue;
+                stmt.setString(1, world);
+                stmt.setString(2, job);
+                stmt.setInt(3, p.x);
+                stmt.setInt(4, p.y);
+                try {
+                    stmt.executeUpdate();
+                } catch (SQLException x) {
+                    // Added by another worker since we looked - fine
+                }
+            }
+            stmt.close();
+        } catch (SQLException x) {
+            storage.logSQLException("Render lease add error", x);
+            err = true;
+        } catch (MapStorage.StorageShutdownException x) {
+            err = true;
+        } finally {
+            src.releaseConnection(c, err);
+        }
+        return !err;
+    }
+
+    @Override
+    public TileFlags.TileCoord acquire(String world, String job, String owner, long expires) {
+        Connection c = null;
+        boolean err = false;
+        TileFlags.TileCoord rslt = null;
+        try {
+            c = src.getConnection();
+            checkTable(c);
+            long now = System.currentTimeMillis();
+            PreparedStatement stmt = c.prepareStatement("SELECT PartX, PartY FROM " + table + " WHERE WorldID=? AND JobID=? AND Done=0 AND (Owner IS NULL OR Expires<?)");
+            stmt.setMaxRows(ACQUIRE_CANDIDATES);
+            stmt.setString(1, world);
+            stmt.setString(2, job);
+            stmt.setLong(3, now);
+            ResultSet rs = stmt.executeQuery();
+            ArrayList<TileFlags.TileCoord> cand = new ArrayList<TileFlags.TileCoord>();
+            while (rs.next()) {
+                cand.add(new TileFlags.TileCoord(rs.getInt(1), rs.getInt(2)));
+            }
+            rs.close();
+            stmt.close();
+            Collections.shuffle(cand);  // Keep workers starting together from contending for the same rows
+            stmt = c.prepareStatement("UPDATE " + table + " SET Owner=?, Expires=? WHERE WorldID=? AND JobID=? AND PartX=? AND PartY=? AND Done=0 AND (Owner IS NULL OR Expires<?)");
+            for (TileFlags.TileCoord p : cand) {
+                stmt.setString(1, owner);
+                stmt.setLong(2, expires);
+                stmt.setString(3, world);
+                stmt.setString(4, job);
+                stmt.setInt(5, p.x);
+                stmt.setInt(6, p.y);
+                stmt.setLong(7, now);
+                if (stmt.executeUpdate() == 1) {
+                    rslt = p;
+                    break;
+                }
+            }
+            stmt.close();
+        } catch (SQLException x) {
+            storage.logSQLException("Render lease acquire error", x);
+            err = true;
+        } catch (MapStorage.StorageShutdownException x) {
+            err = true;
+        } finally {
+            src.releaseConnection(c, err);
+        }
+        return rslt;
+    }
+
+    // Update leased row, if still owned by owner
+    private boolean updateOwned(String world, String job, TileFlags.TileCoord part, String owner, String set, long val, String opmsg) {
+        Connection c = null;
+        boolean err = false;
+        boolean rslt = false;
+        try {
+            c = src.getConnection();
+            checkTable(c);
+            PreparedStatement stmt = c.prepareStatement("UPDATE " + table + " SET " + set + "=? WHERE WorldID=? AND JobID=? AND PartX=? AND PartY=? AND Owner=? AND Done=0");
+            stmt.setLong(1, val);
+            stmt.setString(2, world);
+            stmt.setString(3, job);
+            stmt.setInt(4, part.x);
+            stmt.setInt(5, part.y);
+            stmt.setString(6, owner);
+            rslt = (stmt.executeUpdate() == 1);
+            stmt.close();
+        } catch (SQLException x) {
+            storage.logSQLException(opmsg, x);
+            err = true;
+        } catch (MapStorage.StorageShutdownException x) {
+            err = true;
+        } finally {
+            src.releaseConnection(c, err);
+        }
+        return rslt;
+    }
+
+    @Override
+    public boolean renew(String world, String job, TileFlags.TileCoord part, String owner, long expires) {
+        return updateOwned(world, job, part, owner, "Expires", expires, "Render lease renew error");
+    }
+
+    @Override
+    public boolean complete(String world, String job, TileFlags.TileCoord part, String owner) {
+        return updateOwned(world, job, part, owner, "Done", 1, "Render lease complete error");
+    }
+
+    @Override
+    public int[] getProgress(String world, String job) {
+        Connection c = null;
+        boolean err = false;
+        int[] rslt = null;
+        try {
+            c = src.getConnection();
+            checkTable(c);
+            PreparedStatement stmt = c.prepareStatement("SELECT COUNT(*), SUM(Done) FROM " + table + " WHERE WorldID=? AND JobID=?");
+            stmt.setString(1, world);
+            stmt.setString(2, job);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                rslt = new int[]{rs.getInt(2), rs.getInt(1)};   // SUM() of no rows is NULL, which reads as 0
+            }
+            rs.close();
+            stmt.close();
+        } catch (SQLException x) {
+            storage.logSQLException("Render lease progress error", x);
+            err = true;
+        } catch (MapStorage.StorageShutdownException x) {
+            err = true;
+        } finally {
+            src.releaseConnection(c, err);
+        }
+        return rslt;
+    }
+
+    @Override
+    public boolean clear(String world, String job) {
+        Connection c = null;
+        boolean err = false;
+        try {
+            c = src.getConnection();
+            checkTable(c);
+            PreparedStatement stmt = c.prepareStatement("DELETE FROM " + table + " WHERE WorldID=? AND JobID=?");
+            stmt.setString(1, world);
+            stmt.setString(2, job);
+            stmt.executeUpdate();
+            stmt.close();
+        } catch (SQLException x) {
+            storage.logSQLException("Render lease clear error", x);
+            err = true;
+        } catch (MapStorage.StorageShutdownException x) {
+            err = true;
+        } finally {
+            src.releaseConnection(c, err);
+        }
+        return !err;
+    }
+}
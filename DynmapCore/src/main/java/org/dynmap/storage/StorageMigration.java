@@ -0,0 +1,289 @@
+package org.dynmap.storage;
+
+import org.dynmap.ConfigurationNode;
+import org.dynmap.DynmapCore;
+import org.dynmap.DynmapWorld;
+import org.dynmap.Log;
+import org.dynmap.MapType;
+import org.dynmap.MapType.ImageEncoding;
+import org.dynmap.MapType.ImageVariant;
+import org.dynmap.MapTypeState;
+import org.dynmap.common.DynmapCommandSender;
+import org.dynmap.utils.BufferOutputStream;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies map tiles from one storage to another, keeping their hash codes and timestamps, so a map can change storage
+ * type without being rendered again.  Tiles are enumerated from the source and copied by a pool of threads, with a
+ * bounded number queued ahead of them.
+ * <p>
+ * The source storage is set up from the storage-migrate-from section of configuration.txt, which takes the same
+ * settings as the storage section.  Each map finished without errors is recorded in a checkpoint file in the data
+ * directory, so an interrupted migration picks up with the first unfinished map.
+ */
+public class StorageMigration {
+    public static final String SOURCE_CONFIG = "storage-migrate-from";
+    private static final String CHECKPOINT_FILE = "storagemigrate.done";
+    private static final int QUEUED_PER_THREAD = 16;    // Tiles queued ahead, per copy thread
+    private static final long REPORT_INTERVAL = 15000;  // Progress report interval (msec)
+
+    private final DynmapCore core;
+    private final MapStorage dest;
+    private MapStorage src;
+    private final int threads;
+    private final DynmapCommandSender sender;
+    private final File checkpoint;
+    private final Set<String> done = new HashSet<String>();   // Maps migrated ("world:map")
+    private final AtomicLong copied = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile boolean cancelled;
+    private long startTime;
+    private long lastReport;
+
+    /**
+     * Create migration
+     *
+     * @param core    - core instance
+     * @param dest    - destination storage
+     * @param threads - number of copy threads
+     * @param sender  - sender for progress messages (null to log them)
+     */
+    public StorageMigration(DynmapCore core, MapStorage dest, int threads, DynmapCommandSender sender) {
+        this.core = core;
+        this.dest = dest;
+        this.threads = Math.max(1, threads);
+        this.sender = sender;
+        this.checkpoint = new File(core.getDataFolder(), CHECKPOINT_FILE);
+    }
+
+    /**
+     * Create and initialize source storage, from the storage-migrate-from configuration section
+     *
+     * @param core - core instance
+     * @return storage, or null if not configured or failed
+     */
+    @SuppressWarnings("unchecked")
+    private static MapStorage createSourceStorage(DynmapCore core) {
+        Object srccfg = core.configuration.get(SOURCE_CONFIG);
+        if (!(srccfg instanceof Map<?, ?>)) {
+            Log.severe("No " + SOURCE_CONFIG + " section in configuration.txt - nothing to migrate from");
+            return null;
+        }
+        String srctype = new ConfigurationNode((Map<String, Object>) srccfg).getString("type", "filetree");
+        String desttype = core.configuration.getString("storage/type", "filetree");
+        // File based storages use the same tile directory whatever their settings
+        if (srccfg.equals(core.configuration.get("storage")) ||
+                (srctype.equals(desttype) && (srctype.equals("filetree") || srctype.equals("packed")))) {
+            Log.severe("Source and destination of storage migration are the same storage");
+            return null;
+        }
+        MapStorage src = DynmapCore.createMapStorage(srctype);
+        if (src == null) {
+            Log.severe("Invalid storage type for storage migration source: " + srctype);
+            return null;
+        }
+        src.setConfiguration(new ConfigurationNode((Map<String, Object>) srccfg));
+        if (!src.init(core)) {
+            Log.severe("Storage migration source (" + srctype + ") initialization failure");
+            return null;
+        }
+        return src;
+    }
+
+    /**
+     * Forget maps already migrated, so they are copied again
+     */
+    public void resetCheckpoint() {
+        checkpoint.delete();
+    }
+
+    /**
+     * Stop migration (maps not finished are copied again next time)
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Migrate maps of worlds
+     *
+     * @param worlds  - worlds
+     * @param mapname - name of map to migrate (null for all)
+     * @return true if all tiles copied, false if cancelled or any failed
+     */
+    public boolean migrate(Collection<DynmapWorld> worlds, String mapname) {
+        src = createSourceStorage(core);
+        if (src == null) {
+            report("Storage migration source unavailable - see log");
+            return false;
+        }
+        try {
+            return migrateMaps(worlds, mapname);
+        } finally {
+            src.shutdownStorage();
+        }
+    }
+
+    private boolean migrateMaps(Collection<DynmapWorld> worlds, String mapname) {
+        loadCheckpoint();
+        ThreadPoolExecutor exec = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread t = new Thread(r, "Dynmap storage migration");
+            t.setDaemon(true);
+            return t;
+        });
+        final int maxqueued = threads * QUEUED_PER_THREAD;
+        final Semaphore queued = new Semaphore(maxqueued);
+        startTime = lastReport = System.currentTimeMillis();
+        try {
+            for (final DynmapWorld world : worlds) {
+                for (final MapType map : new ArrayList<MapType>(world.maps)) {
+                    if (cancelled) break;
+                    if ((mapname != null) && !map.getName().equals(mapname)) continue;
+                    String id = world.getName() + ":" + map.getName();
+                    if (done.contains(id)) {
+                        report("Map '" + id + "' already migrated - skipped");
+                        continue;
+                    }
+                    report("Migrating map '" + id + "'...");
+                    long failedBefore = failed.get();
+                    src.enumMapTiles(world, map, new MapStorageTileEnumCB() {
+                        @Override
+                        public void tileFound(MapStorageTile tile, ImageEncoding enc) {
+                            if (cancelled) return;
+                            if (enc != tile.map.getImageFormat().getEncoding()) {   // Left over from another format: not served
+                                skipped.incrementAndGet();
+                                return;
+                            }
+                            final int x = tile.x, y = tile.y, zoom = tile.zoom;
+                            final ImageVariant var = tile.var;
+                            queued.acquireUninterruptibly();
+                            exec.execute(() -> {
+                                try {
+                                    copyTile(world, map, x, y, zoom, var);
+                                } finally {
+                                    queued.release();
+                                }
+                            });
+                            reportProgress();
+                        }
+                    });
+                    // Wait for copies of map to finish
+                    queued.acquireUninterruptibly(maxqueued);
+                    queued.release(maxqueued);
+                    if (cancelled) break;
+                    if (failed.get() == failedBefore) {
+                        saveCheckpoint(id);
+                    } else {
+                        report("Map '" + id + "' had failed tiles - it will be copied again by the next migration");
+                    }
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        long secs = Math.max(1, (System.currentTimeMillis() - startTime) / 1000);
+        report(String.format("Storage migration %s: %d tiles copied in %d secs, %d skipped, %d failed",
+                cancelled ? "cancelled" : "complete", copied.get(), secs, skipped.get(), failed.get()));
+        return (!cancelled) && (failed.get() == 0);
+    }
+
+    private void copyTile(DynmapWorld world, MapType map, int x, int y, int zoom, ImageVariant var) {
+        if (cancelled) return;
+        MapStorageTile st = src.getTile(world, map, x, y, zoom, var);
+        MapStorageTile dt = dest.getTile(world, map, x, y, zoom, var);
+        try {
+            // Source is not being written, so no read lock needed
+            MapStorageTile.TileRead tr = st.read();
+            if (tr == null) {   // Gone since enumerated
+                skipped.incrementAndGet();
+                return;
+            }
+            BufferOutputStream bos = new BufferOutputStream();
+            bos.buf = tr.image.buffer();
+            bos.len = tr.image.length();
+            boolean ok = false;
+            if (dt.getWriteLock()) {
+                try {
+                    ok = dt.write(tr.hashCode, bos, tr.lastModified);
+                } finally {
+                    dt.releaseWriteLock();
+                }
+            }
+            if (ok) {
+                copied.incrementAndGet();
+                bytes.addAndGet(bos.len);
+                // Zoomed out tiles are copied too: no need to update the one above this tile, whatever its zoom level
+                MapTypeState mts = world.getMapState(map);
+                if (mts != null) {
+                    mts.discardZoomOutInv(x, y, zoom);
+                }
+            } else {
+                failed.incrementAndGet();
+            }
+        } catch (RuntimeException rx) {
+            Log.severe("Error migrating tile " + st.getURI(), rx);
+            failed.incrementAndGet();
+        } finally {
+            st.cleanup();
+            dt.cleanup();
+        }
+    }
+
+    private synchronized void reportProgress() {
+        long now = System.currentTimeMillis();
+        if ((now - lastReport) < REPORT_INTERVAL) return;
+        lastReport = now;
+        double secs = Math.max(0.001, (now - startTime) / 1000.0);
+        report(String.format("Storage migration: %d tiles copied (%.1f tiles/sec, %.2f MB/sec), %d skipped, %d failed",
+                copied.get(), copied.get() / secs, bytes.get() / secs / (1024 * 1024), skipped.get(), failed.get()));
+    }
+
+    private void report(String msg) {
+        if (sender != null) {
+            sender.sendMessage(msg);
+        } else {
+            Log.info(msg);
+        }
+    }
+
+    private void loadCheckpoint() {
+        done.clear();
+        if (!checkpoint.isFile()) return;
+        try {
+            for (String line : Files.readAllLines(checkpoint.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    done.add(line);
+                }
+            }
+        } catch (IOException iox) {
+            Log.warning("Error reading " + checkpoint.getPath() + " - migrating all maps");
+        }
+    }
+
+    private void saveCheckpoint(String id) {
+        done.add(id);
+        try (Writer w = new FileWriter(checkpoint, StandardCharsets.UTF_8, true)) {
+            w.write(id + "\n");
+        } catch (IOException iox) {
+            Log.warning("Error updating " + checkpoint.getPath() + " - " + iox.getMessage());
+        }
+    }
+}
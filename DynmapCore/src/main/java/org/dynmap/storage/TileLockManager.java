@@ -0,0 +1,164 @@
+package org.dynmap.storage;
+
+import org.dynmap.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read/write locks for tiles (and other stored files), striped over a fixed set of fair read/write locks selected
+ * by hash of the tile's coordinates.  Unrelated tiles only contend when they share a stripe, waiters queue on their
+ * stripe alone, and readers and writers are served in arrival order.
+ * <p>
+ * Locks are held by threads, so they must be released by the thread that took them.  A thread holding a read lock
+ * must not ask for a write lock: another tile of the same stripe would deadlock on the upgrade.
+ */
+public class TileLockManager {
+    private final ReentrantReadWriteLock[] stripes;
+    private final int shift;
+    // Contention statistics
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * Create lock manager
+     *
+     * @param bits - log2 of number of stripes
+     */
+    public TileLockManager(int bits) {
+        stripes = new ReentrantReadWriteLock[1 << bits];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock(true);
+        }
+        shift = 32 - bits;
+    }
+
+    /**
+     * Get lock key for tile
+     *
+     * @param tile - tile
+     * @return key
+     */
+    public static int getKey(MapStorageTile tile) {
+        int h = tile.world.getName().hashCode();
+        h = (31 * h) + tile.map.getPrefix().hashCode();
+        h = (31 * h) + tile.x;
+        h = (31 * h) + tile.y;
+        h = (31 * h) + tile.zoom;
+        h = (31 * h) + tile.var.ordinal();
+        return h;
+    }
+
+    /**
+     * Get lock key for named file
+     *
+     * @param name - file name
+     * @return key
+     */
+    public static int getKey(String name) {
+        return name.hashCode();
+    }
+
+    private ReentrantReadWriteLock getStripe(int key) {
+        return stripes[(key * 0x9E3779B1) >>> shift];
+    }
+
+    // Take lock, waiting at most timeout msec (if timeout >= 0)
+    private boolean acquire(Lock lck, long timeout, String what) {
+        if (lck.tryLock()) {
+            acquired.increment();
+            return true;
+        }
+        contended.increment();
+        long start = System.nanoTime();
+        try {
+            if (timeout < 0) {
+                lck.lockInterruptibly();
+            } else if (!lck.tryLock(timeout, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                return false;
+            }
+            acquired.increment();
+            return true;
+        } catch (InterruptedException ix) {
+            Log.severe(what + " interrupted");
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void release(Lock lck, String what) {
+        try {
+            lck.unlock();
+        } catch (IllegalMonitorStateException x) {
+            Log.severe(what + " on lock not held");
+        }
+    }
+
+    /**
+     * Get write lock
+     *
+     * @param key - lock key
+     * @return true if locked, false if interrupted
+     */
+    public boolean getWriteLock(int key) {
+        return acquire(getStripe(key).writeLock(), -1, "getWriteLock");
+    }
+
+    /**
+     * Release write lock
+     *
+     * @param key - lock key
+     */
+    public void releaseWriteLock(int key) {
+        release(getStripe(key).writeLock(), "releaseWriteLock");
+    }
+
+    /**
+     * Get read lock
+     *
+     * @param key     - lock key
+     * @param timeout - msec to wait (-1 = no limit)
+     * @return true if locked, false if timed out or interrupted
+     */
+    public boolean getReadLock(int key, long timeout) {
+        return acquire(getStripe(key).readLock(), timeout, "getReadLock");
+    }
+
+    /**
+     * Release read lock
+     *
+     * @param key - lock key
+     */
+    public void releaseReadLock(int key) {
+        release(getStripe(key).readLock(), "releaseReadLock");
+    }
+
+    /**
+     * Get statistics summary
+     *
+     * @return summary line
+     */
+    public String getStats() {
+        long acq = acquired.sum(), cont = contended.sum();
+        return String.format("locks=%d, contended=%d (%.2f%%), avg wait=%.3f msec, timeouts=%d", acq, cont,
+                (acq > 0) ? (100.0 * cont / acq) : 0.0, (cont > 0) ? (0.000001 * waitNanos.sum() / cont) : 0.0,
+                timeouts.sum());
+    }
+
+    /**
+     * Reset statistics
+     */
+    public void resetStats() {
+        acquired.reset();
+        contended.reset();
+        waitNanos.reset();
+        timeouts.reset();
+    }
+}
@@ -21,9 +21,11 @@ import org.dynmap.MapType.ImageEncoding;
 import org.dynmap.MapType.ImageVariant;
 import org.dynmap.PlayerFaces.FaceType;
 import org.dynmap.storage.*;
+import org.dynmap.storage.filetree.TileHashManager;
 import org.dynmap.utils.BufferInputStream;
 import org.dynmap.utils.BufferOutputStream;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
@@ -32,11 +34,13 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 public class AWSS3MapStorage extends MapStorage {
     public class StorageTile extends MapStorageTile {
         private final String baseKey;
         private final String uri;
+        private final String hashKey;
 
         StorageTile(DynmapWorld world, MapType map, int x, int y,
                     int zoom, ImageVariant var) {
@@ -50,10 +54,18 @@ public class AWSS3MapStorage extends MapStorage {
             }
             uri = baseURI + "." + map.getImageFormat().getFileExt();
             baseKey = AWSS3MapStorage.this.prefix + "tiles/" + world.getName() + "/" + uri;
+            hashKey = getHashKey(world, map, var, zoom);
         }
 
         @Override
         public boolean exists() {
+            S3WriteBackCache.CachedObject co = cache.read(baseKey, false);
+            if (co != null) {   // Upload pending
+                return !co.deleted;
+            }
+            if (isKnownHash(hashes.getImageHashCode(hashKey, x, y))) {  // We wrote it
+                return true;
+            }
             boolean exists = false;
             S3Client s3 = null;
             try {
@@ -76,11 +88,23 @@ public class AWSS3MapStorage extends MapStorage {
 
         @Override
         public boolean matchesHashCode(long hash) {
-            return false;
+            return hashes.getImageHashCode(hashKey, x, y) == hash;
         }
 
         @Override
         public TileRead read() {
+            S3WriteBackCache.CachedObject co = cache.read(baseKey, true);
+            if (co != null) {   // Upload pending: read local copy
+                if (co.deleted) {
+                    return null;
+                }
+                TileRead tr = new TileRead();
+                tr.image = new BufferInputStream(co.data);
+                tr.format = ImageEncoding.fromContentType(co.contentType);
+                tr.hashCode = co.hash;
+                tr.lastModified = co.timestamp;
+                return tr;
+            }
             S3Client s3 = null;
             try {
                 s3 = getConnection();
@@ -118,25 +142,31 @@ public class AWSS3MapStorage extends MapStorage {
         }
 
         @Override
-        public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
-            boolean done = false;
-            S3Client s3 = null;
-            try {
-                s3 = getConnection();
-                if (encImage == null) { // Delete?
-                    DeleteObjectRequest req = DeleteObjectRequest.builder().bucketName(bucketname).key(baseKey).build();
-                    s3.deleteObject(req);
-                } else {
-                    PutObjectRequest req = PutObjectRequest.builder().bucketName(bucketname).key(baseKey).contentType(map.getImageFormat().getEncoding().getContentType())
-                            .addMetadata("x-dynmap-hash", Long.toHexString(hash)).addMetadata("x-dynmap-ts", Long.toString(timestamp)).build();
-                    s3.putObject(req, RequestBody.fromBytes(encImage.buf));
+        public TileMetadata readMetadata() {
+            S3WriteBackCache.CachedObject co = cache.read(baseKey, false);
+            if (co != null) {   // Upload pending
+                if (co.deleted) {
+                    return null;
                 }
-                done = true;
-            } catch (S3Exception x) {
-                Log.severe("AWS Exception", x);
-            } catch (StorageShutdownException x) {
-            } finally {
-                releaseConnection(s3);
+                TileMetadata md = new TileMetadata();
+                md.hashCode = co.hash;
+                md.lastModified = co.timestamp;
+                return md;
+            }
+            return read();
+        }
+
+        @Override
+        public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
+            boolean done;
+            if (encImage == null) { // Delete?
+                done = cache.write(baseKey, null, 0, null, -1, timestamp);
+                hash = -1;
+            } else {
+                done = cache.write(baseKey, encImage.buf, encImage.len, map.getImageFormat().getEncoding().getContentType(), hash, timestamp);
+            }
+            if (done) {
+                hashes.updateHashCode(hashKey, x, y, hash);
             }
             // Signal update for zoom out
             if (zoom == 0) {
@@ -224,6 +254,11 @@ public class AWSS3MapStorage extends MapStorage {
     private int cpoolCount = 0;
     private S3Client[] cpool = new S3Client[POOLSIZE];
 
+    private static final int DEFAULT_UPLOAD_THREADS = 8;
+    private File cacheDir;
+    private S3WriteBackCache cache;   // Tile uploads in progress
+    private volatile TileHashManager hashes;    // Hash codes of tiles written, so unchanged tiles skip the upload
+
     public AWSS3MapStorage() {
     }
 
@@ -241,14 +276,14 @@ public class AWSS3MapStorage extends MapStorage {
             return false;
         }
         // Get our settings
-        bucketname = core.configuration.getString("storage/bucketname", "dynmap");
-        access_key_id = core.configuration.getString("storage/aws_access_key_id", System.getenv("AWS_ACCESS_KEY_ID"));
-        secret_access_key = core.configuration.getString("storage/aws_secret_access_key", System.getenv("AWS_SECRET_ACCESS_KEY"));
-        prefix = core.configuration.getString("storage/prefix", "");
+        bucketname = config.getString("bucketname", "dynmap");
+        access_key_id = config.getString("aws_access_key_id", System.getenv("AWS_ACCESS_KEY_ID"));
+        secret_access_key = config.getString("aws_secret_access_key", System.getenv("AWS_SECRET_ACCESS_KEY"));
+        prefix = config.getString("prefix", "");
 
         // Either use a custom region, or one of the default AWS regions
-        String region_name = core.configuration.getString("storage/region", "us-east-1");
-        String region_endpoint = core.configuration.getString("storage/override_endpoint", "");
+        String region_name = config.getString("region", "us-east-1");
+        String region_endpoint = config.getString("override_endpoint", "");
 
         if (region_endpoint.length() > 0) {
             region = Region.of(region_name, URI.create(region_endpoint));
@@ -259,6 +294,20 @@ public class AWSS3MapStorage extends MapStorage {
         if ((prefix.length() > 0) && (prefix.charAt(prefix.length() - 1) != '/')) {
             prefix += '/';
         }
+        int uploadThreads = Math.max(1, config.getInteger("upload-threads", DEFAULT_UPLOAD_THREADS));
+        POOLSIZE = uploadThreads + 4;   // Leave some for reads
+        cpool = new S3Client[POOLSIZE];
+        cacheDir = core.getFile(config.getString("cache-dir", "s3cache"));
+        hashes = new TileHashManager(new File(cacheDir, "hashes"), true, getImageHash().getSize());
+        cache = new S3WriteBackCache(new File(cacheDir, "pending"), uploadThreads, new S3WriteBackCache.Uploader() {
+            public boolean put(String key, byte[] data, String contentType, long hash, long timestamp) {
+                return putObject(key, data, contentType, hash, timestamp);
+            }
+
+            public boolean delete(String key) {
+                return deleteObject(key);
+            }
+        });
         // Now creste the access client for the S3 service
         Log.info("Using AWS S3 storage: web site at S3 bucket " + bucketname + " in region " + region);
         S3Client s3 = null;
@@ -288,10 +337,64 @@ public class AWSS3MapStorage extends MapStorage {
         } finally {
             releaseConnection(s3);
         }
+        cache.start();
 
         return true;
     }
 
+    @Override
+    public void shutdownStorage() {
+        super.shutdownStorage();
+        if (cache != null) {
+            cache.shutdown();
+        }
+    }
+
+    // Key for hash codes of map variant and zoom level (grouped by 32x32 tiles, like the tiles)
+    private static String getHashKey(DynmapWorld world, MapType map, ImageVariant var, int zoom) {
+        return world.getName() + "." + map.getPrefix() + var.variantSuffix + ((zoom > 0) ? ("_z" + zoom) : "");
+    }
+
+    // Hash code read back from TileHashManager is a real one (not the "none" value of either hash size)
+    private static boolean isKnownHash(long hash) {
+        return (hash != -1) && (hash != 0xFFFFFFFFL);
+    }
+
+    private boolean putObject(String key, byte[] data, String contentType, long hash, long timestamp) {
+        boolean done = false;
+        S3Client s3 = null;
+        try {
+            s3 = getConnection();
+            PutObjectRequest req = PutObjectRequest.builder().bucketName(bucketname).key(key).contentType(contentType)
+                    .addMetadata("x-dynmap-hash", Long.toHexString(hash)).addMetadata("x-dynmap-ts", Long.toString(timestamp)).build();
+            s3.putObject(req, RequestBody.fromBytes(data));
+            done = true;
+        } catch (S3Exception x) {
+            Log.warning("AWS Exception uploading " + key + " (will retry) - " + x.getMessage());
+        } catch (StorageShutdownException x) {
+        } finally {
+            releaseConnection(s3);
+        }
+        return done;
+    }
+
+    private boolean deleteObject(String key) {
+        boolean done = false;
+        S3Client s3 = null;
+        try {
+            s3 = getConnection();
+            DeleteObjectRequest req = DeleteObjectRequest.builder().bucketName(bucketname).key(key).build();
+            s3.deleteObject(req);
+            done = true;
+        } catch (S3Exception x) {
+            Log.warning("AWS Exception deleting " + key + " (will retry) - " + x.getMessage());
+        } catch (StorageShutdownException x) {
+        } finally {
+            releaseConnection(s3);
+        }
+        return done;
+    }
+
     @Override
     public MapStorageTile getTile(DynmapWorld world, MapType map, int x, int y,
                                   int zoom, ImageVariant var) {
@@ -454,6 +557,18 @@ public class AWSS3MapStorage extends MapStorage {
 
     private void processPurgeMapTiles(DynmapWorld world, MapType map, ImageVariant var) {
         String basekey = prefix + "tiles/" + world.getName() + "/" + map.getPrefix() + var.variantSuffix + "/";
+        cache.purge(basekey);
+        // Drop hash codes of map (all zoom levels), and the cached ones with them
+        String mname = map.getPrefix() + var.variantSuffix;
+        File[] hlist = new File(new File(cacheDir, "hashes"), world.getName()).listFiles();
+        if (hlist != null) {
+            for (File f : hlist) {
+                if (f.getName().matches(Pattern.quote(mname) + "(_z\\d+)?_-?\\d+_-?\\d+\\.hash(64)?")) {
+                    f.delete();
+                }
+            }
+        }
+        hashes = new TileHashManager(new File(cacheDir, "hashes"), true, getImageHash().getSize());
         ListObjectsV2Request req = ListObjectsV2Request.builder().bucketName(bucketname).prefix(basekey).delimiter("").maxKeys(1000).encodingType("url").requestPayer("requester").build();
         S3Client s3 = null;
         try {
@@ -605,6 +720,7 @@ public class AWSS3MapStorage extends MapStorage {
         } finally {
             releaseConnection(s3);
         }
+        markerFileChanged(world);
         return done;
     }
 
@@ -0,0 +1,348 @@
+package org.dynmap.storage.aws_s3;
+
+import org.dynmap.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-back cache for S3 objects: writes are saved to a local directory and uploaded (or deleted) by a pool of
+ * upload threads, with retries backing off up to a minute apart.  Until an upload is confirmed its local copy serves
+ * reads, and pending uploads left by a restart are picked up again on start.
+ * <p>
+ * Each key has at most one upload in flight.  A write arriving during an upload replaces the local copy and is
+ * uploaded once the earlier upload ends, so an older version can never land after a newer one.
+ */
+class S3WriteBackCache {
+    /**
+     * Does the actual S3 requests
+     */
+    interface Uploader {
+        boolean put(String key, byte[] data, String contentType, long hash, long timestamp);
+
+        boolean delete(String key);
+    }
+
+    /**
+     * Pending object, as seen by reads
+     */
+    static class CachedObject {
+        boolean deleted;    // Pending delete
+        byte[] data;
+        String contentType;
+        long hash;
+        long timestamp;
+    }
+
+    private static class Pending {
+        boolean delete;
+        String contentType;
+        long hash;
+        long timestamp;
+        int version;    // Bumped by each write
+        boolean queued; // Upload task queued
+        boolean inflight;   // Upload in progress
+        int attempts;   // Failed uploads in a row
+    }
+
+    private static final int MAGIC = 0x44533343;    // "DS3C"
+    private static final String TMP_EXT = ".tmp";
+    private static final long BASE_RETRY_DELAY = 500;
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    private final File dir;
+    private final Uploader uploader;
+    private final ScheduledThreadPoolExecutor exec;
+    private final HashMap<String, Pending> pending = new HashMap<String, Pending>();
+    private final Object lock = new Object();
+
+    /**
+     * Create cache
+     *
+     * @param dir      - directory for pending objects
+     * @param threads  - number of upload threads
+     * @param uploader - uploader
+     */
+    S3WriteBackCache(File dir, int threads, Uploader uploader) {
+        this.dir = dir;
+        this.uploader = uploader;
+        this.exec = new ScheduledThreadPoolExecutor(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "Dynmap S3 upload");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Start: queue uploads left pending by last run
+     */
+    void start() {
+        if (!dir.isDirectory()) {
+            dir.mkdirs();
+            return;
+        }
+        int cnt = 0;
+        LinkedList<File> dirs = new LinkedList<File>();
+        dirs.add(dir);
+        while (!dirs.isEmpty()) {
+            File d = dirs.pop();
+            File[] lst = d.listFiles();
+            if (lst == null) continue;
+            for (File f : lst) {
+                if (f.isDirectory()) {
+                    dirs.add(f);
+                } else if (f.getName().endsWith(TMP_EXT)) {  // Interrupted write
+                    f.delete();
+                } else {
+                    String key = dir.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/');
+                    Pending p = readHeader(f);
+                    if (p == null) {
+                        Log.warning("Dropping unreadable pending S3 upload " + f.getPath());
+                        f.delete();
+                        continue;
+                    }
+                    synchronized (lock) {
+                        pending.put(key, p);
+                        enqueue(key, p, 0);
+                    }
+                    cnt++;
+                }
+            }
+        }
+        if (cnt > 0) {
+            Log.info("Resuming " + cnt + " pending S3 uploads");
+        }
+    }
+
+    /**
+     * Write object, to be uploaded
+     *
+     * @param key         - object key
+     * @param data        - content (null to delete object)
+     * @param len         - content length
+     * @param contentType - content type
+     * @param hash        - hash code
+     * @param timestamp   - timestamp
+     * @return true if saved for upload
+     */
+    boolean write(String key, byte[] data, int len, String contentType, long hash, long timestamp) {
+        File f = getFile(key);
+        File tmp = new File(f.getPath() + "." + Thread.currentThread().getId() + TMP_EXT);
+        try {
+            File pf = f.getParentFile();
+            if (!pf.isDirectory()) {
+                pf.mkdirs();
+            }
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+                out.writeInt(MAGIC);
+                out.writeBoolean(data == null);
+                out.writeUTF((contentType != null) ? contentType : "");
+                out.writeLong(hash);
+                out.writeLong(timestamp);
+                if (data != null) {
+                    out.write(data, 0, len);
+                }
+            }
+            synchronized (lock) {
+                Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                Pending p = pending.get(key);
+                if (p == null) {
+                    p = new Pending();
+                    pending.put(key, p);
+                }
+                p.delete = (data == null);
+                p.contentType = contentType;
+                p.hash = hash;
+                p.timestamp = timestamp;
+                p.version++;
+                p.attempts = 0;
+                enqueue(key, p, 0);
+            }
+            return true;
+        } catch (IOException iox) {
+            Log.severe("Error saving S3 upload " + f.getPath() + " - " + iox.getMessage());
+            tmp.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Read pending object
+     *
+     * @param key      - object key
+     * @param withData - if true, include content
+     * @return pending object, or null if nothing pending for key
+     */
+    CachedObject read(String key, boolean withData) {
+        synchronized (lock) {
+            Pending p = pending.get(key);
+            if (p == null) {
+                return null;
+            }
+            CachedObject co = new CachedObject();
+            co.deleted = p.delete;
+            co.contentType = p.contentType;
+            co.hash = p.hash;
+            co.timestamp = p.timestamp;
+            if (withData && !p.delete) {
+                co.data = readData(key);
+                if (co.data == null) {
+                    return null;
+                }
+            }
+            return co;
+        }
+    }
+
+    /**
+     * Drop pending uploads of keys with given prefix
+     *
+     * @param prefix - key prefix
+     */
+    void purge(String prefix) {
+        synchronized (lock) {
+            Iterator<Map.Entry<String, Pending>> iter = pending.entrySet().iterator();
+            while (iter.hasNext()) {
+                String key = iter.next().getKey();
+                if (key.startsWith(prefix)) {
+                    iter.remove();
+                    getFile(key).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get number of pending uploads
+     *
+     * @return count
+     */
+    int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Stop uploads (pending ones are resumed on next start)
+     */
+    void shutdown() {
+        exec.shutdownNow();
+        int cnt = getPendingCount();
+        if (cnt > 0) {
+            Log.info(cnt + " S3 uploads still pending - they will resume on restart");
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(dir, key);
+    }
+
+    // Queue upload of key, unless already queued or in progress (called with lock held)
+    private void enqueue(String key, Pending p, long delay) {
+        if (p.queued || p.inflight || exec.isShutdown()) {
+            return;
+        }
+        try {
+            exec.schedule(() -> upload(key), delay, TimeUnit.MILLISECONDS);
+            p.queued = true;
+        } catch (RejectedExecutionException rx) {  // Shutting down: left for next start
+        }
+    }
+
+    private void upload(String key) {
+        Pending p;
+        int ver;
+        boolean delete;
+        String ct;
+        long hash, ts;
+        byte[] data = null;
+        synchronized (lock) {
+            p = pending.get(key);
+            if (p == null) {
+                return;
+            }
+            p.queued = false;
+            p.inflight = true;
+            ver = p.version;
+            delete = p.delete;
+            ct = p.contentType;
+            hash = p.hash;
+            ts = p.timestamp;
+            if (!delete) {
+                data = readData(key);
+                if (data == null) {  // Can't be uploaded: drop it
+                    Log.severe("Pending S3 upload " + key + " unreadable - dropped");
+                    pending.remove(key);
+                    getFile(key).delete();
+                    return;
+                }
+            }
+        }
+        boolean ok = delete ? uploader.delete(key) : uploader.put(key, data, ct, hash, ts);
+        synchronized (lock) {
+            p.inflight = false;
+            if (pending.get(key) != p) {    // Purged
+                return;
+            }
+            if (ok && (p.version == ver)) { // Done
+                pending.remove(key);
+                getFile(key).delete();
+            } else if (ok) {    // Written again meanwhile: upload new version
+                enqueue(key, p, 0);
+            } else {
+                p.attempts++;
+                enqueue(key, p, Math.min(MAX_RETRY_DELAY, BASE_RETRY_DELAY << Math.min(p.attempts - 1, 16)));
+            }
+        }
+    }
+
+    // Read header of pending object file
+    private static Pending readHeader(File f) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            Pending p = new Pending();
+            p.delete = in.readBoolean();
+            p.contentType = in.readUTF();
+            p.hash = in.readLong();
+            p.timestamp = in.readLong();
+            return p;
+        } catch (IOException iox) {
+            return null;
+        }
+    }
+
+    // Read content of pending object (called with lock held)
+    private byte[] readData(String key) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(getFile(key)))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            in.readBoolean();
+            in.readUTF();
+            in.readLong();
+            in.readLong();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            in.transferTo(bos);
+            return bos.toByteArray();
+        } catch (IOException iox) {
+            return null;
+        }
+    }
+}
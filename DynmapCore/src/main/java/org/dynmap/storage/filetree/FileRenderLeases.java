@@ -0,0 +1,169 @@
+package org.dynmap.storage.filetree;
+
+import org.dynmap.Log;
+import org.dynmap.storage.RenderLeases;
+import org.dynmap.utils.TileFlags;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Render leases for the file tree storage: one lease file per job (in the world's tile directory), read and
+ * rewritten while holding an exclusive file lock.  Works between processes on one host - or on a shared file
+ * system, where that file system supports locking.
+ */
+public class FileRenderLeases extends RenderLeases {
+    private final File baseTileDir;
+
+    private static class Part {
+        int x, y;
+        boolean done;
+        long expires;
+        String owner;
+    }
+
+    // Lease file operation - may change parts, returns true if file needs to be rewritten
+    private interface LeaseOp {
+        boolean apply(LinkedHashMap<TileFlags.TileCoord, Part> parts);
+    }
+
+    public FileRenderLeases(File baseTileDir) {
+        this.baseTileDir = baseTileDir;
+    }
+
+    private File getLeaseFile(String world, String job) {
+        return new File(new File(baseTileDir, world), "_leases_" + job.replaceAll("[^A-Za-z0-9_.-]", "_") + ".txt");
+    }
+
+    // Run operation on lease file under lock (synchronized too: file locks are per process, not per thread)
+    private synchronized boolean update(String world, String job, LeaseOp op) {
+        File f = getLeaseFile(world, job);
+        f.getParentFile().mkdirs();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw"); FileChannel ch = raf.getChannel(); FileLock lock = ch.lock()) {
+            ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, buf.position()) < 0) break;
+            }
+            LinkedHashMap<TileFlags.TileCoord, Part> parts = new LinkedHashMap<TileFlags.TileCoord, Part>();
+            for (String line : new String(buf.array(), StandardCharsets.UTF_8).split("\n")) {
+                String[] tok = line.split(",", 5);
+                if (tok.length < 4) continue;
+                Part p = new Part();
+                p.x = Integer.parseInt(tok[0]);
+                p.y = Integer.parseInt(tok[1]);
+                p.done = tok[2].equals("1");
+                p.expires = Long.parseLong(tok[3]);
+                p.owner = (tok.length > 4) ? tok[4] : null;
+                parts.put(new TileFlags.TileCoord(p.x, p.y), p);
+            }
+            if (op.apply(parts)) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                for (Part p : parts.values()) {
+                    String line = p.x + "," + p.y + "," + (p.done ? 1 : 0) + "," + p.expires + ((p.owner != null) ? ("," + p.owner) : "") + "\n";
+                    out.write(line.getBytes(StandardCharsets.UTF_8));
+                }
+                ch.truncate(0);
+                ByteBuffer ob = ByteBuffer.wrap(out.toByteArray());
+                long pos = 0;
+                while (ob.hasRemaining()) {
+                    pos += ch.write(ob, pos);
+                }
+                ch.force(false);
+            }
+            return true;
+        } catch (IOException | NumberFormatException x) {
+            Log.severe("Error updating render lease file " + f, x);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean addPartitions(String world, String job, final List<TileFlags.TileCoord> newparts) {
+        return update(world, job, parts -> {
+            boolean chg = false;
+            for (TileFlags.TileCoord c : newparts) {
+                if (!parts.containsKey(c)) {
+                    Part p = new Part();
+                    p.x = c.x;
+                    p.y = c.y;
+                    parts.put(new TileFlags.TileCoord(c.x, c.y), p);
+                    chg = true;
+                }
+            }
+            return chg;
+        });
+    }
+
+    @Override
+    public TileFlags.TileCoord acquire(String world, String job, final String owner, final long expires) {
+        final TileFlags.TileCoord[] rslt = new TileFlags.TileCoord[1];
+        update(world, job, parts -> {
+            long now = System.currentTimeMillis();
+            for (Part p : parts.values()) {
+                if (!p.done && ((p.owner == null) || (p.expires < now))) {
+                    p.owner = owner;
+                    p.expires = expires;
+                    rslt[0] = new TileFlags.TileCoord(p.x, p.y);
+                    return true;
+                }
+            }
+            return false;
+        });
+        return rslt[0];
+    }
+
+    @Override
+    public boolean renew(String world, String job, final TileFlags.TileCoord part, final String owner, final long expires) {
+        final boolean[] rslt = new boolean[1];
+        update(world, job, parts -> {
+            Part p = parts.get(part);
+            if ((p == null) || p.done || !owner.equals(p.owner)) return false;
+            p.expires = expires;
+            rslt[0] = true;
+            return true;
+        });
+        return rslt[0];
+    }
+
+    @Override
+    public boolean complete(String world, String job, final TileFlags.TileCoord part, final String owner) {
+        final boolean[] rslt = new boolean[1];
+        update(world, job, parts -> {
+            Part p = parts.get(part);
+            if ((p == null) || p.done || !owner.equals(p.owner)) return false;
+            p.done = true;
+            rslt[0] = true;
+            return true;
+        });
+        return rslt[0];
+    }
+
+    @Override
+    public int[] getProgress(String world, String job) {
+        final int[] rslt = new int[2];
+        boolean ok = update(world, job, parts -> {
+            for (Part p : parts.values()) {
+                if (p.done) rslt[0]++;
+            }
+            rslt[1] = parts.size();
+            return false;
+        });
+        return ok ? rslt : null;
+    }
+
+    @Override
+    public boolean clear(String world, String job) {
+        return update(world, job, parts -> {
+            parts.clear();
+            return true;
+        });
+    }
+}
@@ -8,23 +8,88 @@ import org.dynmap.debug.Debug;
 import org.dynmap.storage.*;
 import org.dynmap.utils.BufferInputStream;
 import org.dynmap.utils.BufferOutputStream;
+import org.dynmap.utils.LRULinkedHashMap;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.regex.Pattern;
 
 public class FileTreeMapStorage extends MapStorage {
     private File baseTileDir;
-    private TileHashManager hashmap;
+    private volatile TileHashManager hashmap;
+    private FileRenderLeases leases;
+    private ForkJoinPool scanPool;  // Scans and purges of region directories
     private static final int MAX_WRITE_RETRIES = 6;
+    private static final int SCANS_PER_THREAD = 4;  // Region directory scans queued ahead, per scan thread
+    private static final ImageEncoding[] ENCODINGS = ImageEncoding.values();
     private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_REGION_INFO = 4096;
+    private static final long REGION_INFO_TTL = 60000;  // Region directories are listed again after this (msec)
+    private final Map<String, RegionInfo> regionInfo = Collections.synchronizedMap(new LRULinkedHashMap<String, RegionInfo>(MAX_REGION_INFO));
+
+    // Tile formats found in a region directory (world/map/rx_ry), from one listing of it: saves looking for files
+    // of other formats on each write, and for fallback formats on each missed read
+    private static class RegionInfo {
+        final long loaded;
+        volatile int formats;   // Bit for each ImageEncoding found
+
+        RegionInfo(long loaded) {
+            this.loaded = loaded;
+        }
+
+        boolean hasFormat(ImageEncoding fmt) {
+            return (formats & (1 << fmt.ordinal())) != 0;
+        }
+
+        synchronized void addFormat(ImageEncoding fmt) {
+            formats |= (1 << fmt.ordinal());
+        }
+    }
+
+    private RegionInfo getRegionInfo(String regionDir) {
+        long now = System.currentTimeMillis();
+        RegionInfo ri = regionInfo.get(regionDir);
+        if ((ri == null) || ((now - ri.loaded) > REGION_INFO_TTL)) {  // Listed again now and then, for other writers
+            ri = new RegionInfo(now);
+            String[] lst = new File(baseTileDir, regionDir).list();
+            if (lst != null) {
+                int fmts = 0;
+                for (String fn : lst) {
+                    int extoff = fn.lastIndexOf('.');
+                    ImageEncoding fmt = (extoff >= 0) ? ImageEncoding.fromExt(fn.substring(extoff + 1)) : null;
+                    if (fmt != null) {
+                        fmts |= (1 << fmt.ordinal());
+                    }
+                }
+                ri.formats = fmts;
+            }
+            regionInfo.put(regionDir, ri);
+        }
+        return ri;
+    }
 
     public class StorageTile extends MapStorageTile {
         private final String baseFilename;
@@ -53,96 +118,115 @@ public class FileTreeMapStorage extends MapStorage {
             return f;
         }
 
-        private File getTileFile() {
-            ImageEncoding fmt = map.getImageFormat().getEncoding();
-            File ff = getTileFile(fmt);
-            if (ff.exists() == false) {
-                if (fmt == ImageEncoding.PNG) {
-                    fmt = ImageEncoding.JPG;
-                } else {
-                    fmt = ImageEncoding.PNG;
-                }
-                ff = getTileFile(fmt);
-            }
-            return ff;
+        private RegionInfo getRegion() {
+            return getRegionInfo(baseFilename.substring(0, baseFilename.lastIndexOf('/')));
         }
 
-        private List<File> getTileFilesAltFormats() {
-            ImageEncoding fmt = map.getImageFormat().getEncoding();
-
-            List<File> files = new ArrayList<File>();
-            for (ImageEncoding ie : ImageEncoding.values()) {
-                if (ie != fmt) {
-                    files.add(getTileFile(ie));
-                }
-            }
-
-            return files;
+        // Format tried when tile is not found in map's format (left from before a format change)
+        private ImageEncoding getFallbackFormat(ImageEncoding fmt) {
+            ImageEncoding alt = (fmt == ImageEncoding.PNG) ? ImageEncoding.JPG : ImageEncoding.PNG;
+            return getRegion().hasFormat(alt) ? alt : null;
         }
 
         @Override
         public boolean exists() {
-            File ff = getTileFile();
-            return ff.isFile() && ff.canRead();
+            ImageEncoding fmt = map.getImageFormat().getEncoding();
+            if (getTileFile(fmt).isFile()) {
+                return true;
+            }
+            ImageEncoding alt = getFallbackFormat(fmt);
+            return (alt != null) && getTileFile(alt).isFile();
         }
 
         @Override
         public boolean matchesHashCode(long hash) {
-            File ff = getTileFile(map.getImageFormat().getEncoding());
-            return ff.isFile() && ff.canRead() && (hash == hashmap.getImageHashCode(world.getName() + "." + map.getPrefix(), x, y));
+            // Hash codes are cached: only look for the file if they match
+            return (hash == hashmap.getImageHashCode(world.getName() + "." + map.getPrefix(), x, y)) &&
+                    getTileFile(map.getImageFormat().getEncoding()).isFile();
+        }
+
+        // Read tile file of given format: null if not found
+        private TileRead readTile(ImageEncoding fmt) {
+            File ff = getTileFile(fmt);
+            Path p = ff.toPath();
+            BasicFileAttributes attr;
+            byte[] buf;
+            int len = 0;
+            try {
+                attr = Files.readAttributes(p, BasicFileAttributes.class);  // Size, time and type in one call
+                if (!attr.isRegularFile()) {
+                    return null;
+                }
+                buf = new byte[(int) attr.size()];
+                try (InputStream in = Files.newInputStream(p)) {
+                    int n;
+                    while ((n = in.read(buf, len, buf.length - len)) > 0) {
+                        len += n;
+                        if (len == buf.length) {    // Check for more (file replaced since size read)
+                            int c = in.read();
+                            if (c < 0) break;
+                            buf = Arrays.copyOf(buf, 2 * buf.length);
+                            buf[len++] = (byte) c;
+                        }
+                    }
+                }
+            } catch (NoSuchFileException nsfx) {
+                return null;
+            } catch (IOException iox) {
+                Log.info("read (" + ff.getPath() + ") failed = " + iox.getMessage());
+                return null;
+            }
+            TileRead tr = new TileRead();
+            tr.image = new BufferInputStream(buf, len);
+            tr.format = fmt;
+            tr.hashCode = hashmap.getImageHashCode(world.getName() + "." + map.getPrefix(), x, y);
+            tr.lastModified = attr.lastModifiedTime().toMillis();
+            return tr;
         }
 
         @Override
         public TileRead read() {
             ImageEncoding fmt = map.getImageFormat().getEncoding();
-            File ff = getTileFile(fmt);
-            if (ff.exists() == false) { // Fallback and try to read other format
-                if (fmt == ImageEncoding.PNG) {
-                    fmt = ImageEncoding.JPG;
-                } else {
-                    fmt = ImageEncoding.PNG;
+            TileRead tr = readTile(fmt);
+            if (tr == null) { // Fallback and try to read other format
+                ImageEncoding alt = getFallbackFormat(fmt);
+                if (alt != null) {
+                    tr = readTile(alt);
                 }
-                ff = getTileFile(fmt);
             }
-            if (ff.isFile()) {
-                TileRead tr = new TileRead();
-                byte[] buf = new byte[(int) ff.length()];
-                FileInputStream fis = null;
-                try {
-                    fis = new FileInputStream(ff);
-                    fis.read(buf, 0, buf.length);   // Read whole thing
-                } catch (IOException iox) {
-                    Log.info("read (" + ff.getPath() + ") failed = " + iox.getMessage());
-                    return null;
-                } finally {
-                    if (fis != null) {
-                        try {
-                            fis.close();
-                        } catch (IOException iox) {
-                        }
-                        fis = null;
-                    }
+            return tr;
+        }
+
+        @Override
+        public TileMetadata readMetadata() {
+            ImageEncoding fmt = map.getImageFormat().getEncoding();
+            long lastmod = getTileFile(fmt).lastModified();   // 0 if missing
+            if (lastmod == 0L) { // Fallback and try other format
+                ImageEncoding alt = getFallbackFormat(fmt);
+                if (alt != null) {
+                    lastmod = getTileFile(alt).lastModified();
                 }
-                tr.image = new BufferInputStream(buf);
-                tr.format = fmt;
-                tr.hashCode = hashmap.getImageHashCode(world.getName() + "." + map.getPrefix(), x, y);
-                tr.lastModified = ff.lastModified();
-                return tr;
             }
-            return null;
+            if (lastmod == 0L) {
+                return null;
+            }
+            TileMetadata md = new TileMetadata();
+            md.hashCode = hashmap.getImageHashCode(world.getName() + "." + map.getPrefix(), x, y);
+            md.lastModified = lastmod;
+            return md;
         }
 
         @Override
         public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
-            File ff = getTileFile(map.getImageFormat().getEncoding());
-            List<File> ffalt = getTileFilesAltFormats();
-            File ffpar = ff.getParentFile();
-            // Always clean up old alternate files, if they exist
-            for (File file : ffalt) {
-                if (file.exists()) {
-                    file.delete();
+            ImageEncoding fmt = map.getImageFormat().getEncoding();
+            RegionInfo ri = getRegion();
+            // Always clean up old alternate files, if region has any
+            for (ImageEncoding ie : ENCODINGS) {
+                if ((ie != fmt) && ri.hasFormat(ie)) {
+                    getTileFile(ie).delete();
                 }
             }
+            File ff = getTileFile(fmt);
             if (encImage == null) { // Delete?
                 ff.delete();
                 hashmap.updateHashCode(world.getName() + "." + map.getPrefix(), x, y, -1);
@@ -152,12 +236,10 @@ public class FileTreeMapStorage extends MapStorage {
                 }
                 return true;
             }
-            if (ffpar.exists() == false) {
-                ffpar.mkdirs();
-            }
             if (replaceFile(ff, encImage.buf, encImage.len, timestamp) == false) {
                 return false;
             }
+            ri.addFormat(fmt);
             hashmap.updateHashCode(world.getName() + "." + map.getPrefix(), x, y, hash);
             // Signal update for zoom out
             if (zoom == 0) {
@@ -168,22 +250,22 @@ public class FileTreeMapStorage extends MapStorage {
 
         @Override
         public boolean getWriteLock() {
-            return FileTreeMapStorage.this.getWriteLock(baseFilename);
+            return FileTreeMapStorage.this.getWriteLock(this);
         }
 
         @Override
         public void releaseWriteLock() {
-            FileTreeMapStorage.this.releaseWriteLock(baseFilename);
+            FileTreeMapStorage.this.releaseWriteLock(this);
         }
 
         @Override
         public boolean getReadLock(long timeout) {
-            return FileTreeMapStorage.this.getReadLock(baseFilename, timeout);
+            return FileTreeMapStorage.this.getReadLock(this, timeout);
         }
 
         @Override
         public void releaseReadLock() {
-            FileTreeMapStorage.this.releaseReadLock(baseFilename);
+            FileTreeMapStorage.this.releaseReadLock(this);
         }
 
         @Override
@@ -246,10 +328,32 @@ public class FileTreeMapStorage extends MapStorage {
             return false;
         }
         baseTileDir = core.getDynmapTileDirectory();
-        hashmap = new TileHashManager(baseTileDir, true);
+        hashmap = new TileHashManager(baseTileDir, true, getImageHash().getSize());
         return true;
     }
 
+    @Override
+    public void shutdownStorage() {
+        super.shutdownStorage();
+        synchronized (this) {
+            if (scanPool != null) {
+                scanPool.shutdownNow();
+                scanPool = null;
+            }
+        }
+    }
+
+    private synchronized ForkJoinPool getScanPool() {
+        if (scanPool == null) {
+            scanPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()), pool -> {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("Dynmap tile scan-" + t.getPoolIndex());
+                return t;
+            }, null, false);
+        }
+        return scanPool;
+    }
+
     @Override
     public MapStorageTile getTile(DynmapWorld world, MapType map, int x, int y,
                                   int zoom, ImageVariant var) {
@@ -301,6 +405,112 @@ public class FileTreeMapStorage extends MapStorage {
     }
 
 
+    @Override
+    public synchronized RenderLeases getRenderLeases() {
+        if (leases == null) {
+            leases = new FileRenderLeases(baseTileDir);
+        }
+        return leases;
+    }
+
+    // Tiles found in a directory: x, y, zoom, encoding ordinal for each
+    private static class TileList {
+        int[] v = new int[256];
+        int n;
+
+        void add(int x, int y, int zoom, ImageEncoding fmt) {
+            if ((n + 4) > v.length) {
+                v = Arrays.copyOf(v, 2 * v.length);
+            }
+            v[n++] = x;
+            v[n++] = y;
+            v[n++] = zoom;
+            v[n++] = fmt.ordinal();
+        }
+    }
+
+    /**
+     * Parse tile file name ([z..z_]x_y.ext), adding it to list
+     *
+     * @param fn       - file name
+     * @param rslt     - list of tiles
+     * @param baseOnly - if true, leave zoomed out tiles out of list
+     * @return true if name is a tile, false if not
+     */
+    private static boolean parseTileName(String fn, TileList rslt, boolean baseOnly) {
+        int extoff = fn.lastIndexOf('.');
+        if (extoff < 0) {
+            return false;
+        }
+        ImageEncoding fmt = null;
+        int extlen = fn.length() - extoff - 1;
+        for (ImageEncoding enc : ENCODINGS) {
+            String ext = enc.getFileExt();
+            if ((ext.length() == extlen) && fn.regionMatches(true, extoff + 1, ext, 0, extlen)) {
+                fmt = enc;
+                break;
+            }
+        }
+        if (fmt == null) {
+            return false;
+        }
+        // See if zoom tile
+        int off = 0;
+        while ((off < extoff) && (fn.charAt(off) == 'z')) {
+            off++;
+        }
+        int zoom = off;
+        if ((zoom > 0) && (off < extoff) && (fn.charAt(off) == '_')) {
+            off++;
+        }
+        // Remainder must be 2 coords
+        int sep = fn.indexOf('_', off);
+        if ((sep < 0) || (sep >= extoff)) {
+            return false;
+        }
+        int sep2 = fn.indexOf('_', sep + 1);
+        if ((sep2 >= 0) && (sep2 < extoff)) {
+            return false;
+        }
+        try {
+            int x = Integer.parseInt(fn, off, sep, 10);
+            int y = Integer.parseInt(fn, sep + 1, extoff, 10);
+            if ((zoom == 0) || (!baseOnly)) {
+                rslt.add(x, y, zoom, fmt);
+            }
+            return true;
+        } catch (NumberFormatException nfx) {
+            return false;
+        }
+    }
+
+    // Scan directory tree for tiles: entries named as tiles are taken as files, so only the others are checked
+    private static void scanTileDir(Path dir, TileList rslt, boolean baseOnly) {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                if ((!parseTileName(p.getFileName().toString(), rslt, baseOnly)) && Files.isDirectory(p)) {
+                    scanTileDir(p, rslt, baseOnly);
+                }
+            }
+        } catch (IOException | DirectoryIteratorException x) {
+            Log.warning("Error reading tile directory " + dir + " - " + x.getMessage());
+        }
+    }
+
+    private void reportTiles(DynmapWorld world, MapType map, ImageVariant var, TileList tl, MapStorageTileEnumCB cb, MapStorageBaseTileEnumCB cbBase) {
+        for (int i = 0; i < tl.n; i += 4) {
+            // Invoke callback
+            MapStorageTile t = new StorageTile(world, map, tl.v[i], tl.v[i + 1], tl.v[i + 2], var);
+            ImageEncoding fmt = ENCODINGS[tl.v[i + 3]];
+            if (cb != null)
+                cb.tileFound(t, fmt);
+            if (cbBase != null && t.zoom == 0)
+                cbBase.tileFound(t, fmt);
+            t.cleanup();
+        }
+    }
+
+    // Region directories are scanned in parallel, but callbacks are all made from the calling thread, in order
     private void processEnumMapTiles(DynmapWorld world, MapType map, File base, ImageVariant var, MapStorageTileEnumCB cb, MapStorageBaseTileEnumCB cbBase, MapStorageTileSearchEndCB cbEnd) {
         File bdir = new File(base, map.getPrefix() + var.variantSuffix);
         if (bdir.isDirectory() == false) {
@@ -308,60 +518,35 @@ public class FileTreeMapStorage extends MapStorage {
                 cbEnd.searchEnded();
             return;
         }
-
-        LinkedList<File> dirs = new LinkedList<File>(); // List to traverse
-        dirs.add(bdir);   // Directory for map
-        // While more paths to handle
-        while (dirs.isEmpty() == false) {
-            File dir = dirs.pop();
-            String[] dirlst = dir.list();
-            if (dirlst == null) continue;
-            for (String fn : dirlst) {
-                if (fn.equals(".") || fn.equals(".."))
-                    continue;
-                File f = new File(dir, fn);
-                if (f.isDirectory()) {   /* If directory, add to list to process */
-                    dirs.add(f);
-                } else {  /* Else, file - see if tile */
-                    String ext = null;
-                    int extoff = fn.lastIndexOf('.');
-                    if (extoff >= 0) {
-                        ext = fn.substring(extoff + 1);
-                        fn = fn.substring(0, extoff);
-                    }
-                    ImageEncoding fmt = ImageEncoding.fromExt(ext);
-                    if (fmt == null) {
-                        continue;
-                    }
-                    // See if zoom tile
-                    int zoom = 0;
-                    if (fn.startsWith("z")) {
-                        while (fn.startsWith("z")) {
-                            fn = fn.substring(1);
-                            zoom++;
-                        }
-                        if (fn.startsWith("_")) {
-                            fn = fn.substring(1);
-                        }
-                    }
-                    // Split remainder to get coords
-                    String[] coord = fn.split("_");
-                    if (coord.length == 2) {    // Must be 2 to be a tile
-                        try {
-                            int x = Integer.parseInt(coord[0]);
-                            int y = Integer.parseInt(coord[1]);
-                            // Invoke callback
-                            MapStorageTile t = new StorageTile(world, map, x, y, zoom, var);
-                            if (cb != null)
-                                cb.tileFound(t, fmt);
-                            if (cbBase != null && t.zoom == 0)
-                                cbBase.tileFound(t, fmt);
-                            t.cleanup();
-                        } catch (NumberFormatException nfx) {
-                        }
-                    }
+        final boolean baseOnly = (cb == null);
+        TileList top = new TileList();  // Tiles at top level (if any)
+        ArrayList<Path> regions = new ArrayList<Path>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(bdir.toPath())) {
+            for (Path p : ds) {
+                if ((!parseTileName(p.getFileName().toString(), top, baseOnly)) && Files.isDirectory(p)) {
+                    regions.add(p);
                 }
             }
+        } catch (IOException | DirectoryIteratorException x) {
+            Log.warning("Error reading tile directory " + bdir.getPath() + " - " + x.getMessage());
+        }
+        reportTiles(world, map, var, top, cb, cbBase);
+
+        ForkJoinPool pool = getScanPool();
+        int window = SCANS_PER_THREAD * pool.getParallelism();
+        ArrayDeque<ForkJoinTask<TileList>> scans = new ArrayDeque<ForkJoinTask<TileList>>();
+        int next = 0;
+        while ((next < regions.size()) || (scans.isEmpty() == false)) {
+            // Keep scans queued ahead of callbacks, but not all of the map at once
+            while ((next < regions.size()) && (scans.size() < window)) {
+                final Path rdir = regions.get(next++);
+                scans.add(pool.submit(() -> {
+                    TileList tl = new TileList();
+                    scanTileDir(rdir, tl, baseOnly);
+                    return tl;
+                }));
+            }
+            reportTiles(world, map, var, scans.poll().join(), cb, cbBase);
         }
         if (cbEnd != null) {
             cbEnd.searchEnded();
@@ -404,47 +589,51 @@ public class FileTreeMapStorage extends MapStorage {
         }
     }
 
+    // Delete directory tree: File.delete() removes a file or an empty directory in one call, so only the
+    // directories need to be listed
+    private static void deleteTree(File dir) {
+        String[] dirlst = dir.list();
+        if (dirlst != null) {
+            for (String fn : dirlst) {
+                File f = new File(dir, fn);
+                if (f.delete() == false) {
+                    deleteTree(f);
+                }
+            }
+        }
+        dir.delete();
+    }
+
     private void processPurgeMapTiles(DynmapWorld world, MapType map, File base, ImageVariant var) {
         String mname = map.getPrefix() + var.variantSuffix;
-        // Clean up hash files
+        // Clean up hash files of map (keyed by map prefix only, so shared by its variants)
+        Pattern hashname = Pattern.compile(Pattern.quote(map.getPrefix()) + "_-?\\d+_-?\\d+\\.hash(64)?");
         String[] hlist = base.list();
         if (hlist != null) {
             for (String h : hlist) {
-                if (h.endsWith(".hash") == false) continue;
-                if (h.startsWith(mname + "_")) continue;
+                if (hashname.matcher(h).matches() == false) continue;
                 File f = new File(base, h);
                 f.delete();
             }
         }
+        hashmap = new TileHashManager(baseTileDir, true, getImageHash().getSize());   // Drop cached hash codes
+        regionInfo.clear();
         File bdir = new File(base, mname);
-        if (bdir.isDirectory() == false) return;
-
-        LinkedList<File> dirs = new LinkedList<File>(); // List to traverse
-        LinkedList<File> dirsdone = new LinkedList<File>();
-        dirs.add(bdir);   // Directory for map
-        // While more paths to handle
-        while (dirs.isEmpty() == false) {
-            File dir = dirs.pop();
-            dirsdone.add(dir);
-            String[] dirlst = dir.list();
-            if (dirlst == null) continue;
-            for (String fn : dirlst) {
-                if (fn.equals(".") || fn.equals(".."))
-                    continue;
-                File f = new File(dir, fn);
-                if (f.isDirectory()) {   /* If directory, add to list to process */
-                    dirs.add(f);
-                } else {  /* Else, file - cleanup */
-                    f.delete();
-                }
+        String[] dirlst = bdir.list();
+        if (dirlst == null) return;
+        // Delete region directories in parallel
+        ForkJoinPool pool = getScanPool();
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (String fn : dirlst) {
+            final File f = new File(bdir, fn);
+            if (f.delete() == false) {
+                tasks.add(pool.submit(() -> deleteTree(f)));
             }
         }
-        // Clean up directories, in reverse order of traverse
-        int cnt = dirsdone.size();
-        for (int i = cnt - 1; i >= 0; i--) {
-            File f = dirsdone.get(i);
-            f.delete();
+        for (ForkJoinTask<?> t : tasks) {
+            t.join();
         }
+        bdir.delete();
     }
 
     @Override
@@ -587,6 +776,7 @@ public class FileTreeMapStorage extends MapStorage {
         byte[] buf = content.getBytes(UTF8);
         boolean done = replaceFile(ff, buf, buf.length);
         releaseWriteLock(baseFilename);
+        markerFileChanged(world);
         return done;
     }
 
@@ -636,36 +826,42 @@ public class FileTreeMapStorage extends MapStorage {
         return replaceFile(f, b, len, System.currentTimeMillis());
     }
 
+    // Write new file, creating its directory if missing (instead of checking for it on every write)
+    private static void writeNewFile(Path p, byte[] b, int len) throws IOException {
+        FileChannel fc;
+        try {
+            fc = FileChannel.open(p, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (NoSuchFileException nsfx) {
+            Files.createDirectories(p.getParent());
+            fc = FileChannel.open(p, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        try {
+            ByteBuffer bb = ByteBuffer.wrap(b, 0, len);
+            while (bb.hasRemaining()) {
+                fc.write(bb);
+            }
+        } finally {
+            fc.close();
+        }
+    }
+
     private boolean replaceFile(File f, byte[] b, int len, long timestamp) {
-        boolean done = false;
-        File fold = new File(f.getPath() + ".old");
-        File fnew = new File(f.getPath() + ".new");
+        Path p = f.toPath();
+        Path pnew = p.resolveSibling(p.getFileName() + ".new");
         int retrycnt = 0;
-        while (!done) {
-            RandomAccessFile raf = null;
+        while (true) {
             try {
-                raf = new RandomAccessFile(fnew, "rw");
-                raf.write(b, 0, len);
-                raf.close();
-                raf = null;
-                // Now swap names
-                if (f.exists()) {
-                    f.renameTo(fold);
-                    fnew.renameTo(f);
-                    fold.delete();
-                } else {
-                    fnew.renameTo(f);
+                writeNewFile(pnew, b, len);
+                // Now swap names: rename replaces the old file in one step
+                try {
+                    Files.move(pnew, p, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException amnsx) {
+                    Files.move(pnew, p, StandardCopyOption.REPLACE_EXISTING);
                 }
                 // Use the supplied timestamp
                 f.setLastModified(timestamp);
-                done = true;
+                return true;
             } catch (IOException iox) {
-                if (raf != null) {
-                    try {
-                        raf.close();
-                    } catch (IOException x) {
-                    }
-                }
                 if (retrycnt < MAX_WRITE_RETRIES) {
                     Debug.debug("Image file " + f.getPath() + " - unable to write - retry #" + retrycnt);
                     try {
@@ -680,7 +876,6 @@ public class FileTreeMapStorage extends MapStorage {
                 }
             }
         }
-        return true;
     }
 
     @Override
@@ -15,20 +15,23 @@ import java.util.Arrays;
 public class TileHashManager {
     private File tiledir;    /* Base tile directory */
     private boolean enabled;
+    private int hashsize;    /* Bytes per hash code: 4 (".hash" files) or 8 (".hash64" files) */
 
     /**
-     * Each tile hash file is a 32x32 tile grid, with each file having a CRC32 hash code generated from its pre-compression frame buffer
+     * Each tile hash file is a 32x32 tile grid, with each file having a hash code generated from its pre-compression frame buffer
      */
     private static class TileHashFile {
         final String key;
         final int x;  /* minimum tile coordinate / 32 */
         final int y;  /* minimum tile coordinate / 32 */
+        final int size;  /* bytes per hash code */
         private File hf;
 
-        TileHashFile(String key, int x, int y) {
+        TileHashFile(String key, int x, int y, int size) {
             this.key = key;
             this.x = x;
             this.y = y;
+            this.size = size;
         }
 
         @Override
@@ -44,15 +47,19 @@ public class TileHashManager {
             return key.hashCode() ^ (x << 16) ^ y;
         }
 
+        private File getHashFile(File tiledir, int size) {
+            String k;
+            int idx = key.lastIndexOf('.'); /* Find last '.' - world name split (allows dots in world name) */
+            if (idx > 0)
+                k = key.substring(0, idx) + File.separatorChar + key.substring(idx + 1);
+            else
+                k = key;
+            return new File(tiledir, k + "_" + x + "_" + y + ((size == 8) ? ".hash64" : ".hash"));
+        }
+
         public File getHashFile(File tiledir) {
             if (hf == null) {
-                String k;
-                int idx = key.lastIndexOf('.'); /* Find last '.' - world name split (allows dots in world name) */
-                if (idx > 0)
-                    k = key.substring(0, idx) + File.separatorChar + key.substring(idx + 1);
-                else
-                    k = key;
-                hf = new File(tiledir, k + "_" + x + "_" + y + ".hash");
+                hf = getHashFile(tiledir, size);
             }
             return hf;
         }
@@ -108,23 +115,25 @@ public class TileHashManager {
             if (!success) {
                 Arrays.fill(crcbuf, (byte) 0xFF);
                 writeToFile(tiledir, crcbuf);
+                /* Drop file of the other hash size, if hash algorithm has been changed - its codes will never match */
+                getHashFile(tiledir, (size == 8) ? 4 : 8).delete();
             }
         }
 
         /* Read CRC */
         public long getCRC(int tx, int ty, byte[] crcbuf) {
-            int off = (128 * (ty & 0x1F)) + (4 * (tx & 0x1F));
+            int off = size * ((32 * (ty & 0x1F)) + (tx & 0x1F));
             long crc = 0;
-            for (int i = 0; i < 4; i++)
+            for (int i = 0; i < size; i++)
                 crc = (crc << 8) + (0xFF & (int) crcbuf[off + i]);
             return crc;
         }
 
         /* Set CRC */
         public void setCRC(int tx, int ty, byte[] crcbuf, long crc) {
-            int off = (128 * (ty & 0x1F)) + (4 * (tx & 0x1F));
-            for (int i = 0; i < 4; i++)
-                crcbuf[off + i] = (byte) ((crc >> ((3 - i) * 8)) & 0xFF);
+            int off = size * ((32 * (ty & 0x1F)) + (tx & 0x1F));
+            for (int i = 0; i < size; i++)
+                crcbuf[off + i] = (byte) ((crc >> ((size - 1 - i) * 8)) & 0xFF);
         }
     }
 
@@ -133,8 +142,13 @@ public class TileHashManager {
     private LRULinkedHashMap<TileHashFile, byte[]> tilehash = new LRULinkedHashMap<TileHashFile, byte[]>(MAX_CACHED_TILEHASHFILES);
 
     public TileHashManager(File tileroot, boolean enabled) {
+        this(tileroot, enabled, 4);
+    }
+
+    public TileHashManager(File tileroot, boolean enabled, int hashsize) {
         tiledir = tileroot;
         this.enabled = enabled;
+        this.hashsize = hashsize;
     }
 
     /* Read cached hashcode for given tile */
@@ -142,11 +156,11 @@ public class TileHashManager {
         if (!enabled) {
             return -1;  /* Return value that never matches */
         }
-        TileHashFile thf = new TileHashFile(key, tx >> 5, ty >> 5);
+        TileHashFile thf = new TileHashFile(key, tx >> 5, ty >> 5, hashsize);
         synchronized (lock) {
             byte[] crcbuf = tilehash.get(thf);  /* See if we have it cached */
             if (crcbuf == null) {    /* If not in cache, load it */
-                crcbuf = new byte[32 * 32 * 4]; /* Get our space */
+                crcbuf = new byte[32 * 32 * hashsize]; /* Get our space */
                 Arrays.fill(crcbuf, (byte) 0xFF);    /* Fill with -1 */
                 tilehash.put(thf, crcbuf);  /* Add to cache */
                 thf.readFromFile(tiledir, crcbuf);
@@ -161,10 +175,10 @@ public class TileHashManager {
             return;
         synchronized (lock) {
             /* Now, find and check existing value */
-            TileHashFile thf = new TileHashFile(key, tx >> 5, ty >> 5);
+            TileHashFile thf = new TileHashFile(key, tx >> 5, ty >> 5, hashsize);
             byte[] crcbuf = tilehash.get(thf);  /* See if we have it cached */
             if (crcbuf == null) {    /* If not in cache, load it */
-                crcbuf = new byte[32 * 32 * 4]; /* Get our space */
+                crcbuf = new byte[32 * 32 * hashsize]; /* Get our space */
                 tilehash.put(thf, crcbuf);  /* Add to cache */
                 thf.readFromFile(tiledir, crcbuf);
             }
@@ -38,6 +38,7 @@ public class MicrosoftSQLMapStorage extends MapStorage {
     private long[] cpoolLastUseTS = new long[POOLSIZE];    // Time when last returned to pool
     private static final long IDLE_TIMEOUT = 60000;    // Use 60 second timeout
     private int cpoolCount = 0;
+    private SQLRenderLeases leases;
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     public class StorageTile extends MapStorageTile {
@@ -137,6 +138,28 @@ public class MicrosoftSQLMapStorage extends MapStorage {
             return rslt;
         }
 
+        @Override
+        public TileMetadata readMetadata() {
+            if (mapkey == null) return null;
+            TileMetadata rslt = null;
+            Connection c = null;
+            boolean err = false;
+            try {
+                c = getConnection();
+                Statement stmt = c.createStatement();
+                ResultSet rs = stmt.executeQuery(getTileMetadataQuery(tableTiles, mapkey, x, y, zoom));
+                rslt = readTileMetadata(rs);
+                rs.close();
+                stmt.close();
+            } catch (SQLException x) {
+                logSQLException("Tile read metadata error", x);
+                err = true;
+            } finally {
+                releaseConnection(c, err);
+            }
+            return rslt;
+        }
+
         @Override
         public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
             if (mapkey == null) return false;
@@ -193,22 +216,22 @@ public class MicrosoftSQLMapStorage extends MapStorage {
 
         @Override
         public boolean getWriteLock() {
-            return MicrosoftSQLMapStorage.this.getWriteLock(uri);
+            return MicrosoftSQLMapStorage.this.getWriteLock(this);
         }
 
         @Override
         public void releaseWriteLock() {
-            MicrosoftSQLMapStorage.this.releaseWriteLock(uri);
+            MicrosoftSQLMapStorage.this.releaseWriteLock(this);
         }
 
         @Override
         public boolean getReadLock(long timeout) {
-            return MicrosoftSQLMapStorage.this.getReadLock(uri, timeout);
+            return MicrosoftSQLMapStorage.this.getReadLock(this, timeout);
         }
 
         @Override
         public void releaseReadLock() {
-            MicrosoftSQLMapStorage.this.releaseReadLock(uri);
+            MicrosoftSQLMapStorage.this.releaseReadLock(this);
         }
 
         @Override
@@ -277,13 +300,13 @@ public class MicrosoftSQLMapStorage extends MapStorage {
         if (!super.init(core)) {
             return false;
         }
-        database = core.configuration.getString("storage/database", "dynmap");
-        hostname = core.configuration.getString("storage/hostname", "localhost");
-        port = core.configuration.getInteger("storage/port", 1433);
-        userid = core.configuration.getString("storage/userid", "dynmap");
-        password = core.configuration.getString("storage/password", "dynmap");
-        prefix = core.configuration.getString("storage/prefix", "");
-        flags = core.configuration.getString("storage/flags", ";trustServerCertificate=true");
+        database = config.getString("database", "dynmap");
+        hostname = config.getString("hostname", "localhost");
+        port = config.getInteger("port", 1433);
+        userid = config.getString("userid", "dynmap");
+        password = config.getString("password", "dynmap");
+        prefix = config.getString("prefix", "");
+        flags = config.getString("flags", ";trustServerCertificate=true");
         tableTiles = prefix + "Tiles";
         tableMaps = prefix + "Maps";
         tableFaces = prefix + "Faces";
@@ -516,6 +539,22 @@ public class MicrosoftSQLMapStorage extends MapStorage {
         return true;
     }
 
+    @Override
+    public synchronized RenderLeases getRenderLeases() {
+        if (leases == null) {
+            leases = new SQLRenderLeases(this, prefix + "RenderLeases", new SQLRenderLeases.ConnectionSource() {
+                public Connection getConnection() throws SQLException, StorageShutdownException {
+                    return MicrosoftSQLMapStorage.this.getConnection();
+                }
+
+                public void releaseConnection(Connection c, boolean err) {
+                    MicrosoftSQLMapStorage.this.releaseConnection(c, err);
+                }
+            });
+        }
+        return leases;
+    }
+
     private Connection getConnection() throws SQLException {
         Connection c = null;
         synchronized (cpool) {
@@ -979,6 +1018,7 @@ public class MicrosoftSQLMapStorage extends MapStorage {
             }
             releaseConnection(c, err);
         }
+        markerFileChanged(world);
         return !err;
     }
 
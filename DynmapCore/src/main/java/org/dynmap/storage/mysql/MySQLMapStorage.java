@@ -38,6 +38,7 @@ public class MySQLMapStorage extends MapStorage {
     private long[] cpoolLastUseTS = new long[POOLSIZE];    // Time when last returned to pool
     private static final long IDLE_TIMEOUT = 60000;    // Use 60 second timeout
     private int cpoolCount = 0;
+    private SQLRenderLeases leases;
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     public class StorageTile extends MapStorageTile {
@@ -144,6 +145,30 @@ public class MySQLMapStorage extends MapStorage {
             return rslt;
         }
 
+        @Override
+        public TileMetadata readMetadata() {
+            if (mapkey == null) return null;
+            TileMetadata rslt = null;
+            Connection c = null;
+            boolean err = false;
+            try {
+                c = getConnection();
+                Statement stmt = c.createStatement();
+                ResultSet rs = stmt.executeQuery(getTileMetadataQuery(tableTiles, mapkey, x, y, zoom));
+                rslt = readTileMetadata(rs);
+                rs.close();
+                stmt.close();
+            } catch (SQLException x) {
+                logSQLException("Tile read metadata error", x);
+                err = true;
+            } catch (StorageShutdownException x) {
+                err = true;
+            } finally {
+                releaseConnection(c, err);
+            }
+            return rslt;
+        }
+
         @Override
         public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
             if (mapkey == null) return false;
@@ -202,22 +227,22 @@ public class MySQLMapStorage extends MapStorage {
 
         @Override
         public boolean getWriteLock() {
-            return MySQLMapStorage.this.getWriteLock(uri);
+            return MySQLMapStorage.this.getWriteLock(this);
         }
 
         @Override
         public void releaseWriteLock() {
-            MySQLMapStorage.this.releaseWriteLock(uri);
+            MySQLMapStorage.this.releaseWriteLock(this);
         }
 
         @Override
         public boolean getReadLock(long timeout) {
-            return MySQLMapStorage.this.getReadLock(uri, timeout);
+            return MySQLMapStorage.this.getReadLock(this, timeout);
         }
 
         @Override
         public void releaseReadLock() {
-            MySQLMapStorage.this.releaseReadLock(uri);
+            MySQLMapStorage.this.releaseReadLock(this);
         }
 
         @Override
@@ -286,13 +311,13 @@ public class MySQLMapStorage extends MapStorage {
         if (!super.init(core)) {
             return false;
         }
-        database = core.configuration.getString("storage/database", "dynmap");
-        hostname = core.configuration.getString("storage/hostname", "localhost");
-        port = core.configuration.getInteger("storage/port", 3306);
-        userid = core.configuration.getString("storage/userid", "dynmap");
-        password = core.configuration.getString("storage/password", "dynmap");
-        prefix = core.configuration.getString("storage/prefix", "");
-        flags = core.configuration.getString("storage/flags", "?allowReconnect=true&autoReconnect=true");
+        database = config.getString("database", "dynmap");
+        hostname = config.getString("hostname", "localhost");
+        port = config.getInteger("port", 3306);
+        userid = config.getString("userid", "dynmap");
+        password = config.getString("password", "dynmap");
+        prefix = config.getString("prefix", "");
+        flags = config.getString("flags", "?allowReconnect=true&autoReconnect=true");
         tableTiles = prefix + "Tiles";
         tableMaps = prefix + "Maps";
         tableFaces = prefix + "Faces";
@@ -635,6 +660,22 @@ public class MySQLMapStorage extends MapStorage {
         return true;
     }
 
+    @Override
+    public synchronized RenderLeases getRenderLeases() {
+        if (leases == null) {
+            leases = new SQLRenderLeases(this, prefix + "RenderLeases", new SQLRenderLeases.ConnectionSource() {
+                public Connection getConnection() throws SQLException, StorageShutdownException {
+                    return MySQLMapStorage.this.getConnection();
+                }
+
+                public void releaseConnection(Connection c, boolean err) {
+                    MySQLMapStorage.this.releaseConnection(c, err);
+                }
+            });
+        }
+        return leases;
+    }
+
     private Connection getConnection() throws SQLException, StorageShutdownException {
         Connection c = null;
         if (isShutdown) {
@@ -1108,6 +1149,7 @@ public class MySQLMapStorage extends MapStorage {
             }
             releaseConnection(c, err);
         }
+        markerFileChanged(world);
         return !err;
     }
 
@@ -0,0 +1,403 @@
+package org.dynmap.storage.packed;
+
+import org.dynmap.DynmapCore;
+import org.dynmap.DynmapWorld;
+import org.dynmap.Log;
+import org.dynmap.MapType;
+import org.dynmap.MapType.ImageEncoding;
+import org.dynmap.MapType.ImageVariant;
+import org.dynmap.storage.MapStorageBaseTileEnumCB;
+import org.dynmap.storage.MapStorageTile;
+import org.dynmap.storage.MapStorageTileEnumCB;
+import org.dynmap.storage.MapStorageTileSearchEndCB;
+import org.dynmap.storage.filetree.FileTreeMapStorage;
+import org.dynmap.utils.BufferInputStream;
+import org.dynmap.utils.BufferOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Map storage keeping the tiles of each 32x32 tile region of a map, for all zoom levels, in one archive file
+ * ({@code <world>/<map>/<rx>_<ry>.pack} under the tiles directory) instead of a file per tile.  Player faces, marker
+ * images and marker files are stored as files, as with the file tree storage.
+ * <p>
+ * Tiles are not files the web server can serve directly, so they are served through the internal web server.
+ */
+public class PackedMapStorage extends FileTreeMapStorage {
+    private static final int MAX_OPEN_ARCHIVES = 128;
+    private File baseTileDir;
+    // Open archives, least recently used first.  An archive in use is never dropped for the cache limit: a second
+    // instance opened on the same file would allocate space with an index of its own.
+    private final LinkedHashMap<File, TileArchive> archives = new LinkedHashMap<File, TileArchive>(16, 0.75f, true);
+
+    public class StorageTile extends MapStorageTile {
+        private final String baseFilename;
+        private final String uri;
+        private final File archiveFile;
+        private final int slot;
+
+        StorageTile(DynmapWorld world, MapType map, int x, int y,
+                    int zoom, ImageVariant var) {
+            super(world, map, x, y, zoom, var);
+            String baseURI;
+            if (zoom > 0) {
+                baseURI = map.getPrefix() + var.variantSuffix + "/" + (x >> 5) + "_" + (y >> 5) + "/" + "zzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzz".substring(0, zoom) + "_" + x + "_" + y;
+            } else {
+                baseURI = map.getPrefix() + var.variantSuffix + "/" + (x >> 5) + "_" + (y >> 5) + "/" + x + "_" + y;
+            }
+            baseFilename = world.getName() + "/" + baseURI;
+            uri = baseURI + "." + map.getImageFormat().getFileExt();
+            archiveFile = getArchiveFile(world, map, var, x >> 5, y >> 5);
+            slot = TileArchive.getSlot(x, y, zoom);
+        }
+
+        @Override
+        public boolean exists() {
+            return readMetadata() != null;
+        }
+
+        @Override
+        public boolean matchesHashCode(long hash) {
+            TileArchive.Entry e = readEntry(false);
+            return (e != null) && (e.format == map.getImageFormat().getEncoding().ordinal()) && (e.hash == hash);
+        }
+
+        @Override
+        public TileRead read() {
+            TileArchive.Entry e = readEntry(true);
+            if (e == null) {
+                return null;
+            }
+            TileRead tr = new TileRead();
+            tr.image = new BufferInputStream(e.image);
+            tr.format = ImageEncoding.fromOrd(e.format);
+            tr.hashCode = e.hash;
+            tr.lastModified = e.timestamp;
+            return tr;
+        }
+
+        @Override
+        public TileMetadata readMetadata() {
+            TileArchive.Entry e = readEntry(false);
+            if (e == null) {
+                return null;
+            }
+            TileMetadata md = new TileMetadata();
+            md.hashCode = e.hash;
+            md.lastModified = e.timestamp;
+            return md;
+        }
+
+        private TileArchive.Entry readEntry(boolean withImage) {
+            if (slot < 0) {
+                return null;
+            }
+            TileArchive ta = acquireArchive(archiveFile, false);
+            if (ta == null) {
+                return null;
+            }
+            try {
+                return withImage ? ta.read(slot) : ta.readMetadata(slot);
+            } catch (IOException iox) {
+                Log.info("read (" + baseFilename + ") failed = " + iox.getMessage());
+                return null;
+            } finally {
+                releaseArchive(ta);
+            }
+        }
+
+        @Override
+        public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
+            if (slot < 0) {
+                Log.info("Tile " + baseFilename + " - not a valid tile position");
+                return false;
+            }
+            TileArchive ta = acquireArchive(archiveFile, encImage != null);
+            if (ta != null) {
+                try {
+                    if (encImage == null) { // Delete?
+                        ta.delete(slot);
+                    } else {
+                        ta.write(slot, encImage.buf, encImage.len, hash, timestamp, map.getImageFormat().getEncoding().ordinal());
+                    }
+                } catch (IOException iox) {
+                    Log.info("Tile " + baseFilename + " - unable to write - " + iox.getMessage());
+                    return false;
+                } finally {
+                    releaseArchive(ta);
+                }
+            } else if (encImage != null) {
+                return false;
+            }
+            // Signal update for zoom out
+            if (zoom == 0) {
+                world.enqueueZoomOutUpdate(this);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean getWriteLock() {
+            return PackedMapStorage.this.getWriteLock(this);
+        }
+
+        @Override
+        public void releaseWriteLock() {
+            PackedMapStorage.this.releaseWriteLock(this);
+        }
+
+        @Override
+        public boolean getReadLock(long timeout) {
+            return PackedMapStorage.this.getReadLock(this, timeout);
+        }
+
+        @Override
+        public void releaseReadLock() {
+            PackedMapStorage.this.releaseReadLock(this);
+        }
+
+        @Override
+        public void cleanup() {
+        }
+
+        @Override
+        public String getURI() {
+            return uri;
+        }
+
+        @Override
+        public void enqueueZoomOutUpdate() {
+            world.enqueueZoomOutUpdate(this);
+        }
+
+        @Override
+        public MapStorageTile getZoomOutTile() {
+            int xx, yy;
+            int step = 1 << zoom;
+            if (x >= 0)
+                xx = x - (x % (2 * step));
+            else
+                xx = x + (x % (2 * step));
+            yy = -y;
+            if (yy >= 0)
+                yy = yy - (yy % (2 * step));
+            else
+                yy = yy + (yy % (2 * step));
+            yy = -yy;
+            return new StorageTile(world, map, xx, yy, zoom + 1, var);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof StorageTile) {
+                StorageTile st = (StorageTile) o;
+                return baseFilename.equals(st.baseFilename);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return baseFilename.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return baseFilename;
+        }
+    }
+
+    public PackedMapStorage() {
+    }
+
+    @Override
+    public boolean init(DynmapCore core) {
+        if (!super.init(core)) {
+            return false;
+        }
+        baseTileDir = core.getDynmapTileDirectory();
+        Log.info("Using packed tile archives in " + baseTileDir.getPath() + " as map store");
+        return true;
+    }
+
+    @Override
+    public void shutdownStorage() {
+        super.shutdownStorage();
+        synchronized (archives) {
+            for (TileArchive ta : archives.values()) {
+                evict(ta);
+            }
+            archives.clear();
+        }
+    }
+
+    private File getMapDirectory(DynmapWorld world, MapType map, ImageVariant var) {
+        return new File(baseTileDir, world.getName() + "/" + map.getPrefix() + var.variantSuffix);
+    }
+
+    private File getArchiveFile(DynmapWorld world, MapType map, ImageVariant var, int rx, int ry) {
+        return new File(getMapDirectory(world, map, var), rx + "_" + ry + TileArchive.FILE_EXT);
+    }
+
+    // Get open archive (counting the caller as a user, until releaseArchive)
+    private TileArchive acquireArchive(File f, boolean create) {
+        synchronized (archives) {
+            TileArchive ta = archives.get(f);
+            if (ta == null) {
+                ta = TileArchive.open(f, create);
+                if (ta == null) {
+                    return null;
+                }
+                archives.put(f, ta);
+                // Close least recently used archives not in use, if over limit
+                Iterator<TileArchive> iter = archives.values().iterator();
+                while ((archives.size() > MAX_OPEN_ARCHIVES) && iter.hasNext()) {
+                    TileArchive old = iter.next();
+                    if (old.users == 0) {
+                        old.close();
+                        iter.remove();
+                    }
+                }
+            }
+            ta.users++;
+            return ta;
+        }
+    }
+
+    private void releaseArchive(TileArchive ta) {
+        synchronized (archives) {
+            ta.users--;
+            if (ta.evicted && (ta.users == 0)) {
+                ta.close();
+            }
+        }
+    }
+
+    // Drop archive from cache (purge, shutdown): closed now if unused, else by its last user (called with archives lock held)
+    private static void evict(TileArchive ta) {
+        ta.evicted = true;
+        if (ta.users == 0) {
+            ta.close();
+        }
+    }
+
+    @Override
+    public MapStorageTile getTile(DynmapWorld world, MapType map, int x, int y,
+                                  int zoom, ImageVariant var) {
+        return new StorageTile(world, map, x, y, zoom, var);
+    }
+
+    // List archives of map, with their region coordinates
+    private List<int[]> listArchives(File dir) {
+        List<int[]> rslt = new ArrayList<int[]>();
+        String[] lst = dir.list();
+        if (lst == null) {
+            return rslt;
+        }
+        for (String fn : lst) {
+            if (!fn.endsWith(TileArchive.FILE_EXT)) continue;
+            String[] coord = fn.substring(0, fn.length() - TileArchive.FILE_EXT.length()).split("_");
+            if (coord.length != 2) continue;
+            try {
+                rslt.add(new int[]{Integer.parseInt(coord[0]), Integer.parseInt(coord[1])});
+            } catch (NumberFormatException nfx) {
+            }
+        }
+        return rslt;
+    }
+
+    private void processEnumMapTiles(DynmapWorld world, MapType map, ImageVariant var, MapStorageTileEnumCB cb, MapStorageBaseTileEnumCB cbBase, MapStorageTileSearchEndCB cbEnd) {
+        File dir = getMapDirectory(world, map, var);
+        for (int[] rc : listArchives(dir)) {
+            TileArchive ta = acquireArchive(getArchiveFile(world, map, var, rc[0], rc[1]), false);
+            if (ta == null) continue;
+            List<TileArchive.Entry> entries;
+            try {
+                entries = ta.getEntries();
+            } finally {
+                releaseArchive(ta);
+            }
+            for (TileArchive.Entry e : entries) {
+                ImageEncoding fmt = ImageEncoding.fromOrd(e.format);
+                if (fmt == null) continue;
+                int zoom = TileArchive.getSlotZoom(e.slot);
+                if ((cb == null) && (zoom > 0)) continue;
+                // Invoke callback
+                MapStorageTile t = new StorageTile(world, map, TileArchive.getSlotX(e.slot, rc[0]), TileArchive.getSlotY(e.slot, rc[1]), zoom, var);
+                if (cb != null)
+                    cb.tileFound(t, fmt);
+                if (cbBase != null && t.zoom == 0)
+                    cbBase.tileFound(t, fmt);
+                t.cleanup();
+            }
+        }
+        if (cbEnd != null) {
+            cbEnd.searchEnded();
+        }
+    }
+
+    private List<MapType> getMapList(DynmapWorld world, MapType map) {
+        if (map != null) {
+            return Collections.singletonList(map);
+        }
+        return new ArrayList<MapType>(world.maps);
+    }
+
+    @Override
+    public void enumMapTiles(DynmapWorld world, MapType map, MapStorageTileEnumCB cb) {
+        for (MapType mt : getMapList(world, map)) {
+            ImageVariant[] vars = mt.getVariants();
+            for (ImageVariant var : vars) {
+                processEnumMapTiles(world, mt, var, cb, null, null);
+            }
+        }
+    }
+
+    @Override
+    public void enumMapBaseTiles(DynmapWorld world, MapType map, MapStorageBaseTileEnumCB cbBase, MapStorageTileSearchEndCB cbEnd) {
+        for (MapType mt : getMapList(world, map)) {
+            ImageVariant[] vars = mt.getVariants();
+            for (ImageVariant var : vars) {
+                processEnumMapTiles(world, mt, var, null, cbBase, cbEnd);
+            }
+        }
+    }
+
+    @Override
+    public void purgeMapTiles(DynmapWorld world, MapType map) {
+        for (MapType mt : getMapList(world, map)) {
+            ImageVariant[] vars = mt.getVariants();
+            for (ImageVariant var : vars) {
+                File dir = getMapDirectory(world, mt, var);
+                // Close archives of map before deleting them
+                synchronized (archives) {
+                    Iterator<Map.Entry<File, TileArchive>> iter = archives.entrySet().iterator();
+                    while (iter.hasNext()) {
+                        TileArchive ta = iter.next().getValue();
+                        if (dir.equals(ta.getFile().getParentFile())) {
+                            evict(ta);
+                            iter.remove();
+                        }
+                    }
+                }
+                for (int[] rc : listArchives(dir)) {
+                    getArchiveFile(world, mt, var, rc[0], rc[1]).delete();
+                }
+                dir.delete();   // Only if empty: leaves any file tree tiles alone
+            }
+        }
+    }
+
+    @Override
+    // For external web server only
+    public String getTilesURI(boolean login_enabled) {
+        return "tiles/";    // Tiles are only served by the internal web server
+    }
+}
@@ -0,0 +1,446 @@
+package org.dynmap.storage.packed;
+
+import org.dynmap.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Archive file holding all tiles of one 32x32 tile region of a map (the same grouping as the file tree's
+ * {@code x>>5}_{@code y>>5} directories), for every zoom level.
+ * <p>
+ * The file starts with a fixed index - one entry per possible tile of the region, holding the tile's image offset,
+ * length and allocated capacity, hash code, timestamp and format - followed by the image data.  The index is kept
+ * in memory while the archive is open, so looking up a tile costs no I/O and reading one costs a single positional
+ * read.  Images are rewritten in place when they fit their extent (allocated with some slack), else moved to a free
+ * extent or the end of the file; freed extents are reused and merged, and the file is truncated when its end frees
+ * up.  Data is always written before the index entry pointing to it, and a moved image's old extent is only freed
+ * once the entry no longer points to it, so an interrupted write never leaves an entry pointing at another tile.
+ */
+public class TileArchive {
+    public static final String FILE_EXT = ".pack";
+
+    private static final int MAGIC = 0x44504B31;   // "DPK1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;  // magic, version, slot count, reserved
+    private static final int ENTRY_SIZE = 40;   // offset(8), length(4), capacity(4), hash(8), timestamp(8), format(4), reserved(4)
+    private static final int REGION_BITS = 5;
+    private static final int MAX_ZOOM = 32;     // As many as the file tree's "zzz..." prefixes allow
+    private static final int ALLOC_UNIT = 512;
+    private static final int[] zoomBase = new int[MAX_ZOOM + 1];
+    private static final int SLOTS;
+    private static final long DATA_START;
+
+    static {
+        int cnt = 0;
+        for (int z = 0; z <= MAX_ZOOM; z++) {
+            zoomBase[z] = cnt;
+            int n = 1 << (REGION_BITS - Math.min(z, REGION_BITS));
+            cnt += n * n;
+        }
+        SLOTS = zoomBase[MAX_ZOOM];
+        long idxend = HEADER_SIZE + ((long) SLOTS * ENTRY_SIZE);
+        DATA_START = (idxend + 4095) & ~4095L;
+    }
+
+    /**
+     * Tile stored in archive
+     */
+    public static class Entry {
+        public int slot;
+        public long hash;
+        public long timestamp;
+        public int format;  // ImageEncoding ordinal
+        public byte[] image;    // Only set by read()
+    }
+
+    private final File file;
+    private final FileChannel fc;
+    private final ByteBuffer index;
+    private final TreeMap<Long, Long> free = new TreeMap<Long, Long>(); // Free extents: offset to size
+    private long fileEnd;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Managed by the archive cache of the storage (under its lock)
+    int users;
+    boolean evicted;
+
+    private TileArchive(File file, FileChannel fc, ByteBuffer index, long fileEnd) {
+        this.file = file;
+        this.fc = fc;
+        this.index = index;
+        this.fileEnd = fileEnd;
+    }
+
+    /**
+     * Open archive file
+     *
+     * @param f      - archive file
+     * @param create - if true, create archive if it does not exist
+     * @return archive, or null if not found (and not created) or not usable
+     */
+    public static TileArchive open(File f, boolean create) {
+        if (!f.isFile()) {
+            if (!create) {
+                return null;
+            }
+            File pf = f.getParentFile();
+            if (!pf.exists()) {
+                pf.mkdirs();
+            }
+        }
+        FileChannel fc = null;
+        try {
+            fc = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            ByteBuffer idx = ByteBuffer.allocate((int) DATA_START);
+            long size = fc.size();
+            if (size == 0) {    // New archive: write empty index
+                idx.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, SLOTS);
+                writeFully(fc, idx.duplicate(), 0);
+                size = DATA_START;
+            } else {
+                readFully(fc, idx.duplicate(), 0);
+                if ((idx.getInt(0) != MAGIC) || (idx.getInt(4) != VERSION) || (idx.getInt(8) != SLOTS)) {
+                    Log.severe("Tile archive " + f.getPath() + " has invalid header - not usable");
+                    fc.close();
+                    return null;
+                }
+            }
+            TileArchive ta = new TileArchive(f, fc, idx, size);
+            ta.buildFreeList();
+            return ta;
+        } catch (IOException iox) {
+            Log.severe("Error opening tile archive " + f.getPath() + " - " + iox.getMessage());
+            if (fc != null) {
+                try {
+                    fc.close();
+                } catch (IOException x) {
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Get archive index slot for tile
+     *
+     * @param x    - tile X coordinate
+     * @param y    - tile Y coordinate
+     * @param zoom - zoom level
+     * @return slot, or -1 if not a valid tile position
+     */
+    public static int getSlot(int x, int y, int zoom) {
+        if ((zoom < 0) || (zoom >= MAX_ZOOM)) {
+            return -1;
+        }
+        int zs = Math.min(zoom, REGION_BITS);
+        if (((x | y) & ((1 << zs) - 1)) != 0) {   // Zoomed out tiles are aligned to their size
+            return -1;
+        }
+        int rmask = (1 << REGION_BITS) - 1;
+        int n = 1 << (REGION_BITS - zs);
+        return zoomBase[zoom] + (((y & rmask) >> zs) * n) + ((x & rmask) >> zs);
+    }
+
+    /**
+     * Get zoom level of slot
+     *
+     * @param slot - slot
+     * @return zoom level
+     */
+    public static int getSlotZoom(int slot) {
+        int z = 0;
+        while (slot >= zoomBase[z + 1]) {
+            z++;
+        }
+        return z;
+    }
+
+    /**
+     * Get tile X coordinate of slot
+     *
+     * @param slot - slot
+     * @param rx   - region X coordinate (tile X coordinate >> 5)
+     * @return tile X coordinate
+     */
+    public static int getSlotX(int slot, int rx) {
+        int z = getSlotZoom(slot);
+        int zs = Math.min(z, REGION_BITS);
+        int n = 1 << (REGION_BITS - zs);
+        return (rx << REGION_BITS) + (((slot - zoomBase[z]) % n) << zs);
+    }
+
+    /**
+     * Get tile Y coordinate of slot
+     *
+     * @param slot - slot
+     * @param ry   - region Y coordinate (tile Y coordinate >> 5)
+     * @return tile Y coordinate
+     */
+    public static int getSlotY(int slot, int ry) {
+        int z = getSlotZoom(slot);
+        int zs = Math.min(z, REGION_BITS);
+        int n = 1 << (REGION_BITS - zs);
+        return (ry << REGION_BITS) + (((slot - zoomBase[z]) / n) << zs);
+    }
+
+    private static int entryPos(int slot) {
+        return HEADER_SIZE + (slot * ENTRY_SIZE);
+    }
+
+    private long getOffset(int slot) {
+        return index.getLong(entryPos(slot));
+    }
+
+    private int getLength(int slot) {
+        return index.getInt(entryPos(slot) + 8);
+    }
+
+    private int getCapacity(int slot) {
+        return index.getInt(entryPos(slot) + 12);
+    }
+
+    private Entry getEntry(int slot) {
+        int pos = entryPos(slot);
+        Entry e = new Entry();
+        e.slot = slot;
+        e.hash = index.getLong(pos + 16);
+        e.timestamp = index.getLong(pos + 24);
+        e.format = index.getInt(pos + 32);
+        return e;
+    }
+
+    /**
+     * Read tile metadata, without the image
+     *
+     * @param slot - slot
+     * @return entry, or null if tile does not exist
+     */
+    public Entry readMetadata(int slot) {
+        lock.readLock().lock();
+        try {
+            return (getLength(slot) > 0) ? getEntry(slot) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Read tile
+     *
+     * @param slot - slot
+     * @return entry, with image, or null if tile does not exist
+     * @throws IOException if read fails
+     */
+    public Entry read(int slot) throws IOException {
+        lock.readLock().lock();
+        try {
+            int len = getLength(slot);
+            if (len <= 0) {
+                return null;
+            }
+            Entry e = getEntry(slot);
+            e.image = new byte[len];
+            readFully(fc, ByteBuffer.wrap(e.image), getOffset(slot));
+            return e;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write tile
+     *
+     * @param slot      - slot
+     * @param buf       - encoded image
+     * @param len       - length of encoded image
+     * @param hash      - hash code of image
+     * @param timestamp - timestamp
+     * @param format    - image format (ImageEncoding ordinal)
+     * @throws IOException if write fails
+     */
+    public void write(int slot, byte[] buf, int len, long hash, long timestamp, int format) throws IOException {
+        lock.writeLock().lock();
+        try {
+            long off = getOffset(slot);
+            int cap = getCapacity(slot);
+            long oldoff = 0;
+            int oldcap = 0;
+            if ((off == 0) || (len > cap)) {   // Doesn't fit: move to new extent
+                oldoff = off;
+                oldcap = cap;
+                cap = allocSize(len);
+                off = allocate(cap);
+            }
+            writeFully(fc, ByteBuffer.wrap(buf, 0, len), off);
+            putEntry(slot, off, len, cap, hash, timestamp, format);
+            if (oldoff != 0) {
+                release(oldoff, oldcap);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Delete tile
+     *
+     * @param slot - slot
+     * @throws IOException if write fails
+     */
+    public void delete(int slot) throws IOException {
+        lock.writeLock().lock();
+        try {
+            long off = getOffset(slot);
+            int cap = getCapacity(slot);
+            if (off == 0) {
+                return;
+            }
+            putEntry(slot, 0, 0, 0, -1, 0, 0);
+            release(off, cap);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get entries of all tiles in archive
+     *
+     * @return list of entries (without images)
+     */
+    public ArrayList<Entry> getEntries() {
+        ArrayList<Entry> rslt = new ArrayList<Entry>();
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (getLength(slot) > 0) {
+                    rslt.add(getEntry(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return rslt;
+    }
+
+    /**
+     * Get archive file
+     *
+     * @return file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Close archive
+     */
+    public void close() {
+        try {
+            fc.close();
+        } catch (IOException iox) {
+            Log.warning("Error closing tile archive " + file.getPath() + " - " + iox.getMessage());
+        }
+    }
+
+    private void putEntry(int slot, long off, int len, int cap, long hash, long timestamp, int format) throws IOException {
+        int pos = entryPos(slot);
+        index.putLong(pos, off).putInt(pos + 8, len).putInt(pos + 12, cap).putLong(pos + 16, hash)
+                .putLong(pos + 24, timestamp).putInt(pos + 32, format);
+        ByteBuffer bb = index.duplicate();
+        bb.limit(pos + ENTRY_SIZE).position(pos);
+        writeFully(fc, bb, pos);
+    }
+
+    // Room for image, with slack for it to grow a little when rewritten
+    private static int allocSize(int len) {
+        int sz = len + (len >> 3);
+        return (sz + ALLOC_UNIT - 1) & ~(ALLOC_UNIT - 1);
+    }
+
+    // First fit from free extents, else from end of file
+    private long allocate(int size) {
+        Iterator<Map.Entry<Long, Long>> iter = free.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Long, Long> ext = iter.next();
+            if (ext.getValue() >= size) {
+                long off = ext.getKey();
+                long rem = ext.getValue() - size;
+                iter.remove();
+                if (rem > 0) {
+                    free.put(off + size, rem);
+                }
+                return off;
+            }
+        }
+        long off = fileEnd;
+        fileEnd += size;
+        return off;
+    }
+
+    // Return extent to free list, merging with neighbors and trimming the end of the file
+    private void release(long off, long size) throws IOException {
+        Map.Entry<Long, Long> prev = free.floorEntry(off);
+        if ((prev != null) && ((prev.getKey() + prev.getValue()) == off)) {
+            free.remove(prev.getKey());
+            off = prev.getKey();
+            size += prev.getValue();
+        }
+        Long next = free.get(off + size);
+        if (next != null) {
+            free.remove(off + size);
+            size += next;
+        }
+        if ((off + size) >= fileEnd) {
+            fileEnd = off;
+            fc.truncate(fileEnd);
+        } else {
+            free.put(off, size);
+        }
+    }
+
+    // Rebuild free extents from the gaps between the extents of the index
+    private void buildFreeList() throws IOException {
+        TreeMap<Long, Long> used = new TreeMap<Long, Long>();
+        for (int slot = 0; slot < SLOTS; slot++) {
+            long off = getOffset(slot);
+            if (off != 0) {
+                used.put(off, (long) getCapacity(slot));
+            }
+        }
+        long pos = DATA_START;
+        for (Map.Entry<Long, Long> ext : used.entrySet()) {
+            if (ext.getKey() > pos) {
+                free.put(pos, ext.getKey() - pos);
+            }
+            pos = Math.max(pos, ext.getKey() + ext.getValue());
+        }
+        if (fileEnd != pos) {   // Drop unreferenced data at end (from interrupted write)
+            fileEnd = pos;
+            fc.truncate(fileEnd);
+        }
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+        while (bb.hasRemaining()) {
+            int n = fc.read(bb, pos);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            pos += n;
+        }
+    }
+
+    private static void writeFully(FileChannel fc, ByteBuffer bb, long pos) throws IOException {
+        while (bb.hasRemaining()) {
+            pos += fc.write(bb, pos);
+        }
+    }
+}
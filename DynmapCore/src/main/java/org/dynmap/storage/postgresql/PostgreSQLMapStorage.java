@@ -39,6 +39,7 @@ public class PostgreSQLMapStorage extends MapStorage {
     private long[] cpoolLastUseTS = new long[POOLSIZE];    // Time when last returned to pool
     private static final long IDLE_TIMEOUT = 60000;    // Use 60 second timeout
     private int cpoolCount = 0;
+    private SQLRenderLeases leases;
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     private HashMap<String, Integer> mapKey = new HashMap<String, Integer>();
@@ -146,6 +147,30 @@ public class PostgreSQLMapStorage extends MapStorage {
             return rslt;
         }
 
+        @Override
+        public TileMetadata readMetadata() {
+            if (mapkey == null) return null;
+            TileMetadata rslt = null;
+            Connection c = null;
+            boolean err = false;
+            try {
+                c = getConnection();
+                Statement stmt = c.createStatement();
+                ResultSet rs = stmt.executeQuery(getTileMetadataQuery(tableTiles, mapkey, x, y, zoom));
+                rslt = readTileMetadata(rs);
+                rs.close();
+                stmt.close();
+            } catch (SQLException x) {
+                logSQLException("Tile read metadata error", x);
+                err = true;
+            } catch (StorageShutdownException x) {
+                err = true;
+            } finally {
+                releaseConnection(c, err);
+            }
+            return rslt;
+        }
+
         @Override
         public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
             if (mapkey == null) return false;
@@ -204,22 +229,22 @@ public class PostgreSQLMapStorage extends MapStorage {
 
         @Override
         public boolean getWriteLock() {
-            return PostgreSQLMapStorage.this.getWriteLock(uri);
+            return PostgreSQLMapStorage.this.getWriteLock(this);
         }
 
         @Override
         public void releaseWriteLock() {
-            PostgreSQLMapStorage.this.releaseWriteLock(uri);
+            PostgreSQLMapStorage.this.releaseWriteLock(this);
         }
 
         @Override
         public boolean getReadLock(long timeout) {
-            return PostgreSQLMapStorage.this.getReadLock(uri, timeout);
+            return PostgreSQLMapStorage.this.getReadLock(this, timeout);
         }
 
         @Override
         public void releaseReadLock() {
-            PostgreSQLMapStorage.this.releaseReadLock(uri);
+            PostgreSQLMapStorage.this.releaseReadLock(this);
         }
 
         @Override
@@ -276,13 +301,13 @@ public class PostgreSQLMapStorage extends MapStorage {
         if (!super.init(core)) {
             return false;
         }
-        database = core.configuration.getString("storage/database", "dynmap");
-        hostname = core.configuration.getString("storage/hostname", "localhost");
-        port = core.configuration.getInteger("storage/port", 5432);
-        userid = core.configuration.getString("storage/userid", "dynmap");
-        password = core.configuration.getString("storage/password", "dynmap");
-        prefix = core.configuration.getString("storage/prefix", "");
-        flags = core.configuration.getString("storage/flags", "?allowReconnect=true");
+        database = config.getString("database", "dynmap");
+        hostname = config.getString("hostname", "localhost");
+        port = config.getInteger("port", 5432);
+        userid = config.getString("userid", "dynmap");
+        password = config.getString("password", "dynmap");
+        prefix = config.getString("prefix", "");
+        flags = config.getString("flags", "?allowReconnect=true");
         tableTiles = prefix + "Tiles";
         tableMaps = prefix + "Maps";
         tableFaces = prefix + "Faces";
@@ -560,6 +585,22 @@ public class PostgreSQLMapStorage extends MapStorage {
         return true;
     }
 
+    @Override
+    public synchronized RenderLeases getRenderLeases() {
+        if (leases == null) {
+            leases = new SQLRenderLeases(this, prefix + "RenderLeases", new SQLRenderLeases.ConnectionSource() {
+                public Connection getConnection() throws SQLException, StorageShutdownException {
+                    return PostgreSQLMapStorage.this.getConnection();
+                }
+
+                public void releaseConnection(Connection c, boolean err) {
+                    PostgreSQLMapStorage.this.releaseConnection(c, err);
+                }
+            });
+        }
+        return leases;
+    }
+
     private Connection getConnection() throws SQLException, StorageShutdownException {
         Connection c = null;
         if (isShutdown) throw new StorageShutdownException();
@@ -1037,6 +1078,7 @@ public class PostgreSQLMapStorage extends MapStorage {
             }
             releaseConnection(c, err);
         }
+        markerFileChanged(world);
         return !err;
     }
 
@@ -11,20 +11,135 @@ import java.io.File;
 import java.nio.charset.Charset;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLite map storage.  SQLite allows one writer at a time, but in WAL mode readers run alongside it, so connections
+ * come from two pools: a single read/write connection, and a pool of read-only connections used for tile reads, hash
+ * checks and web requests.  Tile writes are handed to a writer thread, which commits all writes queued while the
+ * previous commit ran in one transaction; each write still waits for its commit before returning.
+ */
 public class SQLiteMapStorage extends MapStorage {
     private String connectionString;
     private String databaseFile;
-    private static final int POOLSIZE = 1;    // SQLite is really not thread safe... 1 at a time works best
-    private Connection[] cpool = new Connection[POOLSIZE];
-    private long[] cpoolLastUseTS = new long[POOLSIZE];    // Time when last returned to pool
     private static final long IDLE_TIMEOUT = 60000;    // Use 60 second timeout
-    private int cpoolCount = 0;
+    private ConnectionPool writePool;   // Read/write connection: SQLite allows only one writer at a time
+    private ConnectionPool readPool;    // Read-only connections (concurrent with writer in WAL mode)
+    private static final int DEFAULT_READ_POOLSIZE = 4;
+    private static final int MAX_WRITE_BATCH = 256;
+    private final LinkedBlockingQueue<TileWrite> writeQueue = new LinkedBlockingQueue<TileWrite>();
+    private boolean writerStopped;  // Guarded by writeQueue
+    private SQLRenderLeases leases;
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
+    // Tile write waiting for the writer thread
+    private static class TileWrite {
+        final int mapkey, x, y, zoom;
+        final long hash, timestamp;
+        final int format;
+        final byte[] image;
+        final CompletableFuture<Boolean> done = new CompletableFuture<Boolean>();
+
+        TileWrite(int mapkey, int x, int y, int zoom, long hash, long timestamp, int format, byte[] image) {
+            this.mapkey = mapkey;
+            this.x = x;
+            this.y = y;
+            this.zoom = zoom;
+            this.hash = hash;
+            this.timestamp = timestamp;
+            this.format = format;
+            this.image = image;
+        }
+    }
+
+    private class ConnectionPool {
+        private final Connection[] cpool;
+        private final long[] cpoolLastUseTS;    // Time when last returned to pool
+        private final boolean readOnly;
+        private int cpoolCount = 0;
+
+        ConnectionPool(int size, boolean readOnly) {
+            cpool = new Connection[size];
+            cpoolLastUseTS = new long[size];
+            this.readOnly = readOnly;
+        }
+
+        Connection getConnection() throws SQLException, StorageShutdownException {
+            Connection c = null;
+            if (isShutdown) {
+                throw new StorageShutdownException();
+            }
+            synchronized (cpool) {
+                long now = System.currentTimeMillis();
+                while (c == null) {
+                    for (int i = 0; i < cpool.length; i++) {    // See if available connection
+                        if (cpool[i] != null) { // Found one
+                            // If in pool too long, close it and move on
+                            if ((now - cpoolLastUseTS[i]) > IDLE_TIMEOUT) {
+                                try {
+                                    cpool[i].close();
+                                } catch (SQLException x) {
+                                }
+                                cpool[i] = null;
+                                cpoolCount--;
+                            } else {    // Else, use the connection
+                                c = cpool[i];
+                                cpool[i] = null;
+                                cpoolLastUseTS[i] = now;
+                                break;
+                            }
+                        }
+                    }
+                    if (c == null) {
+                        if (cpoolCount < cpool.length) {  // Still more we can have
+                            c = readOnly ? openReadConnection() : configureConnection(DriverManager.getConnection(connectionString));
+                            cpoolCount++;
+                        } else {
+                            try {
+                                cpool.wait();
+                            } catch (InterruptedException e) {
+                                throw new SQLException("Interruped");
+                            }
+                        }
+                    }
+                }
+            }
+            return c;
+        }
+
+        void releaseConnection(Connection c, boolean err) {
+            if (c == null) return;
+            synchronized (cpool) {
+                if (!err) {  // Find slot to keep it in pool
+                    for (int i = 0; i < cpool.length; i++) {
+                        if (cpool[i] == null) {
+                            cpool[i] = c;
+                            cpoolLastUseTS[i] = System.currentTimeMillis();    // Record last use time
+                            c = null; // Mark it recovered (no close needed
+                            cpool.notifyAll();
+                            break;
+                        }
+                    }
+                }
+                if (c != null) {  // If broken, just toss it
+                    try {
+                        c.close();
+                    } catch (SQLException x) {
+                    }
+                    cpoolCount--;   // And reduce count
+                    cpool.notifyAll();
+                }
+            }
+        }
+    }
+
     public class StorageTile extends MapStorageTile {
         private Integer mapkey;
         private String uri;
@@ -49,7 +164,7 @@ public class SQLiteMapStorage extends MapStorage {
             Connection c = null;
             boolean err = false;
             try {
-                c = getConnection();
+                c = getReadConnection();
                 Statement stmt = c.createStatement();
                 //ResultSet rs = stmt.executeQuery("SELECT HashCode FROM Tiles WHERE MapID=" + mapkey + " AND x=" + x + " AND y=" + y + " AND zoom=" + zoom + ";");
                 ResultSet rs = doExecuteQuery(stmt, "SELECT HashCode FROM Tiles WHERE MapID=" + mapkey + " AND x=" + x + " AND y=" + y + " AND zoom=" + zoom + ";");
@@ -62,7 +177,7 @@ public class SQLiteMapStorage extends MapStorage {
             } catch (StorageShutdownException x) {
                 err = true;
             } finally {
-                releaseConnection(c, err);
+                releaseReadConnection(c, err);
             }
             return rslt;
         }
@@ -74,7 +189,7 @@ public class SQLiteMapStorage extends MapStorage {
             Connection c = null;
             boolean err = false;
             try {
-                c = getConnection();
+                c = getReadConnection();
                 Statement stmt = c.createStatement();
                 //ResultSet rs = stmt.executeQuery("SELECT HashCode FROM Tiles WHERE MapID=" + mapkey + " AND x=" + x + " AND y=" + y + " AND zoom=" + zoom + ";");
                 ResultSet rs = doExecuteQuery(stmt, "SELECT HashCode FROM Tiles WHERE MapID=" + mapkey + " AND x=" + x + " AND y=" + y + " AND zoom=" + zoom + ";");
@@ -90,7 +205,7 @@ public class SQLiteMapStorage extends MapStorage {
             } catch (StorageShutdownException x) {
                 err = true;
             } finally {
-                releaseConnection(c, err);
+                releaseReadConnection(c, err);
             }
             return rslt;
         }
@@ -102,7 +217,7 @@ public class SQLiteMapStorage extends MapStorage {
             Connection c = null;
             boolean err = false;
             try {
-                c = getConnection();
+                c = getReadConnection();
                 Statement stmt = c.createStatement();
                 //ResultSet rs = stmt.executeQuery("SELECT HashCode,LastUpdate,Format,Image FROM Tiles WHERE MapID=" + mapkey + " AND x=" + x + " AND y=" + y + " AND zoom=" + zoom + ";");
                 ResultSet rs = doExecuteQuery(stmt, "SELECT HashCode,LastUpdate,Format,Image,ImageLen FROM Tiles WHERE MapID=" + mapkey + " AND x=" + x + " AND y=" + y + " AND zoom=" + zoom + ";");
@@ -132,88 +247,74 @@ public class SQLiteMapStorage extends MapStorage {
             } catch (StorageShutdownException x) {
                 err = true;
             } finally {
-                releaseConnection(c, err);
+                releaseReadConnection(c, err);
             }
             return rslt;
         }
 
         @Override
-        public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
-            if (mapkey == null) return false;
+        public TileMetadata readMetadata() {
+            if (mapkey == null) return null;
+            TileMetadata rslt = null;
             Connection c = null;
             boolean err = false;
-            boolean exists = exists();
-            // If delete, and doesn't exist, quit
-            if ((encImage == null) && (!exists)) return false;
-
             try {
-                c = getConnection();
-                PreparedStatement stmt;
-                if (encImage == null) { // If delete
-                    stmt = c.prepareStatement("DELETE FROM Tiles WHERE MapID=? AND x=? and y=? AND zoom=?;");
-                    stmt.setInt(1, mapkey);
-                    stmt.setInt(2, x);
-                    stmt.setInt(3, y);
-                    stmt.setInt(4, zoom);
-                } else if (exists) {
-                    stmt = c.prepareStatement("UPDATE Tiles SET HashCode=?, LastUpdate=?, Format=?, Image=?, ImageLen=? WHERE MapID=? AND x=? and y=? AND zoom=?;");
-                    stmt.setLong(1, hash);
-                    stmt.setLong(2, timestamp);
-                    stmt.setInt(3, map.getImageFormat().getEncoding().ordinal());
-                    stmt.setBytes(4, encImage.buf);
-                    stmt.setInt(5, encImage.len);
-                    stmt.setInt(6, mapkey);
-                    stmt.setInt(7, x);
-                    stmt.setInt(8, y);
-                    stmt.setInt(9, zoom);
-                } else {
-                    stmt = c.prepareStatement("INSERT INTO Tiles (MapID,x,y,zoom,HashCode,LastUpdate,Format,Image,ImageLen) VALUES (?,?,?,?,?,?,?,?,?);");
-                    stmt.setInt(1, mapkey);
-                    stmt.setInt(2, x);
-                    stmt.setInt(3, y);
-                    stmt.setInt(4, zoom);
-                    stmt.setLong(5, hash);
-                    stmt.setLong(6, timestamp);
-                    stmt.setInt(7, map.getImageFormat().getEncoding().ordinal());
-                    stmt.setBytes(8, encImage.buf);
-                    stmt.setInt(9, encImage.len);
-                }
-                //stmt.executeUpdate();
-                doExecuteUpdate(stmt);
+                c = getReadConnection();
+                Statement stmt = c.createStatement();
+                ResultSet rs = doExecuteQuery(stmt, getTileMetadataQuery("Tiles", mapkey, x, y, zoom));
+                rslt = readTileMetadata(rs);
+                rs.close();
                 stmt.close();
-                // Signal update for zoom out
-                if (zoom == 0) {
-                    world.enqueueZoomOutUpdate(this);
-                }
             } catch (SQLException x) {
-                logSQLException("Tile write error", x);
+                logSQLException("Tile read metadata error", x);
                 err = true;
             } catch (StorageShutdownException x) {
                 err = true;
             } finally {
-                releaseConnection(c, err);
+                releaseReadConnection(c, err);
+            }
+            return rslt;
+        }
+
+        @Override
+        public boolean write(long hash, BufferOutputStream encImage, long timestamp) {
+            if (mapkey == null) return false;
+            // If delete, and doesn't exist, quit
+            if ((encImage == null) && (!exists())) return false;
+            TileWrite tw = new TileWrite(mapkey, x, y, zoom, hash, timestamp, map.getImageFormat().getEncoding().ordinal(),
+                    (encImage != null) ? Arrays.copyOf(encImage.buf, encImage.len) : null);
+            synchronized (writeQueue) {
+                if (writerStopped) return false;
+                writeQueue.add(tw);
             }
-            return !err;
+            if (!tw.done.join()) {  // Wait for commit
+                return false;
+            }
+            // Signal update for zoom out
+            if (zoom == 0) {
+                world.enqueueZoomOutUpdate(this);
+            }
+            return true;
         }
 
         @Override
         public boolean getWriteLock() {
-            return SQLiteMapStorage.this.getWriteLock(uri);
+            return SQLiteMapStorage.this.getWriteLock(this);
         }
 
         @Override
         public void releaseWriteLock() {
-            SQLiteMapStorage.this.releaseWriteLock(uri);
+            SQLiteMapStorage.this.releaseWriteLock(this);
         }
 
         @Override
         public boolean getReadLock(long timeout) {
-            return SQLiteMapStorage.this.getReadLock(uri, timeout);
+            return SQLiteMapStorage.this.getReadLock(this, timeout);
         }
 
         @Override
         public void releaseReadLock() {
-            SQLiteMapStorage.this.releaseReadLock(uri);
+            SQLiteMapStorage.this.releaseReadLock(this);
         }
 
         @Override
@@ -271,14 +372,22 @@ public class SQLiteMapStorage extends MapStorage {
             isShutdown = true;
             return false;
         }
-        File dbfile = core.getFile(core.configuration.getString("storage/dbfile", "dynmap.db"));
+        File dbfile = core.getFile(config.getString("dbfile", "dynmap.db"));
         databaseFile = dbfile.getAbsolutePath();
         connectionString = "jdbc:sqlite:" + databaseFile;
         Log.info("Opening SQLite file " + databaseFile + " as map store");
+        writePool = new ConnectionPool(1, false);
+        readPool = new ConnectionPool(Math.max(1, config.getInteger("read-connections", DEFAULT_READ_POOLSIZE)), true);
         try {
             Class.forName("org.sqlite.JDBC");
             // Initialize/update tables, if needed
-            return initializeTables();
+            if (!initializeTables()) {
+                return false;
+            }
+            Thread writer = new Thread(this::runWriter, "Dynmap SQLite writer");
+            writer.setDaemon(true);
+            writer.start();
+            return true;
         } catch (ClassNotFoundException cnfx) {
             Log.severe("SQLite-JDBC classes not found - sqlite data source not usable");
             isShutdown = true;
@@ -475,81 +584,153 @@ public class SQLiteMapStorage extends MapStorage {
         return true;
     }
 
-    private Connection getConnection() throws SQLException, StorageShutdownException {
-        Connection c = null;
-        if (isShutdown) {
-            throw new StorageShutdownException();
-        }
-        synchronized (cpool) {
-            long now = System.currentTimeMillis();
-            while (c == null) {
-                for (int i = 0; i < cpool.length; i++) {    // See if available connection
-                    if (cpool[i] != null) { // Found one
-                        // If in pool too long, close it and move on
-                        if ((now - cpoolLastUseTS[i]) > IDLE_TIMEOUT) {
-                            try {
-                                cpool[i].close();
-                            } catch (SQLException x) {
-                            }
-                            cpool[i] = null;
-                            cpoolCount--;
-                        } else {    // Else, use the connection
-                            c = cpool[i];
-                            cpool[i] = null;
-                            cpoolLastUseTS[i] = now;
-                            break;
-                        }
-                    }
+    @Override
+    public synchronized RenderLeases getRenderLeases() {
+        if (leases == null) {
+            leases = new SQLRenderLeases(this, "RenderLeases", new SQLRenderLeases.ConnectionSource() {
+                public Connection getConnection() throws SQLException, StorageShutdownException {
+                    return SQLiteMapStorage.this.getConnection();
                 }
-                if (c == null) {
-                    if (cpoolCount < POOLSIZE) {  // Still more we can have
-                        c = DriverManager.getConnection(connectionString);
-                        configureConnection(c);
-                        cpoolCount++;
-                    } else {
-                        try {
-                            cpool.wait();
-                        } catch (InterruptedException e) {
-                            throw new SQLException("Interruped");
-                        }
-                    }
+
+                public void releaseConnection(Connection c, boolean err) {
+                    SQLiteMapStorage.this.releaseConnection(c, err);
                 }
-            }
+            });
         }
-        return c;
+        return leases;
+    }
+
+    private Connection getConnection() throws SQLException, StorageShutdownException {
+        return writePool.getConnection();
+    }
+
+    private void releaseConnection(Connection c, boolean err) {
+        writePool.releaseConnection(c, err);
+    }
+
+    private Connection getReadConnection() throws SQLException, StorageShutdownException {
+        return readPool.getConnection();
+    }
+
+    private void releaseReadConnection(Connection c, boolean err) {
+        readPool.releaseConnection(c, err);
     }
 
     private static Connection configureConnection(Connection conn) throws SQLException {
         final Statement statement = conn.createStatement();
         statement.execute("PRAGMA auto_vacuum = FULL;");
         statement.execute("PRAGMA journal_mode = WAL;");
+        statement.execute("PRAGMA synchronous = NORMAL;");  // Safe with WAL: only syncs on checkpoint
         statement.close();
         return conn;
     }
 
-    private void releaseConnection(Connection c, boolean err) {
-        if (c == null) return;
-        synchronized (cpool) {
-            if (!err) {  // Find slot to keep it in pool
-                for (int i = 0; i < POOLSIZE; i++) {
-                    if (cpool[i] == null) {
-                        cpool[i] = c;
-                        cpoolLastUseTS[i] = System.currentTimeMillis();    // Record last use time
-                        c = null; // Mark it recovered (no close needed
-                        cpool.notifyAll();
-                        break;
+    private Connection openReadConnection() throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("open_mode", "1");    // SQLITE_OPEN_READONLY
+        return DriverManager.getConnection(connectionString, props);
+    }
+
+    // Writer thread: commit queued tile writes, in batches, until storage shutdown
+    private void runWriter() {
+        ArrayList<TileWrite> batch = new ArrayList<TileWrite>();
+        while (!isShutdown) {
+            try {
+                TileWrite tw = writeQueue.poll(1, TimeUnit.SECONDS);
+                if (tw == null) continue;
+                batch.add(tw);
+            } catch (InterruptedException ix) {
+                break;
+            }
+            writeQueue.drainTo(batch, MAX_WRITE_BATCH - 1);
+            try {
+                if (!writeBatch(batch)) {   // If batch failed, do them one at a time so one bad write fails alone
+                    for (TileWrite tw : batch) {
+                        tw.done.complete(writeBatch(Collections.singletonList(tw)));
+                    }
+                } else {
+                    for (TileWrite tw : batch) {
+                        tw.done.complete(true);
+                    }
+                }
+            } catch (Throwable x) { // Fail the batch, but keep writing: render threads are waiting on their writes
+                Log.severe("SQLite tile writer error", x);
+                for (TileWrite tw : batch) {
+                    tw.done.complete(false);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+        // Fail anything left
+        synchronized (writeQueue) {
+            writerStopped = true;
+            writeQueue.drainTo(batch);
+        }
+        for (TileWrite tw : batch) {
+            tw.done.complete(false);
+        }
+    }
+
+    // Write tiles in one transaction
+    private boolean writeBatch(List<TileWrite> batch) {
+        Connection c = null;
+        boolean err = false;
+        try {
+            c = getConnection();
+            c.setAutoCommit(false);
+            PreparedStatement upd = null, del = null;
+            try {
+                for (TileWrite tw : batch) {
+                    if (tw.image == null) { // If delete
+                        if (del == null) {
+                            del = c.prepareStatement("DELETE FROM Tiles WHERE MapID=? AND x=? and y=? AND zoom=?;");
+                        }
+                        del.setInt(1, tw.mapkey);
+                        del.setInt(2, tw.x);
+                        del.setInt(3, tw.y);
+                        del.setInt(4, tw.zoom);
+                        doExecuteUpdate(del);
+                    } else {
+                        if (upd == null) {
+                            upd = c.prepareStatement("INSERT OR REPLACE INTO Tiles (MapID,x,y,zoom,HashCode,LastUpdate,Format,Image,ImageLen) VALUES (?,?,?,?,?,?,?,?,?);");
+                        }
+                        upd.setInt(1, tw.mapkey);
+                        upd.setInt(2, tw.x);
+                        upd.setInt(3, tw.y);
+                        upd.setInt(4, tw.zoom);
+                        upd.setLong(5, tw.hash);
+                        upd.setLong(6, tw.timestamp);
+                        upd.setInt(7, tw.format);
+                        upd.setBytes(8, tw.image);
+                        upd.setInt(9, tw.image.length);
+                        doExecuteUpdate(upd);
                     }
                 }
+                doCommit(c);
+            } finally {
+                if (upd != null) upd.close();
+                if (del != null) del.close();
             }
-            if (c != null) {  // If broken, just toss it
+        } catch (SQLException x) {
+            logSQLException("Tile write error", x);
+            err = true;
+        } catch (StorageShutdownException x) {
+            err = true;
+        } finally {
+            if (c != null) {
                 try {
-                    c.close();
+                    if (err) {
+                        c.rollback();
+                    }
+                    c.setAutoCommit(true);
                 } catch (SQLException x) {
+                    err = true;
                 }
-                cpoolCount--;   // And reduce count
-                cpool.notifyAll();
             }
+            releaseConnection(c, err);
         }
+        return !err;
     }
 
     @Override
@@ -651,7 +832,7 @@ public class SQLiteMapStorage extends MapStorage {
             int offset = 0;
             int limit = 100;
             while (!done) {
-                c = getConnection();    // Do inside loop - single threaded sqlite will have issues otherwise....
+                c = getReadConnection();    // Do inside loop - single threaded sqlite will have issues otherwise....
                 // Query tiles for given mapkey
                 Statement stmt = c.createStatement();
                 ResultSet rs = doExecuteQuery(stmt, String.format("SELECT x,y,zoom,Format FROM Tiles WHERE MapID=%d LIMIT %d OFFSET %d;", mapkey, limit, offset));
@@ -670,7 +851,7 @@ public class SQLiteMapStorage extends MapStorage {
                 stmt.close();
                 if (cnt < limit) done = true;
                 offset += cnt;
-                releaseConnection(c, err);
+                releaseReadConnection(c, err);
                 c = null;
             }
             if (cbEnd != null)
@@ -681,7 +862,7 @@ public class SQLiteMapStorage extends MapStorage {
         } catch (StorageShutdownException x) {
             err = true;
         } finally {
-            releaseConnection(c, err);
+            releaseReadConnection(c, err);
         }
     }
 
@@ -774,7 +955,7 @@ public class SQLiteMapStorage extends MapStorage {
         boolean err = false;
         BufferInputStream image = null;
         try {
-            c = getConnection();
+            c = getReadConnection();
             PreparedStatement stmt = c.prepareStatement("SELECT Image,ImageLen FROM Faces WHERE PlayerName=? AND TypeID=?;");
             stmt.setString(1, playername);
             stmt.setInt(2, facetype.typeID);
@@ -798,7 +979,7 @@ public class SQLiteMapStorage extends MapStorage {
         } catch (StorageShutdownException x) {
             err = true;
         } finally {
-            releaseConnection(c, err);
+            releaseReadConnection(c, err);
         }
         return image;
     }
@@ -809,7 +990,7 @@ public class SQLiteMapStorage extends MapStorage {
         boolean err = false;
         boolean exists = false;
         try {
-            c = getConnection();
+            c = getReadConnection();
             PreparedStatement stmt = c.prepareStatement("SELECT TypeID FROM Faces WHERE PlayerName=? AND TypeID=?;");
             stmt.setString(1, playername);
             stmt.setInt(2, facetype.typeID);
@@ -826,7 +1007,7 @@ public class SQLiteMapStorage extends MapStorage {
         } catch (StorageShutdownException x) {
             err = true;
         } finally {
-            releaseConnection(c, err);
+            releaseReadConnection(c, err);
         }
         return exists;
     }
@@ -900,7 +1081,7 @@ public class SQLiteMapStorage extends MapStorage {
         boolean err = false;
         BufferInputStream image = null;
         try {
-            c = getConnection();
+            c = getReadConnection();
             PreparedStatement stmt = c.prepareStatement("SELECT Image,ImageLen FROM MarkerIcons WHERE IconName=?;");
             stmt.setString(1, markerid);
             //ResultSet rs = stmt.executeQuery();
@@ -923,7 +1104,7 @@ public class SQLiteMapStorage extends MapStorage {
         } catch (StorageShutdownException x) {
             err = true;
         } finally {
-            releaseConnection(c, err);
+            releaseReadConnection(c, err);
         }
         return image;
     }
@@ -984,6 +1165,7 @@ public class SQLiteMapStorage extends MapStorage {
             }
             releaseConnection(c, err);
         }
+        markerFileChanged(world);
         return !err;
     }
 
@@ -993,7 +1175,7 @@ public class SQLiteMapStorage extends MapStorage {
         boolean err = false;
         String content = null;
         try {
-            c = getConnection();
+            c = getReadConnection();
             PreparedStatement stmt = c.prepareStatement("SELECT Content FROM MarkerFiles WHERE FileName=?;");
             stmt.setString(1, world);
             //ResultSet rs = stmt.executeQuery();
@@ -1010,7 +1192,7 @@ public class SQLiteMapStorage extends MapStorage {
         } catch (StorageShutdownException x) {
             err = true;
         } finally {
-            releaseConnection(c, err);
+            releaseReadConnection(c, err);
         }
         return content;
     }
@@ -1073,6 +1255,19 @@ public class SQLiteMapStorage extends MapStorage {
         }
     }
 
+    private void doCommit(Connection c) throws SQLException {
+        while (true) {
+            try {
+                c.commit();
+                return;
+            } catch (SQLException x) {
+                if (!x.getMessage().contains("[SQLITE_BUSY]")) {
+                    throw x;
+                }
+            }
+        }
+    }
+
     private int doExecuteUpdate(Statement statement, String sql) throws SQLException {
         while (true) {
             try {
@@ -0,0 +1,54 @@
+package org.dynmap.utils;
+
+/**
+ * Box of changed blocks (inclusive world block coordinates) - used to track which part of a tile needs to be
+ * rendered again when the tile has only been invalidated by block changes.
+ */
+public class DirtyRegion {
+    public int xmin, ymin, zmin;
+    public int xmax, ymax, zmax;
+
+    /**
+     * Empty region
+     */
+    public DirtyRegion() {
+        xmin = ymin = zmin = Integer.MAX_VALUE;
+        xmax = ymax = zmax = Integer.MIN_VALUE;
+    }
+
+    public DirtyRegion(int xmin, int ymin, int zmin, int xmax, int ymax, int zmax) {
+        this.xmin = Math.min(xmin, xmax);
+        this.ymin = Math.min(ymin, ymax);
+        this.zmin = Math.min(zmin, zmax);
+        this.xmax = Math.max(xmin, xmax);
+        this.ymax = Math.max(ymin, ymax);
+        this.zmax = Math.max(zmin, zmax);
+    }
+
+    public DirtyRegion(DirtyRegion r) {
+        this(r.xmin, r.ymin, r.zmin, r.xmax, r.ymax, r.zmax);
+    }
+
+    /**
+     * Grow region to include another region
+     *
+     * @param r - region to add
+     */
+    public void union(DirtyRegion r) {
+        if (r.xmin < xmin) xmin = r.xmin;
+        if (r.ymin < ymin) ymin = r.ymin;
+        if (r.zmin < zmin) zmin = r.zmin;
+        if (r.xmax > xmax) xmax = r.xmax;
+        if (r.ymax > ymax) ymax = r.ymax;
+        if (r.zmax > zmax) zmax = r.zmax;
+    }
+
+    public boolean isEmpty() {
+        return (xmin > xmax) || (ymin > ymax) || (zmin > zmax);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + xmin + "," + ymin + "," + zmin + " - " + xmax + "," + ymax + "," + zmax + "}";
+    }
+}
@@ -1,9 +1,9 @@
 package org.dynmap.utils;
 
 import java.awt.image.*;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 
 public class DynmapBufferedImage {
     public BufferedImage buf_img;
@@ -11,14 +11,19 @@ public class DynmapBufferedImage {
     public int width;
     public int height;
 
-    /* BufferedImage cache - we use the same things a lot... */
-    private static Object lock = new Object();
-    private static HashMap<Long, LinkedList<DynmapBufferedImage>> imgcache =
-            new HashMap<Long, LinkedList<DynmapBufferedImage>>(); /* Indexed by resolution - X<<32+Y */
-    private static final int CACHE_LIMIT = 10;
+    /* BufferedImage cache - we use the same things a lot...  Kept per thread, so render threads don't contend on a
+     * shared pool: each render allocates and frees its images on its own thread.  Images freed on another thread
+     * just land in that thread's pool. */
+    private static final ThreadLocal<HashMap<Long, ArrayDeque<DynmapBufferedImage>>> imgcache =
+            ThreadLocal.withInitial(HashMap::new); /* Indexed by resolution - X<<32+Y */
+    private static final int CACHE_LIMIT = 4;   /* Per thread and resolution: enough for a render with day images */
+
+    private static long getKey(int x, int y) {
+        return ((long) x << 32) + y;
+    }
 
     /**
-     * Allocate buffered image from pool, if possible
+     * Allocate buffered image from calling thread's pool, if possible
      *
      * @param x - x dimension
      * @param y - y dimension
@@ -26,12 +31,9 @@ public class DynmapBufferedImage {
      */
     public static DynmapBufferedImage allocateBufferedImage(int x, int y) {
         DynmapBufferedImage img = null;
-        synchronized (lock) {
-            long k = (x << 16) + y;
-            LinkedList<DynmapBufferedImage> ll = imgcache.get(k);
-            if (ll != null) {
-                img = ll.poll();
-            }
+        ArrayDeque<DynmapBufferedImage> ll = imgcache.get().get(getKey(x, y));
+        if (ll != null) {
+            img = ll.poll();
         }
         if (img != null) {   /* Got it - reset it for use */
             Arrays.fill(img.argb_buf, 0);
@@ -46,24 +48,17 @@ public class DynmapBufferedImage {
     }
 
     /**
-     * Return buffered image to pool
+     * Return buffered image to calling thread's pool
      *
      * @param img - image to return to pool
      */
     public static void freeBufferedImage(DynmapBufferedImage img) {
         img.buf_img.flush();
         img.buf_img = null; /* Toss bufferedimage - seems to hold on to other memory */
-        synchronized (lock) {
-            long k = (img.width << 16) + img.height;
-            LinkedList<DynmapBufferedImage> ll = imgcache.get(k);
-            if (ll == null) {
-                ll = new LinkedList<DynmapBufferedImage>();
-                imgcache.put(k, ll);
-            }
-            if (ll.size() < CACHE_LIMIT) {
-                ll.add(img);
-                img = null;
-            }
+        ArrayDeque<DynmapBufferedImage> ll = imgcache.get().computeIfAbsent(getKey(img.width, img.height),
+                k -> new ArrayDeque<DynmapBufferedImage>());
+        if (ll.size() < CACHE_LIMIT) {
+            ll.add(img);
         }
     }
 
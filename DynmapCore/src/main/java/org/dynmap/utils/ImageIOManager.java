@@ -1,6 +1,5 @@
 package org.dynmap.utils;
 
-import com.google.common.io.Files;
 import org.dynmap.DynmapCore;
 import org.dynmap.Log;
 import org.dynmap.MapType.ImageEncoding;
@@ -9,17 +8,18 @@ import org.dynmap.storage.MapStorageTile;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.image.BufferedImage;
 import java.awt.image.DirectColorModel;
 import java.awt.image.WritableRaster;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Iterator;
 
 /**
@@ -28,10 +28,70 @@ import java.util.Iterator;
 public class ImageIOManager {
     public static String preUpdateCommand = null;
     public static String postUpdateCommand = null;
+    public static int pngCompressionLevel = PNGEncoder.DEFAULT_LEVEL;
     private static Object imageioLock = new Object();
     public static DynmapCore core;    // Injected during enableCore
 
     private static boolean did_warning = false;
+    private static WebPCodec webp;
+
+    static {
+        ImageIO.setUseCache(false); /* Don't use file cache - too small to be worth it */
+    }
+
+    /**
+     * ImageIO readers and writers of a thread, looked up once instead of on every image: the lookups go through the
+     * service registry, and the JPEG writer carries native state that is costly to set up
+     */
+    private static class Codecs {
+        ImageWriter jpegWriter;
+        ImageWriteParam jpegParam;
+        ImageReader pngReader;
+        ImageReader jpegReader;
+
+        ImageWriter getJPEGWriter() {
+            if (jpegWriter == null) {
+                Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName("jpg");
+                if (iter.hasNext()) {
+                    jpegWriter = iter.next();
+                    jpegParam = jpegWriter.getDefaultWriteParam();
+                    jpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                }
+            }
+            return jpegWriter;
+        }
+
+        // Writer failed part way - don't reuse it
+        void discardJPEGWriter() {
+            if (jpegWriter != null) {
+                jpegWriter.dispose();
+                jpegWriter = null;
+                jpegParam = null;
+            }
+        }
+
+        ImageReader getReader(ImageEncoding enc) {
+            if (enc == ImageEncoding.PNG) {
+                if (pngReader == null) {
+                    pngReader = findReader("png");
+                }
+                return pngReader;
+            } else if (enc == ImageEncoding.JPG) {
+                if (jpegReader == null) {
+                    jpegReader = findReader("jpg");
+                }
+                return jpegReader;
+            }
+            return null;
+        }
+
+        private static ImageReader findReader(String fmt) {
+            Iterator<ImageReader> iter = ImageIO.getImageReadersByFormatName(fmt);
+            return iter.hasNext() ? iter.next() : null;
+        }
+    }
+
+    private static final ThreadLocal<Codecs> codecs = ThreadLocal.withInitial(Codecs::new);
 
     private static ImageFormat validateFormat(ImageFormat fmt) {
         // If WEBP, see if supported
@@ -47,77 +107,58 @@ public class ImageIOManager {
         return fmt;
     }
 
+    private static synchronized WebPCodec getWebPCodec() {
+        if (webp == null) {
+            webp = new WebPCodec(core.getCWEBPPath(), core.getDWEBPPath(), Runtime.getRuntime().availableProcessors());
+        }
+        return webp;
+    }
+
     private static void doWEBPEncode(BufferedImage img, ImageFormat fmt, OutputStream out) throws IOException {
-        BufferOutputStream bos = new BufferOutputStream();
-
-        ImageIO.write(img, "png", bos); // Encode as PNG in buffere output stream
-        // Write to a tmp file
-        File tmpfile = File.createTempFile("pngToWebp", "png");
-        FileOutputStream fos = new FileOutputStream(tmpfile);
-        fos.write(bos.buf, 0, bos.len);
-        fos.close();
-        // Run encoder to new new temp file
-        File tmpfile2 = File.createTempFile("pngToWebp", "webp");
-        ArrayList<String> args = new ArrayList<String>();
-        args.add(core.getCWEBPPath());
-        if (fmt.getID().endsWith("-l")) {
-            args.add("-lossless");
-        }
-        args.add("-q");
-        args.add(Integer.toString((int) fmt.getQuality()));
-        args.add(tmpfile.getAbsolutePath());
-        args.add("-o");
-        args.add(tmpfile2.getAbsolutePath());
-        Process pr = Runtime.getRuntime().exec(args.toArray(new String[0]));
-        try {
-            pr.waitFor();
-        } catch (InterruptedException ix) {
-            throw new IOException("Error waiting for encoder");
-        }
-        // Read output file into output stream
-        Files.copy(tmpfile2, out);
-        out.flush();
-        // Clean up temp files
-        tmpfile.delete();
-        tmpfile2.delete();
+        getWebPCodec().encode(img, fmt, out);
     }
 
     private static BufferedImage doWEBPDecode(BufferInputStream buf) throws IOException {
-        // Write to a tmp file
-        File tmpfile = File.createTempFile("webpToPng", "webp");
-        Files.write(buf.buffer(), tmpfile);
-        // Run encoder to new new temp file
-        File tmpfile2 = File.createTempFile("webpToPng", "png");
-        String args[] = {core.getDWEBPPath(), tmpfile.getAbsolutePath(), "-o", tmpfile2.getAbsolutePath()};
-        Process pr = Runtime.getRuntime().exec(args);
-        try {
-            pr.waitFor();
-        } catch (InterruptedException ix) {
-            throw new IOException("Error waiting for encoder");
-        }
-        // Read file
-        BufferedImage obuf = ImageIO.read(tmpfile2);
-        // Clean up temp files
-        tmpfile.delete();
-        tmpfile2.delete();
-
-        return obuf;
+        return getWebPCodec().decode(buf);
     }
 
     public static BufferOutputStream imageIOEncode(BufferedImage img, ImageFormat fmt) {
+        return imageIOEncode(img, fmt, -1);
+    }
+
+    /**
+     * Encode image
+     *
+     * @param img      - image
+     * @param fmt      - image format
+     * @param pnglevel - PNG compression level (0-9), or -1 for the configured default
+     * @return encoded image, or null if error
+     */
+    public static BufferOutputStream imageIOEncode(BufferedImage img, ImageFormat fmt, int pnglevel) {
+        return imageIOEncode(img, fmt, pnglevel, new BufferOutputStream());
+    }
+
+    /**
+     * Encode image into given buffer (reset before use), so callers encoding many images can reuse one buffer
+     *
+     * @param img      - image
+     * @param fmt      - image format
+     * @param pnglevel - PNG compression level (0-9), or -1 for the configured default
+     * @param bos      - buffer for encoded image
+     * @return bos, or null if error
+     */
+    public static BufferOutputStream imageIOEncode(BufferedImage img, ImageFormat fmt, int pnglevel, BufferOutputStream bos) {
+        bos.reset();
         if (isRequiredJDKVersion(17, -1, -1)) {
-            return imageIOEncodeUnsafe(img, fmt); //we can skip Thread safety for more performance
+            return imageIOEncodeUnsafe(img, fmt, pnglevel, bos); //we can skip Thread safety for more performance
         }
         synchronized (imageioLock) {
-            return imageIOEncodeUnsafe(img, fmt);
+            return imageIOEncodeUnsafe(img, fmt, pnglevel, bos);
         }
     }
 
-    private static BufferOutputStream imageIOEncodeUnsafe(BufferedImage img, ImageFormat fmt) {
-        BufferOutputStream bos = new BufferOutputStream();
+    private static BufferOutputStream imageIOEncodeUnsafe(BufferedImage img, ImageFormat fmt, int pnglevel, BufferOutputStream bos) {
         try {
-            ImageIO.setUseCache(false); /* Don't use file cache - too small to be worth it */
-
             fmt = validateFormat(fmt);
 
             if (fmt.getEncoding() == ImageEncoding.JPG) {
@@ -130,32 +171,32 @@ public class ImageIOManager {
                 // now create the new buffer that is used ot write the image:
                 BufferedImage rgbBuffer = new BufferedImage(newCM, newRaster, false, null);
 
-                // Find a jpeg writer
-                ImageWriter writer = null;
-                Iterator<ImageWriter> iter = ImageIO.getImageWritersByFormatName("jpg");
-                if (iter.hasNext()) {
-                    writer = iter.next();
-                }
+                // Get this thread's jpeg writer
+                Codecs c = codecs.get();
+                ImageWriter writer = c.getJPEGWriter();
                 if (writer == null) {
                     Log.severe("No JPEG ENCODER - Java VM does not support JPEG encoding");
                     return null;
                 }
-                ImageWriteParam iwp = writer.getDefaultWriteParam();
-                iwp.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-                iwp.setCompressionQuality(fmt.getQuality());
+                c.jpegParam.setCompressionQuality(fmt.getQuality());
 
-                ImageOutputStream ios;
-                ios = ImageIO.createImageOutputStream(bos);
-                writer.setOutput(ios);
-
-                writer.write(null, new IIOImage(rgbBuffer, null, null), iwp);
-                writer.dispose();
+                ImageOutputStream ios = new MemoryCacheImageOutputStream(bos);
+                try {
+                    writer.setOutput(ios);
+                    writer.write(null, new IIOImage(rgbBuffer, null, null), c.jpegParam);
+                    writer.setOutput(null);
+                } catch (IOException | RuntimeException x) {
+                    c.discardJPEGWriter();
+                    throw x;
+                } finally {
+                    ios.close();    // Flushes to bos
+                }
 
                 rgbBuffer.flush();
             } else if (fmt.getEncoding() == ImageEncoding.WEBP) {
                 doWEBPEncode(img, fmt, bos);
             } else {
-                ImageIO.write(img, fmt.getFileExt(), bos); /* Write to byte array stream - prevent bogus I/O errors */
+                PNGEncoder.encode(img, (pnglevel >= 0) ? pnglevel : pngCompressionLevel, bos);
             }
         } catch (IOException iox) {
             Log.info("Error encoding image - " + iox.getMessage());
@@ -174,11 +215,21 @@ public class ImageIOManager {
     }
 
     private static BufferedImage imageIODecodeUnsafe(MapStorageTile.TileRead tr) throws IOException {
-        ImageIO.setUseCache(false); /* Don't use file cache - too small to be worth it */
         if (tr.format == ImageEncoding.WEBP) {
             return doWEBPDecode(tr.image);
         }
-        return ImageIO.read(tr.image);
+        ImageReader reader = codecs.get().getReader(tr.format);
+        if (reader == null) {   // Unknown format: let ImageIO find a reader
+            return ImageIO.read(tr.image);
+        }
+        ImageInputStream iis = new MemoryCacheImageInputStream(tr.image);
+        try {
+            reader.setInput(iis, true, true);
+            return reader.read(0);
+        } finally {
+            reader.setInput(null);
+            iis.close();
+        }
     }
 
     /**
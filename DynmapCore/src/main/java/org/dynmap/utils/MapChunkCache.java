@@ -99,6 +99,18 @@ public abstract class MapChunkCache {
      */
     public abstract boolean isEmptySection(int sx, int sy, int sz);
 
+    /**
+     * Test if brick (4 x 4 x 4 blocks) containing given block is empty (all air)
+     *
+     * @param x - block X
+     * @param y - block Y
+     * @param z - block Z
+     * @return true if known to be empty
+     */
+    public boolean isEmptyBrick(int x, int y, int z) {
+        return false;
+    }
+
     /**
      * Get cache iterator
      *
@@ -0,0 +1,338 @@
+package org.dynmap.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder for ARGB int buffers (such as {@link DynmapBufferedImage#argb_buf}).  Picks the smallest color type
+ * that holds the image exactly - indexed (1 to 8 bit, with transparency) for up to 256 colors, else RGB when fully
+ * opaque, else RGBA - and uses a reusable per-thread Deflater at the requested compression level.  Truecolor rows
+ * get the adaptive filter choice (smallest sum of absolute differences) that libpng uses.
+ */
+public class PNGEncoder {
+    /**
+     * Default compression level - same as the JDK's PNG writer
+     */
+    public static final int DEFAULT_LEVEL = 4;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_INDEXED = 3;
+    private static final int COLOR_RGBA = 6;
+    private static final int MAX_PALETTE = 256;
+    private static final int IDAT_SIZE = 65536;
+
+    // Per-thread work state: deflater, checksum, and buffers grown to the largest image seen
+    private static class WorkState {
+        final Deflater deflater = new Deflater(DEFAULT_LEVEL);
+        final CRC32 crc = new CRC32();
+        final int[] palkeys = new int[2 * MAX_PALETTE];
+        final int[] palidx = new int[2 * MAX_PALETTE];
+        final int[] palette = new int[MAX_PALETTE];
+        final byte[] chunk = new byte[IDAT_SIZE];
+        final byte[] chunkhdr = new byte[8];
+        byte[] raw = new byte[0];
+        byte[][] filtered = new byte[5][];
+        byte[] prev = new byte[0];
+    }
+
+    private static final ThreadLocal<WorkState> workstate = ThreadLocal.withInitial(WorkState::new);
+
+    private PNGEncoder() {
+    }
+
+    /**
+     * Encode image as PNG
+     *
+     * @param img   - image
+     * @param level - compression level (0-9)
+     * @param out   - output stream
+     * @throws IOException if write fails
+     */
+    public static void encode(BufferedImage img, int level, OutputStream out) throws IOException {
+        int w = img.getWidth(), h = img.getHeight();
+        int[] argb = getARGB(img);
+        if (argb == null) {
+            argb = img.getRGB(0, 0, w, h, null, 0, w);
+        }
+        encode(argb, w, h, level, out);
+    }
+
+    // Get pixel buffer, if image is backed by a plain ARGB int buffer (as DynmapBufferedImage is)
+    private static int[] getARGB(BufferedImage img) {
+        if (!img.getColorModel().equals(ColorModel.getRGBdefault())) return null;
+        Raster r = img.getRaster();
+        DataBuffer db = r.getDataBuffer();
+        if (!(db instanceof DataBufferInt) || (db.getNumBanks() != 1) || (db.getOffset() != 0)) return null;
+        if (!(r.getSampleModel() instanceof SinglePixelPackedSampleModel)) return null;
+        if ((r.getSampleModelTranslateX() != 0) || (r.getSampleModelTranslateY() != 0)) return null;
+        SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) r.getSampleModel();
+        if (sm.getScanlineStride() != img.getWidth()) return null;
+        int[] buf = ((DataBufferInt) db).getData();
+        return (buf.length >= (img.getWidth() * img.getHeight())) ? buf : null;
+    }
+
+    /**
+     * Encode ARGB buffer as PNG
+     *
+     * @param argb   - pixels, row by row
+     * @param width  - image width
+     * @param height - image height
+     * @param level  - compression level (0-9)
+     * @param out    - output stream
+     * @throws IOException if write fails
+     */
+    public static void encode(int[] argb, int width, int height, int level, OutputStream out) throws IOException {
+        WorkState ws = workstate.get();
+        int npix = width * height;
+        // Find color type: collect palette until it overflows, and check for transparency
+        boolean opaque = true;
+        int palcnt = 0;
+        Arrays.fill(ws.palkeys, 0);
+        Arrays.fill(ws.palidx, -1);
+        for (int i = 0; i < npix; i++) {
+            int c = argb[i];
+            if ((c >>> 24) != 0xFF) {
+                opaque = false;
+            }
+            if (palcnt >= 0) {
+                int slot = (c * 0x9E3779B1) >>> 23;  // 512 slots
+                while ((ws.palidx[slot] >= 0) && (ws.palkeys[slot] != c)) {
+                    slot = (slot + 1) & 0x1FF;
+                }
+                if (ws.palidx[slot] < 0) {
+                    if (palcnt == MAX_PALETTE) {
+                        palcnt = -1;    // Too many colors
+                        if (!opaque) break;
+                        continue;
+                    }
+                    ws.palkeys[slot] = c;
+                    ws.palidx[slot] = palcnt;
+                    ws.palette[palcnt++] = c;
+                }
+            }
+        }
+        if ((palcnt < 0) && opaque) {   // Finish transparency check
+            for (int i = 0; i < npix; i++) {
+                if ((argb[i] >>> 24) != 0xFF) {
+                    opaque = false;
+                    break;
+                }
+            }
+        }
+        int colortype, depth, bpp;
+        if (palcnt >= 0) {
+            colortype = COLOR_INDEXED;
+            depth = (palcnt <= 2) ? 1 : ((palcnt <= 4) ? 2 : ((palcnt <= 16) ? 4 : 8));
+            bpp = 1;
+            sortPalette(ws, palcnt);
+        } else if (opaque) {
+            colortype = COLOR_RGB;
+            depth = 8;
+            bpp = 3;
+        } else {
+            colortype = COLOR_RGBA;
+            depth = 8;
+            bpp = 4;
+        }
+        int rowbytes = ((width * bpp * depth) + 7) / 8;
+        int stride = rowbytes + 1;
+        if (ws.raw.length < (stride * height)) {
+            ws.raw = new byte[stride * height];
+        }
+        byte[] raw = ws.raw;
+        // Build filtered scanlines
+        if (colortype == COLOR_INDEXED) {
+            int ppb = 8 / depth;    // Pixels per byte
+            for (int y = 0, off = 0; y < height; y++) {
+                raw[off++] = 0; // Filter: none - filters do not help indexed images
+                int src = y * width;
+                for (int x = 0; x < width; x += ppb) {
+                    int v = 0;
+                    for (int p = 0; p < ppb; p++) {
+                        v <<= depth;
+                        if ((x + p) < width) {
+                            v |= lookup(ws, argb[src + x + p]);
+                        }
+                    }
+                    raw[off++] = (byte) v;
+                }
+            }
+        } else {
+            for (int i = 0; i < 5; i++) {
+                if ((ws.filtered[i] == null) || (ws.filtered[i].length < rowbytes)) {
+                    ws.filtered[i] = new byte[rowbytes];
+                }
+            }
+            if (ws.prev.length < rowbytes) {
+                ws.prev = new byte[rowbytes];
+            }
+            byte[] cur = ws.filtered[0];    // Unfiltered row - filter type 0
+            for (int y = 0; y < height; y++) {
+                int src = y * width;
+                for (int x = 0, o = 0; x < width; x++) {
+                    int c = argb[src + x];
+                    cur[o++] = (byte) (c >> 16);
+                    cur[o++] = (byte) (c >> 8);
+                    cur[o++] = (byte) c;
+                    if (bpp == 4) {
+                        cur[o++] = (byte) (c >>> 24);
+                    }
+                }
+                int off = y * stride;
+                int ft = (level == 0) ? 0 : chooseFilter(ws.filtered, cur, (y > 0) ? ws.prev : null, rowbytes, bpp);
+                raw[off] = (byte) ft;
+                System.arraycopy(ws.filtered[ft], 0, raw, off + 1, rowbytes);
+                System.arraycopy(cur, 0, ws.prev, 0, rowbytes);   // Keep unfiltered row as previous row
+            }
+        }
+        // Write file
+        out.write(SIGNATURE);
+        byte[] ck = ws.chunk;
+        putInt(ck, 0, width);
+        putInt(ck, 4, height);
+        ck[8] = (byte) depth;
+        ck[9] = (byte) colortype;
+        ck[10] = 0; // Compression: deflate
+        ck[11] = 0; // Filter method: adaptive
+        ck[12] = 0; // No interlace
+        writeChunk(ws, out, "IHDR", ck, 13);
+        if (colortype == COLOR_INDEXED) {
+            int ntrans = 0;
+            for (int i = 0; i < palcnt; i++) {
+                int c = ws.palette[i];
+                ck[3 * i] = (byte) (c >> 16);
+                ck[3 * i + 1] = (byte) (c >> 8);
+                ck[3 * i + 2] = (byte) c;
+                if ((c >>> 24) != 0xFF) {
+                    ntrans = i + 1;
+                }
+            }
+            writeChunk(ws, out, "PLTE", ck, 3 * palcnt);
+            if (ntrans > 0) {   // Alphas of leading palette entries (translucent ones are sorted first)
+                for (int i = 0; i < ntrans; i++) {
+                    ck[i] = (byte) (ws.palette[i] >>> 24);
+                }
+                writeChunk(ws, out, "tRNS", ck, ntrans);
+            }
+        }
+        Deflater def = ws.deflater;
+        def.reset();
+        def.setLevel(Math.max(0, Math.min(9, level)));
+        def.setInput(raw, 0, stride * height);
+        def.finish();
+        while (!def.finished()) {
+            int len = def.deflate(ck, 0, IDAT_SIZE);
+            if (len > 0) {
+                writeChunk(ws, out, "IDAT", ck, len);
+            }
+        }
+        writeChunk(ws, out, "IEND", ck, 0);
+    }
+
+    // Order palette with translucent colors first, so tRNS only covers those
+    private static void sortPalette(WorkState ws, int palcnt) {
+        int[] pal = ws.palette;
+        int[] sorted = new int[palcnt];
+        int n = 0;
+        for (int i = 0; i < palcnt; i++) {
+            if ((pal[i] >>> 24) != 0xFF) sorted[n++] = pal[i];
+        }
+        for (int i = 0; i < palcnt; i++) {
+            if ((pal[i] >>> 24) == 0xFF) sorted[n++] = pal[i];
+        }
+        for (int i = 0; i < palcnt; i++) {
+            pal[i] = sorted[i];
+            ws.palidx[findSlot(ws, pal[i])] = i;
+        }
+    }
+
+    // Find palette hash slot of color known to be in palette
+    private static int findSlot(WorkState ws, int c) {
+        int slot = (c * 0x9E3779B1) >>> 23;
+        while ((ws.palidx[slot] < 0) || (ws.palkeys[slot] != c)) {
+            slot = (slot + 1) & 0x1FF;
+        }
+        return slot;
+    }
+
+    private static int lookup(WorkState ws, int c) {
+        return ws.palidx[findSlot(ws, c)];
+    }
+
+    // Fill filtered[1..4] from row cur (filtered[0]) and previous row, and return filter with smallest sum of
+    // absolute values
+    private static int chooseFilter(byte[][] filtered, byte[] cur, byte[] prev, int rowbytes, int bpp) {
+        byte[] sub = filtered[1], up = filtered[2], avg = filtered[3], paeth = filtered[4];
+        long sumnone = 0, sumsub = 0, sumup = 0, sumavg = 0, sumpaeth = 0;
+        for (int i = 0; i < rowbytes; i++) {
+            int x = cur[i] & 0xFF;
+            int a = (i >= bpp) ? (cur[i - bpp] & 0xFF) : 0;
+            int b = (prev != null) ? (prev[i] & 0xFF) : 0;
+            int c = ((prev != null) && (i >= bpp)) ? (prev[i - bpp] & 0xFF) : 0;
+            byte vs = (byte) (x - a), vu = (byte) (x - b), va = (byte) (x - ((a + b) >> 1));
+            int p = a + b - c;
+            int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+            byte vp = (byte) (x - (((pa <= pb) && (pa <= pc)) ? a : ((pb <= pc) ? b : c)));
+            sub[i] = vs;
+            up[i] = vu;
+            avg[i] = va;
+            paeth[i] = vp;
+            sumnone += Math.abs((int) cur[i]);
+            sumsub += Math.abs((int) vs);
+            sumup += Math.abs((int) vu);
+            sumavg += Math.abs((int) va);
+            sumpaeth += Math.abs((int) vp);
+        }
+        int best = 0;
+        long bestsum = sumnone;
+        if (sumsub < bestsum) {
+            best = 1;
+            bestsum = sumsub;
+        }
+        if (sumup < bestsum) {
+            best = 2;
+            bestsum = sumup;
+        }
+        if (sumavg < bestsum) {
+            best = 3;
+            bestsum = sumavg;
+        }
+        if (sumpaeth < bestsum) {
+            best = 4;
+        }
+        return best;
+    }
+
+    private static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static void writeChunk(WorkState ws, OutputStream out, String type, byte[] data, int len) throws IOException {
+        byte[] hdr = ws.chunkhdr;
+        putInt(hdr, 0, len);
+        for (int i = 0; i < 4; i++) {
+            hdr[4 + i] = (byte) type.charAt(i);
+        }
+        CRC32 crc = ws.crc;
+        crc.reset();
+        crc.update(hdr, 4, 4);
+        crc.update(data, 0, len);
+        out.write(hdr);
+        out.write(data, 0, len);
+        putInt(hdr, 0, (int) crc.getValue());
+        out.write(hdr, 0, 4);
+    }
+}
@@ -0,0 +1,221 @@
+package org.dynmap.utils;
+
+import org.dynmap.Log;
+import org.dynmap.MapType.ImageFormat;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * WebP encoding and decoding through the cwebp and dwebp tools.  Images are streamed to the tools over stdin and
+ * stdout (falling back to temporary files for tools too old to support that), encoder input is an uncompressed PNG
+ * and decoder output is PAM, so neither side spends time on deflate.  The number of tool processes running at once
+ * is limited to the number of cores, so bursts of tile writes queue here instead of oversubscribing the CPU.
+ * <p>
+ * The tools take one image per run, so a process per image remains - what goes is the temporary file traffic and
+ * PNG compression around each run.
+ */
+public class WebPCodec {
+    private final String cwebp;
+    private final String dwebp;
+    private final Semaphore slots;
+    private volatile boolean usePipes = true;
+
+    /**
+     * Create codec
+     *
+     * @param cwebp   - path of cwebp tool (null if not available)
+     * @param dwebp   - path of dwebp tool (null if not available)
+     * @param maxproc - maximum number of tool processes running at once
+     */
+    public WebPCodec(String cwebp, String dwebp, int maxproc) {
+        this.cwebp = cwebp;
+        this.dwebp = dwebp;
+        this.slots = new Semaphore(Math.max(1, maxproc), true);
+    }
+
+    /**
+     * Encode image as WebP
+     *
+     * @param img - image
+     * @param fmt - WebP image format (quality, lossless)
+     * @param out - output stream
+     * @throws IOException if encoding fails
+     */
+    public void encode(BufferedImage img, ImageFormat fmt, OutputStream out) throws IOException {
+        BufferOutputStream png = new BufferOutputStream();
+        PNGEncoder.encode(img, 0, png); // Stored, not compressed: only the encoder reads it
+        byte[] in = new byte[png.len];
+        System.arraycopy(png.buf, 0, in, 0, png.len);
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(cwebp);
+        args.add("-quiet");
+        if (fmt.getID().endsWith("-l")) {
+            args.add("-lossless");
+        }
+        args.add("-q");
+        args.add(Integer.toString((int) fmt.getQuality()));
+        out.write(runTool(args, in, "png", "webp"));
+        out.flush();
+    }
+
+    /**
+     * Decode WebP image
+     *
+     * @param buf - encoded image
+     * @return image
+     * @throws IOException if decoding fails
+     */
+    public BufferedImage decode(BufferInputStream buf) throws IOException {
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(dwebp);
+        args.add("-quiet");
+        args.add("-pam");
+        byte[] in = buf.buffer();
+        if (in.length != buf.length()) {
+            in = Arrays.copyOf(in, buf.length());
+        }
+        return parsePAM(runTool(args, in, "webp", "pam"));
+    }
+
+    // Run tool on input, returning its output
+    private byte[] runTool(List<String> args, byte[] input, String inext, String outext) throws IOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException ix) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for WebP tool");
+        }
+        try {
+            if (usePipes) {
+                IOException pipex;
+                try {
+                    return runPiped(new ArrayList<String>(args), input);
+                } catch (IOException iox) {
+                    pipex = iox;
+                }
+                // Only give up on pipes if the same run works with files
+                byte[] rslt = runWithFiles(new ArrayList<String>(args), input, inext, outext);
+                usePipes = false;
+                Log.warning("WebP tools do not support stdin/stdout (" + pipex.getMessage() + ") - using temporary files");
+                return rslt;
+            }
+            return runWithFiles(new ArrayList<String>(args), input, inext, outext);
+        } finally {
+            slots.release();
+        }
+    }
+
+    private static byte[] runPiped(List<String> args, byte[] input) throws IOException {
+        args.add("-o");
+        args.add("-");
+        args.add("--");
+        args.add("-");
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process pr = pb.start();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            // The tools read all of their input before writing any output
+            try (OutputStream os = pr.getOutputStream()) {
+                os.write(input);
+            }
+            try (InputStream is = pr.getInputStream()) {
+                is.transferTo(bos);
+            }
+        } catch (IOException iox) {
+            pr.destroyForcibly();
+            throw iox;
+        }
+        int rc = waitFor(pr);
+        if ((rc != 0) || (bos.size() == 0)) {
+            throw new IOException("exit code " + rc);
+        }
+        return bos.toByteArray();
+    }
+
+    private static byte[] runWithFiles(List<String> args, byte[] input, String inext, String outext) throws IOException {
+        File in = File.createTempFile("dynmapWebp", "." + inext);
+        File out = File.createTempFile("dynmapWebp", "." + outext);
+        try {
+            Files.write(in.toPath(), input);
+            args.add(in.getAbsolutePath());
+            args.add("-o");
+            args.add(out.getAbsolutePath());
+            ProcessBuilder pb = new ProcessBuilder(args);
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            Process pr = pb.start();
+            pr.getOutputStream().close();   // No input on stdin
+            int rc = waitFor(pr);
+            if (rc != 0) {
+                throw new IOException("WebP tool " + args.get(0) + " failed - exit code " + rc);
+            }
+            return Files.readAllBytes(out.toPath());
+        } finally {
+            in.delete();
+            out.delete();
+        }
+    }
+
+    private static int waitFor(Process pr) throws IOException {
+        try {
+            return pr.waitFor();
+        } catch (InterruptedException ix) {
+            pr.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Error waiting for encoder");
+        }
+    }
+
+    // Parse PAM image (as written by dwebp -pam: RGB_ALPHA, 8 bit)
+    private static BufferedImage parsePAM(byte[] pam) throws IOException {
+        int w = -1, h = -1, depth = -1, maxval = -1;
+        int off = 0;
+        while (true) {
+            int eol = off;
+            while ((eol < pam.length) && (pam[eol] != '\n')) eol++;
+            if (eol >= pam.length) {
+                throw new IOException("Truncated PAM header");
+            }
+            String line = new String(pam, off, eol - off, StandardCharsets.US_ASCII).trim();
+            off = eol + 1;
+            if (line.equals("ENDHDR")) break;
+            String[] tok = line.split("\\s+");
+            if (tok.length < 2) continue;   // "P7", blank lines
+            switch (tok[0]) {
+                case "WIDTH":
+                    w = Integer.parseInt(tok[1]);
+                    break;
+                case "HEIGHT":
+                    h = Integer.parseInt(tok[1]);
+                    break;
+                case "DEPTH":
+                    depth = Integer.parseInt(tok[1]);
+                    break;
+                case "MAXVAL":
+                    maxval = Integer.parseInt(tok[1]);
+                    break;
+            }
+        }
+        if ((w <= 0) || (h <= 0) || ((depth != 3) && (depth != 4)) || (maxval != 255) || ((off + (w * h * depth)) > pam.length)) {
+            throw new IOException("Unsupported PAM image from decoder");
+        }
+        int[] argb = new int[w * h];
+        for (int i = 0; i < argb.length; i++, off += depth) {
+            int a = (depth == 4) ? (pam[off + 3] & 0xFF) : 0xFF;
+            argb[i] = (a << 24) | ((pam[off] & 0xFF) << 16) | ((pam[off + 1] & 0xFF) << 8) | (pam[off + 2] & 0xFF);
+        }
+        return DynmapBufferedImage.createBufferedImage(argb, w, h);
+    }
+}
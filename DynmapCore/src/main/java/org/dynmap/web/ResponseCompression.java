@@ -0,0 +1,216 @@
+package org.dynmap.web;
+
+import org.dynmap.ConfigurationNode;
+import org.dynmap.Log;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response compression support for the internal web server.
+ * <p>
+ * Static web assets get a pre-compressed '.gz' sibling, which the resource handler serves to clients that
+ * accept it.  Generated JSON (marker files, configuration) is compressed on demand, with the compressed
+ * form of versioned content cached until its version changes.
+ */
+public class ResponseCompression {
+    private static final String[] COMPRESSIBLE_EXTS = {".js", ".css", ".html", ".htm", ".json", ".svg", ".txt", ".xml"};
+
+    private final boolean enabled;
+    private final int minSize;
+    private final int level;
+
+    private static class CachedContent {
+        final long version;
+        final int len;
+        final byte[] gzipped;
+
+        CachedContent(long version, int len, byte[] gzipped) {
+            this.version = version;
+            this.len = len;
+            this.gzipped = gzipped;
+        }
+    }
+
+    // Compressed variants of keyed dynamic content (marker files, etc)
+    private final ConcurrentHashMap<String, CachedContent> contentCache = new ConcurrentHashMap<String, CachedContent>();
+    // Last modified time of static files whose .gz sibling is known to be current
+    private final ConcurrentHashMap<String, Long> staticCache = new ConcurrentHashMap<String, Long>();
+    // Static files we failed to write a .gz sibling for (read-only web path, etc)
+    private final ConcurrentHashMap<String, Boolean> staticFailed = new ConcurrentHashMap<String, Boolean>();
+
+    public ResponseCompression(ConfigurationNode configuration) {
+        enabled = configuration.getBoolean("webserver-compression", true);
+        minSize = configuration.getInteger("webserver-compression-min-size", 1024);
+        int lvl = configuration.getInteger("webserver-compression-level", 6);
+        if (lvl < 1) lvl = 1;
+        if (lvl > 9) lvl = 9;
+        level = lvl;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Test if request accepts gzip content encoding
+     *
+     * @param req - request
+     * @return true if gzip is acceptable
+     */
+    public static boolean acceptsGzip(HttpServletRequest req) {
+        String ae = req.getHeader(HttpField.AcceptEncoding);
+        if (ae == null) return false;
+        double gzipq = -1.0, anyq = -1.0;   // q-values of gzip and of '*' (-1 = not listed)
+        for (String tok : ae.split(",")) {
+            String[] parts = tok.trim().split(";");
+            String enc = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!enc.equals("gzip") && !enc.equals("*")) continue;
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String p = parts[i].trim();
+                if (p.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(p.substring(2));
+                    } catch (NumberFormatException nfx) {
+                    }
+                }
+            }
+            if (enc.equals("gzip")) {
+                gzipq = q;
+            } else {
+                anyq = q;
+            }
+        }
+        // An explicit gzip entry decides, else '*' does
+        return (gzipq >= 0.0) ? (gzipq > 0.0) : (anyq > 0.0);
+    }
+
+    private static boolean isCompressibleName(String name) {
+        String n = name.toLowerCase(Locale.ROOT);
+        for (String ext : COMPRESSIBLE_EXTS) {
+            if (n.endsWith(ext)) return true;
+        }
+        return false;
+    }
+
+    private static class GzipLevelOutputStream extends GZIPOutputStream {
+        GzipLevelOutputStream(OutputStream os, int level) throws IOException {
+            super(os, 8192);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Gzip given content
+     *
+     * @param buf - content buffer
+     * @param off - offset of content
+     * @param len - length of content
+     * @return compressed content
+     */
+    public byte[] gzip(byte[] buf, int off, int len) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, len / 4));
+        GZIPOutputStream gz = new GzipLevelOutputStream(baos, level);
+        gz.write(buf, off, len);
+        gz.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Write response body, compressing it if the client accepts it
+     *
+     * @param req  - request
+     * @param resp - response (content type and other headers already set)
+     * @param body - uncompressed body
+     */
+    public void writeBody(HttpServletRequest req, HttpServletResponse resp, byte[] body) throws IOException {
+        writeBody(req, resp, body, null, 0L);
+    }
+
+    /**
+     * Write response body, compressing it if the client accepts it.  If cacheKey is non-null, the compressed
+     * form is cached, and only regenerated when the version of the content for that key changes.
+     *
+     * @param req      - request
+     * @param resp     - response (content type and other headers already set)
+     * @param body     - uncompressed body
+     * @param cacheKey - key for caching compressed body (null = don't cache)
+     * @param version  - version of content (read before the content, so a change never leaves stale content cached)
+     */
+    public void writeBody(HttpServletRequest req, HttpServletResponse resp, byte[] body, String cacheKey, long version) throws IOException {
+        byte[] out = body;
+        if (enabled && (body.length >= minSize)) {
+            resp.addHeader(HttpField.Vary, HttpField.AcceptEncoding);
+            if (acceptsGzip(req)) {
+                out = getGzipped(body, cacheKey, version);
+                resp.setHeader(HttpField.ContentEncoding, "gzip");
+            }
+        }
+        resp.setContentLength(out.length);
+        resp.getOutputStream().write(out);
+    }
+
+    private byte[] getGzipped(byte[] body, String cacheKey, long version) throws IOException {
+        if (cacheKey == null) {
+            return gzip(body, 0, body.length);
+        }
+        CachedContent cc = contentCache.get(cacheKey);
+        if ((cc != null) && (cc.version == version) && (cc.len == body.length)) {
+            return cc.gzipped;
+        }
+        cc = new CachedContent(version, body.length, gzip(body, 0, body.length));
+        contentCache.put(cacheKey, cc);
+        return cc.gzipped;
+    }
+
+    /**
+     * Make sure the pre-compressed '.gz' sibling of a static file is current, so that the resource handler can
+     * serve it.  Only done for compressible file types above the minimum size.
+     *
+     * @param f - static file
+     */
+    public void updatePrecompressed(File f) {
+        if (!enabled) return;
+        String path = f.getPath();
+        if (!isCompressibleName(path)) return;
+        if (staticFailed.containsKey(path)) return;
+        long lastmod = f.lastModified();
+        if (lastmod == 0L) return;  // Missing file
+        Long done = staticCache.get(path);
+        if ((done != null) && (done.longValue() == lastmod)) return;
+        synchronized (this) {
+            done = staticCache.get(path);
+            if ((done != null) && (done.longValue() == lastmod)) return;
+            File gzf = new File(path + ".gz");
+            try {
+                if (f.length() < minSize) {
+                    gzf.delete();   // Don't leave a stale one around
+                } else if (gzf.lastModified() < lastmod) {
+                    byte[] content = Files.readAllBytes(f.toPath());
+                    byte[] gz = gzip(content, 0, content.length);
+                    File tmp = new File(path + ".gz.new");
+                    try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                        fos.write(gz);
+                    }
+                    Files.move(tmp.toPath(), gzf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    gzf.setLastModified(lastmod);
+                }
+                staticCache.put(path, lastmod);
+            } catch (IOException iox) {
+                Log.verboseinfo("Unable to write pre-compressed file for " + path + ": " + iox.getMessage());
+                staticFailed.put(path, Boolean.TRUE);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.dynmap.web;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test harness for the internal web server: replays the tile request pattern of map clients panning
+ * around a map (a burst of requests for every tile in the viewport per pan), or a list of URIs from a file,
+ * and reports latency and throughput.  Used to compare HTTP/1.1 against HTTP/2 and keep-alive settings.
+ * <p>
+ * Usage: java -cp Dynmap.jar org.dynmap.web.TileLoadTest base-url world map-prefix [options]
+ * <ul>
+ * <li>--center x,y : tile at center of first viewport (default 0,0)</li>
+ * <li>--radius n : viewport is (2n+1) x (2n+1) tiles (default 3)</li>
+ * <li>--pans n : number of pans per client (default 20)</li>
+ * <li>--clients n : number of concurrent simulated clients (default 4)</li>
+ * <li>--http2 : use HTTP/2 (h2c upgrade) instead of HTTP/1.1</li>
+ * <li>--urls file : replay URIs (relative to base-url, one per line) instead of generated pans</li>
+ * </ul>
+ */
+public class TileLoadTest {
+    private String baseURL;
+    private String world;
+    private String prefix;
+    private int centerX = 0, centerY = 0;
+    private int radius = 3;
+    private int pans = 20;
+    private int clients = 4;
+    private boolean http2 = false;
+    private List<String> replayURIs = null;
+
+    private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<Long>();
+    private final ConcurrentHashMap<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<Integer, AtomicLong>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: TileLoadTest base-url world map-prefix [--center x,y] [--radius n] [--pans n] [--clients n] [--http2] [--urls file]");
+            System.exit(1);
+        }
+        TileLoadTest t = new TileLoadTest();
+        t.baseURL = args[0].endsWith("/") ? args[0] : (args[0] + "/");
+        t.world = args[1];
+        t.prefix = args[2];
+        for (int i = 3; i < args.length; i++) {
+            switch (args[i]) {
+                case "--center":
+                    String[] xy = args[++i].split(",");
+                    t.centerX = Integer.parseInt(xy[0].trim());
+                    t.centerY = Integer.parseInt(xy[1].trim());
+                    break;
+                case "--radius":
+                    t.radius = Integer.parseInt(args[++i]);
+                    break;
+                case "--pans":
+                    t.pans = Integer.parseInt(args[++i]);
+                    break;
+                case "--clients":
+                    t.clients = Integer.parseInt(args[++i]);
+                    break;
+                case "--http2":
+                    t.http2 = true;
+                    break;
+                case "--urls":
+                    t.replayURIs = loadURIs(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+        t.run();
+    }
+
+    private static List<String> loadURIs(String file) throws IOException {
+        List<String> uris = new ArrayList<String>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if ((line.length() == 0) || line.startsWith("#")) continue;
+            uris.add(line.startsWith("/") ? line.substring(1) : line);
+        }
+        return uris;
+    }
+
+    private String tileURI(int x, int y) {
+        return "tiles/" + world + "/" + prefix + "/" + (x >> 5) + "_" + (y >> 5) + "/" + x + "_" + y + ".png";
+    }
+
+    // Build list of request bursts for one client: one burst per pan
+    private List<List<String>> buildBursts(Random rnd) {
+        List<List<String>> bursts = new ArrayList<List<String>>();
+        if (replayURIs != null) {
+            int burst = (2 * radius + 1) * (2 * radius + 1);
+            for (int i = 0; i < replayURIs.size(); i += burst) {
+                bursts.add(replayURIs.subList(i, Math.min(i + burst, replayURIs.size())));
+            }
+            return bursts;
+        }
+        int cx = centerX, cy = centerY;
+        for (int p = 0; p < pans; p++) {
+            List<String> b = new ArrayList<String>();
+            for (int dx = -radius; dx <= radius; dx++) {
+                for (int dy = -radius; dy <= radius; dy++) {
+                    b.add(tileURI(cx + dx, cy + dy));
+                }
+            }
+            bursts.add(b);
+            // Pan by up to half a viewport in each direction
+            cx += rnd.nextInt(radius + 1) - (radius / 2);
+            cy += rnd.nextInt(radius + 1) - (radius / 2);
+        }
+        return bursts;
+    }
+
+    private void runClient(int id) {
+        HttpClient client = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        for (List<String> burst : buildBursts(new Random(id))) {
+            List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+            for (String uri : burst) {
+                HttpRequest req = HttpRequest.newBuilder(URI.create(baseURL + uri)).GET().build();
+                final long start = System.nanoTime();
+                pending.add(client.sendAsync(req, HttpResponse.BodyHandlers.ofByteArray())
+                        .handle((resp, err) -> {
+                            if (err != null) {
+                                failures.incrementAndGet();
+                            } else {
+                                latencies.add(System.nanoTime() - start);
+                                bytes.addAndGet(resp.body().length);
+                                statusCounts.computeIfAbsent(resp.statusCode(), k -> new AtomicLong()).incrementAndGet();
+                            }
+                            return null;
+                        }));
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).join();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        System.out.println("Running " + clients + " client(s) against " + baseURL + " using " + (http2 ? "HTTP/2" : "HTTP/1.1"));
+        List<Thread> threads = new ArrayList<Thread>();
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            final int id = i;
+            Thread t = new Thread(() -> runClient(id), "TileLoadTest-" + i);
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        long[] lat = new long[latencies.size()];
+        int n = 0;
+        for (Long l : latencies) lat[n++] = l;
+        Arrays.sort(lat);
+        System.out.println(String.format("Requests: %d ok, %d failed in %.2f sec (%.1f req/sec, %.1f KB/sec)",
+                lat.length, failures.get(), secs, lat.length / secs, bytes.get() / 1024.0 / secs));
+        System.out.println("Status codes: " + statusCounts);
+        if (lat.length > 0) {
+            System.out.println(String.format("Latency (msec): p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                    percentile(lat, 50), percentile(lat, 90), percentile(lat, 99), lat[lat.length - 1] / 1e6));
+        }
+    }
+
+    private static double percentile(long[] sorted, int pct) {
+        int idx = (int) Math.ceil(pct / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))] / 1e6;
+    }
+}